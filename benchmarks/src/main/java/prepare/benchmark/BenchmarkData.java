@@ -0,0 +1,107 @@
+package prepare.benchmark;
+
+import prepare.common.GeneticMap;
+import prepare.common.Genotype;
+import prepare.common.Population;
+import prepare.common.Recombinator;
+import prepare.graph.Graph;
+import prepare.graph.VertexData;
+import prepare.misc.MyLogger;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Person;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Input data of the benchmarks: the pedigree_start100_end100_gen3 test data set of the project,
+ * and genotypes simulated down founder lines.
+ * The data directory is the project's test resources, unless the prepare.benchmark.data property is set
+ */
+public class BenchmarkData {
+    public static final String DATA_SET = "pedigree_start100_end100_gen3";
+    public static final long SEED = 42;
+
+    private static final String DATA_PROPERTY = "prepare.benchmark.data";
+
+    static {
+        //reconstruction logs would dominate the measured time
+        MyLogger.setLevel(MyLogger.Level.OFF);
+    }
+
+    private BenchmarkData() {
+    }
+
+    public static File dataDir() {
+        String dir = System.getProperty(DATA_PROPERTY);
+        if (dir == null) {
+            Properties properties = new Properties();
+            try (InputStream in = BenchmarkData.class.getResourceAsStream("/benchmark.properties")) {
+                properties.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed reading benchmark.properties", e);
+            }
+            dir = properties.getProperty("data.dir");
+        }
+        return new File(dir, DATA_SET);
+    }
+
+    public static String file(String name) {
+        File file = new File(dataDir(), name);
+        if (!file.exists())
+            throw new IllegalStateException("Missing benchmark data " + file + ", set -D" + DATA_PROPERTY);
+        return file.getPath();
+    }
+
+    public static List<VertexData> persons() {
+        try {
+            return Person.listFromDemographics(file("pedigree.demographics"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed reading demographics", e);
+        }
+    }
+
+    /**
+     * @return IBD graph of the living individuals
+     */
+    public static Graph ibdGraph(List<VertexData> persons) {
+        Graph graph = new Graph(persons);
+        IBDFeaturesWeight.readEdgesWeights(graph, file("pedigree.ibd"), new Population(persons));
+        return graph;
+    }
+
+    /**
+     * @return the simulated pedigree of the data set, with its living individuals
+     */
+    public static Pedigree structure() {
+        Pedigree pedigree = new Pedigree(new Population(persons()));
+        pedigree.readFromFile(file("pedigree.structure"));
+        return pedigree;
+    }
+
+    public static Recombinator recombinator() {
+        return new Recombinator(GeneticMap.getDefault(), new SplittableRandom(SEED));
+    }
+
+    /**
+     * Genotype depth meioses below founder, each generation mating with a new founder.
+     * Its first haplotype is a mosaic of founder and the depth-1 mates
+     *
+     * @param firstMateId id of the first mate founder, following mates take the following ids
+     */
+    public static Genotype descendant(Recombinator recombinator, Genotype founder, int depth, int firstMateId) {
+        Genotype genotype = founder;
+        for (int i = 0; i < depth; i++) {
+            Genotype mate = new Genotype(firstMateId + i);
+            genotype = new Genotype(recombinator.recombine(genotype, GeneticMap.Sex.MALE),
+                    recombinator.recombine(mate, GeneticMap.Sex.FEMALE));
+        }
+        return genotype;
+    }
+}
@@ -0,0 +1,275 @@
+package prepare.benchmark;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import net.sourceforge.argparse4j.inf.Subparsers;
+import prepare.common.Population;
+import prepare.evaluation.PedAccuracy;
+import prepare.misc.Metrics;
+import prepare.misc.MyLogger;
+import prepare.misc.RandomStreams;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Person;
+import prepare.pedreconstruction.PedigreeReconstructor;
+import prepare.relationship.KdeCache;
+import prepare.simulator.WrightFisherSimulator;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scaling curve of reconstruction over a ladder of simulated cohorts.
+ * generate simulates a cohort for each combination of extant population size, number of generations and
+ * monogamy rate with {@link WrightFisherSimulator}, into cohort directories n(size)_gen(generations)_mono(rate).
+ * run reconstructs the cohorts in ascending size, and records per cohort the wall time, peak heap,
+ * the pairs tested and the time of the quadratic phases (contraction, sib testing and {@link PedAccuracy}).
+ * Cohorts run in one JVM one after the other, so give it the heap of the largest cohort (-Xmx)
+ */
+public class ScalingBenchmark {
+    private static final Pattern COHORT_NAME = Pattern.compile("n(\\d+)_gen(\\d+)_mono([0-9.]+)");
+    private static final String RESULT_HEADER = "cohort,extant,generations,monogamyRate,wallMillis,peakHeapMB,"
+            + "pairsTested,pairsPruned,contractionMillis,sibTestingMillis,accuracyMillis,sensitivity,specificity";
+
+    private static Namespace parseArgs(String[] argv) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser(ScalingBenchmark.class.getSimpleName())
+                .defaultHelp(true)
+                .description("Reconstruction scaling benchmark over simulated cohorts");
+        Subparsers subparsers = parser.addSubparsers().dest("command");
+
+        Subparser generate = subparsers.addParser("generate")
+                .defaultHelp(true)
+                .help("simulate the cohort ladder, existing cohorts are kept");
+        generate.addArgument("ladderDir");
+        generate.addArgument("-sizes")
+                .type(Integer.class)
+                .nargs("+")
+                .setDefault(listOf(100, 1000, 10000, 100000))
+                .help("extant population sizes");
+        generate.addArgument("-generations")
+                .type(Integer.class)
+                .nargs("+")
+                .setDefault(listOf(3, 4, 5, 6))
+                .help("numbers of simulated generations");
+        generate.addArgument("-monogamyRates")
+                .type(Double.class)
+                .nargs("+")
+                .setDefault(listOf(1.0, 0.8))
+                .help("probabilities of a person to stay monogamous");
+        generate.addArgument("-seed")
+                .type(Long.class)
+                .setDefault(1L)
+                .help("random seed of all cohorts");
+        generate.addArgument("-threads")
+                .type(Integer.class)
+                .setDefault(Runtime.getRuntime().availableProcessors())
+                .help("number of simulation threads");
+
+        Subparser run = subparsers.addParser("run")
+                .defaultHelp(true)
+                .help("reconstruct the cohorts of a ladder, and write the scaling curve");
+        run.addArgument("ladderDir");
+        run.addArgument("-maxSize")
+                .type(Integer.class)
+                .setDefault(Integer.MAX_VALUE)
+                .help("skip cohorts with more extant individuals");
+        run.addArgument("-threads")
+                .type(Integer.class)
+                .setDefault(1)
+                .help("number of reconstruction threads");
+        run.addArgument("-minSharedCM")
+                .type(Double.class)
+                .setDefault(0.0)
+                .help("test only pairs whose descendants share more IBD (cM) than this, negative tests all pairs");
+        run.addArgument("-seed")
+                .type(Long.class)
+                .setDefault(1L)
+                .help("random seed of all reconstructions");
+        run.addArgument("-out")
+                .help("scaling curve csv, default is ladderDir/scaling.csv");
+        parser.addArgument("-log")
+                .help("log levels, a root level and prefix=level entries, e.g. warn,prepare.benchmark=info");
+        return parser.parseArgsOrFail(argv);
+    }
+
+    @SafeVarargs
+    private static <T> List<T> listOf(T... values) {
+        List<T> list = new ArrayList<>();
+        for (T value : values)
+            list.add(value);
+        return list;
+    }
+
+    static String cohortName(int size, int generations, double monogamyRate) {
+        return String.format(Locale.ROOT, "n%d_gen%d_mono%.2f", size, generations, monogamyRate);
+    }
+
+    static void generate(File ladderDir, List<Integer> sizes, List<Integer> generations, List<Double> monogamyRates,
+                         long seed, int threads) {
+        for (int size : sizes) {
+            for (int gens : generations) {
+                for (double monogamyRate : monogamyRates) {
+                    File cohortDir = new File(ladderDir, cohortName(size, gens, monogamyRate));
+                    //the binary IBD graph is the last output of the simulator
+                    if (new File(cohortDir, "pedigree.ibdg").exists()) {
+                        MyLogger.important("Cohort " + cohortDir + " exists, skipped");
+                        continue;
+                    }
+                    MyLogger.important("Simulating cohort " + cohortDir);
+                    Map<String, Object> args = new HashMap<>();
+                    args.put("outputDir", cohortDir.getPath());
+                    args.put("initPopulationSize", size);
+                    args.put("finalPopulationSize", size);
+                    args.put("numOfGenerations", gens);
+                    args.put("monogamyRate", monogamyRate);
+                    //binary IBD graphs load much faster on large cohorts
+                    args.put("binaryIbd", true);
+                    args.put("gzipIbd", false);
+                    args.put("threads", threads);
+                    args.put("coalesceSegments", false);
+                    RandomStreams.setSeed(seed);
+                    long start = System.nanoTime();
+                    new WrightFisherSimulator(new Namespace(args)).run();
+                    MyLogger.important(String.format("Simulated cohort %s in %.1fs", cohortDir, (System.nanoTime() - start) / 1e9));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return cohort directories of ladderDir, ascending by size
+     */
+    static List<File> listCohorts(File ladderDir) {
+        List<File> cohorts = new ArrayList<>();
+        File[] dirs = ladderDir.listFiles(File::isDirectory);
+        if (dirs == null)
+            throw new IllegalArgumentException("No cohort ladder in " + ladderDir);
+        for (File dir : dirs)
+            if (COHORT_NAME.matcher(dir.getName()).matches())
+                cohorts.add(dir);
+        cohorts.sort((c1, c2) -> {
+            int bySize = Integer.compare(cohortSize(c1), cohortSize(c2));
+            return bySize != 0 ? bySize : c1.getName().compareTo(c2.getName());
+        });
+        return cohorts;
+    }
+
+    private static Matcher parseName(File cohortDir) {
+        Matcher matcher = COHORT_NAME.matcher(cohortDir.getName());
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Not a cohort directory " + cohortDir);
+        return matcher;
+    }
+
+    static int cohortSize(File cohortDir) {
+        return Integer.parseInt(parseName(cohortDir).group(1));
+    }
+
+    static void run(File ladderDir, int maxSize, int threads, double minSharedCM, long seed, File out) throws IOException {
+        try (PrintWriter results = new PrintWriter(new FileWriter(out))) {
+            results.println(RESULT_HEADER);
+            results.flush();
+            for (File cohortDir : listCohorts(ladderDir)) {
+                if (cohortSize(cohortDir) > maxSize)
+                    continue;
+                try {
+                    results.println(runCohort(cohortDir, threads, minSharedCM, seed));
+                    results.flush();
+                } catch (OutOfMemoryError e) {
+                    //larger cohorts will not fit either
+                    MyLogger.error("Out of memory reconstructing " + cohortDir + ", stopping the ladder");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reconstruct cohort, from a cold density cache as in a new run
+     *
+     * @return result csv row
+     */
+    static String runCohort(File cohortDir, int threads, double minSharedCM, long seed) throws IOException {
+        Matcher name = parseName(cohortDir);
+        int simulatedGenerations = Integer.parseInt(name.group(2));
+        File binaryIbd = new File(cohortDir, "pedigree.ibdg");
+        String ibdFile = (binaryIbd.exists() ? binaryIbd : new File(cohortDir, "pedigree.ibd")).getPath();
+        String demographicsFile = new File(cohortDir, "pedigree.demographics").getPath();
+        String outPref = new File(cohortDir, "reconstructed.").getPath();
+
+        RandomStreams.setSeed(seed);
+        KdeCache.setShared(new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
+        System.gc();
+        resetPeakHeap();
+        MyLogger.important("Reconstructing cohort " + cohortDir);
+        long start = System.nanoTime();
+        //the founder generation is not reconstructed
+        PedigreeReconstructor reconstructor = new PedigreeReconstructor(ibdFile, demographicsFile, outPref,
+                false, false, simulatedGenerations - 1);
+        reconstructor.setThreads(threads);
+        reconstructor.setMinSharedCM(minSharedCM);
+        Pedigree reconstructed = reconstructor.reconstruct();
+        double wallMillis = (System.nanoTime() - start) / 1e6;
+        double peakHeapMB = peakHeap() / (1024.0 * 1024.0);
+        Metrics metrics = Metrics.getShared();
+
+        Pedigree simulated = new Pedigree(new Population(Person.listFromDemographics(demographicsFile)));
+        simulated.readFromFile(new File(cohortDir, "pedigree.structure").getPath());
+        PedAccuracy accuracy = new PedAccuracy();
+        long accuracyStart = System.nanoTime();
+        accuracy.calcAccuracy(reconstructed, simulated);
+        double accuracyMillis = (System.nanoTime() - accuracyStart) / 1e6;
+
+        return String.format(Locale.ROOT, "%s,%d,%d,%s,%.1f,%.1f,%d,%d,%.1f,%.1f,%.1f,%.4f,%.4f",
+                cohortDir.getName(), cohortSize(cohortDir), simulatedGenerations, name.group(3), wallMillis, peakHeapMB,
+                metrics.getCount(Metrics.Counter.PAIRS_TESTED), metrics.getCount(Metrics.Counter.PAIRS_PRUNED),
+                metrics.getWallMillis(Metrics.Phase.CONTRACTION), metrics.getWallMillis(Metrics.Phase.SIB_TESTING),
+                accuracyMillis, accuracy.getSensitivity(), accuracy.getSpecificity());
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+    }
+
+    /**
+     * @return sum of the peak usages of the heap pools since {@link #resetPeakHeap}, an upper bound of the peak heap
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    public static void main(String[] argv) throws IOException {
+        Namespace args = parseArgs(argv);
+        if (args.getString("log") != null)
+            MyLogger.configure(args.getString("log"));
+        File ladderDir = new File(args.getString("ladderDir"));
+        if (args.getString("command").equals("generate")) {
+            generate(ladderDir, args.getList("sizes"), args.getList("generations"), args.getList("monogamyRates"),
+                    args.getLong("seed"), args.getInt("threads"));
+        } else {
+            File out = args.getString("out") != null ? new File(args.getString("out")) : new File(ladderDir, "scaling.csv");
+            run(ladderDir, args.getInt("maxSize"), args.getInt("threads"), args.getDouble("minSharedCM"),
+                    args.getLong("seed"), out);
+            MyLogger.important("Wrote scaling curve " + out);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package prepare.common;
+
+import org.openjdk.jmh.annotations.*;
+import prepare.benchmark.BenchmarkData;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meiosis and IBD segment detection, on genotypes depth meioses below a common founder.
+ * Deeper genotypes are mosaics of more founders, so they have more regions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecombinationBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int depth;
+
+    private Recombinator recombinator;
+    private Genotype genotype;
+    private Haplotype hap1;
+    private Haplotype hap2;
+
+    @Setup
+    public void setup() {
+        recombinator = BenchmarkData.recombinator();
+        Genotype founder = new Genotype(1);
+        genotype = BenchmarkData.descendant(recombinator, founder, depth, 100);
+        hap1 = genotype.getHap1();
+        hap2 = BenchmarkData.descendant(recombinator, founder, depth, 200).getHap1();
+    }
+
+    @Benchmark
+    public Haplotype recombine() {
+        return genotype.recombine();
+    }
+
+    @Benchmark
+    public PackedHaplotype recombinePacked() {
+        return recombinator.recombine(genotype, GeneticMap.Sex.AVERAGED);
+    }
+
+    @Benchmark
+    public List<HapRegion> getIBDSegments() {
+        return hap1.getIBDSegments(hap2);
+    }
+}
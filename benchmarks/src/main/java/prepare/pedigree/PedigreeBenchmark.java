@@ -0,0 +1,65 @@
+package prepare.pedigree;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import prepare.benchmark.BenchmarkData;
+import prepare.common.Recombinator;
+import prepare.pedigree.Pedigree.PedVertex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulation and ancestry queries on the simulated pedigree of the test data set (330 individuals, 100 living)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PedigreeBenchmark {
+
+    private Pedigree pedigree;
+    private Recombinator recombinator;
+    private int[][] livingPairs;
+    private int nextPair;
+
+    @Setup
+    public void setup() {
+        pedigree = BenchmarkData.structure();
+        recombinator = BenchmarkData.recombinator();
+        List<PedVertex> living = pedigree.getLiving();
+        livingPairs = new int[living.size() * (living.size() - 1) / 2][];
+        int k = 0;
+        for (int i = 0; i < living.size(); i++)
+            for (int j = i + 1; j < living.size(); j++)
+                livingPairs[k++] = new int[]{living.get(i).getId(), living.get(j).getId()};
+    }
+
+    @Benchmark
+    public void simulateRecombinations() {
+        pedigree.simulateRecombinations(recombinator);
+    }
+
+    /**
+     * One pair query, once the ancestries are memoized
+     */
+    @Benchmark
+    public List<int[]> getCommonAncestorDepths() {
+        int[] pair = livingPairs[nextPair];
+        nextPair = (nextPair + 1) % livingPairs.length;
+        return pedigree.getCommonAncestorDepths(pair[0], pair[1]);
+    }
+
+    /**
+     * All living pairs of a clone, that has no memoized ancestries
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void getCommonAncestorDepthsAllPairsCold(Blackhole blackhole) {
+        Pedigree clone = new Pedigree(pedigree);
+        for (int[] pair : livingPairs)
+            blackhole.consume(clone.getCommonAncestorDepths(pair[0], pair[1]));
+    }
+}
@@ -0,0 +1,50 @@
+package prepare.pedreconstruction;
+
+import org.openjdk.jmh.annotations.*;
+import prepare.benchmark.BenchmarkData;
+import prepare.common.Genotype;
+import prepare.common.Recombinator;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IBD features of a pair of genotypes, first cousins to 4th cousins by depth
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IBDFeaturesWeightBenchmark {
+
+    @Param({"2", "5"})
+    public int depth;
+
+    @Param({"false", "true"})
+    public boolean phased;
+
+    private Genotype g1;
+    private Genotype g2;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() {
+        Recombinator recombinator = BenchmarkData.recombinator();
+        Genotype founder = new Genotype(1);
+        g1 = BenchmarkData.descendant(recombinator, founder, depth, 100);
+        g2 = BenchmarkData.descendant(recombinator, founder, depth, 200);
+        random = new SplittableRandom(BenchmarkData.SEED);
+    }
+
+    @Benchmark
+    public IBDFeaturesWeight calcIBDFeatureWeight() {
+        return IBDFeaturesWeight.calcIBDFeatureWeight(g1, g2, false, phased, random);
+    }
+
+    @Benchmark
+    public IBDFeaturesWeight calcIBDFeatureWeightWithNoise() {
+        return IBDFeaturesWeight.calcIBDFeatureWeight(g1, g2, true, phased, random);
+    }
+}
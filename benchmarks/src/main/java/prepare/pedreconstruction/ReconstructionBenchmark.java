@@ -0,0 +1,54 @@
+package prepare.pedreconstruction;
+
+import org.openjdk.jmh.annotations.*;
+import prepare.benchmark.BenchmarkData;
+import prepare.misc.RandomStreams;
+import prepare.pedigree.Pedigree;
+import prepare.relationship.KdeCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end reconstruction of 3 generations of the test data set, from a cold density cache as in a new run
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReconstructionBenchmark {
+
+    private File outDir;
+    private String outPref;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        outDir = Files.createTempDirectory("reconstruction-benchmark").toFile();
+        outPref = outDir.getPath() + File.separator + "reconstructed.";
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        RandomStreams.setSeed(BenchmarkData.SEED);
+        KdeCache.setShared(new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutput() {
+        File[] files = outDir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        outDir.delete();
+    }
+
+    @Benchmark
+    public Pedigree reconstruct() {
+        return new PedigreeReconstructor(BenchmarkData.file("pedigree.ibd"), BenchmarkData.file("pedigree.demographics"),
+                outPref, false, false, 3).reconstruct();
+    }
+}
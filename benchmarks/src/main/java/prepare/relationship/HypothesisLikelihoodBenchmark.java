@@ -0,0 +1,92 @@
+package prepare.relationship;
+
+import org.openjdk.jmh.annotations.*;
+import prepare.benchmark.BenchmarkData;
+import prepare.common.Population;
+import prepare.graph.Graph;
+import prepare.graph.VertexData;
+import prepare.misc.RandomStreams;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.PedigreeOverlay;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Likelihood of each hypothesis tested by {@link SibHypothesisTester}, for the full sibs 414 and 464
+ * of the first reconstructed generation.
+ * With a warm cache the feature densities are looked up, with a cold cache they are simulated
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HypothesisLikelihoodBenchmark {
+    private static final int ID1 = 414;
+    private static final int ID2 = 464;
+
+    public enum Hypothesis {UNRELATED, SIB, HALF_SIB, COUSIN, AVUNCULAR, PARENT}
+
+    @Param
+    public Hypothesis hypothesis;
+
+    @Param({"warm", "cold"})
+    public String cache;
+
+    private Graph ibdGraph;
+    private Map<Integer, Integer> idConversion;
+    private PedigreeOverlay pedigree;
+    private List<PedVertex> descendants1;
+    private List<PedVertex> descendants2;
+    private PedLikelihoodCalcInheritancePaths lCalc;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RandomStreams.setSeed(BenchmarkData.SEED);
+        List<VertexData> persons = BenchmarkData.persons();
+        ibdGraph = BenchmarkData.ibdGraph(persons);
+        Pedigree ped = new Pedigree(new Population(persons));
+
+        idConversion = new HashMap<>();
+        Pedigree relevantPed = ped.extractSubPedigreeNoConversion(ped.getVertex(ID1), ped.getVertex(ID2), idConversion);
+        descendants1 = relevantPed.getDescendants(ID1);
+        descendants2 = relevantPed.getDescendants(ID2);
+        pedigree = createHypothesis(new SibHypothesisTester(ibdGraph, false, false), relevantPed);
+        lCalc = new PedLikelihoodCalcInheritancePaths(50, false, new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        if (cache.equals("cold"))
+            lCalc = new PedLikelihoodCalcInheritancePaths(50, false, new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
+    }
+
+    private PedigreeOverlay createHypothesis(RelationHypothesisTester tester, Pedigree relevantPed) {
+        switch (hypothesis) {
+            case UNRELATED:
+                return tester.unrelatedHypothesis(relevantPed);
+            case SIB:
+                return tester.sibHypothesis(relevantPed, ID1, ID2);
+            case HALF_SIB:
+                return tester.halfSibHypothesis(relevantPed, ID1, ID2);
+            case COUSIN:
+                return tester.cousinHypothesis(relevantPed, ID1, ID2);
+            case AVUNCULAR:
+                return tester.avuncularHypothesis(relevantPed, ID1, ID2);
+            case PARENT:
+                return tester.parentHypothesis(relevantPed, ID1, ID2, -2);
+            default:
+                throw new IllegalArgumentException("Unknown hypothesis " + hypothesis);
+        }
+    }
+
+    @Benchmark
+    public double calcLikelihood() {
+        return lCalc.calcLikelihood(pedigree, ibdGraph, idConversion, descendants1, descendants2);
+    }
+}
@@ -16,9 +16,12 @@ def main():
     python prepare.py simulate_pedigree
     python prepare.py calculate_ibd_loss
     python prepare.py compare_pedigrees
+    python prepare.py precompute_kde_store
+    python prepare.py convert_ibd
     """
     parser = argparse.ArgumentParser(description=__doc__, prog=sys.argv[0])
-    parser.add_argument('program', choices=['pedigree_reconstruction', 'simulate_pedigree', 'calculate_ibd_loss', 'compare_pedigrees'])
+    parser.add_argument('program', choices=['pedigree_reconstruction', 'simulate_pedigree', 'calculate_ibd_loss', 'compare_pedigrees',
+                                            'precompute_kde_store', 'convert_ibd'])
 
     known_args, specific_arg_arr = parser.parse_known_args(sys.argv[1:])
     program = known_args.program
@@ -32,6 +35,10 @@ def main():
         command = generate_command('prepare.evaluation.PedigreeIBDLossCalculator', specific_arg_arr)
     elif program == 'compare_pedigrees':
         command = generate_command('prepare.evaluation.PedigreeMinDistanceScorer', specific_arg_arr)
+    elif program == 'precompute_kde_store':
+        command = generate_command('prepare.relationship.KdeStorePrecomputer', specific_arg_arr)
+    elif program == 'convert_ibd':
+        command = generate_command('prepare.pedreconstruction.IBDGraphFile', specific_arg_arr)
 
     print(command)
     os.system(command)
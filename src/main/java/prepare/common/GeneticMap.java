@@ -0,0 +1,243 @@
+package prepare.common;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import prepare.misc.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Sex specific genetic maps of the autosomes, as piecewise linear functions between physical (bp)
+ * and genetic (cM) positions. Conversions in both directions are binary searches over the map markers.
+ * <p>
+ * Map files are whitespace separated, one marker per line:
+ * <pre>
+ * chr position cM                  (sex averaged map)
+ * chr position maleCM femaleCM     (sex specific map)
+ * </pre>
+ * Chromosomes may be given as "chr1" or "1", non autosomal markers and lines that do not start with
+ * a chromosome (headers, comments) are skipped. Chromosomes missing from the file get the uniform map.
+ * Immutable, so a single map is shared by all threads.
+ */
+public class GeneticMap {
+    private static final Log LOG = Log.get(GeneticMap.class);
+
+    private static final int NUM_OF_CHROMOSOMES = 22;
+    //uniform map rate: 1cM per Mb
+    private static final double CM_PER_BP = 1e-6;
+
+    private static volatile GeneticMap defaultMap = uniform();
+
+    //indexed by [chr][sex]
+    private final ChrMap[][] chrMaps;
+    private final String name;
+    private final long fingerprint;
+
+    public enum Sex {
+        MALE, FEMALE, AVERAGED;
+
+        /**
+         * @param gender true==female, as {@link prepare.pedigree.Person#getGender()}
+         */
+        public static Sex of(boolean gender) {
+            return gender ? FEMALE : MALE;
+        }
+    }
+
+    private GeneticMap(ChrMap[][] chrMaps, String name) {
+        this.chrMaps = chrMaps;
+        this.name = name;
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++) {
+            for (ChrMap chrMap : chrMaps[chr]) {
+                hasher.putInt(chrMap.positions.length);
+                for (int i = 0; i < chrMap.positions.length; i++)
+                    hasher.putInt(chrMap.positions[i]).putDouble(chrMap.cM[i]);
+            }
+        }
+        fingerprint = hasher.hash().asLong();
+    }
+
+    /**
+     * Map used by recombination simulations
+     */
+    public static GeneticMap getDefault() {
+        return defaultMap;
+    }
+
+    public static void setDefault(GeneticMap map) {
+        defaultMap = map;
+    }
+
+    /**
+     * Uniform map of 1cM per Mb over {@link HumanGenome} chromosome lengths, for both sexes
+     */
+    public static GeneticMap uniform() {
+        ChrMap[][] chrMaps = new ChrMap[NUM_OF_CHROMOSOMES + 1][];
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++)
+            chrMaps[chr] = uniformChrMaps(chr);
+        return new GeneticMap(chrMaps, "uniform");
+    }
+
+    private static ChrMap[] uniformChrMaps(int chr) {
+        int length = HumanGenome.getChrLength(chr);
+        ChrMap uniform = new ChrMap(new int[]{0, length}, new double[]{0, length * CM_PER_BP});
+        return new ChrMap[]{uniform, uniform, uniform};
+    }
+
+    public static GeneticMap load(File file) {
+        Map<Integer, List<String[]>> markers = new TreeMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens.length < 3)
+                    continue;
+                String chrStr = tokens[0].toLowerCase().startsWith("chr") ? tokens[0].substring(3) : tokens[0];
+                int chr;
+                try {
+                    chr = Integer.parseInt(chrStr);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (chr < 1 || chr > NUM_OF_CHROMOSOMES)
+                    continue;
+                markers.computeIfAbsent(chr, k -> new ArrayList<>()).add(tokens);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed reading genetic map " + file, e);
+        }
+
+        ChrMap[][] chrMaps = new ChrMap[NUM_OF_CHROMOSOMES + 1][];
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++) {
+            List<String[]> chrMarkers = markers.get(chr);
+            if (chrMarkers == null) {
+                LOG.warn("Genetic map {} has no markers on chromosome {}, using uniform map", file, chr);
+                chrMaps[chr] = uniformChrMaps(chr);
+                continue;
+            }
+            int[] positions = new int[chrMarkers.size()];
+            double[] male = new double[chrMarkers.size()];
+            double[] female = new double[chrMarkers.size()];
+            double[] averaged = new double[chrMarkers.size()];
+            for (int i = 0; i < chrMarkers.size(); i++) {
+                String[] tokens = chrMarkers.get(i);
+                positions[i] = Integer.parseInt(tokens[1]);
+                male[i] = Double.parseDouble(tokens[2]);
+                female[i] = tokens.length > 3 ? Double.parseDouble(tokens[3]) : male[i];
+                averaged[i] = (male[i] + female[i]) / 2;
+                if (i > 0 && (positions[i] <= positions[i - 1] || male[i] < male[i - 1] || female[i] < female[i - 1]))
+                    throw new IllegalArgumentException("Genetic map " + file + " is not increasing on chromosome " + chr
+                            + " at position " + positions[i]);
+            }
+            chrMaps[chr] = new ChrMap[]{new ChrMap(positions, male), new ChrMap(positions, female), new ChrMap(positions, averaged)};
+        }
+        GeneticMap map = new GeneticMap(chrMaps, file.getName());
+        LOG.important("Loaded {}", map);
+        return map;
+    }
+
+    /**
+     * @return hash of the markers of all chromosomes and sexes, equal for maps of the same markers.
+     * Saved with simulation results, that are only valid for the map they were simulated with
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return genetic position (cM) of bp on chr, clamped to the mapped region
+     */
+    public double toCM(int chr, int bp, Sex sex) {
+        return chrMaps[chr][sex.ordinal()].toCM(bp);
+    }
+
+    /**
+     * @return physical position (bp) of cM on chr, clamped to the mapped region
+     */
+    public int toBp(int chr, double cM, Sex sex) {
+        return chrMaps[chr][sex.ordinal()].toBp(cM);
+    }
+
+    /**
+     * @return genetic position (cM) of the first marker of chr
+     */
+    public double getStartCM(int chr, Sex sex) {
+        return chrMaps[chr][sex.ordinal()].cM[0];
+    }
+
+    /**
+     * @return genetic position (cM) of the last marker of chr
+     */
+    public double getEndCM(int chr, Sex sex) {
+        ChrMap chrMap = chrMaps[chr][sex.ordinal()];
+        return chrMap.cM[chrMap.cM.length - 1];
+    }
+
+    public double getLengthCM(int chr, Sex sex) {
+        return getEndCM(chr, sex) - getStartCM(chr, sex);
+    }
+
+    @Override
+    public String toString() {
+        double male = 0;
+        double female = 0;
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++) {
+            male += getLengthCM(chr, Sex.MALE);
+            female += getLengthCM(chr, Sex.FEMALE);
+        }
+        return String.format("GeneticMap{%s, male=%.1fcM, female=%.1fcM}", name, male, female);
+    }
+
+    private static class ChrMap {
+        private final int[] positions;
+        private final double[] cM;
+
+        ChrMap(int[] positions, double[] cM) {
+            this.positions = positions;
+            this.cM = cM;
+        }
+
+        double toCM(int bp) {
+            if (bp <= positions[0])
+                return cM[0];
+            if (bp >= positions[positions.length - 1])
+                return cM[cM.length - 1];
+            //first marker after bp
+            int lo = 1;
+            int hi = positions.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (positions[mid] > bp)
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            double fraction = (bp - positions[lo - 1]) / (double) (positions[lo] - positions[lo - 1]);
+            return cM[lo - 1] + fraction * (cM[lo] - cM[lo - 1]);
+        }
+
+        int toBp(double geneticPosition) {
+            if (geneticPosition <= cM[0])
+                return positions[0];
+            if (geneticPosition >= cM[cM.length - 1])
+                return positions[positions.length - 1];
+            //first marker with a larger genetic position, so the interval has a positive rate
+            int lo = 1;
+            int hi = cM.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cM[mid] > geneticPosition)
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            double fraction = (geneticPosition - cM[lo - 1]) / (cM[lo] - cM[lo - 1]);
+            return positions[lo - 1] + (int) Math.round(fraction * (positions[lo] - positions[lo - 1]));
+        }
+    }
+}
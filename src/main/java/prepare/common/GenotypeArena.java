@@ -0,0 +1,154 @@
+package prepare.common;
+
+import prepare.common.GeneticMap.Sex;
+
+import java.util.Arrays;
+
+/**
+ * Genotypes of one generation, held in a few packed region buffers instead of two {@link PackedHaplotype}s
+ * per individual.
+ * <p>
+ * Individuals are split into consecutive chunks of at most {@link #MAX_CHUNK_INDIVIDUALS}. The haplotypes of the
+ * individuals of a chunk are stored one after the other in the region buffer of the chunk, so different threads
+ * may fill different chunks, and no buffer grows too large to reallocate.
+ * {@link #reset} keeps the buffers, so a simulation that swaps two arenas between generations allocates only while
+ * the number of regions grows, and its genotypes take about 20 bytes per region plus 8 bytes per haplotype.
+ * With coalesce, a region that continues the previous region of the haplotype with the same founder haplotype
+ * is merged into it. Such regions come from crossovers between parental haplotypes of the same founder, so coalescing
+ * saves regions in small or inbred populations.
+ */
+public final class GenotypeArena {
+    private static final int MAX_CHUNK_INDIVIDUALS = 1 << 10;
+    //bytes of a region: start, end and ancestry
+    private static final int REGION_BYTES = 8 + 8 + 4;
+
+    private final int minChunks;
+    private final boolean coalesce;
+    private PackedHaplotype[] chunks = new PackedHaplotype[0];
+    private int numOfChunks;
+    private int numOfIndividuals;
+    private int chunkSize = 1;
+    //regions [hapFrom[h], hapTo[h]) of the chunk buffer hold haplotype h, which is 2i or 2i+1 of individual i
+    private int[] hapFrom = new int[0];
+    private int[] hapTo = new int[0];
+
+    /**
+     * @param minChunks split individuals into at least minChunks chunks, e.g. one per task filling the arena
+     */
+    public GenotypeArena(int minChunks, boolean coalesce) {
+        this.minChunks = Math.max(1, minChunks);
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * Remove all genotypes, and make room for numOfIndividuals genotypes. Region buffers are kept for reuse
+     *
+     * @param expectedRegions expected number of regions of all genotypes, buffers are sized in advance
+     *                        for a few more regions
+     */
+    public void reset(int numOfIndividuals, long expectedRegions) {
+        this.numOfIndividuals = numOfIndividuals;
+        numOfChunks = Math.max(minChunks, (numOfIndividuals + MAX_CHUNK_INDIVIDUALS - 1) / MAX_CHUNK_INDIVIDUALS);
+        chunkSize = Math.max(1, (numOfIndividuals + numOfChunks - 1) / numOfChunks);
+        if (chunks.length < numOfChunks) {
+            int oldLength = chunks.length;
+            chunks = Arrays.copyOf(chunks, numOfChunks);
+            for (int c = oldLength; c < numOfChunks; c++)
+                chunks[c] = PackedHaplotype.buffer(0);
+        }
+        for (int c = 0; c < numOfChunks; c++) {
+            chunks[c].clear();
+            long chunkRegions = expectedRegions * (chunkTo(c) - chunkFrom(c)) / Math.max(1, numOfIndividuals);
+            chunkRegions += chunkRegions / 16;
+            chunks[c].ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, chunkRegions));
+        }
+        //chunks beyond numOfChunks are not used, and released
+        for (int c = numOfChunks; c < chunks.length; c++)
+            chunks[c] = PackedHaplotype.buffer(0);
+        if (hapFrom.length < 2 * numOfIndividuals) {
+            hapFrom = new int[2 * numOfIndividuals];
+            hapTo = new int[2 * numOfIndividuals];
+        }
+    }
+
+    public int size() {
+        return numOfIndividuals;
+    }
+
+    public int getNumOfChunks() {
+        return numOfChunks;
+    }
+
+    /**
+     * @return first individual of chunk
+     */
+    public int chunkFrom(int chunk) {
+        return Math.min(numOfIndividuals, chunk * chunkSize);
+    }
+
+    /**
+     * @return individual after the last individual of chunk
+     */
+    public int chunkTo(int chunk) {
+        return Math.min(numOfIndividuals, (chunk + 1) * chunkSize);
+    }
+
+    public void setFounder(int individual, int founderId) {
+        PackedHaplotype chunk = chunkOf(individual);
+        for (int hap = 1; hap <= 2; hap++) {
+            int h = 2 * individual + hap - 1;
+            hapFrom[h] = chunk.size();
+            chunk.addFounderRegions(founderId, hap);
+            hapTo[h] = chunk.size();
+        }
+    }
+
+    /**
+     * Set haplotype hap (1 or 2) of individual to a gamete of parent of the parents arena.
+     * Called by {@link Recombinator#recombine(GenotypeArena, int, Sex, GenotypeArena, int, int)}
+     */
+    void setRecombinant(int individual, int hap, GenotypeArena parents, int parent,
+                        long[] crossovers, int numOfCrossovers, int startOnHap1) {
+        PackedHaplotype chunk = chunkOf(individual);
+        PackedHaplotype parentChunk = parents.chunkOf(parent);
+        int h = 2 * individual + hap - 1;
+        hapFrom[h] = chunk.size();
+        PackedHaplotype.recombine(parentChunk, parents.hapFrom[2 * parent], parents.hapTo[2 * parent],
+                parentChunk, parents.hapFrom[2 * parent + 1], parents.hapTo[2 * parent + 1],
+                crossovers, numOfCrossovers, startOnHap1, chunk, coalesce);
+        hapTo[h] = chunk.size();
+    }
+
+    /**
+     * @return a copy of the genotype of individual
+     */
+    public Genotype getGenotype(int individual) {
+        PackedHaplotype chunk = chunkOf(individual);
+        int h = 2 * individual;
+        return new Genotype(chunk.copyOf(hapFrom[h], hapTo[h]), chunk.copyOf(hapFrom[h + 1], hapTo[h + 1]));
+    }
+
+    /**
+     * @return number of regions of all genotypes
+     */
+    public long getNumOfRegions() {
+        long regions = 0;
+        for (int c = 0; c < numOfChunks; c++)
+            regions += chunks[c].size();
+        return regions;
+    }
+
+    /**
+     * @return bytes allocated for regions and haplotype offsets
+     */
+    public long getAllocatedBytes() {
+        long bytes = 8L * hapFrom.length;
+        for (PackedHaplotype chunk : chunks)
+            bytes += (long) REGION_BYTES * chunk.capacity();
+        return bytes;
+    }
+
+    private PackedHaplotype chunkOf(int individual) {
+        return chunks[individual / chunkSize];
+    }
+}
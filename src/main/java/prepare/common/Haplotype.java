@@ -1,6 +1,7 @@
 package prepare.common;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -78,6 +79,10 @@ public class Haplotype {
         return currRegion;
     }
 
+    public List<HapRegion> getRegions() {
+        return Collections.unmodifiableList(linkageGroups);
+    }
+
     public void addRegion(HapRegion r) {
         linkageGroups.add(r);
     }
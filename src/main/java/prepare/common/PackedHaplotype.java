@@ -0,0 +1,281 @@
+package prepare.common;
+
+import java.util.Arrays;
+
+/**
+ * Compact haplotype, held as parallel arrays of region boundaries and founder haplotype ids.
+ * <p>
+ * A location (chr, position) is packed into a long as chr &lt;&lt; 32 | position, so packed locations
+ * compare as longs in the order of {@link Location#compareTo}.
+ * Haplotype h (1 or 2) of founder f has id 2f + h - 1, which is ancestry "f.h" of a {@link HapRegion}.
+ * <p>
+ * Regions are immutable once the haplotype is built. {@link #recombine} and {@link #addIBDSegments}
+ * allocate nothing besides their output arrays, {@link #fromHaplotype} and {@link #toHaplotype}
+ * convert from and to the {@link HapRegion} representation.
+ */
+public final class PackedHaplotype {
+    private static final int NUM_OF_CHROMOSOMES = 22;
+
+    private long[] starts;
+    private long[] ends;
+    private int[] ancestry;
+    private int size;
+
+    private PackedHaplotype(int capacity) {
+        starts = new long[capacity];
+        ends = new long[capacity];
+        ancestry = new int[capacity];
+    }
+
+    /**
+     * Create founder haplotype, spanning all chromosomes
+     *
+     * @param hap 1 or 2
+     */
+    public static PackedHaplotype founder(int founderId, int hap) {
+        PackedHaplotype founder = new PackedHaplotype(NUM_OF_CHROMOSOMES);
+        founder.addFounderRegions(founderId, hap);
+        return founder;
+    }
+
+    /**
+     * Create an empty region buffer, for haplotypes stored one after the other (see {@link GenotypeArena})
+     */
+    static PackedHaplotype buffer(int capacity) {
+        return new PackedHaplotype(capacity);
+    }
+
+    void addFounderRegions(int founderId, int hap) {
+        int id = founderHaplotypeId(founderId, hap);
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++)
+            addRegion(pack(chr, 1), pack(chr, HumanGenome.getChrLength(chr)), id);
+    }
+
+    /**
+     * @return a haplotype of regions [from, to), with arrays of its exact size
+     */
+    PackedHaplotype copyOf(int from, int to) {
+        PackedHaplotype copy = new PackedHaplotype(0);
+        copy.starts = Arrays.copyOfRange(starts, from, to);
+        copy.ends = Arrays.copyOfRange(ends, from, to);
+        copy.ancestry = Arrays.copyOfRange(ancestry, from, to);
+        copy.size = to - from;
+        return copy;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int capacity() {
+        return starts.length;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= starts.length)
+            return;
+        if (size == 0) {
+            starts = new long[capacity];
+            ends = new long[capacity];
+            ancestry = new int[capacity];
+        } else {
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            ancestry = Arrays.copyOf(ancestry, capacity);
+        }
+    }
+
+    public static PackedHaplotype fromHaplotype(Haplotype haplotype) {
+        PackedHaplotype packed = new PackedHaplotype(Math.max(haplotype.getRegions().size(), 1));
+        for (HapRegion region : haplotype.getRegions())
+            packed.addRegion(pack(region.getStart()), pack(region.getEnd()), parseAncestry(region.getAncestry()));
+        return packed;
+    }
+
+    public Haplotype toHaplotype() {
+        Haplotype haplotype = new Haplotype();
+        for (int i = 0; i < size; i++)
+            haplotype.addRegion(getRegion(i));
+        if (size > 0)
+            haplotype.rewind();
+        return haplotype;
+    }
+
+    /**
+     * Recombine two parental haplotypes into a child haplotype.
+     * Each chromosome starts at the parental haplotype given by startOnHap1, and switches haplotype at crossovers.
+     *
+     * @param crossovers  packed crossover locations, ordered
+     * @param startOnHap1 bit chr-1 is set if chromosome chr starts at hap1
+     */
+    static PackedHaplotype recombine(PackedHaplotype hap1, PackedHaplotype hap2, long[] crossovers, int numOfCrossovers,
+                                     int startOnHap1) {
+        PackedHaplotype child = new PackedHaplotype(Math.max(hap1.size, hap2.size) + numOfCrossovers);
+        recombine(hap1, 0, hap1.size, hap2, 0, hap2.size, crossovers, numOfCrossovers, startOnHap1, child, false);
+        return child;
+    }
+
+    /**
+     * Recombine the parental haplotypes held in regions [from1, to1) of hap1 and [from2, to2) of hap2,
+     * and append the child haplotype to the regions of child
+     *
+     * @param coalesce merge a region into the previous child region if it continues it with the same ancestry
+     */
+    static void recombine(PackedHaplotype hap1, int from1, int to1, PackedHaplotype hap2, int from2, int to2,
+                          long[] crossovers, int numOfCrossovers, int startOnHap1, PackedHaplotype child, boolean coalesce) {
+        int index1 = from1;
+        int index2 = from2;
+        int c = 0;
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++) {
+            boolean onHap1 = ((startOnHap1 >>> (chr - 1)) & 1) != 0;
+            while (c < numOfCrossovers && chr(crossovers[c]) < chr)
+                c++;
+            long crossover = c < numOfCrossovers && chr(crossovers[c]) == chr ? crossovers[c] : Long.MAX_VALUE;
+            long start = pack(chr, 1);
+
+            while (true) {
+                boolean currIsHap1 = onHap1;
+                PackedHaplotype curr = currIsHap1 ? hap1 : hap2;
+                int i = currIsHap1 ? index1 : index2;
+                int to = currIsHap1 ? to1 : to2;
+                //increment current haplotype to current position
+                while (i < to && curr.ends[i] <= start)
+                    i++;
+                if (i == to || chr(curr.starts[i]) != chr)
+                    break;
+
+                if (crossover < curr.ends[i]) {
+                    //no region to copy before a crossover at chromosome start
+                    if (crossover > start) {
+                        child.appendRegion(start, crossover, curr.ancestry[i], coalesce);
+                        start = crossover;
+                    }
+                    onHap1 = !onHap1;
+                    c++;
+                    crossover = c < numOfCrossovers && chr(crossovers[c]) == chr ? crossovers[c] : Long.MAX_VALUE;
+                } else {
+                    child.appendRegion(start, curr.ends[i], curr.ancestry[i], coalesce);
+                    start = curr.ends[i];
+                }
+
+                if (currIsHap1)
+                    index1 = i;
+                else
+                    index2 = i;
+            }
+        }
+    }
+
+    /**
+     * Add segments on which this haplotype and other share founder ancestry to out, ordered by start.
+     * Same segments as {@link Haplotype#getIBDSegments}.
+     */
+    public void addIBDSegments(PackedHaplotype other, SegmentBuffer out) {
+        if (other.size == 0)
+            return;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (starts[i] > other.ends[j]) {
+                if (++j == other.size)
+                    return;
+            }
+            while (ends[i] > other.starts[j]) {
+                if (ancestry[i] == other.ancestry[j])
+                    out.add(Math.max(starts[i], other.starts[j]), Math.min(ends[i], other.ends[j]));
+                if (ends[i] > other.ends[j]) {
+                    if (++j == other.size)
+                        return;
+                } else break;
+            }
+        }
+    }
+
+    /**
+     * Add a region, or extend the last region if coalesce and the region continues it with the same ancestry.
+     * A haplotype starts at chromosome 1 and ends at chromosome 22, so regions of consecutive haplotypes never merge
+     */
+    private void appendRegion(long start, long end, int id, boolean coalesce) {
+        if (coalesce && size > 0 && ends[size - 1] == start && ancestry[size - 1] == id)
+            ends[size - 1] = end;
+        else
+            addRegion(start, end, id);
+    }
+
+    private void addRegion(long start, long end, int id) {
+        if (size == starts.length) {
+            int capacity = Math.max(2 * size, 1);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            ancestry = Arrays.copyOf(ancestry, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        ancestry[size] = id;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+    public long getEnd(int i) {
+        return ends[i];
+    }
+
+    public int getAncestry(int i) {
+        return ancestry[i];
+    }
+
+    public HapRegion getRegion(int i) {
+        return new HapRegion(toLocation(starts[i]), toLocation(ends[i]), ancestryString(ancestry[i]));
+    }
+
+    public static long pack(int chr, int position) {
+        return ((long) chr << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    public static long pack(Location location) {
+        return pack(location.getChr(), location.getPosition());
+    }
+
+    public static int chr(long location) {
+        return (int) (location >>> 32);
+    }
+
+    public static int position(long location) {
+        return (int) location;
+    }
+
+    public static Location toLocation(long location) {
+        return new Location(chr(location), position(location));
+    }
+
+    public static int founderHaplotypeId(int founderId, int hap) {
+        return 2 * founderId + hap - 1;
+    }
+
+    public static String ancestryString(int id) {
+        return Math.floorDiv(id, 2) + "." + (Math.floorMod(id, 2) + 1);
+    }
+
+    /**
+     * @param ancestry founder haplotype, as "founderId.hap"
+     */
+    public static int parseAncestry(String ancestry) {
+        int dot = ancestry.lastIndexOf('.');
+        if (dot < 0)
+            throw new IllegalArgumentException("Not a founder haplotype ancestry: " + ancestry);
+        return founderHaplotypeId(Integer.parseInt(ancestry.substring(0, dot)), Integer.parseInt(ancestry.substring(dot + 1)));
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < size; i++)
+            result.append(getRegion(i)).append(", ");
+        return result.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package prepare.common;
+
+import prepare.common.GeneticMap.Sex;
+import prepare.misc.RandomStreams;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Meiosis sampler. Crossovers of a meiosis are a Poisson process along the genetic map of the parent's sex,
+ * sampled into a reusable buffer of packed locations (see {@link PackedHaplotype}).
+ * Not thread safe, use one instance per thread, e.g. {@link #forCurrentThread()}.
+ */
+public class Recombinator {
+    private static final int NUM_OF_CHROMOSOMES = 22;
+    private static final double CM_PER_MORGAN = 100;
+
+    private static final ThreadLocal<Recombinator> threadRecombinator = new ThreadLocal<>();
+
+    private final GeneticMap map;
+    private final SplittableRandom random;
+    private long[] crossovers = new long[64];
+    private int numOfCrossovers;
+    //bit chr-1 is set if chromosome chr starts at the first parental haplotype
+    private int startOnHap1;
+
+    public Recombinator(GeneticMap map, SplittableRandom random) {
+        this.map = map;
+        this.random = random;
+    }
+
+    /**
+     * @return recombinator of the current thread, over the default genetic map.
+     * Its stream depends on the thread, use a recombinator over a keyed stream for reproducible simulations
+     */
+    public static Recombinator forCurrentThread() {
+        Recombinator recombinator = threadRecombinator.get();
+        if (recombinator == null || recombinator.map != GeneticMap.getDefault()) {
+            recombinator = new Recombinator(GeneticMap.getDefault(),
+                    RandomStreams.stream(RandomStreams.Purpose.SIMULATION, -1, Thread.currentThread().getId()));
+            threadRecombinator.set(recombinator);
+        }
+        return recombinator;
+    }
+
+    /**
+     * Sample a gamete of genotype
+     *
+     * @param sex sex of the parent that has genotype
+     */
+    public PackedHaplotype recombine(Genotype genotype, Sex sex) {
+        sampleCrossovers(sex);
+        return PackedHaplotype.recombine(genotype.getPackedHap1(), genotype.getPackedHap2(),
+                crossovers, numOfCrossovers, startOnHap1);
+    }
+
+    /**
+     * Sample a gamete of individual parent of the parents arena, into haplotype hap (1 or 2) of individual child
+     * of the children arena
+     *
+     * @param sex sex of parent
+     */
+    public void recombine(GenotypeArena parents, int parent, Sex sex, GenotypeArena children, int child, int hap) {
+        sampleCrossovers(sex);
+        children.setRecombinant(child, hap, parents, parent, crossovers, numOfCrossovers, startOnHap1);
+    }
+
+    /**
+     * Sample crossovers of one meiosis into buffer, ordered by location
+     */
+    void sampleCrossovers(Sex sex) {
+        numOfCrossovers = 0;
+        startOnHap1 = random.nextInt();
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++) {
+            double end = map.getEndCM(chr, sex);
+            double cM = map.getStartCM(chr, sex) + nextGap();
+            while (cM < end) {
+                addCrossover(PackedHaplotype.pack(chr, map.toBp(chr, cM, sex)));
+                cM += nextGap();
+            }
+        }
+    }
+
+    /**
+     * @return genetic distance (cM) to next crossover
+     */
+    private double nextGap() {
+        return -Math.log(1 - random.nextDouble()) * CM_PER_MORGAN;
+    }
+
+    private void addCrossover(long location) {
+        if (numOfCrossovers == crossovers.length)
+            crossovers = Arrays.copyOf(crossovers, 2 * numOfCrossovers);
+        crossovers[numOfCrossovers++] = location;
+    }
+
+    int getNumOfCrossovers() {
+        return numOfCrossovers;
+    }
+
+    long getCrossover(int i) {
+        return crossovers[i];
+    }
+
+    public GeneticMap getMap() {
+        return map;
+    }
+}
@@ -0,0 +1,56 @@
+package prepare.common;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of genomic segments, as packed {@link PackedHaplotype} locations.
+ * Meant to be reused between calls, so steady state IBD computations do not allocate.
+ */
+public final class SegmentBuffer {
+    private long[] starts;
+    private long[] ends;
+    private int size;
+
+    public SegmentBuffer() {
+        this(64);
+    }
+
+    public SegmentBuffer(int capacity) {
+        starts = new long[Math.max(capacity, 1)];
+        ends = new long[Math.max(capacity, 1)];
+    }
+
+    public void add(long start, long end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * size);
+            ends = Arrays.copyOf(ends, 2 * size);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+    public long getEnd(int i) {
+        return ends[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < size; i++)
+            result.append("[").append(PackedHaplotype.toLocation(starts[i])).append(",")
+                    .append(PackedHaplotype.toLocation(ends[i])).append("], ");
+        return result.toString();
+    }
+}
@@ -4,9 +4,11 @@ import prepare.graph.Edge;
 import prepare.graph.Graph;
 import jsat.classifiers.DataPoint;
 import jsat.linear.Vec;
+import prepare.misc.RandomStreams;
 import prepare.misc.VecImpl;
 import prepare.pedigree.Pedigree;
 import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.PedigreeView;
 import prepare.relationship.PedLikelihoodCalcAbs;
 
 import java.util.List;
@@ -31,7 +33,8 @@ public class PedScoreCalc extends PedLikelihoodCalcAbs {
         for (int i = 0; i < numOfIter; i++) {
             int pairNum = 0;
             double loss = 0;
-            Map<String, List<DataPoint>> simDataSets = sampleFeaturesFromInheritanceSpace(pedigree, false);
+            Map<String, List<DataPoint>> simDataSets = sampleFeaturesFromInheritanceSpace(pedigree, false,
+                    RandomStreams.stream(RandomStreams.Purpose.EVALUATION, i));
 
             //RMSE score for IBD features
             for (PedVertex v1 : pedigree.getLiving()) {
@@ -72,7 +75,7 @@ public class PedScoreCalc extends PedLikelihoodCalcAbs {
     }
 
     @Override
-    public double calcLikelihood(Pedigree p, Graph ibdGraph,
+    public double calcLikelihood(PedigreeView p, Graph ibdGraph,
                                  Map<Integer, Integer> idConversion, List<PedVertex> descendants1,
                                  List<PedVertex> descendants2) {
         // TODO Auto-generated method stub
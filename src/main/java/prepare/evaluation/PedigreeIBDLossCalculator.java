@@ -3,6 +3,7 @@ package prepare.evaluation;
 import prepare.graph.Graph;
 import prepare.graph.VertexData;
 import prepare.misc.MyLogger;
+import prepare.misc.RandomStreams;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -39,6 +40,9 @@ public class PedigreeIBDLossCalculator {
         parser.addArgument("-debugThreshold")
                 .setDefault(100)
                 .help("debug threshold");
+        parser.addArgument("-seed")
+                .type(Long.class)
+                .help("random seed, for reproducible runs");
         return parser.parseArgsOrFail(argv);
     }
 
@@ -48,8 +52,7 @@ public class PedigreeIBDLossCalculator {
         try {
             List<VertexData> persons = Person.listFromDemographics(demographicsFile);
             Population population = new Population(persons);
-            ibdGraph = new Graph(persons);
-            IBDFeaturesWeight.readEdgesWeights(ibdGraph, ibdFile, population);        // Adding edges to the prepare.graph
+            ibdGraph = IBDFeaturesWeight.readCsrGraph(persons, ibdFile, Runtime.getRuntime().availableProcessors());
             inferredPed = new Pedigree(population);
             inferredPed.readFromFile(inferredPedigreeFile);
         } catch (IOException e) {
@@ -66,6 +69,7 @@ public class PedigreeIBDLossCalculator {
 
     public static void main(String[] argv) {
         Namespace args = parseArgs(argv);
+        RandomStreams.init(args.getLong("seed"));
 
         String inferredPedigreeFile = args.getString("inferredPedigreeFile");
         String demographicsFile = args.getString("demographicsFile");
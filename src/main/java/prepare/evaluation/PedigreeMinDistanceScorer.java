@@ -12,6 +12,10 @@ import prepare.pedigree.Person;
 import java.io.IOException;
 import java.util.List;
 
+/**
+ * Accuracy of an inferred pedigree against the real pedigree. Unlike {@link PedigreeIBDLossCalculator} it does not
+ * simulate, so it takes no -seed and its scores are always reproducible.
+ */
 public class PedigreeMinDistanceScorer {
     Pedigree realPed;
     Pedigree inferredPed;
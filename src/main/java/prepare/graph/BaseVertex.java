@@ -1,6 +1,6 @@
 package prepare.graph;
 
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -10,6 +10,8 @@ import java.util.Map;
  * User: moshe
  */
 public class BaseVertex implements Vertex {
+    private static final Log LOG = Log.get(BaseVertex.class);
+
     private static final long serialVersionUID = 1659765997375354120L;
 
     private VertexData data;
@@ -72,10 +74,10 @@ public class BaseVertex implements Vertex {
     }
 
     public void removeEdgeTo(Vertex v) {
-        MyLogger.info("removing " + v.getVertexId() + " from " + this.getVertexId() + " edges");
-        MyLogger.debug("num of edges from " + this.getVertexId() + " before = " + edgeMap.size());
+        LOG.info("removing {} from {} edges", v.getVertexId(), this.getVertexId());
+        LOG.debug("num of edges from {} before = {}", this.getVertexId(), edgeMap.size());
         this.edgeMap.remove(v.getVertexId());
-        MyLogger.debug("num of edges from " + this.getVertexId() + " after = " + edgeMap.size());
+        LOG.debug("num of edges from {} after = {}", this.getVertexId(), edgeMap.size());
     }
 
 }
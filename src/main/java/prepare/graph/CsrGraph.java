@@ -0,0 +1,513 @@
+package prepare.graph;
+
+import prepare.pedreconstruction.IBDFeaturesWeight;
+import prepare.relationship.Relationship;
+import prepare.relationship.RelationshipProbWeight;
+
+import java.util.*;
+
+/**
+ * Immutable graph, with edges held as int-indexed compressed sparse rows and weights as primitive columns,
+ * instead of per vertex edge maps of {@link BaseEdge} objects.
+ * <p>
+ * Vertices are indexed by sorted id, edges of a vertex are sorted by the id of their second vertex,
+ * so vertex lookup is O(1) for dense ids (O(log n) otherwise) and edge lookup is O(log d).
+ * Weights are all {@link IBDFeaturesWeight} (two float columns) or all {@link RelationshipProbWeight}
+ * (a fixed width block of doubles per edge).
+ * <p>
+ * {@link Vertex} and {@link Edge} are flyweight views over the rows. {@link Edge#getWeight()} returns a new
+ * weight object on each call, changes to it are written back by {@link Edge#setWeight}.
+ * Adding or removing vertices and edges is not supported.
+ */
+public class CsrGraph extends Graph {
+    private static final long serialVersionUID = 4410618245563437937L;
+    private static final int NUM_OF_RELATIONSHIPS = Relationship.values().length;
+    //id range up to this factor of the number of vertices is indexed by a direct table
+    private static final int MAX_DENSE_FACTOR = 4;
+
+    public enum WeightType {IBD_FEATURES, RELATIONSHIP_PROB}
+
+    private final WeightType weightType;
+    private final int[] ids;
+    private final VertexData[] data;
+    private final CsrVertex[] vertices;
+    //index of id - minId, -1 if absent; null if ids are sparse
+    private final int[] denseIndex;
+    private final int[] rowOffsets;
+    //vertex index of the second vertex of each edge
+    private final int[] targets;
+    private final float[] segmentNums;
+    private final float[] meanLengths;
+    //NUM_OF_RELATIONSHIPS probabilities per edge, in Relationship order
+    private final double[] probs;
+
+    private CsrGraph(Builder builder) {
+        weightType = builder.weightType;
+        int n = builder.vertexData.size();
+        VertexData[] sorted = builder.vertexData.toArray(new VertexData[0]);
+        Arrays.sort(sorted, Comparator.comparing(VertexData::getId));
+        ids = new int[n];
+        data = sorted;
+        vertices = new CsrVertex[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = sorted[i].getId();
+            if (i > 0 && ids[i] == ids[i - 1])
+                throw new IllegalArgumentException("Duplicate vertex " + ids[i]);
+            vertices[i] = new CsrVertex(this, i);
+        }
+        if (n > 0 && (long) ids[n - 1] - ids[0] < (long) MAX_DENSE_FACTOR * n) {
+            denseIndex = new int[ids[n - 1] - ids[0] + 1];
+            Arrays.fill(denseIndex, -1);
+            for (int i = 0; i < n; i++)
+                denseIndex[ids[i] - ids[0]] = i;
+        } else
+            denseIndex = null;
+
+        //bucket edges by source vertex, keeping their order
+        int size = builder.size;
+        int[] sources = new int[size];
+        int[] rowStart = new int[n + 1];
+        for (int i = 0; i < size; i++) {
+            sources[i] = indexOf(builder.id1[i]);
+            rowStart[sources[i] + 1]++;
+        }
+        for (int r = 0; r < n; r++)
+            rowStart[r + 1] += rowStart[r];
+        int[] order = new int[size];
+        int[] fill = Arrays.copyOf(rowStart, n);
+        for (int i = 0; i < size; i++)
+            order[fill[sources[i]]++] = i;
+
+        //sort each row by second id, a sort key of (id2, insertion order) keeps the last of duplicate edges
+        rowOffsets = new int[n + 1];
+        int[] edges = new int[size];
+        int numOfEdges = 0;
+        long[] keys = new long[0];
+        for (int r = 0; r < n; r++) {
+            int rowSize = rowStart[r + 1] - rowStart[r];
+            if (keys.length < rowSize)
+                keys = new long[Math.max(rowSize, 2 * keys.length)];
+            for (int k = 0; k < rowSize; k++)
+                keys[k] = ((long) builder.id2[order[rowStart[r] + k]] << 32) | k;
+            Arrays.sort(keys, 0, rowSize);
+            for (int k = 0; k < rowSize; k++) {
+                if (k + 1 < rowSize && (int) (keys[k + 1] >> 32) == (int) (keys[k] >> 32))
+                    continue;
+                edges[numOfEdges++] = order[rowStart[r] + (int) keys[k]];
+            }
+            rowOffsets[r + 1] = numOfEdges;
+        }
+
+        targets = new int[numOfEdges];
+        for (int e = 0; e < numOfEdges; e++)
+            targets[e] = indexOf(builder.id2[edges[e]]);
+        if (weightType == WeightType.IBD_FEATURES) {
+            segmentNums = new float[numOfEdges];
+            meanLengths = new float[numOfEdges];
+            for (int e = 0; e < numOfEdges; e++) {
+                segmentNums[e] = builder.segmentNums[edges[e]];
+                meanLengths[e] = builder.meanLengths[edges[e]];
+            }
+            probs = null;
+        } else {
+            segmentNums = null;
+            meanLengths = null;
+            probs = new double[numOfEdges * NUM_OF_RELATIONSHIPS];
+            for (int e = 0; e < numOfEdges; e++)
+                System.arraycopy(builder.probs, edges[e] * NUM_OF_RELATIONSHIPS, probs, e * NUM_OF_RELATIONSHIPS, NUM_OF_RELATIONSHIPS);
+        }
+    }
+
+    /**
+     * Copy of a graph whose weights are all {@link IBDFeaturesWeight} or all {@link RelationshipProbWeight}
+     */
+    public static CsrGraph copyOf(Graph graph) {
+        List<VertexData> vertexData = new ArrayList<>();
+        WeightType type = null;
+        for (Vertex v : graph.getVertexMap().values()) {
+            vertexData.add(v.getData());
+            for (Edge e : v.getEdgeMap().values()) {
+                WeightType edgeType = e.getWeight() instanceof IBDFeaturesWeight ? WeightType.IBD_FEATURES : WeightType.RELATIONSHIP_PROB;
+                if (type != null && type != edgeType)
+                    throw new IllegalArgumentException("Graph has both IBD features and relationship weights");
+                type = edgeType;
+            }
+        }
+        Builder builder = new Builder(vertexData, type != null ? type : WeightType.IBD_FEATURES);
+        for (Vertex v : graph.getVertexMap().values()) {
+            for (Edge e : v.getEdgeMap().values())
+                builder.addEdge(v.getVertexId(), e.getVertex2().getVertexId(), e.getWeight());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return index of vertex id, or -1 if it is not in the graph
+     */
+    private int indexOf(int id) {
+        if (denseIndex != null) {
+            long offset = (long) id - ids[0];
+            return offset < 0 || offset >= denseIndex.length ? -1 : denseIndex[(int) offset];
+        }
+        int index = Arrays.binarySearch(ids, id);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return index of the edge from vertex index v1 to vertex index v2, or -1 if there is none
+     */
+    private int edgeIndex(int v1, int v2) {
+        //vertex indexes are in id order, so rows are sorted by target index
+        int index = Arrays.binarySearch(targets, rowOffsets[v1], rowOffsets[v1 + 1], v2);
+        return index < 0 ? -1 : index;
+    }
+
+    public WeightType getWeightType() {
+        return weightType;
+    }
+
+    public int getNumOfVertices() {
+        return ids.length;
+    }
+
+    public int getNumOfEdges() {
+        return targets.length;
+    }
+
+    @Override
+    public void addVertex(Vertex v) {
+        throw new UnsupportedOperationException("CsrGraph is immutable");
+    }
+
+    @Override
+    public Vertex getVertex(Integer vertexId) {
+        int index = vertexId == null ? -1 : indexOf(vertexId);
+        return index < 0 ? null : vertices[index];
+    }
+
+    @Override
+    public void addEdge(Edge e) {
+        throw new UnsupportedOperationException("CsrGraph is immutable");
+    }
+
+    @Override
+    public Edge getUndirectedEdge(Integer vid1, Integer vid2) {
+        int v1 = indexOf(vid1);
+        int v2 = indexOf(vid2);
+        if (v1 < 0 || v2 < 0)
+            return null;
+        int e = edgeIndex(v1, v2);
+        if (e >= 0)
+            return new CsrEdge(this, v1, e);
+        e = edgeIndex(v2, v1);
+        return e >= 0 ? new CsrEdge(this, v2, e) : null;
+    }
+
+    @Override
+    public Edge getEdge(Vertex v1, Vertex v2) {
+        return v1.getEdgeTo(v2.getVertexId());
+    }
+
+    @Override
+    public Map<Integer, Vertex> getVertexMap() {
+        return new AbstractMap<Integer, Vertex>() {
+            @Override
+            public Vertex get(Object key) {
+                return key instanceof Integer ? getVertex((Integer) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                return vertices.length;
+            }
+
+            @Override
+            public Collection<Vertex> values() {
+                return Collections.unmodifiableList(Arrays.asList(vertices));
+            }
+
+            @Override
+            public Set<Entry<Integer, Vertex>> entrySet() {
+                return new AbstractSet<Entry<Integer, Vertex>>() {
+                    @Override
+                    public Iterator<Entry<Integer, Vertex>> iterator() {
+                        return new Iterator<Entry<Integer, Vertex>>() {
+                            int i = 0;
+
+                            public boolean hasNext() {
+                                return i < vertices.length;
+                            }
+
+                            public Entry<Integer, Vertex> next() {
+                                if (!hasNext())
+                                    throw new NoSuchElementException();
+                                Vertex v = vertices[i++];
+                                return new AbstractMap.SimpleImmutableEntry<>(v.getVertexId(), v);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return vertices.length;
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public List<Vertex> getVertices() {
+        return new ArrayList<>(Arrays.asList(vertices));
+    }
+
+    @Override
+    public String toString() {
+        return "CsrGraph{" +
+                "vertices=" + ids.length +
+                " edges=" + targets.length +
+                " weights=" + weightType +
+                '}';
+    }
+
+    private Weight getWeight(int e) {
+        if (weightType == WeightType.IBD_FEATURES)
+            return new IBDFeaturesWeight(segmentNums[e], meanLengths[e]);
+        RelationshipProbWeight weight = new RelationshipProbWeight();
+        weight.setProbs(probs, e * NUM_OF_RELATIONSHIPS);
+        return weight;
+    }
+
+    private void setWeight(int e, Weight weight) {
+        if (weightType == WeightType.IBD_FEATURES) {
+            IBDFeaturesWeight w = (IBDFeaturesWeight) weight;
+            segmentNums[e] = (float) w.getSegmentNum();
+            meanLengths[e] = (float) w.getMeanLength();
+        } else {
+            ((RelationshipProbWeight) weight).getProbs(probs, e * NUM_OF_RELATIONSHIPS);
+        }
+    }
+
+    /**
+     * Collects vertices and weighted edges, in any order.
+     * An edge added twice keeps its last weight, edges of vertices that are not in the graph are skipped.
+     */
+    public static class Builder {
+        private final List<VertexData> vertexData;
+        private final Set<Integer> vertexIds = new HashSet<>();
+        private final WeightType weightType;
+        private int size;
+        private int[] id1 = new int[1024];
+        private int[] id2 = new int[1024];
+        private float[] segmentNums;
+        private float[] meanLengths;
+        private double[] probs;
+
+        public Builder(List<? extends VertexData> vertexData, WeightType weightType) {
+            this.vertexData = new ArrayList<>(vertexData);
+            this.weightType = weightType;
+            for (VertexData d : vertexData)
+                vertexIds.add(d.getId());
+            if (weightType == WeightType.IBD_FEATURES) {
+                segmentNums = new float[1024];
+                meanLengths = new float[1024];
+            } else
+                probs = new double[1024 * NUM_OF_RELATIONSHIPS];
+        }
+
+        /**
+         * @return true if the edge was added, false if one of its vertices is not in the graph
+         */
+        public boolean addIBDFeatures(int v1, int v2, double segmentNum, double meanLength) {
+            if (!addEdge(v1, v2, WeightType.IBD_FEATURES))
+                return false;
+            segmentNums[size - 1] = (float) segmentNum;
+            meanLengths[size - 1] = (float) meanLength;
+            return true;
+        }
+
+        /**
+         * @return true if the edge was added, false if one of its vertices is not in the graph
+         */
+        public boolean addRelationshipProbs(int v1, int v2, RelationshipProbWeight weight) {
+            if (!addEdge(v1, v2, WeightType.RELATIONSHIP_PROB))
+                return false;
+            weight.getProbs(probs, (size - 1) * NUM_OF_RELATIONSHIPS);
+            return true;
+        }
+
+        public boolean addEdge(int v1, int v2, Weight weight) {
+            if (weight instanceof IBDFeaturesWeight)
+                return addIBDFeatures(v1, v2, ((IBDFeaturesWeight) weight).getSegmentNum(), ((IBDFeaturesWeight) weight).getMeanLength());
+            return addRelationshipProbs(v1, v2, (RelationshipProbWeight) weight);
+        }
+
+        private boolean addEdge(int v1, int v2, WeightType type) {
+            if (type != weightType)
+                throw new IllegalArgumentException("Adding " + type + " edge to a graph of " + weightType);
+            if (v1 == v2)
+                throw new RuntimeException("Trying to add a loop edge=" + v1 + "," + v2);
+            if (!vertexIds.contains(v1) || !vertexIds.contains(v2))
+                return false;
+            if (size == id1.length) {
+                id1 = Arrays.copyOf(id1, 2 * size);
+                id2 = Arrays.copyOf(id2, 2 * size);
+                if (weightType == WeightType.IBD_FEATURES) {
+                    segmentNums = Arrays.copyOf(segmentNums, 2 * size);
+                    meanLengths = Arrays.copyOf(meanLengths, 2 * size);
+                } else
+                    probs = Arrays.copyOf(probs, 2 * size * NUM_OF_RELATIONSHIPS);
+            }
+            id1[size] = v1;
+            id2[size] = v2;
+            size++;
+            return true;
+        }
+
+        public CsrGraph build() {
+            return new CsrGraph(this);
+        }
+    }
+
+    /**
+     * Flyweight vertex, a row of the graph
+     */
+    private static class CsrVertex implements Vertex {
+        private static final long serialVersionUID = -2687416416826212164L;
+        private final CsrGraph graph;
+        private final int index;
+
+        CsrVertex(CsrGraph graph, int index) {
+            this.graph = graph;
+            this.index = index;
+        }
+
+        public Integer getVertexId() {
+            return graph.ids[index];
+        }
+
+        public Map<Integer, Edge> getEdgeMap() {
+            return new AbstractMap<Integer, Edge>() {
+                @Override
+                public Edge get(Object key) {
+                    return key instanceof Integer ? getEdgeTo((Integer) key) : null;
+                }
+
+                @Override
+                public boolean containsKey(Object key) {
+                    return key instanceof Integer && hasEdgeTo((Integer) key);
+                }
+
+                @Override
+                public int size() {
+                    return graph.rowOffsets[index + 1] - graph.rowOffsets[index];
+                }
+
+                @Override
+                public Set<Entry<Integer, Edge>> entrySet() {
+                    return new AbstractSet<Entry<Integer, Edge>>() {
+                        @Override
+                        public Iterator<Entry<Integer, Edge>> iterator() {
+                            return new Iterator<Entry<Integer, Edge>>() {
+                                int e = graph.rowOffsets[index];
+
+                                public boolean hasNext() {
+                                    return e < graph.rowOffsets[index + 1];
+                                }
+
+                                public Entry<Integer, Edge> next() {
+                                    if (!hasNext())
+                                        throw new NoSuchElementException();
+                                    CsrEdge edge = new CsrEdge(graph, index, e++);
+                                    return new AbstractMap.SimpleImmutableEntry<>(edge.getVertex2().getVertexId(), edge);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public int size() {
+                            return graph.rowOffsets[index + 1] - graph.rowOffsets[index];
+                        }
+                    };
+                }
+            };
+        }
+
+        public void addEdge(Edge edge) {
+            throw new UnsupportedOperationException("CsrGraph is immutable");
+        }
+
+        public VertexData getData() {
+            return graph.data[index];
+        }
+
+        public boolean hasEdgeTo(int vertexID) {
+            int v2 = graph.indexOf(vertexID);
+            return v2 >= 0 && graph.edgeIndex(index, v2) >= 0;
+        }
+
+        public Edge getEdgeTo(int vertexID) {
+            int v2 = graph.indexOf(vertexID);
+            int e = v2 < 0 ? -1 : graph.edgeIndex(index, v2);
+            return e < 0 ? null : new CsrEdge(graph, index, e);
+        }
+
+        public void removeEdgeTo(Vertex v) {
+            throw new UnsupportedOperationException("CsrGraph is immutable");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return getVertexId().equals(((CsrVertex) o).getVertexId());
+        }
+
+        @Override
+        public int hashCode() {
+            return getVertexId().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getData().toString();
+        }
+    }
+
+    /**
+     * Flyweight edge, an entry of a row
+     */
+    private static class CsrEdge implements Edge {
+        private static final long serialVersionUID = 6303171744466425311L;
+        private final CsrGraph graph;
+        private final int source;
+        private final int index;
+
+        CsrEdge(CsrGraph graph, int source, int index) {
+            this.graph = graph;
+            this.source = source;
+            this.index = index;
+        }
+
+        public Vertex getVertex1() {
+            return graph.vertices[source];
+        }
+
+        public Vertex getVertex2() {
+            return graph.vertices[graph.targets[index]];
+        }
+
+        public Weight getWeight() {
+            return graph.getWeight(index);
+        }
+
+        public void setWeight(Weight w) {
+            graph.setWeight(index, w);
+        }
+    }
+}
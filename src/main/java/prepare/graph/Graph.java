@@ -1,6 +1,6 @@
 package prepare.graph;
 
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 import prepare.relationship.RelationshipProbWeight;
 
 import java.io.Serializable;
@@ -13,14 +13,22 @@ import java.util.*;
  * User: moshe
  */
 public class Graph implements Serializable {
+    private static final Log LOG = Log.get(Graph.class);
+
     private static final long serialVersionUID = -2913752016824176357L;
     private final Map<Integer, Vertex> vertexMap = new HashMap<>();
 
+    /**
+     * For graphs that keep their own vertex and edge storage, see {@link CsrGraph}
+     */
+    protected Graph() {
+    }
+
     public Graph(List<VertexData> verticesData) {
         for (VertexData d : verticesData) {
             BaseVertex vertex = new BaseVertex(d);
             this.addVertex(vertex);
-            MyLogger.debug("Vertex " + d + " was added to prepare.graph");
+            LOG.debug("Vertex {} was added to prepare.graph", d);
         }
     }
 
@@ -30,7 +38,7 @@ public class Graph implements Serializable {
     public Graph(Collection<Vertex> vertices) {
         for (Vertex v : vertices) {
             this.addVertex(v);
-            MyLogger.info("Vertex " + v + " was added to prepare.graph");
+            LOG.info("Vertex {} was added to prepare.graph", v);
         }
     }
 
@@ -53,7 +61,8 @@ public class Graph implements Serializable {
         }
 
         v1.addEdge(e);
-        MyLogger.debug("Graph::Add edge from " + v1.getVertexId() + " to " + e.getVertex2().getVertexId());
+        if (LOG.isDebugEnabled())
+            LOG.debug("Graph::Add edge from {} to {}", v1.getVertexId(), e.getVertex2().getVertexId());
 //        v2.addEdge(edge);
     }
 
@@ -66,18 +75,13 @@ public class Graph implements Serializable {
         Edge e = getEdge(v1, v2);
         if (e == null) {
             e = getEdge(v2, v1);
-            MyLogger.debug("no edge between" + vid1 + " and " + vid2);
+            LOG.debug("no edge between {} and {}", vid1, vid2);
         }
         return e;
     }
 
     public Edge getEdge(Vertex v1, Vertex v2) {
-        for (Edge e : v1.getEdgeMap().values()) {
-            if (e.getVertex2().getVertexId().equals(v2.getVertexId())) {
-                return e;
-            }
-        }
-        return null;
+        return v1.getEdgeTo(v2.getVertexId());
     }
 
 
@@ -146,13 +150,16 @@ public class Graph implements Serializable {
 		return isRelated;
 	}
 	*/
+    /**
+     * @return weight from v1 to v2, a reversed view of the weight of the edge from v2 to v1 if only that one exists
+     */
     public RelationshipProbWeight getWeight(Vertex v1, Vertex v2) {
         Edge e = v1.getEdgeTo(v2.getVertexId());
         if (e != null)
             return (RelationshipProbWeight) e.getWeight();
         e = v2.getEdgeTo(v1.getVertexId());
         if (e != null)
-            return RelationshipProbWeight.switchWeightsDirection((RelationshipProbWeight) e.getWeight());
+            return ((RelationshipProbWeight) e.getWeight()).reversed();
         return null;
     }
 
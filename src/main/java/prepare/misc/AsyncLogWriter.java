@@ -0,0 +1,126 @@
+package prepare.misc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes log messages through a buffered writer on a daemon thread, so logging threads only enqueue them.
+ * Timestamps are taken when a message is logged. Messages keep their order, and are written at the latest
+ * when the queue is idle, on {@link #flush} or on JVM shutdown. Logging blocks while the queue is full.
+ */
+class AsyncLogWriter {
+    private static final int QUEUE_CAPACITY = 1 << 14;
+    private static final int BATCH_SIZE = 256;
+
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Writer out;
+    private final Thread thread;
+    private final Thread shutdownHook;
+    private volatile boolean closed = false;
+
+    AsyncLogWriter(PrintStream stream) {
+        out = new BufferedWriter(new OutputStreamWriter(stream), 1 << 16);
+        thread = new Thread(this::run, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        shutdownHook = new Thread(this::flush, "log-writer-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    static String format(long time, MyLogger.Level level, String message) {
+        return new Date(time) + " " + level.getLabel() + ": " + message;
+    }
+
+    void write(long time, MyLogger.Level level, String message) {
+        put(new Record(time, level, message, null));
+    }
+
+    /**
+     * Wait until all messages logged before are written
+     */
+    void flush() {
+        if (closed || Thread.currentThread() == thread)
+            return;
+        CountDownLatch written = new CountDownLatch(1);
+        put(new Record(0, null, null, written));
+        try {
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write all pending messages and stop the writer thread
+     */
+    void close() {
+        flush();
+        closed = true;
+        thread.interrupt();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            //shutting down
+        }
+    }
+
+    private void put(Record record) {
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            try {
+                for (Record record : batch) {
+                    if (record.written != null) {
+                        out.flush();
+                        record.written.countDown();
+                    } else {
+                        out.write(format(record.time, record.level, record.message));
+                        out.write(System.lineSeparator());
+                    }
+                }
+                if (queue.isEmpty())
+                    out.flush();
+            } catch (IOException e) {
+                //nowhere to report, keep consuming so logging threads do not block
+            }
+            batch.clear();
+        }
+    }
+
+    private static class Record {
+        private final long time;
+        private final MyLogger.Level level;
+        private final String message;
+        //set for flush requests
+        private final CountDownLatch written;
+
+        Record(long time, MyLogger.Level level, String message, CountDownLatch written) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+            this.written = written;
+        }
+    }
+}
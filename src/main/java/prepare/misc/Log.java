@@ -0,0 +1,130 @@
+package prepare.misc;
+
+import java.util.function.Supplier;
+
+/**
+ * Logger of a class, with the level of its package or class name set in {@link MyLogger}.
+ * <p>
+ * A level check is a single volatile read while the configuration does not change, and messages of disabled
+ * levels are not built: parameterized messages replace each {} with the next argument, and supplier messages
+ * are called only if enabled. Use these for all logging inside per-pair, per-edge or per-individual loops.
+ */
+public class Log {
+    private static final int LEVEL_BITS = 3;
+
+    private final String name;
+    //config version << LEVEL_BITS | level ordinal, so both are read at once
+    private volatile int cachedLevel = -1;
+
+    Log(String name) {
+        this.name = name;
+    }
+
+    public static Log get(Class<?> c) {
+        return new Log(c.getName());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private MyLogger.Level level() {
+        int cached = cachedLevel;
+        int version = MyLogger.getConfigVersion();
+        if (cached >>> LEVEL_BITS == version)
+            return MyLogger.Level.values()[cached & ((1 << LEVEL_BITS) - 1)];
+        MyLogger.Level level = MyLogger.levelOf(name);
+        cachedLevel = version << LEVEL_BITS | level.ordinal();
+        return level;
+    }
+
+    public boolean isEnabled(MyLogger.Level level) {
+        return level != MyLogger.Level.OFF && level.compareTo(level()) >= 0;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(MyLogger.Level.DEBUG);
+    }
+
+    public boolean isInfoEnabled() {
+        return isEnabled(MyLogger.Level.INFO);
+    }
+
+    public void log(MyLogger.Level level, String message) {
+        if (isEnabled(level))
+            MyLogger.write(level, message);
+    }
+
+    public void log(MyLogger.Level level, String format, Object... args) {
+        if (isEnabled(level))
+            MyLogger.write(level, format(format, args));
+    }
+
+    public void log(MyLogger.Level level, Supplier<String> message) {
+        if (isEnabled(level))
+            MyLogger.write(level, message.get());
+    }
+
+    public void debug(String message) {
+        log(MyLogger.Level.DEBUG, message);
+    }
+
+    public void debug(String format, Object... args) {
+        log(MyLogger.Level.DEBUG, format, args);
+    }
+
+    public void debug(Supplier<String> message) {
+        log(MyLogger.Level.DEBUG, message);
+    }
+
+    public void info(String message) {
+        log(MyLogger.Level.INFO, message);
+    }
+
+    public void info(String format, Object... args) {
+        log(MyLogger.Level.INFO, format, args);
+    }
+
+    public void info(Supplier<String> message) {
+        log(MyLogger.Level.INFO, message);
+    }
+
+    public void important(String message) {
+        log(MyLogger.Level.IMPORTANT, message);
+    }
+
+    public void important(String format, Object... args) {
+        log(MyLogger.Level.IMPORTANT, format, args);
+    }
+
+    public void warn(String message) {
+        log(MyLogger.Level.WARN, message);
+    }
+
+    public void warn(String format, Object... args) {
+        log(MyLogger.Level.WARN, format, args);
+    }
+
+    public void error(String message) {
+        log(MyLogger.Level.ERROR, message);
+    }
+
+    public void error(String format, Object... args) {
+        log(MyLogger.Level.ERROR, format, args);
+    }
+
+    /**
+     * Replace each {} of format with the next argument, extra arguments are ignored
+     */
+    static String format(String format, Object... args) {
+        StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+        int argIndex = 0;
+        int from = 0;
+        int pos;
+        while (argIndex < args.length && (pos = format.indexOf("{}", from)) >= 0) {
+            sb.append(format, from, pos).append(args[argIndex++]);
+            from = pos + 2;
+        }
+        return sb.append(format, from, format.length()).toString();
+    }
+}
@@ -0,0 +1,380 @@
+package prepare.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of hot path events, and wall and CPU time of the phases of each generation of a reconstruction run.
+ * <p>
+ * A single shared instance is used by the whole process. Counting is a {@link LongAdder} increment, so it can be
+ * called from worker threads inside per-pair loops; phases are timed once per phase, so instrumentation overhead
+ * is negligible. CPU time is of the whole process, so it includes the worker threads of a phase.
+ * Gauges (e.g. cache hit rates) are read when a generation ends.
+ * <p>
+ * The report is written as JSON ({@link #writeJson}) and as CSV of generation,metric,value rows ({@link #writeCsv}),
+ * and can be exposed over JMX ({@link MetricsMXBean}).
+ */
+public class Metrics {
+
+    public enum Counter {
+        //candidate pairs whose sib hypotheses were tested
+        PAIRS_TESTED,
+        //candidate pairs skipped for sharing too little IBD
+        PAIRS_PRUNED,
+        //nuclear family pairs whose common parent hypotheses were tested
+        FAMILY_PAIRS_TESTED,
+        //hypothesis likelihoods calculated, excluding memoized likelihoods
+        HYPOTHESES_EVALUATED,
+        //recombination simulations of a pedigree
+        SIMULATIONS,
+        //full pedigree clones
+        PEDIGREE_CLONES
+    }
+
+    public enum Phase {
+        READ_INPUT,
+        CONTRACTION,
+        SIB_TESTING,
+        GRAPH_EXPANSION,
+        SIBLING_GROUPING,
+        NUCLEAR_FAMILIES,
+        HALF_SIB_UNITING,
+        PEDIGREE_UPDATE,
+        OUTPUT
+    }
+
+    public static final String OBJECT_NAME = "prepare:type=Metrics";
+
+    private static volatile Metrics shared = new Metrics();
+
+    private final Map<Integer, GenerationMetrics> generations = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+    private volatile GenerationMetrics current = generation(0);
+
+    public static Metrics getShared() {
+        return shared;
+    }
+
+    /**
+     * Replace the process-wide metrics, dropping all recorded values
+     */
+    public static void setShared(Metrics metrics) {
+        shared = metrics;
+    }
+
+    /**
+     * Expose the shared metrics over JMX, as {@link #OBJECT_NAME}
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new SharedMetricsMXBean(), name);
+        } catch (JMException e) {
+            throw new RuntimeException("Failed registering metrics MBean", e);
+        }
+    }
+
+    /**
+     * Count events of the current generation
+     */
+    public void count(Counter counter, long n) {
+        current.counters[counter.ordinal()].add(n);
+    }
+
+    public void count(Counter counter) {
+        current.counters[counter.ordinal()].increment();
+    }
+
+    /**
+     * Register a value read at the end of each generation, and by JMX
+     */
+    public void gauge(String name, Supplier<Number> value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Start generation, counting and timing its phases until the next generation starts
+     */
+    public synchronized void startGeneration(int generation) {
+        endGeneration();
+        GenerationMetrics g = generation(generation);
+        g.start();
+        current = g;
+    }
+
+    /**
+     * End the current phase, and start timing phase
+     */
+    public synchronized void enterPhase(Phase phase) {
+        current.enterPhase(phase);
+    }
+
+    /**
+     * End the current phase and generation, and read the gauges
+     */
+    public synchronized void endGeneration() {
+        GenerationMetrics g = current;
+        if (!g.isRunning())
+            return;
+        g.end();
+        for (Map.Entry<String, Supplier<Number>> gauge : gauges.entrySet())
+            g.gauges.put(gauge.getKey(), gauge.getValue().get());
+    }
+
+    private GenerationMetrics generation(int generation) {
+        return generations.computeIfAbsent(generation, GenerationMetrics::new);
+    }
+
+    /**
+     * @return total count of counter over all generations
+     */
+    public long getCount(Counter counter) {
+        long total = 0;
+        for (GenerationMetrics g : generations.values())
+            total += g.counters[counter.ordinal()].sum();
+        return total;
+    }
+
+    /**
+     * @return count of counter in generation
+     */
+    public long getCount(int generation, Counter counter) {
+        GenerationMetrics g = generations.get(generation);
+        return g == null ? 0 : g.counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * @return total wall time of phase over all generations, in milliseconds
+     */
+    public double getWallMillis(Phase phase) {
+        double total = 0;
+        for (GenerationMetrics g : generations.values())
+            total += g.phaseWallNanos[phase.ordinal()] / 1e6;
+        return total;
+    }
+
+    /**
+     * @return current values of the gauges
+     */
+    public Map<String, Number> readGauges() {
+        Map<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, Supplier<Number>> gauge : gauges.entrySet())
+            values.put(gauge.getKey(), gauge.getValue().get());
+        return values;
+    }
+
+    private synchronized List<GenerationMetrics> sortedGenerations() {
+        List<GenerationMetrics> sorted = new ArrayList<>(generations.values());
+        sorted.sort(Comparator.comparingInt(g -> g.generation));
+        return sorted;
+    }
+
+    public synchronized void writeJson(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("{");
+            out.println("  \"generations\": [");
+            List<GenerationMetrics> sorted = sortedGenerations();
+            for (int i = 0; i < sorted.size(); i++) {
+                GenerationMetrics g = sorted.get(i);
+                out.println("    {");
+                out.println("      \"generation\": " + g.generation + ",");
+                out.println("      \"wallMillis\": " + millis(g.wallNanos) + ",");
+                out.println("      \"cpuMillis\": " + millis(g.cpuNanos) + ",");
+                out.println("      \"counters\": {" + counterEntries(g) + "},");
+                out.println("      \"gauges\": {" + gaugeEntries(g.gauges) + "},");
+                out.println("      \"phases\": {");
+                List<String> phases = new ArrayList<>();
+                for (Phase phase : Phase.values()) {
+                    int p = phase.ordinal();
+                    if (g.phaseCalls[p] > 0)
+                        phases.add("        \"" + name(phase) + "\": {\"calls\": " + g.phaseCalls[p] +
+                                ", \"wallMillis\": " + millis(g.phaseWallNanos[p]) +
+                                ", \"cpuMillis\": " + millis(g.phaseCpuNanos[p]) + "}");
+                }
+                out.println(String.join(",\n", phases));
+                out.println("      }");
+                out.println("    }" + (i < sorted.size() - 1 ? "," : ""));
+            }
+            out.println("  ],");
+            StringBuilder totals = new StringBuilder();
+            for (Counter counter : Counter.values()) {
+                if (totals.length() > 0)
+                    totals.append(", ");
+                totals.append('"').append(name(counter)).append("\": ").append(getCount(counter));
+            }
+            out.println("  \"totals\": {" + totals + "},");
+            out.println("  \"gauges\": {" + gaugeEntries(readGauges()) + "}");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Write generation,metric,value rows, with the wall and CPU time of each phase, and counters and gauges
+     */
+    public synchronized void writeCsv(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("generation,metric,value");
+            for (GenerationMetrics g : sortedGenerations()) {
+                out.println(g.generation + ",wallMillis," + millis(g.wallNanos));
+                out.println(g.generation + ",cpuMillis," + millis(g.cpuNanos));
+                for (Phase phase : Phase.values()) {
+                    int p = phase.ordinal();
+                    if (g.phaseCalls[p] == 0)
+                        continue;
+                    out.println(g.generation + "," + name(phase) + ".wallMillis," + millis(g.phaseWallNanos[p]));
+                    out.println(g.generation + "," + name(phase) + ".cpuMillis," + millis(g.phaseCpuNanos[p]));
+                }
+                for (Counter counter : Counter.values())
+                    out.println(g.generation + "," + name(counter) + "," + g.counters[counter.ordinal()].sum());
+                for (Map.Entry<String, Number> gauge : g.gauges.entrySet())
+                    out.println(g.generation + "," + gauge.getKey() + "," + gauge.getValue());
+            }
+        }
+    }
+
+    private static String counterEntries(GenerationMetrics g) {
+        StringBuilder sb = new StringBuilder();
+        for (Counter counter : Counter.values()) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append('"').append(name(counter)).append("\": ").append(g.counters[counter.ordinal()].sum());
+        }
+        return sb.toString();
+    }
+
+    private static String gaugeEntries(Map<String, Number> gauges) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> gauge : gauges.entrySet()) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            double value = gauge.getValue().doubleValue();
+            sb.append('"').append(gauge.getKey()).append("\": ")
+                    .append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : gauge.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return lower camel case name, e.g. pairsTested
+     */
+    static String name(Enum<?> e) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : e.name().toLowerCase().split("_")) {
+            if (sb.length() == 0)
+                sb.append(word);
+            else
+                sb.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * @return CPU time of the process, or of the current thread if it is not available
+     */
+    static long cpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+
+    private static class SharedMetricsMXBean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> counters = new TreeMap<>();
+            for (Counter counter : Counter.values())
+                counters.put(name(counter), getShared().getCount(counter));
+            return counters;
+        }
+
+        @Override
+        public Map<String, Double> getPhaseWallMillis() {
+            Map<String, Double> phases = new TreeMap<>();
+            for (Phase phase : Phase.values())
+                phases.put(name(phase), getShared().getWallMillis(phase));
+            return phases;
+        }
+
+        @Override
+        public Map<String, Double> getGauges() {
+            Map<String, Double> gauges = new TreeMap<>();
+            for (Map.Entry<String, Number> gauge : getShared().readGauges().entrySet())
+                gauges.put(gauge.getKey(), gauge.getValue().doubleValue());
+            return gauges;
+        }
+    }
+
+    private static class GenerationMetrics {
+        private final int generation;
+        private final LongAdder[] counters = new LongAdder[Counter.values().length];
+        private final long[] phaseCalls = new long[Phase.values().length];
+        private final long[] phaseWallNanos = new long[Phase.values().length];
+        private final long[] phaseCpuNanos = new long[Phase.values().length];
+        private final Map<String, Number> gauges = new TreeMap<>();
+        private long wallNanos;
+        private long cpuNanos;
+        private Phase phase;
+        private long startWall = -1;
+        private long startCpu;
+        private long phaseStartWall;
+        private long phaseStartCpu;
+
+        GenerationMetrics(int generation) {
+            this.generation = generation;
+            for (int i = 0; i < counters.length; i++)
+                counters[i] = new LongAdder();
+        }
+
+        boolean isRunning() {
+            return startWall >= 0;
+        }
+
+        void start() {
+            startWall = System.nanoTime();
+            startCpu = cpuNanos();
+        }
+
+        void enterPhase(Phase next) {
+            if (!isRunning())
+                start();
+            long wall = System.nanoTime();
+            long cpu = cpuNanos();
+            endPhase(wall, cpu);
+            phase = next;
+            phaseStartWall = wall;
+            phaseStartCpu = cpu;
+        }
+
+        private void endPhase(long wall, long cpu) {
+            if (phase == null)
+                return;
+            phaseCalls[phase.ordinal()]++;
+            phaseWallNanos[phase.ordinal()] += wall - phaseStartWall;
+            phaseCpuNanos[phase.ordinal()] += cpu - phaseStartCpu;
+            phase = null;
+        }
+
+        void end() {
+            long wall = System.nanoTime();
+            long cpu = cpuNanos();
+            endPhase(wall, cpu);
+            wallNanos += wall - startWall;
+            cpuNanos += cpu - startCpu;
+            startWall = -1;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package prepare.misc;
+
+import java.util.Map;
+
+/**
+ * JMX view of the shared {@link Metrics}, totals over all generations
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Double> getPhaseWallMillis();
+
+    Map<String, Double> getGauges();
+}
@@ -1,33 +1,205 @@
 package prepare.misc;
 
-import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+/**
+ * Process wide logging configuration, and logging of classes without their own {@link Log}.
+ * <p>
+ * Levels are set at runtime, for the root and per package or class name prefix (the longest matching prefix wins),
+ * e.g. with {@link #configure} from the "prepare.log" system property: {@code -Dprepare.log=info,prepare.graph=debug}.
+ * Messages of enabled levels are written by an {@link AsyncLogWriter}, unless "prepare.log.async" is false.
+ * Messages of disabled levels are not built: use the parameterized or supplier methods for messages that
+ * are not constants.
+ */
 public class MyLogger {
 
-    static private final int level = 3;
+    public enum Level {
+        DEBUG("DEBUG"),
+        INFO("INFO"),
+        IMPORTANT("INFO"),
+        WARN("WARN"),
+        ERROR("ERROR"),
+        OFF("");
+
+        private final String label;
+
+        Level(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static volatile Level rootLevel = Level.IMPORTANT;
+    private static final Map<String, Level> prefixLevels = new ConcurrentHashMap<>();
+    //incremented on each level change, so loggers know their cached level is stale
+    private static final AtomicInteger configVersion = new AtomicInteger();
+    private static volatile AsyncLogWriter writer;
+
+    private static final Log ROOT = new Log("");
+
+    static {
+        String spec = System.getProperty("prepare.log");
+        if (spec != null)
+            configure(spec);
+        setAsync(Boolean.parseBoolean(System.getProperty("prepare.log.async", "true")));
+    }
+
+    /**
+     * Set levels from a spec of comma separated entries: a root level, or prefix=level.
+     * Level names are case insensitive
+     */
+    public static void configure(String spec) {
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+            int eq = entry.indexOf('=');
+            if (eq < 0)
+                setLevel(parseLevel(entry));
+            else
+                setLevel(entry.substring(0, eq).trim(), parseLevel(entry.substring(eq + 1)));
+        }
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown log level " + name.trim(), e);
+        }
+    }
+
+    public static void setLevel(Level level) {
+        rootLevel = level;
+        configVersion.incrementAndGet();
+    }
+
+    /**
+     * Set level of all loggers whose name starts with prefix, e.g. a package
+     */
+    public static void setLevel(String prefix, Level level) {
+        prefixLevels.put(prefix, level);
+        configVersion.incrementAndGet();
+    }
+
+    /**
+     * Remove all prefix levels, and set root level
+     */
+    public static void resetLevels(Level level) {
+        prefixLevels.clear();
+        setLevel(level);
+    }
+
+    static int getConfigVersion() {
+        return configVersion.get();
+    }
+
+    /**
+     * @return level of the longest prefix of name, or the root level
+     */
+    static Level levelOf(String name) {
+        Level level = rootLevel;
+        int matchLength = -1;
+        for (Map.Entry<String, Level> entry : prefixLevels.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > matchLength && name.startsWith(prefix)) {
+                level = entry.getValue();
+                matchLength = prefix.length();
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Write through a background thread (async) or directly to standard output
+     */
+    public static synchronized void setAsync(boolean async) {
+        if (async && writer == null) {
+            writer = new AsyncLogWriter(System.out);
+        } else if (!async && writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Wait until all logged messages are written
+     */
+    public static void flush() {
+        AsyncLogWriter w = writer;
+        if (w != null)
+            w.flush();
+        else
+            System.out.flush();
+    }
+
+    static void write(Level level, String message) {
+        AsyncLogWriter w = writer;
+        if (w != null)
+            w.write(System.currentTimeMillis(), level, message);
+        else
+            System.out.println(AsyncLogWriter.format(System.currentTimeMillis(), level, message));
+    }
+
+    public static boolean isDebugEnabled() {
+        return ROOT.isDebugEnabled();
+    }
+
+    public static boolean isInfoEnabled() {
+        return ROOT.isInfoEnabled();
+    }
 
     public static void debug(String message) {
-        if (level < 2)
-            System.out.println(new Date() + " DEBUG: " + message);
+        ROOT.debug(message);
+    }
+
+    public static void debug(String format, Object... args) {
+        ROOT.debug(format, args);
+    }
+
+    public static void debug(Supplier<String> message) {
+        ROOT.debug(message);
     }
 
     public static void info(String message) {
-        if (level < 3)
-            System.out.println(new Date() + " INFO: " + message);
+        ROOT.info(message);
+    }
+
+    public static void info(String format, Object... args) {
+        ROOT.info(format, args);
+    }
+
+    public static void info(Supplier<String> message) {
+        ROOT.info(message);
     }
 
     public static void important(String message) {
-        if (level < 4)
-            System.out.println(new Date() + " INFO: " + message);
+        ROOT.important(message);
+    }
+
+    public static void important(String format, Object... args) {
+        ROOT.important(format, args);
     }
 
     public static void warn(String message) {
-        if (level < 5)
-            System.out.println(new Date() + " WARN: " + message);
+        ROOT.warn(message);
+    }
+
+    public static void warn(String format, Object... args) {
+        ROOT.warn(format, args);
     }
 
     public static void error(String message) {
-        if (level < 6)
-            System.out.println(new Date() + " ERROR: " + message);
+        ROOT.error(message);
+    }
+
+    public static void error(String format, Object... args) {
+        ROOT.error(format, args);
     }
 }
@@ -0,0 +1,81 @@
+package prepare.misc;
+
+import java.util.SplittableRandom;
+
+/**
+ * Source of all randomness of a run. Every random process gets its own stream, derived from the run seed,
+ * the process purpose and keys that identify the work item (e.g. a depth signature or an iteration),
+ * so results do not depend on the order or thread in which work items are processed.
+ * Runs with the same seed are reproducible, the seed is random unless set with {@link #setSeed}.
+ */
+public class RandomStreams {
+    private static final Log LOG = Log.get(RandomStreams.class);
+
+    private static volatile long seed = new SplittableRandom().nextLong();
+
+    public enum Purpose {
+        //recombination and noise of likelihood simulations
+        SIMULATION,
+        //recombination of pedigree evaluation
+        EVALUATION,
+        //mating and recombination of population simulation
+        POPULATION,
+        //random choices between equivalent solutions
+        TIE_BREAK
+    }
+
+    public static void setSeed(long seed) {
+        RandomStreams.seed = seed;
+    }
+
+    public static long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set seed if given, otherwise keep the random seed, and log it so the run can be repeated
+     */
+    public static void init(Long seed) {
+        if (seed != null)
+            setSeed(seed);
+        LOG.important("Random seed: {}", getSeed());
+    }
+
+    /**
+     * @return stream of purpose, identified by keys
+     */
+    public static SplittableRandom stream(Purpose purpose, long... keys) {
+        long h = mix(seed ^ mix(purpose.ordinal() + 1));
+        for (long key : keys)
+            h = mix(h ^ mix(key));
+        return new SplittableRandom(h);
+    }
+
+    /**
+     * @return stream of purpose, identified by int keys
+     */
+    public static SplittableRandom stream(Purpose purpose, int[] keys) {
+        long[] longKeys = new long[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            longKeys[i] = keys[i];
+        return stream(purpose, longKeys);
+    }
+
+    /**
+     * @return standard normal sample (Box-Muller transform)
+     */
+    public static double nextGaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * SplitMix64 finalizer
+     */
+    private static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -15,6 +15,10 @@ public class VecImpl extends Vec {
         arr = new double[]{a};
     }
 
+    public VecImpl(double[] values) {
+        arr = values;
+    }
+
     @Override
     public Vec clone() {
         // TODO Auto-generated method stub
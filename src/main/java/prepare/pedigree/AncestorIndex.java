@@ -0,0 +1,177 @@
+package prepare.pedigree;
+
+import java.util.*;
+
+/**
+ * Memoized ancestry of pedigree vertices, for the common ancestor depths and distances of pairs.
+ * <p>
+ * The ancestry of a vertex holds its ancestors (itself included) in the depth first order of
+ * father before mother, each at the depth of its first visit, and the same ancestors sorted by id
+ * for binary search. It is built once from the ancestries of the parents, so a pair query costs
+ * a scan of one ancestry and a few binary searches in the other.
+ * <p>
+ * When the parents of a vertex change, {@link #invalidate} drops the ancestries of the vertex and
+ * its descendants only. An index of an overlay reuses the ancestries of its base index for vertices
+ * whose lineage the overlay does not change. Not thread safe.
+ */
+class AncestorIndex {
+    private final PedigreeView pedigree;
+    //index of the pedigree under an overlay, or null
+    private final AncestorIndex base;
+    private final Map<Integer, Ancestry> ancestries = new HashMap<>();
+    //vertices whose ancestry was built from the ancestry of a vertex
+    private final Map<Integer, Set<Integer>> dependents = new HashMap<>();
+    private final Set<Integer> inProgress = new HashSet<>();
+
+    AncestorIndex(PedigreeView pedigree) {
+        this(pedigree, null);
+    }
+
+    AncestorIndex(PedigreeView pedigree, AncestorIndex base) {
+        this.pedigree = pedigree;
+        this.base = base;
+    }
+
+    /**
+     * Drop the ancestry of id and of its descendants, after a change of the parents of id
+     */
+    void invalidate(int id) {
+        ancestries.remove(id);
+        Set<Integer> idDependents = dependents.remove(id);
+        if (idDependents != null) {
+            for (int dependent : idDependents)
+                invalidate(dependent);
+        }
+    }
+
+    /**
+     * @return depths from id1 and id2 of their common ancestors, in depth first order from id1,
+     * skipping ancestors of a common ancestor already listed
+     */
+    List<int[]> getCommonAncestorDepths(int id1, int id2) {
+        Ancestry ancestry1 = getAncestry(id1);
+        Ancestry ancestry2 = getAncestry(id2);
+        List<int[]> depthList = new ArrayList<>();
+        List<Ancestry> commonAncestries = new ArrayList<>();
+        for (int i = 0; i < ancestry1.ids.length; i++) {
+            int ancestor = ancestry1.ids[i];
+            int depth2 = ancestry2.depthOf(ancestor);
+            if (depth2 < 0 || isAncestorOfAny(ancestor, commonAncestries))
+                continue;
+            depthList.add(new int[]{ancestry1.depths[i], depth2});
+            //ancestors of a common ancestor are not counted again
+            commonAncestries.add(getAncestry(ancestor));
+        }
+        return depthList;
+    }
+
+    /**
+     * @return sum of depths to the common ancestor of least depth from id1, Integer.MAX_VALUE if unrelated
+     */
+    int getDistance(int id1, int id2) {
+        Ancestry ancestry1 = getAncestry(id1);
+        Ancestry ancestry2 = getAncestry(id2);
+        int distance = Integer.MAX_VALUE;
+        int minDepth1 = Integer.MAX_VALUE;
+        for (int i = 0; i < ancestry1.ids.length; i++) {
+            if (ancestry1.depths[i] >= minDepth1)
+                continue;
+            int depth2 = ancestry2.depthOf(ancestry1.ids[i]);
+            if (depth2 >= 0) {
+                minDepth1 = ancestry1.depths[i];
+                distance = minDepth1 + depth2;
+            }
+        }
+        return distance;
+    }
+
+    private static boolean isAncestorOfAny(int id, List<Ancestry> ancestries) {
+        for (Ancestry ancestry : ancestries) {
+            if (ancestry.depthOf(id) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    private Ancestry getAncestry(int id) {
+        if (id == -1)
+            return null;
+        Ancestry ancestry = ancestries.get(id);
+        if (ancestry != null)
+            return ancestry;
+        if (!inProgress.add(id))
+            throw new IllegalStateException("Pedigree has a cycle through " + id);
+
+        int fatherId = pedigree.getFatherId(id);
+        int motherId = pedigree.getMotherId(id);
+        Ancestry fatherAncestry = getAncestry(fatherId);
+        Ancestry motherAncestry = getAncestry(motherId);
+        if (fatherId != -1)
+            dependents.computeIfAbsent(fatherId, k -> new HashSet<>()).add(id);
+        if (motherId != -1)
+            dependents.computeIfAbsent(motherId, k -> new HashSet<>()).add(id);
+
+        if (base != null && isUnchangedInBase(id, fatherId, motherId, fatherAncestry, motherAncestry))
+            ancestry = base.getAncestry(id);
+        else
+            ancestry = new Ancestry(id, fatherAncestry, motherAncestry);
+        inProgress.remove(id);
+        ancestries.put(id, ancestry);
+        return ancestry;
+    }
+
+    private boolean isUnchangedInBase(int id, int fatherId, int motherId, Ancestry fatherAncestry, Ancestry motherAncestry) {
+        return base.pedigree.hasVertex(id)
+                && base.pedigree.getFatherId(id) == fatherId && base.pedigree.getMotherId(id) == motherId
+                && base.getAncestry(fatherId) == fatherAncestry && base.getAncestry(motherId) == motherAncestry;
+    }
+
+    private static final class Ancestry {
+        //ancestors in depth first order, and the depth of their first visit
+        private final int[] ids;
+        private final int[] depths;
+        private final int[] sortedIds;
+        private final int[] sortedDepths;
+
+        Ancestry(int id, Ancestry father, Ancestry mother) {
+            int fatherSize = father == null ? 0 : father.ids.length;
+            int motherSize = mother == null ? 0 : mother.ids.length;
+            int[] ids = new int[1 + fatherSize + motherSize];
+            int[] depths = new int[ids.length];
+            ids[0] = id;
+            int size = 1;
+            for (int i = 0; i < fatherSize; i++) {
+                ids[size] = father.ids[i];
+                depths[size++] = father.depths[i] + 1;
+            }
+            //ancestors of the mother already visited through the father keep their first depth
+            for (int i = 0; i < motherSize; i++) {
+                if (father != null && father.depthOf(mother.ids[i]) >= 0)
+                    continue;
+                ids[size] = mother.ids[i];
+                depths[size++] = mother.depths[i] + 1;
+            }
+            this.ids = Arrays.copyOf(ids, size);
+            this.depths = Arrays.copyOf(depths, size);
+
+            long[] keyed = new long[size];
+            for (int i = 0; i < size; i++)
+                keyed[i] = ((long) this.ids[i] << 32) | i;
+            Arrays.sort(keyed);
+            sortedIds = new int[size];
+            sortedDepths = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedIds[i] = (int) (keyed[i] >> 32);
+                sortedDepths[i] = this.depths[(int) keyed[i]];
+            }
+        }
+
+        /**
+         * @return depth of ancestor, -1 if not an ancestor
+         */
+        int depthOf(int ancestor) {
+            int index = Arrays.binarySearch(sortedIds, ancestor);
+            return index < 0 ? -1 : sortedDepths[index];
+        }
+    }
+}
@@ -4,11 +4,29 @@ public class NextIDGenerator {
     static Integer lastID;
     static Integer idJump = 10000;
 
-    public NextIDGenerator(int generation) {
-        lastID = idJump * generation - 1;
+    /**
+     * Ids of generation start at generation * idJump, or after the largest id of ped if it is larger,
+     * so inferred individuals of large cohorts do not take ids of real individuals
+     */
+    public NextIDGenerator(int generation, Pedigree ped) {
+        lastID = Math.max(idJump * generation - 1, ped.getLargestID());
     }
 
     public int getNextID() {
         return ++lastID;
     }
+
+    /**
+     * @return last generated id, or -1 if no generator was created
+     */
+    public static int getLastID() {
+        return lastID == null ? -1 : lastID;
+    }
+
+    /**
+     * Continue generating ids after lastID, when resuming a reconstruction
+     */
+    public static void setLastID(int lastID) {
+        NextIDGenerator.lastID = lastID == -1 ? null : lastID;
+    }
 }
@@ -1,7 +1,7 @@
 package prepare.pedigree;
 
 import prepare.graph.Graph;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 import prepare.graph.Vertex;
 
 import javax.management.RuntimeErrorException;
@@ -11,6 +11,7 @@ import java.util.*;
  * Processes functions of Nuclear Families
  */
 public class NuclearFamilyCreator {
+    private static final Log LOG = Log.get(NuclearFamilyCreator.class);
 
     private final Graph graph;
     private final List<NucFamily> allFamilies;
@@ -43,15 +44,15 @@ public class NuclearFamilyCreator {
                     areAllSiblingFromPreviosGeneration = false;
                 }
             }
-            MyLogger.info("NucFamCreator::SiblingGroup=" + siblingsPersons);
+            LOG.info("NucFamCreator::SiblingGroup={}", siblingsPersons);
             if (areAllSiblingFromPreviosGeneration || doingHirarchialClustering) {
                 createNucFamilyForSiblings(nucFamilies, siblingsPersons, nucFamiliyCreationStat, generation);
             } else {
                 addNewSibsToFamily(nucFamilies, siblingsGroup);
-                MyLogger.important("Skipping creation of nuclear familiy since some siblings are from previous generation " + siblingsPersons);
+                LOG.important("Skipping creation of nuclear familiy since some siblings are from previous generation {}", siblingsPersons);
             }
         }
-        MyLogger.info("Processing nuclear families returned " + nucFamiliyCreationStat);
+        LOG.info("Processing nuclear families returned {}", nucFamiliyCreationStat);
         return nucFamilies;
     }
 
@@ -63,7 +64,7 @@ public class NuclearFamilyCreator {
             try {
                 siblingGroups.add(verticesFromPersons(persons));
             } catch (Throwable t) {
-                MyLogger.error("Error processing the list of persons " + persons);
+                LOG.error("Error processing the list of persons {}", persons);
                 t.printStackTrace();
             }
         }
@@ -89,7 +90,7 @@ public class NuclearFamilyCreator {
             s.append("[#sibs:").append(i).append(" #groups ").append(sizes[i]).append("] ");
         }
 
-        MyLogger.important(s.toString());
+        LOG.important("{}", s);
     }
 
     private void createNucFamilyForSiblings(List<NucFamily> nucFamilies, List<Person> siblingsPersons,
@@ -103,10 +104,10 @@ public class NuclearFamilyCreator {
         Map<Person, List<Person>> fatherToSiblings = new HashMap<>();
         Person deadMother = null;
         Person deadFather = null;
-        MyLogger.info("Create nuclear family from :" + siblingsPersons.toString());
+        LOG.info("Create nuclear family from :{}", siblingsPersons);
 
         for (Person sibling : siblingsPersons) {
-            MyLogger.debug("new child in family: " + sibling);
+            LOG.debug("new child in family: {}", sibling);
             Person mother = sibling.getFamily().mother;
             Person father = sibling.getFamily().father;
 
@@ -116,7 +117,7 @@ public class NuclearFamilyCreator {
                     deadMother = new Person(id, 9999, true, discoveryGeneration);
                     //	deadMother.setAlive(false);
                     nucFamiliyCreationStat.numberOfDead++;
-                    MyLogger.info("New mother: " + deadMother.getId());
+                    LOG.info("New mother: {}", deadMother.getId());
 
                 }
                 mother = deadMother;
@@ -132,7 +133,7 @@ public class NuclearFamilyCreator {
                     deadFather = new Person(id, 9999, false, discoveryGeneration);
                     //	deadFather.setAlive(false);
                     nucFamiliyCreationStat.numberOfDead++;
-                    MyLogger.info("New father: " + deadFather.getId());
+                    LOG.info("New father: {}", deadFather.getId());
                 }
                 father = deadFather;
                 sibling.getFamily().father = deadFather;
@@ -172,7 +173,7 @@ public class NuclearFamilyCreator {
             newNucFamilies.add(nucFamily);
 
         } else if (motherToSiblings.size() == 1 && fatherToSiblings.size() == 2) {
-            MyLogger.important("found one living mother, and two fathers");
+            LOG.important("found one living mother, and two fathers");
             nucFamiliyCreationStat.motherTwoFathers++;
             // exactly one mother and 2 fathers
             Person mother = motherToSiblings.keySet().iterator().next();
@@ -185,7 +186,7 @@ public class NuclearFamilyCreator {
             NucFamily nucFamily2 = new NucFamily(mother, father2, fatherToSiblings.get(father2));
             newNucFamilies.add(nucFamily2);
         } else if (motherToSiblings.size() == 2 && fatherToSiblings.size() == 1) {
-            MyLogger.important("found one living father, and two mothers");
+            LOG.important("found one living father, and two mothers");
             nucFamiliyCreationStat.fatherTwoMothers++;
             // exactly one mother and 2 fathers
             Person father = fatherToSiblings.keySet().iterator().next();
@@ -198,7 +199,7 @@ public class NuclearFamilyCreator {
             NucFamily nucFamily2 = new NucFamily(mother2, father, motherToSiblings.get(mother2));
             newNucFamilies.add(nucFamily2);
         } else if (motherToSiblings.size() == 2 && fatherToSiblings.size() == 2) {
-            MyLogger.important("found two living mothers, and two fathers");
+            LOG.important("found two living mothers, and two fathers");
             nucFamiliyCreationStat.twoFatherTwoMothers++;
 
             Iterator<Person> fatherIterator = fatherToSiblings.keySet().iterator();
@@ -219,10 +220,10 @@ public class NuclearFamilyCreator {
                     mother1 = mother2;
                     mother2 = tempMother;
                 } else {
-                    MyLogger.error("father1=" + father1);
-                    MyLogger.error("father2=" + father2);
-                    MyLogger.error("mother1=" + mother1);
-                    MyLogger.error("mother2=" + mother2);
+                    LOG.error("father1={}", father1);
+                    LOG.error("father2={}", father2);
+                    LOG.error("mother1={}", mother1);
+                    LOG.error("mother2={}", mother2);
                     //throw new RuntimeException("Multiple parents are mixed up. need to check exact mixup");
                 }
             }
@@ -234,12 +235,12 @@ public class NuclearFamilyCreator {
             newNucFamilies.add(nucFamily2);
         } else {
             nucFamiliyCreationStat.tooManyParents++;
-            MyLogger.error("ERROR - more than 2 mothers or 2 fathers for the following siblings " + siblingsPersons);
+            LOG.error("ERROR - more than 2 mothers or 2 fathers for the following siblings {}", siblingsPersons);
         }
 
         // Updating siblings of each sibling to match the newly added nuclear families
         for (NucFamily newNucFamily : newNucFamilies) {
-            MyLogger.important("NucFamilyCreator::create nuclear family: " + newNucFamily);
+            LOG.important("NucFamilyCreator::create nuclear family: {}", newNucFamily);
             for (Vertex mainSib : verticesFromPersons(newNucFamily.siblings)) {
                 Person mainSibPerson = ((Person) mainSib.getData());
                 mainSibPerson.getFamily().siblings = new ArrayList<>();
@@ -286,7 +287,7 @@ public class NuclearFamilyCreator {
         Integer i = 0;
         for (Vertex vertex : graph.getVertexMap().values()) {
             ++i;
-            MyLogger.debug(String.format("Processing vertex %d as part for getting sibling groups. Vertex is %s", i, vertex));
+            LOG.debug("Processing vertex {} as part for getting sibling groups. Vertex is {}", i, vertex);
             Person person = (Person) vertex.getData();
             List<Person> siblings = person.getFamily().siblings;
             // This is just a sanity check
@@ -296,9 +297,9 @@ public class NuclearFamilyCreator {
             siblingsWithPerson.add(person);
 
             if (isSiblingsAlreadyInList(siblingsWithPerson, siblingGroups)) {
-                MyLogger.debug("Sibling list already in list" + siblingsWithPerson);
+                LOG.debug("Sibling list already in list{}", siblingsWithPerson);
             } else {
-                MyLogger.debug("Adding new sibling list to siblings groups " + siblingsWithPerson);
+                LOG.debug("Adding new sibling list to siblings groups {}", siblingsWithPerson);
                 siblingGroups.add(siblingsWithPerson);
             }
         }
@@ -1,18 +1,27 @@
 package prepare.pedigree;
 
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.Metrics;
 import prepare.common.Population;
+import prepare.common.GeneticMap;
 import prepare.common.Genotype;
-import prepare.common.Haplotype;
+import prepare.common.PackedHaplotype;
+import prepare.common.Recombinator;
 
 import java.io.*;
 import java.util.*;
 
 
-public class Pedigree {
+public class Pedigree implements PedigreeView {
+    private static final Log LOG = Log.get(Pedigree.class);
+
     private final Map<Integer, PedVertex> vertices = new HashMap<>();
     private final Map<PedVertex, Genotype> genotypes = new HashMap<>();
     private int largestID;
+    //vertex ids in ascending order, null until requested after a change of vertices
+    private int[] sortedIds;
+    //memoized ancestries, null until the first pair query
+    private AncestorIndex ancestorIndex;
     private Population population;
 
     public Pedigree(Population population) {
@@ -26,7 +35,8 @@ public class Pedigree {
 
     //clone constructor
     public Pedigree(Pedigree ped) {
-        MyLogger.debug("Cloning pedigree" + ped);
+        Metrics.getShared().count(Metrics.Counter.PEDIGREE_CLONES);
+        LOG.debug("Cloning pedigree{}", ped);
         //Add all vertices
         for (PedVertex v : ped.getVertices())
             addVertex(v.getId(), -1, -1, v.isAlive);
@@ -37,7 +47,7 @@ public class Pedigree {
             u.setFather(v.getFatherId());
             u.setMother(v.getMotherId());
         }
-        MyLogger.debug("Cloning done");
+        LOG.debug("Cloning done");
 
     }
 
@@ -87,29 +97,29 @@ public class Pedigree {
      * Calc likelihood of pedigree
      */
 
-    public void simulateRecombinations() {
+    public void simulateRecombinations(Recombinator recombinator) {
         //MyLogger.important("Pedigree::simulateRecombinations:" + this);
         //Create founder genotypes,and reset non-founder genotypes
         for (PedVertex v : getVertices()) {
             if (v.isFounder()) {
-                MyLogger.debug(v + " is a founder");
+                LOG.debug("{} is a founder", v);
                 attachGenotype(v, new Genotype(v.getId()));
             } else {
-                MyLogger.debug(v + " is a non-founder, genotype reset before simulation");
+                LOG.debug("{} is a non-founder, genotype reset before simulation", v);
 
                 resetGenotype(v.getId());
             }
         }
         //simulate other genotypes
         for (PedVertex v : getVertices()) {
-            simulateRecombination(v);
+            simulateRecombination(v, recombinator);
         }
     }
 
     @Override
     public boolean equals(Object other) {
         if (other.getClass() != Pedigree.class) {
-            MyLogger.important("Compare Pedigree to not-Pedigree object");
+            LOG.important("Compare Pedigree to not-Pedigree object");
             return false;
         }
         Pedigree o = (Pedigree) other;
@@ -118,20 +128,20 @@ public class Pedigree {
 
         for (PedVertex v : getVertices()) {
             if (o.getVertex(v.getId()) == null) {
-                MyLogger.info("Missing vertex " + v.getId());
+                LOG.info("Missing vertex {}", v.getId());
                 return false;
             }
             PedVertex oV = o.getVertex(v.getId());
             if (v.isAlive() != oV.isAlive()) {
-                MyLogger.info("Different living status, vertex " + v.getId());
+                LOG.info("Different living status, vertex {}", v.getId());
                 return false;
             }
             if (v.getFatherId() != oV.getFatherId()) {
-                MyLogger.info("Different father, vertex " + v.getId() + ": " + v.getFatherId() + "," + oV.getFatherId());
+                LOG.info("Different father, vertex {}: {},{}", v.getId(), v.getFatherId(), oV.getFatherId());
                 return false;
             }
             if (v.getMotherId() != oV.getMotherId()) {
-                MyLogger.info("Different mother, vertex " + v.getId() + ": " + v.getMotherId() + "," + oV.getMotherId());
+                LOG.info("Different mother, vertex {}: {},{}", v.getId(), v.getMotherId(), oV.getMotherId());
                 return false;
             }
         }
@@ -142,6 +152,60 @@ public class Pedigree {
         return vertices.containsKey(id);
     }
 
+    public int getFatherId(int id) {
+        PedVertex v = getVertex(id);
+        return v == null ? -1 : v.getFatherId();
+    }
+
+    public int getMotherId(int id) {
+        PedVertex v = getVertex(id);
+        return v == null ? -1 : v.getMotherId();
+    }
+
+    public boolean isAlive(int id) {
+        return getVertex(id).isAlive();
+    }
+
+    public int size() {
+        return vertices.size();
+    }
+
+    public List<int[]> getCommonAncestorDepths(int id1, int id2) {
+        if (!hasVertex(id1) || !hasVertex(id2))
+            return new ArrayList<>();
+        return getAncestorIndex().getCommonAncestorDepths(id1, id2);
+    }
+
+    AncestorIndex getAncestorIndex() {
+        if (ancestorIndex == null)
+            ancestorIndex = new AncestorIndex(this);
+        return ancestorIndex;
+    }
+
+    private void invalidateAncestry(int id) {
+        if (ancestorIndex != null)
+            ancestorIndex.invalidate(id);
+    }
+
+    /**
+     * @return vertex ids in ascending order, the order of {@link #getVertices()}. Shared, do not modify
+     */
+    int[] getSortedIds() {
+        if (sortedIds == null) {
+            int[] ids = new int[vertices.size()];
+            int i = 0;
+            for (int id : vertices.keySet())
+                ids[i++] = id;
+            Arrays.sort(ids);
+            sortedIds = ids;
+        }
+        return sortedIds;
+    }
+
+    int getLargestID() {
+        return largestID;
+    }
+
     public PedVertex getVertex(int id) {
         if (id == -1)
             return null;
@@ -178,15 +242,18 @@ public class Pedigree {
      * Add a new vertex (if id exists, do nothing!)
      */
     public void addVertex(int id, int fatherId, int motherId, boolean isAlive) {
-        MyLogger.debug("Adding vertex " + id + " " + fatherId + " " + motherId);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Adding vertex {} {} {}", id, fatherId, motherId);
         PedVertex v = new PedVertex(id, fatherId, motherId, isAlive);
 
         if (getVertex(id) != null) {
-            MyLogger.info("Pedigree::addVertex: Ignoring existing vertex ID: " + id);
+            LOG.info("Pedigree::addVertex: Ignoring existing vertex ID: {}", id);
             return;
         }
 
         vertices.put(id, v);
+        sortedIds = null;
+        invalidateAncestry(id);
         if (id > largestID)
             largestID = id;
     }
@@ -207,6 +274,8 @@ public class Pedigree {
                 child.overrideMother(-1);
         }
         vertices.remove(id);
+        sortedIds = null;
+        invalidateAncestry(id);
         genotypes.remove(getVertex(id));
     }
 
@@ -221,7 +290,7 @@ public class Pedigree {
     public List<PedVertex> getDescendants(int vid) {
         PedVertex v = getVertex(vid);
         if (v == null)
-            MyLogger.error("Pedigree:getDescendants:: " + vid + " is not in pedigree");
+            LOG.error("Pedigree:getDescendants:: {} is not in pedigree", vid);
 
         List<PedVertex> list = new ArrayList<>();
         addDescendantsToList(v, list, false);
@@ -231,7 +300,7 @@ public class Pedigree {
     public List<PedVertex> getAllDescendants(int vid) {
         PedVertex v = getVertex(vid);
         if (v == null)
-            MyLogger.error("Pedigree:getDescendants:: " + vid + " is not in pedigree");
+            LOG.error("Pedigree:getDescendants:: {} is not in pedigree", vid);
 
         List<PedVertex> list = new ArrayList<>();
         addDescendantsToList(v, list, true);
@@ -253,7 +322,7 @@ public class Pedigree {
     }
 
     public void calcExpectedFounderAges(int generation) {
-        MyLogger.important("Pedigree::Calc expected founders ages");
+        LOG.important("Pedigree::Calc expected founders ages");
         for (PedVertex v : getFounders()) {
             handleDemographics(v.getId(), generation);
         }
@@ -267,7 +336,7 @@ public class Pedigree {
     }
 
     public void readFromFile(String filename) {
-        MyLogger.important("Read pedigree from file " + filename);
+        LOG.important("Read pedigree from file {}", filename);
         BufferedReader fileReader;
         try {
             fileReader = new BufferedReader(new FileReader(new File(filename)));
@@ -294,16 +363,16 @@ public class Pedigree {
                 //Add founders, (if not founder will be overriden)
                 if (!verMap.containsKey(fatherID) && fatherID != -1) {
                     verMap.put(fatherID, new int[]{fatherID, -1, -1, 0});
-                    MyLogger.debug("Added father to map " + fatherID);
+                    LOG.debug("Added father to map {}", fatherID);
                 }
                 if (!verMap.containsKey(motherID) && motherID != -1) {
                     verMap.put(motherID, new int[]{motherID, -1, -1, 0});
-                    MyLogger.debug("Added mother to map " + motherID);
+                    LOG.debug("Added mother to map {}", motherID);
 
                 }
                 int[] child = {childId, fatherID, motherID, isAlive};
                 verMap.put(childId, child);
-                MyLogger.debug("Added child to map " + childId + " " + Arrays.toString(child));
+                LOG.debug("Added child to map {} {}", childId, Arrays.toString(child));
             }
             fileReader.close();
         } catch (IOException e) {
@@ -318,19 +387,19 @@ public class Pedigree {
         for (int[] currPerson : verMap.values()) {
             if (currPerson[1] == -1) {
                 addVertex(currPerson[0]);
-                MyLogger.debug("added foudner: " + getVertex(currPerson[0]));
+                LOG.debug("added foudner: {}", getVertex(currPerson[0]));
             }
         }
 
         while (vertices.size() < verMap.size()) {
-            MyLogger.debug(vertices.size() + "<" + verMap.size());
+            LOG.debug("{}<{}", vertices.size(), verMap.size());
             for (int[] currPerson : verMap.values()) {
                 //If from next generation
                 if (!hasVertex(currPerson[0]) && hasVertex(currPerson[1]) && hasVertex(currPerson[2])) {
                     addVertex(currPerson[0], currPerson[1], currPerson[2], currPerson[3] == 1);
-                    MyLogger.debug("added " + getVertex(currPerson[0]));
+                    LOG.debug("added {}", getVertex(currPerson[0]));
                 } else if (!hasVertex(currPerson[0]))
-                    MyLogger.debug("problematic adding vertex : " + currPerson[0]);
+                    LOG.debug("problematic adding vertex : {}", currPerson[0]);
             }
         }
     }
@@ -339,7 +408,7 @@ public class Pedigree {
      * Write pedigree using vertex ids
      */
     public void writeToFile(File file) throws IOException {
-        MyLogger.important("Writing pedigree to file: " + file);
+        LOG.important("Writing pedigree to file: {}", file);
         PrintWriter printWriter = new PrintWriter(file);
         //printWriter.println(String.format("name\tfather\tmother"));
         for (PedVertex v : getVertices()) {
@@ -355,7 +424,7 @@ public class Pedigree {
      * Write pedigree using demographic IDs if they exist (Real populations)
      */
     public void writeToFile(File file, Population dem) throws IOException {
-        MyLogger.important("Writing pedigree to file: " + file);
+        LOG.important("Writing pedigree to file: {}", file);
         file.getAbsoluteFile().getParentFile().mkdirs();
         PrintWriter printWriter = new PrintWriter(file);
         for (PedVertex v : getVertices()) {
@@ -367,24 +436,81 @@ public class Pedigree {
         printWriter.close();
     }
 
+    /**
+     * Write structure for resuming reconstruction, see {@link #readCheckpoint}.
+     * Layout: int largestID, int numOfVertices, then per vertex by id -
+     * int id, boolean isAlive, int fatherId, int motherId, int numOfChildren, int[] childIds
+     */
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        List<PedVertex> sorted = getVertices();
+        out.writeInt(largestID);
+        out.writeInt(sorted.size());
+        for (PedVertex v : sorted) {
+            out.writeInt(v.getId());
+            out.writeBoolean(v.isAlive());
+            out.writeInt(v.getFatherId());
+            out.writeInt(v.getMotherId());
+            //children of removed vertices are not restored
+            List<Integer> childIds = new ArrayList<>();
+            for (PedVertex child : v.children) {
+                if (getVertex(child.getId()) == child)
+                    childIds.add(child.getId());
+            }
+            out.writeInt(childIds.size());
+            for (int childId : childIds)
+                out.writeInt(childId);
+        }
+    }
+
+    /**
+     * Read structure written by {@link #writeCheckpoint}, keeping the order of children and the next new id
+     *
+     * @param population demographics of all vertices, including inferred ancestors
+     */
+    public static Pedigree readCheckpoint(DataInput in, Population population) throws IOException {
+        Pedigree ped = new Pedigree();
+        ped.population = population;
+        int largestID = in.readInt();
+        int numOfVertices = in.readInt();
+        int[][] parents = new int[numOfVertices][];
+        int[][] children = new int[numOfVertices][];
+        for (int i = 0; i < numOfVertices; i++) {
+            int id = in.readInt();
+            ped.addVertex(id, -1, -1, in.readBoolean());
+            parents[i] = new int[]{id, in.readInt(), in.readInt()};
+            children[i] = new int[in.readInt()];
+            for (int j = 0; j < children[i].length; j++)
+                children[i][j] = in.readInt();
+        }
+        for (int i = 0; i < numOfVertices; i++) {
+            PedVertex v = ped.getVertex(parents[i][0]);
+            v.overrideFather(parents[i][1]);
+            v.overrideMother(parents[i][2]);
+            for (int childId : children[i])
+                v.addChild(ped.getVertex(childId));
+        }
+        ped.largestID = largestID;
+        return ped;
+    }
+
 
     /**
      * Recursively recombine parents untill having available genotypes for meiosis
      */
-    private void simulateRecombination(PedVertex v) {
+    private void simulateRecombination(PedVertex v, Recombinator recombinator) {
         if (getGenotype(v) != null) {
             //MyLogger.debug("Already has a genotype" + getGenotype(v));
             return;
         }
 
         if (getGenotype(v.getFather()) == null)
-            simulateRecombination(v.getFather());
+            simulateRecombination(v.getFather(), recombinator);
         if (getGenotype(v.getMother()) == null)
-            simulateRecombination(v.getMother());
+            simulateRecombination(v.getMother(), recombinator);
 
         //MyLogger.debug("Recombining " + v + " father="+v.getFatherId() + " mother=" + v.getMotherId());
-        Haplotype fatherHaplotype = getGenotype(v.getFather()).recombine();
-        Haplotype motherHaplotype = getGenotype(v.getMother()).recombine();
+        PackedHaplotype fatherHaplotype = recombinator.recombine(getGenotype(v.getFather()), GeneticMap.Sex.MALE);
+        PackedHaplotype motherHaplotype = recombinator.recombine(getGenotype(v.getMother()), GeneticMap.Sex.FEMALE);
         //MyLogger.debug("father Hap=" + fatherHaplotype);
         //MyLogger.debug("mother Hap=" + motherHaplotype);
         Genotype g = new Genotype(fatherHaplotype, motherHaplotype);
@@ -454,7 +580,7 @@ public class Pedigree {
             //	MyLogger.important("Added person" + p);
         } else {
             population.setAge(v.getId(), avgAge + 20);
-            MyLogger.info("Updated age of person" + population.getPerson(v.getId()));
+            LOG.info("Updated age of person{}", population.getPerson(v.getId()));
         }
         return avgAge + 20;
     }
@@ -479,7 +605,7 @@ public class Pedigree {
                 //if relevant and in next layer and was not added before
                 if (!hasVertex(idConversion.get(v.getId())) &&
                         hasVertex(idConversion.get(v.getFatherId())) && hasVertex(idConversion.get(v.getMotherId()))) {
-                    MyLogger.debug("createPedigreeFromList::Adding next layer node: " + v);
+                    LOG.debug("createPedigreeFromList::Adding next layer node: {}", v);
                     addVertex(idConversion.get(v.getId()), idConversion.get(v.getFatherId()), idConversion.get(v.getMotherId()), v.isAlive());
                 }
             }
@@ -529,8 +655,9 @@ public class Pedigree {
 
         public void setFather(int fatherID) {
             if (father != null && father.getId() != fatherID)
-                MyLogger.warn("Overriding existing father " + father + " with " + fatherID + " for child " + this);
+                LOG.warn("Overriding existing father {} with {} for child {}", father, fatherID, this);
             father = getVertex(fatherID);
+            invalidateAncestry(id);
 
             if (fatherID != -1)
                 father.addChild(this);
@@ -542,8 +669,9 @@ public class Pedigree {
 
         public void setMother(int motherID) {
             if (mother != null && mother.getId() != motherID)
-                MyLogger.warn("Overriding existing mother " + mother + " with " + motherID + " for child " + this);
+                LOG.warn("Overriding existing mother {} with {} for child {}", mother, motherID, this);
             mother = getVertex(motherID);
+            invalidateAncestry(id);
 
             if (motherID != -1)
                 mother.addChild(this);
@@ -580,140 +708,32 @@ public class Pedigree {
 
         public void overrideFather(int fatherID) {
             father = getVertex(fatherID);
+            invalidateAncestry(id);
         }
 
         public void overrideMother(int motherID) {
             mother = getVertex(motherID);
+            invalidateAncestry(id);
         }
 
+        /**
+         * @return sum of depths to the common ancestor of least depth from this vertex, Integer.MAX_VALUE if unrelated.
+         * v2 is a vertex of the same pedigree
+         */
         public int distanceTo(PedVertex v2) {
-            List<PedVertex> ancestors1 = new ArrayList<>();
-            List<PedVertex> ancestors2 = new ArrayList<>();
-            List<Integer> degrees1 = new ArrayList<>();
-            List<Integer> degrees2 = new ArrayList<>();
-
-            addAncestry(this, 0, ancestors1, degrees1);
-            addAncestry(v2, 0, ancestors2, degrees2);
-
-            final List<PedVertex> unsortedAns1 = new ArrayList<>(ancestors1);
-            final List<PedVertex> unsortedAns2 = new ArrayList<>(ancestors2);
-            final List<Integer> unsortedDegrees1 = new ArrayList<>(degrees1);
-            final List<Integer> unsortedDegrees2 = new ArrayList<>(degrees2);
-
-            Collections.sort(degrees1);
-            Collections.sort(degrees2);
-            ancestors1.sort((v1, v21) -> {
-                int ind1 = 0;
-                int ind2 = 0;
-                for (PedVertex v : unsortedAns1) {
-                    if (v.equals(v1))
-                        break;
-                    ind1++;
-                }
-                for (PedVertex v : unsortedAns1) {
-                    if (v.equals(v21))
-                        break;
-                    ind2++;
-                }
-                return unsortedDegrees1.get(ind1).compareTo(unsortedDegrees1.get(ind2));
-            });
-
-            ancestors2.sort((v1, v212) -> {
-                int ind1 = 0;
-                int ind2 = 0;
-                for (PedVertex v : unsortedAns2) {
-                    if (v.equals(v1))
-                        break;
-                    ind1++;
-                }
-                for (PedVertex v : unsortedAns2) {
-                    if (v.equals(v212))
-                        break;
-                    ind2++;
-                }
-                return unsortedDegrees2.get(ind1).compareTo(unsortedDegrees2.get(ind2));
-
-            });
-
-
-            int ind1 = -1;
-
-            for (PedVertex ancestor1 : ancestors1) {
-                ind1++;
-                int ind2 = 0;
-                for (PedVertex ancestor2 : ancestors2) {
-                    if (ancestor1.equals(ancestor2))
-                        return degrees1.get(ind1) + degrees2.get(ind2);
-                    ind2++;
-                }
-            }
-            return Integer.MAX_VALUE;
+            return getAncestorIndex().getDistance(id, v2.getId());
         }
 
     }
 
+    /**
+     * @return depths from v1 and v2 of their common ancestors, in depth first order from v1.
+     * Ancestors of a listed common ancestor are not listed
+     */
     public List<int[]> getCommonAncestorDepths(PedVertex v1, PedVertex v2) {
-        List<PedVertex> ancestors1 = new ArrayList<>();
-        List<PedVertex> ancestors2 = new ArrayList<>();
-        List<Integer> degrees1 = new ArrayList<>();
-        List<Integer> degrees2 = new ArrayList<>();
-
-        //MyLogger.important("getCommonAncestorDepth: " + v1 + "," + v2);
-        addAncestry(v1, 0, ancestors1, degrees1);
-        addAncestry(v2, 0, ancestors2, degrees2);
-
-        List<int[]> depthList = new ArrayList<>();
-        while (true) {
-            List<PedVertex> commonAncAncestors = addCommonAncestorDepth(ancestors1, ancestors2, degrees1, degrees2, depthList);
-            if (commonAncAncestors == null)
-                return depthList;
-            //remove ancestors of prepare.common ancestors, as they all are prepare.common ancestors
-            for (PedVertex greatAncestor : commonAncAncestors) {
-                //MyLogger.important("Removing great ancestor from ancestor lists: " + greatAncestor);
-                int toRemoveIndex1 = ancestors1.indexOf(greatAncestor);
-                int toRemoveIndex2 = ancestors2.indexOf(greatAncestor);
-                if (ancestors1.contains(greatAncestor)) {
-                    ancestors1.remove(greatAncestor);
-                    degrees1.remove(toRemoveIndex1);
-                }
-                if (ancestors2.contains(greatAncestor)) {
-                    ancestors2.remove(greatAncestor);
-                    degrees2.remove(toRemoveIndex2);
-                }
-            }
-        }
-    }
-
-    private List<PedVertex> addCommonAncestorDepth(List<PedVertex> ancestors1, List<PedVertex> ancestors2, List<Integer> degrees1,
-                                                   List<Integer> degrees2, List<int[]> depthList) {
-        List<PedVertex> commonAncAncestors = new ArrayList<>();
-        int ind1 = 0;
-        for (PedVertex ancestor1 : ancestors1) {
-            int ind2 = 0;
-            for (PedVertex ancestor2 : ancestors2) {
-
-                if (ancestor1.equals(ancestor2)) {
-                    //MyLogger.important("addCommonAncestorDepth:prepare.common ancestor" + ancestor1);
-                    //MyLogger.important("addCommonAncestorDepth:ind1-ind2=" + ind1 + "-"+ind2);
-                    //MyLogger.important("ancestors1: " + ancestors1);
-                    //MyLogger.important("ancestors2: " + ancestors2);
-                    //MyLogger.important("degrees1: " + degrees1);
-                    //MyLogger.important("degrees2: " + degrees2);
-                    int[] depths = new int[2];
-                    depths[0] = degrees1.get(ind1);
-                    depths[1] = degrees2.get(ind2);
-                    //MyLogger.important("depth="+depths[0] +","+depths[1]);
-                    depthList.add(depths);
-                    List<Integer> degrees = new ArrayList<>();
-
-                    addAncestry(ancestors1.get(ind1), degrees1.get(ind1), commonAncAncestors, degrees);
-                    return commonAncAncestors;
-                }
-                ind2++;
-            }
-            ind1++;
-        }
-        return null;
+        if (v1 == null || v2 == null)
+            return new ArrayList<>();
+        return getAncestorIndex().getCommonAncestorDepths(v1.getId(), v2.getId());
     }
 
     public void pruneExtinct(List<PedVertex> lastGen) {
@@ -725,7 +745,7 @@ public class Pedigree {
         }
         for (PedVertex v : getVertices()) {
             if (!ancestors.contains(v)) {
-                MyLogger.important("remove " + v);
+                LOG.important("remove {}", v);
                 removeVertex(v.getId());
             }
         }
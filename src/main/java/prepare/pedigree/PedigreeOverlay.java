@@ -0,0 +1,182 @@
+package prepare.pedigree;
+
+import prepare.common.GeneticMap;
+import prepare.common.Genotype;
+import prepare.common.PackedHaplotype;
+import prepare.common.Recombinator;
+
+import java.util.*;
+
+/**
+ * Copy on write view of a pedigree, for evaluating a relationship hypothesis without cloning the pedigree.
+ * Hypothesis vertices and parent changes are kept in the overlay, the base pedigree is not modified
+ * and may be shared by several overlays, as long as it does not change while they are used.
+ * <p>
+ * Equivalent to applying the same changes to a clone ({@link Pedigree#Pedigree(Pedigree)}): new ids,
+ * common ancestor depths and the order of recombinations in {@link #simulateRecombinations} are the same.
+ * Children lists are not kept, so the overlay is only a view for likelihood calculation.
+ */
+public class PedigreeOverlay implements PedigreeView {
+    private final Pedigree base;
+    //father and mother of changed and added vertices
+    private final Map<Integer, int[]> parents = new HashMap<>();
+    //added vertices, all dead, in ascending order
+    private final List<Integer> added = new ArrayList<>();
+    private final Set<Integer> removed = new HashSet<>();
+    private final Map<Integer, Genotype> genotypes = new HashMap<>();
+    private int largestID;
+    //ancestries, reusing those of the base for lineages the overlay does not change
+    private AncestorIndex ancestorIndex;
+
+    public PedigreeOverlay(Pedigree base) {
+        this.base = base;
+        this.largestID = base.getLargestID();
+    }
+
+    public int getNewID() {
+        return ++largestID;
+    }
+
+    /**
+     * Add a dead founder
+     */
+    public void addVertex(int id) {
+        addVertex(id, -1, -1);
+    }
+
+    /**
+     * Add a dead vertex (if id exists, do nothing!)
+     */
+    public void addVertex(int id, int fatherId, int motherId) {
+        if (hasVertex(id))
+            return;
+        removed.remove(id);
+        int index = Collections.binarySearch(added, id);
+        added.add(-index - 1, id);
+        parents.put(id, new int[]{fatherId, motherId});
+        invalidateAncestry(id);
+        if (id > largestID)
+            largestID = id;
+    }
+
+    /**
+     * Remove vertex, children that have it as a parent lose that parent
+     */
+    public void removeVertex(int id, Collection<Integer> children) {
+        for (int child : children) {
+            if (getFatherId(child) == id)
+                setFather(child, -1);
+            if (getMotherId(child) == id)
+                setMother(child, -1);
+        }
+        int index = Collections.binarySearch(added, id);
+        if (index >= 0) {
+            added.remove(index);
+            parents.remove(id);
+        } else
+            removed.add(id);
+        invalidateAncestry(id);
+    }
+
+    public void setFather(int id, int fatherId) {
+        parentsForUpdate(id)[0] = fatherId;
+        invalidateAncestry(id);
+    }
+
+    public void setMother(int id, int motherId) {
+        parentsForUpdate(id)[1] = motherId;
+        invalidateAncestry(id);
+    }
+
+    private int[] parentsForUpdate(int id) {
+        int[] p = parents.get(id);
+        if (p == null) {
+            p = new int[]{base.getFatherId(id), base.getMotherId(id)};
+            parents.put(id, p);
+        }
+        return p;
+    }
+
+    public boolean hasVertex(int id) {
+        if (removed.contains(id))
+            return false;
+        return base.hasVertex(id) || Collections.binarySearch(added, id) >= 0;
+    }
+
+    public int getFatherId(int id) {
+        int[] p = parents.get(id);
+        return p != null ? p[0] : base.getFatherId(id);
+    }
+
+    public int getMotherId(int id) {
+        int[] p = parents.get(id);
+        return p != null ? p[1] : base.getMotherId(id);
+    }
+
+    public boolean isAlive(int id) {
+        return base.hasVertex(id) && base.isAlive(id);
+    }
+
+    public int size() {
+        return base.size() - removed.size() + added.size();
+    }
+
+    public List<int[]> getCommonAncestorDepths(int id1, int id2) {
+        if (!hasVertex(id1) || !hasVertex(id2))
+            return new ArrayList<>();
+        if (ancestorIndex == null)
+            ancestorIndex = new AncestorIndex(this, base.getAncestorIndex());
+        return ancestorIndex.getCommonAncestorDepths(id1, id2);
+    }
+
+    private void invalidateAncestry(int id) {
+        if (ancestorIndex != null)
+            ancestorIndex.invalidate(id);
+    }
+
+    public void simulateRecombinations(Recombinator recombinator) {
+        genotypes.clear();
+        //founder genotypes first, then the others, in ascending id order as Pedigree does
+        for (int pass = 0; pass < 2; pass++) {
+            int[] baseIds = base.getSortedIds();
+            int i = 0;
+            int j = 0;
+            while (i < baseIds.length || j < added.size()) {
+                int id;
+                if (j == added.size() || (i < baseIds.length && baseIds[i] < added.get(j)))
+                    id = baseIds[i++];
+                else
+                    id = added.get(j++);
+                if (removed.contains(id))
+                    continue;
+                if (pass == 0) {
+                    if (getFatherId(id) == -1 && getMotherId(id) == -1)
+                        genotypes.put(id, new Genotype(id));
+                } else
+                    simulateRecombination(id, recombinator);
+            }
+        }
+    }
+
+    /**
+     * Recursively recombine parents until having available genotypes for meiosis
+     */
+    private void simulateRecombination(int id, Recombinator recombinator) {
+        if (genotypes.get(id) != null)
+            return;
+        int fatherId = getFatherId(id);
+        int motherId = getMotherId(id);
+        if (genotypes.get(fatherId) == null)
+            simulateRecombination(fatherId, recombinator);
+        if (genotypes.get(motherId) == null)
+            simulateRecombination(motherId, recombinator);
+
+        PackedHaplotype fatherHaplotype = recombinator.recombine(genotypes.get(fatherId), GeneticMap.Sex.MALE);
+        PackedHaplotype motherHaplotype = recombinator.recombine(genotypes.get(motherId), GeneticMap.Sex.FEMALE);
+        genotypes.put(id, new Genotype(fatherHaplotype, motherHaplotype));
+    }
+
+    public Genotype getGenotype(int id) {
+        return genotypes.get(id);
+    }
+}
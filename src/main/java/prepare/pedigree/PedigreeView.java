@@ -0,0 +1,41 @@
+package prepare.pedigree;
+
+import prepare.common.Genotype;
+import prepare.common.Recombinator;
+
+import java.util.List;
+
+/**
+ * Read access to a pedigree structure and its simulated genotypes, as used by the likelihood calculators.
+ * Implemented by {@link Pedigree}, and by {@link PedigreeOverlay} for hypotheses layered on top of a pedigree.
+ */
+public interface PedigreeView {
+
+    boolean hasVertex(int id);
+
+    /**
+     * @return id of the father of id, -1 if it has none
+     */
+    int getFatherId(int id);
+
+    /**
+     * @return id of the mother of id, -1 if it has none
+     */
+    int getMotherId(int id);
+
+    boolean isAlive(int id);
+
+    int size();
+
+    /**
+     * @return depths of the common ancestors of id1 and id2, see {@link Pedigree#getCommonAncestorDepths}
+     */
+    List<int[]> getCommonAncestorDepths(int id1, int id2);
+
+    /**
+     * Simulate genotypes of all vertices, founders get their own founder genotypes
+     */
+    void simulateRecombinations(Recombinator recombinator);
+
+    Genotype getGenotype(int id);
+}
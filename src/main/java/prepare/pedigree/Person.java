@@ -1,7 +1,7 @@
 package prepare.pedigree;
 
 import prepare.graph.VertexData;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -12,6 +12,8 @@ import java.util.List;
 import java.util.StringTokenizer;
 
 public class Person implements VertexData, Comparable<Person> {
+    private static final Log LOG = Log.get(Person.class);
+
     private static final long serialVersionUID = -2041304994757775928L;
     // -- Details of the person
     private final int id;
@@ -76,7 +78,7 @@ public class Person implements VertexData, Comparable<Person> {
      * @throws IOException - in case of a problem reading the file
      */
     public static List<VertexData> listFromDemographics(String demographicsFilename) throws IOException {
-        MyLogger.important("Creating person list from " + demographicsFilename);
+        LOG.important("Creating person list from {}", demographicsFilename);
         List<VertexData> persons = new ArrayList<>();
 
         BufferedReader fileReader = new BufferedReader(new FileReader(new File(demographicsFilename)));
@@ -105,9 +107,9 @@ public class Person implements VertexData, Comparable<Person> {
             }
             Person p = new Person(id, age, gender, 0);
             persons.add(p);
-            MyLogger.debug(i + ")Added " + p + " to prepare.graph");
+            LOG.debug("{})Added {} to prepare.graph", i, p);
         }
-        MyLogger.important("Added " + i + " individuals to prepare.graph");
+        LOG.important("Added {} individuals to prepare.graph", i);
 
         fileReader.close();
         return persons;
@@ -1,7 +1,7 @@
 package prepare.pedreconstruction;
 
 import prepare.graph.*;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 import prepare.pedigree.NucFamily;
 import prepare.pedigree.Person;
 import prepare.pedigree.Pedigree;
@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.Map;
 
 public class Contraction {
+    private static final Log LOG = Log.get(Contraction.class);
 
     Map<Integer, SuperVertex> contractionMap = new HashMap<>();
     List<SuperVertex> contractedNodes = new ArrayList<>();
@@ -54,14 +55,14 @@ public class Contraction {
 
 
                 if (livingDescendants1.containsAll(livingDescendants2) && livingDescendants2.containsAll(livingDescendants1)) {
-                    MyLogger.debug("Contracting " + v1 + "," + v2);
+                    LOG.debug("Contracting {},{}", v1, v2);
                     Person p1 = p.getPopulation().getPerson(vid1);
                     Person p2 = p.getPopulation().getPerson(vid2);
 
 
                     //if both are yet to be contracted
                     if (contractionMap.get(vid1) == null && contractionMap.get(vid1) == null) {
-                        MyLogger.debug("contract " + vid1 + " & " + vid2);
+                        LOG.debug("contract {} & {}", vid1, vid2);
                         SuperVertex contractedNode = new SuperVertex(new BaseVertex(p1));
                         contractedNode.addVertex(new BaseVertex(p2));
                         contractedNodes.add(contractedNode);
@@ -70,13 +71,13 @@ public class Contraction {
                     }
                     //If vid1 is already contracted and vid2 is not in the same super vertex
                     else if (contractionMap.get(vid1) != null && contractionMap.get(vid1) != contractionMap.get(vid2)) {
-                        MyLogger.debug("Adding " + vid2 + " to " + contractionMap.get(vid1));
+                        LOG.debug("Adding {} to {}", vid2, contractionMap.get(vid1));
                         //add p2 to the super-vertex of vid1
                         contractionMap.get(vid1).addVertex(new BaseVertex(p2));
                         //set this super-vertex as the contraction of vid2
                         contractionMap.put(vid2, contractionMap.get(vid1));
                     } else if (contractionMap.get(vid2) != null && contractionMap.get(vid1) != contractionMap.get(vid2)) {
-                        MyLogger.debug("Adding " + vid1 + " to " + contractionMap.get(vid2));
+                        LOG.debug("Adding {} to {}", vid1, contractionMap.get(vid2));
                         contractionMap.get(vid2).addVertex(new BaseVertex(p1));
                         contractionMap.put(vid1, contractionMap.get(vid2));
                     }
@@ -88,10 +89,10 @@ public class Contraction {
                 SuperVertex sv = new SuperVertex(new BaseVertex(p1));
                 contractedNodes.add(sv);
                 contractionMap.put(v1.getId(), sv);
-                MyLogger.debug("Contracting " + v1);
+                LOG.debug("Contracting {}", v1);
 
             }
-            MyLogger.info("SuperVertex of " + v1 + " is" + contractionMap.get(v1.getId()));
+            LOG.info("SuperVertex of {} is{}", v1, contractionMap.get(v1.getId()));
         }
     }
 
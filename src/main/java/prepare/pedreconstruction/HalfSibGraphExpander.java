@@ -1,7 +1,7 @@
 package prepare.pedreconstruction;
 
 import prepare.graph.*;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 import prepare.relationship.RelationshipProbWeight;
 import prepare.pedigree.Pedigree;
 
@@ -11,6 +11,8 @@ import java.util.List;
 import static prepare.relationship.Relationship.HALF_SIB;
 
 public class HalfSibGraphExpander {
+    private static final Log LOG = Log.get(HalfSibGraphExpander.class);
+
     private final Graph contractedGraph;
     private final Contraction contraction;//sibGroup contraction
     private final Pedigree ped;
@@ -38,7 +40,7 @@ public class HalfSibGraphExpander {
         //get mates of all siblings
         for (Vertex sv : contractedGraph.getVertices()) {
 
-            MyLogger.important("sv=" + sv + " svid=" + sv.getVertexId());
+            LOG.important("sv={} svid={}", sv, sv.getVertexId());
             List<Integer> allMateIDs = new ArrayList<>();
 
 
@@ -46,7 +48,7 @@ public class HalfSibGraphExpander {
                 int id = sib.getVertexId();
                 List<Integer> mateIDs = ped.getMates(id);
                 allMateIDs.addAll(mateIDs);
-                MyLogger.important("Added mates " + mateIDs);
+                LOG.important("Added mates {}", mateIDs);
 
                 for (Edge se : sv.getEdgeMap().values()) {
                     Vertex potentSib = se.getVertex2();
@@ -62,7 +64,8 @@ public class HalfSibGraphExpander {
                         if (mate.hasEdgeTo(potentSib.getVertexId())) {
                             //first priority - size of the siblings group
                             if (((SuperVertex) sv.getData()).getInnerVertices().size() > ((SuperVertex) mate.getData()).getInnerVertices().size()) {
-                                MyLogger.important("Mate " + mate + " has halfSibEdge to " + potentSib + " with less individuals then " + sv + ", removing edge");
+                                LOG.important("Mate {} has halfSibEdge to {} with less individuals then {}, removing edge",
+                                        mate, potentSib, sv);
                                 mate.removeEdgeTo(potentSib);
                                 potentSib.removeEdgeTo(mate);
                             } else {
@@ -71,7 +74,8 @@ public class HalfSibGraphExpander {
                                         Edge mateEdge = mate.getEdgeTo(potentSib.getVertexId());
                                         double mateProb = ((RelationshipProbWeight) mateEdge.getWeight()).getProb(HALF_SIB);
                                         if (mateProb < myProb) {
-                                            MyLogger.important("Mate " + mate + " has halfSibEdge to " + potentSib + " with lower probability then " + sv + ", removing edge");
+                                            LOG.important("Mate {} has halfSibEdge to {} with lower probability then {}, removing edge",
+                                                    mate, potentSib, sv);
                                             mate.removeEdgeTo(potentSib);
                                         }
                                     }
@@ -94,7 +98,8 @@ public class HalfSibGraphExpander {
 
                         mate1.removeEdgeTo(mate2);
                         mate2.removeEdgeTo(mate1);
-                        MyLogger.important(mateID1 + " has half-sibling edge to " + mateID2 + " although their mates are siblings " + sv);
+                        LOG.important("{} has half-sibling edge to {} although their mates are siblings {}",
+                                mateID1, mateID2, sv);
                     }
                 }
             }
@@ -0,0 +1,429 @@
+package prepare.pedreconstruction;
+
+import prepare.common.Population;
+import prepare.graph.BaseEdge;
+import prepare.graph.Graph;
+import prepare.graph.Vertex;
+import prepare.misc.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parallel reader of IBD features files, one pair per line:
+ * <pre>id1 id2 numOfSegments meanLength [...]</pre>
+ * separated by tabs or spaces, further fields are ignored.
+ * <p>
+ * Plain files are memory mapped and split into chunks on line boundaries, gzip files (.gz) are decompressed
+ * as a stream of blocks. Chunks are parsed in parallel directly from bytes, in waves of a few chunks per thread,
+ * and the edges of a wave are added to the graph in parallel, partitioned by their source vertex.
+ * Edges are added in file order within each vertex, so a pair listed twice keeps its last features.
+ */
+public class IBDFeaturesReader {
+    private static final Log LOG = Log.get(IBDFeaturesReader.class);
+
+    private static final long MAX_CHUNK_SIZE = 64L << 20;
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+    //Decimals with a mantissa up to 2^53 and up to 22 fraction digits are a single correctly rounded division
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    //Powers of ten that are exact doubles
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private final Graph graph;
+    private final Population population;
+    private final int threads;
+    private final long maxChunkSize;
+    private final long minChunkSize;
+    //receives the parsed chunks of each wave, in file order
+    private final Consumer<List<Records>> sink;
+    private ExecutorService executor;
+    private long numOfEdges = 0;
+
+    IBDFeaturesReader(Graph graph, Population population, int threads, long minChunkSize, long maxChunkSize) {
+        this.graph = graph;
+        this.population = population;
+        this.threads = Math.max(1, threads);
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.sink = this::addEdges;
+    }
+
+    private IBDFeaturesReader(int threads, Consumer<List<Records>> sink) {
+        this.graph = null;
+        this.population = null;
+        this.threads = Math.max(1, threads);
+        this.minChunkSize = MIN_CHUNK_SIZE;
+        this.maxChunkSize = MAX_CHUNK_SIZE;
+        this.sink = sink;
+    }
+
+    /**
+     * Add an edge with IBD features to graph, for every pair in file whose individuals are both in population
+     */
+    public static void read(Graph graph, File file, Population population, int threads) {
+        LOG.important("Adding IBD features from {}", file);
+        IBDFeaturesReader reader = new IBDFeaturesReader(graph, population, threads, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+        try {
+            reader.read(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed processing IBD features file " + file, e);
+        }
+        LOG.important("Added {} IBD features edges", reader.numOfEdges);
+    }
+
+    /**
+     * Parse file in parallel, passing the parsed chunks to sink in file order
+     */
+    static void readRecords(File file, int threads, Consumer<Records> sink) throws IOException {
+        new IBDFeaturesReader(threads, wave -> wave.forEach(sink)).read(file);
+    }
+
+    void read(File file) throws IOException {
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            if (file.getName().endsWith(".gz"))
+                readGzip(file);
+            else
+                readMapped(file);
+        } finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+    }
+
+    private void readMapped(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            long chunkSize = Math.max(minChunkSize, Math.min(maxChunkSize, size / ((long) threads * CHUNKS_PER_THREAD) + 1));
+            List<Callable<Records>> wave = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = lineEnd(channel, Math.min(size, start + chunkSize), size);
+                long chunkStart = start;
+                wave.add(() -> parse(channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, end - chunkStart)));
+                if (wave.size() == threads * CHUNKS_PER_THREAD) {
+                    processWave(wave);
+                    wave.clear();
+                }
+                start = end;
+            }
+            processWave(wave);
+        }
+    }
+
+    private void readGzip(File file) throws IOException {
+        int blockSize = (int) Math.min(maxChunkSize, 8L * minChunkSize);
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file), 1 << 16)) {
+            List<Callable<Records>> wave = new ArrayList<>();
+            byte[] carry = new byte[0];
+            while (true) {
+                byte[] block = Arrays.copyOf(carry, Math.max(blockSize, 2 * carry.length));
+                int length = carry.length;
+                int read;
+                while (length < block.length && (read = in.read(block, length, block.length - length)) > 0)
+                    length += read;
+                if (length == carry.length) {
+                    //end of stream, parse last line
+                    if (length > 0)
+                        wave.add(parseTask(ByteBuffer.wrap(block, 0, length)));
+                    break;
+                }
+                int lastNewLine = length - 1;
+                while (lastNewLine >= 0 && block[lastNewLine] != '\n')
+                    lastNewLine--;
+                carry = Arrays.copyOfRange(block, lastNewLine + 1, length);
+                if (lastNewLine >= 0)
+                    wave.add(parseTask(ByteBuffer.wrap(block, 0, lastNewLine + 1)));
+                if (wave.size() == threads * CHUNKS_PER_THREAD) {
+                    processWave(wave);
+                    wave.clear();
+                }
+            }
+            processWave(wave);
+        }
+    }
+
+    private Callable<Records> parseTask(ByteBuffer buffer) {
+        return () -> parse(buffer);
+    }
+
+    /**
+     * @return offset following the first line end at or after position
+     */
+    private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Parse a wave of chunks in parallel, and pass them to the sink
+     */
+    private void processWave(List<Callable<Records>> wave) {
+        if (wave.isEmpty())
+            return;
+        sink.accept(invokeAll(new ArrayList<>(wave), executor));
+    }
+
+    /**
+     * Add edges of parsed chunks to graph, each thread adding the edges of its own vertices
+     */
+    private void addEdges(List<Records> parsed) {
+        List<Callable<Long>> inserts = new ArrayList<>();
+        for (int partition = 0; partition < threads; partition++) {
+            int p = partition;
+            inserts.add(() -> addEdges(parsed, p));
+        }
+        for (long added : invokeAll(inserts, executor))
+            numOfEdges += added;
+    }
+
+    private long addEdges(List<Records> parsed, int partition) {
+        long added = 0;
+        for (Records records : parsed) {
+            for (int i = 0; i < records.size; i++) {
+                int id1 = records.id1[i];
+                int id2 = records.id2[i];
+                if (Math.floorMod(id1, threads) != partition)
+                    continue;
+                if (id1 == id2) {
+                    LOG.info("{}: skipping self IBD match, suggests inbreeding", id1);
+                    continue;
+                }
+                if (population.getPerson(id1) == null || population.getPerson(id2) == null)
+                    continue;
+                Vertex v1 = graph.getVertex(id1);
+                Vertex v2 = graph.getVertex(id2);
+                if (v1 != null && v2 != null) {
+                    v1.addEdge(new BaseEdge(v1, v2, new IBDFeaturesWeight(records.segmentNum[i], records.meanLength[i])));
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks, ExecutorService executor) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if (executor == null) {
+                for (Callable<T> task : tasks)
+                    results.add(task.call());
+            } else {
+                for (Future<T> future : executor.invokeAll(tasks))
+                    results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed parsing IBD features", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading IBD features", e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed parsing IBD features", e);
+        }
+        return results;
+    }
+
+    /**
+     * Parse all lines of buffer, from its position to its limit
+     */
+    static Records parse(ByteBuffer buffer) {
+        Records records = new Records();
+        LineParser parser = new LineParser(buffer);
+        while (parser.hasMore()) {
+            if (parser.skipEmptyLine())
+                continue;
+            int id1 = parser.nextInt();
+            int id2 = parser.nextInt();
+            double segmentNum = parser.nextDouble();
+            double meanLength = parser.nextDouble();
+            parser.skipLine();
+            records.add(id1, id2, segmentNum, meanLength);
+        }
+        return records;
+    }
+
+    /**
+     * Parsed pairs of a chunk, in file order
+     */
+    static class Records {
+        int size;
+        int[] id1 = new int[1024];
+        int[] id2 = new int[1024];
+        double[] segmentNum = new double[1024];
+        double[] meanLength = new double[1024];
+
+        void add(int i1, int i2, double s, double m) {
+            if (size == id1.length) {
+                id1 = Arrays.copyOf(id1, 2 * size);
+                id2 = Arrays.copyOf(id2, 2 * size);
+                segmentNum = Arrays.copyOf(segmentNum, 2 * size);
+                meanLength = Arrays.copyOf(meanLength, 2 * size);
+            }
+            id1[size] = i1;
+            id2[size] = i2;
+            segmentNum[size] = s;
+            meanLength[size] = m;
+            size++;
+        }
+    }
+
+    /**
+     * Tokenizer of tab or space separated fields, directly over the bytes of a buffer
+     */
+    private static class LineParser {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int pos;
+
+        LineParser(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.pos = buffer.position();
+            this.limit = buffer.limit();
+        }
+
+        boolean hasMore() {
+            return pos < limit;
+        }
+
+        /**
+         * @return true if an empty line was skipped
+         */
+        boolean skipEmptyLine() {
+            int p = pos;
+            while (p < limit && isSeparator(buffer.get(p)))
+                p++;
+            if (p == limit || isLineEnd(buffer.get(p))) {
+                pos = p;
+                skipLine();
+                return true;
+            }
+            return false;
+        }
+
+        void skipLine() {
+            while (pos < limit && buffer.get(pos) != '\n')
+                pos++;
+            pos++;
+        }
+
+        int nextInt() {
+            skipSeparators();
+            int start = pos;
+            boolean negative = false;
+            if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+                negative = buffer.get(pos++) == '-';
+            long value = 0;
+            int digits = 0;
+            while (pos < limit && isDigit(buffer.get(pos))) {
+                value = value * 10 + (buffer.get(pos++) - '0');
+                if (++digits > 10)
+                    throw malformed(start);
+            }
+            if (digits == 0 || !endOfField())
+                throw malformed(start);
+            value = negative ? -value : value;
+            if (value != (int) value)
+                throw malformed(start);
+            return (int) value;
+        }
+
+        double nextDouble() {
+            skipSeparators();
+            int start = pos;
+            boolean negative = false;
+            if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+                negative = buffer.get(pos++) == '-';
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = 0;
+            boolean exact = true;
+            boolean fraction = false;
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (isDigit(b)) {
+                    if (exact && mantissa <= (MAX_EXACT_MANTISSA - (b - '0')) / 10)
+                        mantissa = mantissa * 10 + (b - '0');
+                    else
+                        exact = false;
+                    digits++;
+                    if (fraction)
+                        fractionDigits++;
+                } else if (b == '.' && !fraction)
+                    fraction = true;
+                else
+                    break;
+                pos++;
+            }
+            if (digits > 0 && exact && fractionDigits < POW10.length && endOfField()) {
+                double value = mantissa / POW10[fractionDigits];
+                return negative ? -value : value;
+            }
+            //long mantissa, exponent or special values
+            while (pos < limit && !isSeparator(buffer.get(pos)) && !isLineEnd(buffer.get(pos)))
+                pos++;
+            byte[] token = new byte[pos - start];
+            for (int i = 0; i < token.length; i++)
+                token[i] = buffer.get(start + i);
+            try {
+                return Double.parseDouble(new String(token, "ISO-8859-1"));
+            } catch (NumberFormatException | UnsupportedEncodingException e) {
+                throw malformed(start);
+            }
+        }
+
+        private boolean endOfField() {
+            return pos == limit || isSeparator(buffer.get(pos)) || isLineEnd(buffer.get(pos));
+        }
+
+        private void skipSeparators() {
+            while (pos < limit && isSeparator(buffer.get(pos)))
+                pos++;
+        }
+
+        private NumberFormatException malformed(int start) {
+            int end = start;
+            while (end < limit && !isLineEnd(buffer.get(end)))
+                end++;
+            byte[] field = new byte[end - start];
+            for (int i = 0; i < field.length; i++)
+                field[i] = buffer.get(start + i);
+            return new NumberFormatException("Malformed IBD features line at \"" + new String(field) + "\"");
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+
+        private static boolean isSeparator(byte b) {
+            return b == '\t' || b == ' ';
+        }
+
+        private static boolean isLineEnd(byte b) {
+            return b == '\n' || b == '\r';
+        }
+    }
+}
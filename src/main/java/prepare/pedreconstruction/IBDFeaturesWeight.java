@@ -4,20 +4,25 @@ import prepare.common.Population;
 import prepare.graph.*;
 import jsat.classifiers.DataPoint;
 import jsat.linear.Vec;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.RandomStreams;
 import prepare.misc.VecImpl;
 import prepare.common.Genotype;
-import prepare.common.HapRegion;
-import prepare.common.Location;
+import prepare.common.PackedHaplotype;
+import prepare.common.SegmentBuffer;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 
 public class IBDFeaturesWeight implements Weight {
+    private static final Log LOG = Log.get(IBDFeaturesWeight.class);
+
     private static final long serialVersionUID = -3336217617441788940L;
+    //Scale of the total IBD length (Mb) feature
+    public static final double LENGTH_SCALE = 30;
+    //after genome end
+    private static final long GENOME_END = PackedHaplotype.pack(100, 1);
     private double segmentNum;
     private double meanLength;
 
@@ -42,80 +47,96 @@ public class IBDFeaturesWeight implements Weight {
         this.segmentNum = segmentNum;
     }
 
+    /**
+     * Add IBD features edges from file to graph, parsing with all available processors
+     */
     public static void readEdgesWeights(Graph graph, String filename, Population population) {
-        MyLogger.important("Adding IBD features from " + filename);
+        readEdgesWeights(graph, filename, population, Runtime.getRuntime().availableProcessors());
+    }
 
-        BufferedReader fileReader;
+    /**
+     * Add IBD features edges from file to graph, file is either a binary IBD graph (see {@link IBDGraphFile})
+     * or a text IBD features file (see {@link IBDFeaturesReader})
+     */
+    public static void readEdgesWeights(Graph graph, String filename, Population population, int threads) {
+        File file = new File(filename);
+        if (!IBDGraphFile.isIBDGraphFile(file)) {
+            IBDFeaturesReader.read(graph, file, population, threads);
+            return;
+        }
         try {
-            fileReader = new BufferedReader(new FileReader(new File(filename)));
-            //-- First line in the file holds the titles and is redundant
-            //fileReader.readLine();
+            long added = IBDGraphFile.open(file).addEdges(graph, population, threads);
+            LOG.important("Added {} IBD features edges", added);
         } catch (IOException e) {
-            throw new RuntimeException("Failed opening IBD file " + filename, e);
+            throw new RuntimeException("Failed reading binary IBD graph " + file, e);
         }
+    }
 
-        String nextLine;
+    /**
+     * Read IBD features edges between vertices from file into an immutable {@link CsrGraph}, without per edge objects.
+     * File is either a binary IBD graph (see {@link IBDGraphFile}) or a text IBD features file (see {@link IBDFeaturesReader})
+     */
+    public static CsrGraph readCsrGraph(List<? extends VertexData> vertices, String filename, int threads) {
+        File file = new File(filename);
+        CsrGraph.Builder builder = new CsrGraph.Builder(vertices, CsrGraph.WeightType.IBD_FEATURES);
+        long[] added = new long[1];
         try {
-            while ((nextLine = fileReader.readLine()) != null) {
-                StringTokenizer nextLineTokenizer = new StringTokenizer(nextLine, "\t");
-
-                int id1 = Integer.parseInt(nextLineTokenizer.nextToken());
-                int id2 = Integer.parseInt(nextLineTokenizer.nextToken());
-                if (id1 == id2) {
-                    MyLogger.info(id1 + ": skipping self IBD match, suggests inbreeding");
-                    continue;
-                }
-                String segmentNumStr = nextLineTokenizer.nextToken();
-                String meanLengthStr = nextLineTokenizer.nextToken();
-
-                if (population.getPerson(id1) == null || population.getPerson(id2) == null)
-                    continue;
-                Integer iid1 = population.getPerson(id1).getId();
-                Integer iid2 = population.getPerson(id2).getId();
-                //Integer iid1 = Integer.parseInt(iid1Str);
-                //Integer iid2 = Integer.parseInt(iid2Str);
-                double segmentNum = Double.parseDouble(segmentNumStr);
-                double meanLength = Double.parseDouble(meanLengthStr);
-
-                Vertex v1 = graph.getVertex(iid1);
-                Vertex v2 = graph.getVertex(iid2);
-                IBDFeaturesWeight w = new IBDFeaturesWeight(segmentNum, meanLength);
-                MyLogger.debug(v1 + "," + v2 + " Read IBD features " + w);
-                if (v1 != null && v2 != null)
-                    graph.addEdge(new BaseEdge(v1, v2, w));
+            if (IBDGraphFile.isIBDGraphFile(file)) {
+                IBDGraphFile.open(file).forEachEdge((id1, id2, segmentNum, meanLength) -> {
+                    if (builder.addIBDFeatures(id1, id2, segmentNum, meanLength))
+                        added[0]++;
+                });
+            } else {
+                LOG.important("Adding IBD features from {}", file);
+                IBDFeaturesReader.readRecords(file, threads, records -> {
+                    for (int i = 0; i < records.size; i++) {
+                        if (records.id1[i] == records.id2[i]) {
+                            LOG.info("{}: skipping self IBD match, suggests inbreeding", records.id1[i]);
+                            continue;
+                        }
+                        if (builder.addIBDFeatures(records.id1[i], records.id2[i], records.segmentNum[i], records.meanLength[i]))
+                            added[0]++;
+                    }
+                });
             }
-            fileReader.close();
         } catch (IOException e) {
-            throw new RuntimeException("Failed processing IBD features file " + filename, e);
+            throw new RuntimeException("Failed processing IBD features file " + file, e);
         }
+        LOG.important("Added {} IBD features edges", added[0]);
+        return builder.build();
     }
 
+    private static final ThreadLocal<IBDBuffers> IBD_BUFFERS = ThreadLocal.withInitial(IBDBuffers::new);
+
     /**
      * Calculate IBD features for a pair of genotypes
+     * @param random noise stream, unused if addNoise is false
      */
-    public static IBDFeaturesWeight calcIBDFeatureWeight(Genotype g1, Genotype g2, boolean addNoise, boolean phased) {
-        List<HapRegion> IBD11 = g1.getHap1().getIBDSegments(g2.getHap1());
-        List<HapRegion> IBD12 = g1.getHap1().getIBDSegments(g2.getHap2());
-        List<HapRegion> IBD21 = g1.getHap2().getIBDSegments(g2.getHap1());
-        List<HapRegion> IBD22 = g1.getHap2().getIBDSegments(g2.getHap2());
-
-        List<HapRegion> IBD = new ArrayList<>();
-        IBD.addAll(IBD11);
-        IBD.addAll(IBD12);
-        IBD.addAll(IBD21);
-        IBD.addAll(IBD22);
-
-        if (phased)
-            IBD = extendIBDSegments(IBD);
-        else
-            IBD = extendUnphasedIBDSegments(IBD);
-
+    public static IBDFeaturesWeight calcIBDFeatureWeight(Genotype g1, Genotype g2, boolean addNoise, boolean phased, SplittableRandom random) {
+        IBDBuffers buffers = IBD_BUFFERS.get();
+        buffers.clear();
+        SegmentBuffer[] pairIBD = buffers.pairIBD;
+        g1.getPackedHap1().addIBDSegments(g2.getPackedHap1(), pairIBD[0]);
+        g1.getPackedHap1().addIBDSegments(g2.getPackedHap2(), pairIBD[1]);
+        g1.getPackedHap2().addIBDSegments(g2.getPackedHap1(), pairIBD[2]);
+        g1.getPackedHap2().addIBDSegments(g2.getPackedHap2(), pairIBD[3]);
+
+        SegmentBuffer IBD = buffers.merged;
+        mergeByStart(pairIBD, buffers.cursors, IBD);
+
+        if (IBD.size() >= 2) {
+            if (phased)
+                extendIBDSegments(IBD, buffers.extended);
+            else
+                extendUnphasedIBDSegments(IBD, buffers.extended);
+            IBD = buffers.extended;
+        }
 
         double totalLength = 0;
         int segNum = 0;
 
-        for (HapRegion segment : IBD) {
-            totalLength += (segment.getEnd().getPosition() - segment.getStart().getPosition()) / 1000000.0;
+        for (int i = 0; i < IBD.size(); i++) {
+            totalLength += (PackedHaplotype.position(IBD.getEnd(i)) - PackedHaplotype.position(IBD.getStart(i))) / 1000000.0;
             segNum++;
         }
 
@@ -125,17 +146,16 @@ public class IBDFeaturesWeight implements Weight {
 
         //Add noise if unrelated
         if (addNoise) {
-            Random randomGenerator = new Random();
             if (segNum == 0) {
-                segNum = (int) (10 * Math.abs(randomGenerator.nextGaussian()));
+                segNum = (int) (10 * Math.abs(RandomStreams.nextGaussian(random)));
                 if (segNum > 0)
-                    meanLength = Math.max(1.0, Math.pow(15 - segNum + randomGenerator.nextGaussian(), 3) / 100 + 10.0 / segNum * randomGenerator.nextGaussian());
+                    meanLength = Math.max(1.0, Math.pow(15 - segNum + RandomStreams.nextGaussian(random), 3) / 100 + 10.0 / segNum * RandomStreams.nextGaussian(random));
             }
 
             //Add parent-child noise
             if (segNum == 22 && meanLength > 130) {
-                segNum += (int) Math.abs((randomGenerator.nextGaussian() * 10));
-                meanLength = 40 + Math.pow(50 - segNum, 2) / 9 + randomGenerator.nextGaussian();
+                segNum += (int) Math.abs((RandomStreams.nextGaussian(random) * 10));
+                meanLength = 40 + Math.pow(50 - segNum, 2) / 9 + RandomStreams.nextGaussian(random);
                 //MyLogger.info("segNum="+ segNum + " meanLength="+ meanLength);
             }
         }
@@ -143,72 +163,71 @@ public class IBDFeaturesWeight implements Weight {
     }
 
     /**
-     * Connect consecutive IBD segments with different founder origin, into one IBD segment
-     * @return list of extended IBD segments
+     * Stable merge of segment lists that are each ordered by start, ties keep the order of the lists
      */
-    private static List<HapRegion> extendIBDSegments(List<HapRegion> IBD) {
-
-        if (IBD.size() < 2) {
-            return IBD;
-        }
-        List<HapRegion> extended = new ArrayList<>();
-        MyLogger.info("IBD before= " + IBD);
-        Collections.sort(IBD);
-        MyLogger.info("IBD after= " + IBD);
-
-        Location currStart = IBD.get(0).getStart();
-        ListIterator<HapRegion> iterator = IBD.listIterator();
-
-        while (iterator.hasNext()) {
-            HapRegion segment = iterator.next();
-
-            Location nextStart;
-            if (iterator.hasNext()) {
-                nextStart = iterator.next().getStart();
-                iterator.previous();
-            } else
-                nextStart = new Location(100, 1);//after genome end
-
-            if (segment.getEnd().compareTo(nextStart) != 0) {
-                extended.add(new HapRegion(currStart, segment.getEnd(), "ext"));
-                MyLogger.info("Extended IBD= " + currStart + " , " + segment.getEnd());
-                currStart = nextStart;
+    private static void mergeByStart(SegmentBuffer[] lists, int[] next, SegmentBuffer merged) {
+        Arrays.fill(next, 0);
+        while (true) {
+            int min = -1;
+            for (int l = 0; l < lists.length; l++) {
+                if (next[l] < lists[l].size() && (min == -1 || lists[l].getStart(next[l]) < lists[min].getStart(next[min])))
+                    min = l;
             }
+            if (min == -1)
+                return;
+            merged.add(lists[min].getStart(next[min]), lists[min].getEnd(next[min]));
+            next[min]++;
         }
-        return extended;
     }
 
     /**
      * Connect consecutive IBD segments with different founder origin, into one IBD segment
-     * @return list of extended IBD segments
+     * @param IBD IBD segments, ordered by start
+     * @param extended output list of extended IBD segments
      */
-    private static List<HapRegion> extendUnphasedIBDSegments(List<HapRegion> hapRegions) {
-
-        if (hapRegions.size() < 2) {
-            return hapRegions;
+    private static void extendIBDSegments(SegmentBuffer IBD, SegmentBuffer extended) {
+        long currStart = IBD.getStart(0);
+        for (int i = 0; i < IBD.size(); i++) {
+            long nextStart = i + 1 < IBD.size() ? IBD.getStart(i + 1) : GENOME_END;
+            if (IBD.getEnd(i) != nextStart) {
+                extended.add(currStart, IBD.getEnd(i));
+                currStart = nextStart;
+            }
         }
-        List<HapRegion> extended = new ArrayList<>();
-        Collections.sort(hapRegions);
-
-        Location currStart = hapRegions.get(0).getStart();
-        ListIterator<HapRegion> iterator = hapRegions.listIterator();
-
-        while (iterator.hasNext()) {
-            HapRegion segment = iterator.next();
-
-            Location nextStart;
-            if (iterator.hasNext()) {
-                nextStart = iterator.next().getStart();
-                iterator.previous();
-            } else
-                nextStart = new Location(100, 1);//after genome end
+    }
 
-            if (segment.getEnd().compareTo(nextStart) < 0) {
-                extended.add(new HapRegion(currStart, segment.getEnd(), "ext"));
+    /**
+     * Connect consecutive and overlapping IBD segments of all haplotype pairs, into one IBD segment
+     * @param IBD IBD segments, ordered by start
+     * @param extended output list of extended IBD segments
+     */
+    private static void extendUnphasedIBDSegments(SegmentBuffer IBD, SegmentBuffer extended) {
+        long currStart = IBD.getStart(0);
+        for (int i = 0; i < IBD.size(); i++) {
+            long nextStart = i + 1 < IBD.size() ? IBD.getStart(i + 1) : GENOME_END;
+            if (IBD.getEnd(i) < nextStart) {
+                extended.add(currStart, IBD.getEnd(i));
                 currStart = nextStart;
             }
         }
-        return extended;
+    }
+
+    /**
+     * Per thread buffers of {@link #calcIBDFeatureWeight}
+     */
+    private static class IBDBuffers {
+        //IBD segments of the four haplotype pairs
+        private final SegmentBuffer[] pairIBD = {new SegmentBuffer(), new SegmentBuffer(), new SegmentBuffer(), new SegmentBuffer()};
+        private final int[] cursors = new int[pairIBD.length];
+        private final SegmentBuffer merged = new SegmentBuffer();
+        private final SegmentBuffer extended = new SegmentBuffer();
+
+        private void clear() {
+            for (SegmentBuffer buffer : pairIBD)
+                buffer.clear();
+            merged.clear();
+            extended.clear();
+        }
     }
 
     public String toString() {
@@ -221,6 +240,13 @@ public class IBDFeaturesWeight implements Weight {
 
     public Vec asVector() {
         //return new VecImpl(segmentNum,meanLength);
-        return new VecImpl(meanLength * segmentNum / 30);
+        return new VecImpl(getFeature());
+    }
+
+    /**
+     * @return the feature of {@link #asVector()}, scaled total IBD length
+     */
+    public double getFeature() {
+        return meanLength * segmentNum / LENGTH_SCALE;
     }
 }
@@ -0,0 +1,350 @@
+package prepare.pedreconstruction;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import prepare.common.Population;
+import prepare.graph.BaseEdge;
+import prepare.graph.Graph;
+import prepare.graph.Vertex;
+import prepare.misc.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Read only, memory mapped IBD features graph, in a compact binary columnar format.
+ * Pairs are sorted by first id, then by second id, and indexed by first id (compressed sparse rows),
+ * so the file is a view of the graph without per edge objects, and is loaded into a {@link Graph} by a single scan.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int magic, int version, int numOfRows, long numOfEdges
+ * int[numOfRows] firstIds            sorted distinct first ids
+ * long[numOfRows + 1] offsets        edges of firstIds[r] are [offsets[r], offsets[r + 1])
+ * int[numOfEdges] secondIds          sorted within each row
+ * float[numOfEdges] segmentNums
+ * float[numOfEdges] meanLengths
+ * </pre>
+ * Created from the text IBD features format by {@link #convert}, or by a {@link Builder}.
+ * Each column is mapped separately, so a file holds up to 2^29 edges.
+ */
+public class IBDGraphFile {
+    private static final Log LOG = Log.get(IBDGraphFile.class);
+
+    static final int MAGIC = 0x50494247; //"PIBG"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    private final int numOfRows;
+    private final int numOfEdges;
+    private final IntBuffer firstIds;
+    private final LongBuffer offsets;
+    private final IntBuffer secondIds;
+    private final FloatBuffer segmentNums;
+    private final FloatBuffer meanLengths;
+
+    private IBDGraphFile(File file, FileChannel channel) throws IOException {
+        if (!isIBDGraphFile(file))
+            throw new IOException(file + " is not a binary IBD graph file");
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        int version = header.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported binary IBD graph version " + version + " in " + file);
+        numOfRows = header.getInt(8);
+        long edges = header.getLong(12);
+        if (4 * edges > Integer.MAX_VALUE)
+            throw new IOException("Binary IBD graph " + file + " has too many edges: " + edges);
+        numOfEdges = (int) edges;
+        if (channel.size() != HEADER_SIZE + 12L * numOfRows + 8 + 12L * numOfEdges)
+            throw new IOException("Truncated binary IBD graph " + file);
+
+        long position = HEADER_SIZE;
+        firstIds = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numOfRows).asIntBuffer();
+        position += 4L * numOfRows;
+        offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * (numOfRows + 1)).asLongBuffer();
+        position += 8L * (numOfRows + 1);
+        secondIds = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numOfEdges).asIntBuffer();
+        position += 4L * numOfEdges;
+        segmentNums = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numOfEdges).asFloatBuffer();
+        position += 4L * numOfEdges;
+        meanLengths = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numOfEdges).asFloatBuffer();
+    }
+
+    /**
+     * Memory map a binary IBD graph file
+     */
+    public static IBDGraphFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            IBDGraphFile graphFile = new IBDGraphFile(file, channel);
+            LOG.important("Opened binary IBD graph {} with {} edges", file, graphFile.numOfEdges);
+            return graphFile;
+        }
+    }
+
+    /**
+     * @return true if file starts with the binary IBD graph magic
+     */
+    public static boolean isIBDGraphFile(File file) {
+        if (file.length() < HEADER_SIZE)
+            return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Convert a text IBD features file (see {@link IBDFeaturesReader}) to a binary IBD graph file
+     */
+    public static void convert(File textFile, File binaryFile, int threads) throws IOException {
+        Builder builder = new Builder();
+        IBDFeaturesReader.readRecords(textFile, threads, records -> {
+            for (int i = 0; i < records.size; i++)
+                builder.add(records.id1[i], records.id2[i], records.segmentNum[i], records.meanLength[i]);
+        });
+        builder.write(binaryFile);
+    }
+
+    public int getNumOfEdges() {
+        return numOfEdges;
+    }
+
+    /**
+     * @return IBD features of the pair as listed in the file, or null if it is not listed
+     */
+    public IBDFeaturesWeight getWeight(int id1, int id2) {
+        int row = findRow(id1);
+        if (row < 0)
+            return null;
+        int lo = (int) offsets.get(row);
+        int hi = (int) offsets.get(row + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int id = secondIds.get(mid);
+            if (id < id2)
+                lo = mid + 1;
+            else if (id > id2)
+                hi = mid - 1;
+            else
+                return new IBDFeaturesWeight(segmentNums.get(mid), meanLengths.get(mid));
+        }
+        return null;
+    }
+
+    /**
+     * @return IBD features of the pair, listed in either order, or null if it is not listed
+     */
+    public IBDFeaturesWeight getUndirectedWeight(int id1, int id2) {
+        IBDFeaturesWeight weight = getWeight(id1, id2);
+        return weight != null ? weight : getWeight(id2, id1);
+    }
+
+    private int findRow(int id) {
+        int lo = 0;
+        int hi = numOfRows - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int rowId = firstIds.get(mid);
+            if (rowId < id)
+                lo = mid + 1;
+            else if (rowId > id)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    public interface EdgeConsumer {
+        void accept(int id1, int id2, float segmentNum, float meanLength);
+    }
+
+    /**
+     * Pass all edges to consumer, ordered by first id then second id
+     */
+    public void forEachEdge(EdgeConsumer consumer) {
+        forEachEdge(0, numOfRows, consumer);
+    }
+
+    private void forEachEdge(int fromRow, int toRow, EdgeConsumer consumer) {
+        for (int row = fromRow; row < toRow; row++) {
+            int id1 = firstIds.get(row);
+            int end = (int) offsets.get(row + 1);
+            for (int e = (int) offsets.get(row); e < end; e++)
+                consumer.accept(id1, secondIds.get(e), segmentNums.get(e), meanLengths.get(e));
+        }
+    }
+
+    /**
+     * Add an edge with IBD features to graph, for every pair whose individuals are both in population.
+     * Rows are split between threads, each row adds edges to its own vertex only.
+     *
+     * @return number of added edges
+     */
+    public long addEdges(Graph graph, Population population, int threads) {
+        threads = Math.max(1, Math.min(threads, numOfRows));
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int fromRow = (int) ((long) numOfRows * t / threads);
+            int toRow = (int) ((long) numOfRows * (t + 1) / threads);
+            tasks.add(() -> {
+                long[] added = new long[1];
+                forEachEdge(fromRow, toRow, (id1, id2, segmentNum, meanLength) -> {
+                    if (population.getPerson(id1) == null || population.getPerson(id2) == null)
+                        return;
+                    Vertex v1 = graph.getVertex(id1);
+                    Vertex v2 = graph.getVertex(id2);
+                    if (v1 != null && v2 != null) {
+                        v1.addEdge(new BaseEdge(v1, v2, new IBDFeaturesWeight(segmentNum, meanLength)));
+                        added[0]++;
+                    }
+                });
+                return added[0];
+            });
+        }
+        long added = 0;
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            if (executor == null) {
+                for (Callable<Long> task : tasks)
+                    added += task.call();
+            } else {
+                for (Future<Long> future : executor.invokeAll(tasks))
+                    added += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while adding IBD features edges", e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed adding IBD features edges", e);
+        } finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+        return added;
+    }
+
+    /**
+     * Collects IBD features pairs in any order, and writes them sorted.
+     * A pair listed twice keeps its last features, as when reading the text format, self pairs are dropped.
+     */
+    public static class Builder {
+        private int size;
+        private int[] id1 = new int[1024];
+        private int[] id2 = new int[1024];
+        private float[] segmentNum = new float[1024];
+        private float[] meanLength = new float[1024];
+
+        public void add(int i1, int i2, double s, double m) {
+            if (i1 == i2) {
+                LOG.info("{}: skipping self IBD match, suggests inbreeding", i1);
+                return;
+            }
+            if (size == id1.length) {
+                id1 = Arrays.copyOf(id1, 2 * size);
+                id2 = Arrays.copyOf(id2, 2 * size);
+                segmentNum = Arrays.copyOf(segmentNum, 2 * size);
+                meanLength = Arrays.copyOf(meanLength, 2 * size);
+            }
+            id1[size] = i1;
+            id2[size] = i2;
+            segmentNum[size] = (float) s;
+            meanLength[size] = (float) m;
+            size++;
+        }
+
+        public void write(File file) throws IOException {
+            //rows: distinct first ids
+            int[] firstIds = Arrays.copyOf(id1, size);
+            Arrays.sort(firstIds);
+            int numOfRows = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || firstIds[i] != firstIds[i - 1])
+                    firstIds[numOfRows++] = firstIds[i];
+            }
+            firstIds = Arrays.copyOf(firstIds, numOfRows);
+
+            //bucket pairs by row, keeping their order
+            int[] rowStart = new int[numOfRows + 1];
+            int[] rows = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = Arrays.binarySearch(firstIds, id1[i]);
+                rowStart[rows[i] + 1]++;
+            }
+            for (int r = 0; r < numOfRows; r++)
+                rowStart[r + 1] += rowStart[r];
+            int[] order = new int[size];
+            int[] fill = Arrays.copyOf(rowStart, numOfRows);
+            for (int i = 0; i < size; i++)
+                order[fill[rows[i]]++] = i;
+
+            //sort each row by second id, a sort key of (id2, insertion order) keeps the last of duplicate pairs
+            long[] offsets = new long[numOfRows + 1];
+            int[] edges = new int[size];
+            int numOfEdges = 0;
+            long[] keys = new long[0];
+            for (int r = 0; r < numOfRows; r++) {
+                int rowSize = rowStart[r + 1] - rowStart[r];
+                if (keys.length < rowSize)
+                    keys = new long[Math.max(rowSize, 2 * keys.length)];
+                for (int k = 0; k < rowSize; k++)
+                    keys[k] = ((long) id2[order[rowStart[r] + k]] << 32) | k;
+                Arrays.sort(keys, 0, rowSize);
+                for (int k = 0; k < rowSize; k++) {
+                    if (k + 1 < rowSize && (int) (keys[k + 1] >> 32) == (int) (keys[k] >> 32))
+                        continue;
+                    edges[numOfEdges++] = order[rowStart[r] + (int) keys[k]];
+                }
+                offsets[r + 1] = numOfEdges;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(numOfRows);
+                out.writeLong(numOfEdges);
+                for (int id : firstIds)
+                    out.writeInt(id);
+                for (long offset : offsets)
+                    out.writeLong(offset);
+                for (int e = 0; e < numOfEdges; e++)
+                    out.writeInt(id2[edges[e]]);
+                for (int e = 0; e < numOfEdges; e++)
+                    out.writeFloat(segmentNum[edges[e]]);
+                for (int e = 0; e < numOfEdges; e++)
+                    out.writeFloat(meanLength[edges[e]]);
+            }
+            LOG.important("Wrote binary IBD graph {} with {} edges", file, numOfEdges);
+        }
+    }
+
+    static Namespace parseArgs(String[] argv) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser(IBDGraphFile.class.getSimpleName())
+                .defaultHelp(true)
+                .description("Convert a text IBD features file to the binary IBD graph format, " +
+                        "accepted as ibdFile by all tools in place of the text file");
+        parser.addArgument("ibdFile").help("text IBD features file (id1 id2 numOfSegments meanLength), may be gzipped");
+        parser.addArgument("outputFile").help("binary IBD graph file to write");
+        parser.addArgument("-threads")
+                .type(Integer.class)
+                .help("number of threads for parsing the text file")
+                .setDefault(Runtime.getRuntime().availableProcessors());
+        return parser.parseArgsOrFail(argv);
+    }
+
+    public static void main(String[] argv) throws IOException {
+        Namespace args = parseArgs(argv);
+        convert(new File(args.getString("ibdFile")), new File(args.getString("outputFile")), args.getInt("threads"));
+    }
+}
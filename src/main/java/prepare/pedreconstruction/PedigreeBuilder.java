@@ -4,9 +4,12 @@ import prepare.common.Population;
 import prepare.graph.Graph;
 import prepare.graph.SuperVertex;
 import prepare.graph.Vertex;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.Metrics;
 import prepare.pedigree.*;
 import prepare.relationship.CommonParentHypothesisTester;
+import prepare.relationship.KdeCache;
+import prepare.relationship.LikelihoodMemo;
 import prepare.relationship.RelationshipProbWeight;
 import prepare.relationship.SibHypothesisTester;
 
@@ -22,6 +25,8 @@ import static prepare.relationship.Relationship.PARENT;
  * Implementing reconstruct inference based on posterior prepare.relationship probabilities file
  */
 public class PedigreeBuilder {
+    private static final Log LOG = Log.get(PedigreeBuilder.class);
+
     private final Graph graph;
     private int totalParents = 0;
     private int generation = 1;
@@ -29,6 +34,10 @@ public class PedigreeBuilder {
     private final boolean polygamous;
     private final boolean synchronous;
     private final boolean phased;
+    private int threads = 1;
+    private boolean analytic = false;
+    private double minSharedCM = 0;
+    private LikelihoodMemo likelihoodMemo;
 
     public PedigreeBuilder(Graph graph, String outputDir, boolean poly, boolean sync, boolean phasedInput) {
         this.graph = graph;
@@ -38,6 +47,34 @@ public class PedigreeBuilder {
         this.phased = phasedInput;
     }
 
+    /**
+     * Number of threads used for pairwise hypothesis testing
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Use analytic IBD feature densities of standard relationships, instead of simulating them
+     */
+    public void setAnalytic(boolean analytic) {
+        this.analytic = analytic;
+    }
+
+    /**
+     * Minimal IBD shared between descendants of a pair for testing its sib hypothesis, negative tests all pairs
+     */
+    public void setMinSharedCM(double minSharedCM) {
+        this.minSharedCM = minSharedCM;
+    }
+
+    /**
+     * Memo of hypothesis likelihoods, shared with the builders of other generations
+     */
+    public void setLikelihoodMemo(LikelihoodMemo likelihoodMemo) {
+        this.likelihoodMemo = likelihoodMemo;
+    }
+
     /**
      * Main method - using actual pedigree for IBD sharing estimation
      */
@@ -46,63 +83,81 @@ public class PedigreeBuilder {
         this.generation = gen;
         Graph IBDGraph = graph;
 
-        NextIDGenerator nextIDGen = new NextIDGenerator(gen);
+        NextIDGenerator nextIDGen = new NextIDGenerator(gen, ped);
 
         SibHypothesisTester sibHypTester = new SibHypothesisTester(IBDGraph, synchronous, phased);
+        sibHypTester.setThreads(threads);
+        sibHypTester.setAnalytic(analytic);
+        sibHypTester.setMinSharedCM(minSharedCM);
+        sibHypTester.setLikelihoodMemo(likelihoodMemo);
         CommonParentHypothesisTester commonParentHypothesisTester = new CommonParentHypothesisTester(IBDGraph, synchronous, phased);
+        commonParentHypothesisTester.setAnalytic(analytic);
+        commonParentHypothesisTester.setLikelihoodMemo(likelihoodMemo);
 
-        MyLogger.important(">>> buildGeneration" + gen);
+        LOG.important(">>> buildGeneration{}", gen);
+        Metrics metrics = Metrics.getShared();
+        metrics.enterPhase(Metrics.Phase.CONTRACTION);
         Contraction contraction = new Contraction(ped);
 
-        MyLogger.important("===================Test for full-sib hypothesis (" + gen + " )====================");
+        LOG.important("===================Test for full-sib hypothesis ({} )====================", gen);
         Graph contractedRelationGraph;
         contractedRelationGraph = contraction.createEdgelessContractedGraph();
 
+        metrics.enterPhase(Metrics.Phase.SIB_TESTING);
         sibHypTester.run(ped, contractedRelationGraph, contractedRelationGraph.getVertices(), gen);
+        metrics.enterPhase(Metrics.Phase.GRAPH_EXPANSION);
         SibGraphExpander sge = new SibGraphExpander(contractedRelationGraph, contraction);
 
         if (polygamous) {
-            MyLogger.important("===========Remove couple's fullSib double edges if existing(" + gen + ")==========");
+            LOG.important("===========Remove couple's fullSib double edges if existing({})==========", gen);
             sge.removeRedundantEdges(ped);
         }
-        MyLogger.important("===================Expand contracted sibs prepare.graph (" + gen + " )====================");
+        LOG.important("===================Expand contracted sibs prepare.graph ({} )====================", gen);
         Graph sibExpendedGraph = sge.run();
 
         if (gen == 1 && !synchronous) {
-            MyLogger.important("===================Detect living parents (" + gen + " )====================");
+            LOG.important("===================Detect living parents ({} )====================", gen);
             assignLivingParents(contractedRelationGraph);
         }
 
         //Search for maximal weight independent set of sib cliques
-        MyLogger.important("======================Partition Full-Sibs(" + gen + ")=====================");
+        metrics.enterPhase(Metrics.Phase.SIBLING_GROUPING);
+        LOG.important("======================Partition Full-Sibs({})=====================", gen);
         SiblingGrouper sibGrouper = new SiblingGrouper(sibExpendedGraph);
         sibGrouper.detectSiblings(ped);
 
         // Retrieve group of siblings
+        metrics.enterPhase(Metrics.Phase.NUCLEAR_FAMILIES);
         NuclearFamilyCreator nuclearFamilyCreator = new NuclearFamilyCreator(sibExpendedGraph, gen, nextIDGen);
         List<List<Vertex>> siblingGroups = nuclearFamilyCreator.getSiblingGroups();
 
         // process siblings groups to create Nuclear Families
-        MyLogger.important("===========Create Nuclear Families (" + gen + ")==========");
+        LOG.important("===========Create Nuclear Families ({})==========", gen);
         List<NucFamily> nucFamilies = nuclearFamilyCreator.createNuclearFamilies(siblingGroups, false);
 
         if (polygamous) {
+            metrics.enterPhase(Metrics.Phase.HALF_SIB_UNITING);
             Contraction sibContraction = new Contraction(nucFamilies);
 
-            MyLogger.important("===========Test Nuclear Families for prepare.common parent(" + gen + ")==========");
+            LOG.important("===========Test Nuclear Families for prepare.common parent({})==========", gen);
             Graph halfSibGraph = commonParentHypothesisTester.run(ped, sibContraction, nucFamilies);
             HalfSibGraphExpander hsge = new HalfSibGraphExpander(halfSibGraph, ped, sibContraction);
-            MyLogger.important("===========Remove couple's double halfSib edges if existing(" + gen + ")==========");
+            LOG.important("===========Remove couple's double halfSib edges if existing({})==========", gen);
             Graph expendedHalfSibGraph = hsge.run();
 
-            MyLogger.important("======================Partition Half-Sibs(" + gen + ")=====================");
+            LOG.important("======================Partition Half-Sibs({})=====================", gen);
             sibGrouper = new SiblingGrouper(expendedHalfSibGraph);
             sibGrouper.uniteCommonParentOfHalfSibs(nucFamilies);
         }
-        MyLogger.important("======================Update pedigree(" + gen + ")=====================");
+        LOG.important("======================Update pedigree({})=====================", gen);
+        metrics.enterPhase(Metrics.Phase.PEDIGREE_UPDATE);
         updatePedigreeObj(ped, nucFamilies);
+        LOG.important("Generation {} {}", gen, KdeCache.getShared());
+        if (likelihoodMemo != null)
+            LOG.important("Generation {} {}", gen, likelihoodMemo);
 
-        MyLogger.important("=========================Writing output========================");
+        LOG.important("=========================Writing output========================");
+        metrics.enterPhase(Metrics.Phase.OUTPUT);
         try {
             ped.writeToFile(outputDir, dem);
         } catch (IOException e) {
@@ -131,14 +186,14 @@ public class PedigreeBuilder {
                     if (otherPerson.getGender() && currPerson.getFamily().motherProbability < weight.getProb(PARENT)) {
                         currPerson.getFamily().mother = otherPerson;
                         currPerson.getFamily().motherProbability = weight.getProb(PARENT);
-                        MyLogger.important(otherPerson.toString() + " is the mother of " + currPerson.toString());
+                        LOG.important("{} is the mother of {}", otherPerson, currPerson);
                         totalParents++;
                     }
 
                     if (!otherPerson.getGender() && currPerson.getFamily().fatherProbability < weight.getProb(PARENT)) {
                         currPerson.getFamily().father = otherPerson;
                         currPerson.getFamily().fatherProbability = weight.getProb(PARENT);
-                        MyLogger.important(otherPerson.toString() + " is the father of " + currPerson.toString());
+                        LOG.important("{} is the father of {}", otherPerson, currPerson);
                         totalParents++;
                     }
                 }
@@ -146,13 +201,13 @@ public class PedigreeBuilder {
                     if (currPerson.getGender() && otherPerson.getFamily().motherProbability < weight.getProb(CHILD)) {
                         otherPerson.getFamily().mother = currPerson;
                         otherPerson.getFamily().motherProbability = weight.getProb(CHILD);
-                        MyLogger.important(currPerson.toString() + " is the mother of " + otherPerson.toString());
+                        LOG.important("{} is the mother of {}", currPerson, otherPerson);
                         totalParents++;
                     }
                     if (!currPerson.getGender() && otherPerson.getFamily().fatherProbability < weight.getProb(CHILD)) {
                         otherPerson.getFamily().father = currPerson;
                         otherPerson.getFamily().fatherProbability = weight.getProb(CHILD);
-                        MyLogger.important(currPerson.toString() + " is the father of " + otherPerson.toString());
+                        LOG.important("{} is the father of {}", currPerson, otherPerson);
                         totalParents++;
                     }
                 }
@@ -165,23 +220,24 @@ public class PedigreeBuilder {
                 Person otherPerson = (Person) ((SuperVertex) e.getVertex2().getData()).getInnerVertices().get(0).getData();
                 if (otherPerson == currPerson.getFamily().father || otherPerson == currPerson.getFamily().mother) {
                     RelationshipProbWeight weight = (RelationshipProbWeight) e.getWeight();
-                    MyLogger.debug(otherPerson.getId() + " " + otherPerson.getAge() + " is a parent of " + currPerson.getId() + " " + currPerson.getAge());
+                    LOG.debug("{} {} is a parent of {} {}",
+                            otherPerson.getId(), otherPerson.getAge(), currPerson.getId(), currPerson.getAge());
                     weight.makeDeterministicChoice(PARENT);
                 }
                 if (otherPerson.getFamily().father == currPerson || otherPerson.getFamily().mother == currPerson) {
                     RelationshipProbWeight weight = (RelationshipProbWeight) e.getWeight();
                     //System.out.println("before deterministic choice: " + weight);
-                    MyLogger.debug(currPerson.getId() + " is a parent of " + otherPerson.getId());
+                    LOG.debug("{} is a parent of {}", currPerson.getId(), otherPerson.getId());
                     weight.makeDeterministicChoice(CHILD);
                 }
             }
         }
-        MyLogger.important("Found " + totalParents + " parents");
+        LOG.important("Found {} parents", totalParents);
     }
 
 
     private void updatePedigreeObj(Pedigree ped, List<NucFamily> nuclearFamilies) {
-        MyLogger.important("PedigreeBuilder::updatePedigreeObj");
+        LOG.important("PedigreeBuilder::updatePedigreeObj");
         for (NucFamily fam : nuclearFamilies) {
             int fatherID = fam.getFather().getId();
             int motherID = fam.getMother().getId();
@@ -1,8 +1,12 @@
 package prepare.pedreconstruction;
 
+import prepare.common.GeneticMap;
 import prepare.common.Population;
 import prepare.graph.Graph;
+import prepare.misc.Metrics;
+import prepare.misc.Log;
 import prepare.misc.MyLogger;
+import prepare.misc.RandomStreams;
 import prepare.graph.VertexData;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
@@ -10,18 +14,31 @@ import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 import prepare.pedigree.Person;
 import prepare.pedigree.Pedigree;
+import prepare.relationship.KdeCache;
+import prepare.relationship.KdeStore;
+import prepare.relationship.LikelihoodMemo;
+import prepare.relationship.RelationHypothesisTester;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
 
 public class PedigreeReconstructor {
+    private static final Log LOG = Log.get(PedigreeReconstructor.class);
+
     private final String ibdFilename;
     private final String demographicsFilename;
     private final String outPref;
     private final boolean polygamous;
     private final boolean phasedInput;
     private final int generations;
+    private int threads = 1;
+    private boolean analytic = false;
+    private double minSharedCM = 0;
+    private File likelihoodMemoFile;
+    private File resumeFrom;
+    private boolean checkpointKdeCache = false;
 
     public PedigreeReconstructor(String ibdFilename, String demographicsFilename, String outPref, boolean polygamous,
                                  boolean phasedInput, int generations) {
@@ -33,13 +50,68 @@ public class PedigreeReconstructor {
         this.generations = generations;
 
         if (polygamous)
-            MyLogger.important("Polygamous mode!");
+            LOG.important("Polygamous mode!");
         else
-            MyLogger.important("Monogamous mode!");
+            LOG.important("Monogamous mode!");
         if (phasedInput)
-            MyLogger.important("Phased input mode!");
+            LOG.important("Phased input mode!");
         else
-            MyLogger.important("Unphased input mode!");
+            LOG.important("Unphased input mode!");
+    }
+
+    /**
+     * Number of threads used for reading IBD features and pairwise hypothesis testing
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Use analytic IBD feature densities of standard relationships, instead of simulating them
+     */
+    public void setAnalytic(boolean analytic) {
+        this.analytic = analytic;
+    }
+
+    /**
+     * Minimal IBD shared between descendants of a pair for testing its sib hypothesis, negative tests all pairs
+     */
+    public void setMinSharedCM(double minSharedCM) {
+        this.minSharedCM = minSharedCM;
+    }
+
+    /**
+     * File the memo of hypothesis likelihoods is loaded from, if it exists, and saved to after each generation
+     */
+    public void setLikelihoodMemoFile(File likelihoodMemoFile) {
+        this.likelihoodMemoFile = likelihoodMemoFile;
+    }
+
+    /**
+     * Checkpoint to continue from, at the generation following its generation
+     */
+    public void setResumeFrom(File resumeFrom) {
+        this.resumeFrom = resumeFrom;
+    }
+
+    /**
+     * Save the simulated IBD feature densities with each checkpoint, so they are not simulated again on resume.
+     * A density only depends on the seed and its signature, so a resumed run is identical to an uninterrupted run
+     * with the same seed either way, saving densities only saves their simulation
+     */
+    public void setCheckpointKdeCache(boolean checkpointKdeCache) {
+        this.checkpointKdeCache = checkpointKdeCache;
+    }
+
+    /**
+     * @return checkpoint file, written after reconstructing generation
+     */
+    public File getCheckpointFile(int generation) {
+        return new File(outPref + generation + ".checkpoint");
+    }
+
+    private static File kdeFileOf(File checkpoint) {
+        return new File(checkpoint.getPath() + ".kde");
     }
 
     private static Namespace parseArgs(String[] argv) {
@@ -61,48 +133,204 @@ public class PedigreeReconstructor {
         parser.addArgument("-generations")
                 .setDefault(4)
                 .help("number of generations to reconstruct");
+        parser.addArgument("-analytic")
+                .setDefault("false")
+                .action(Arguments.storeTrue())
+                .help("calculate IBD feature distributions of standard relationships analytically");
+        parser.addArgument("-kdeCacheSize")
+                .type(Long.class)
+                .setDefault(KdeCache.DEFAULT_MAXIMUM_SIZE)
+                .help("maximal number of simulated IBD feature densities kept in memory");
+        parser.addArgument("-kdeStore")
+                .help("precomputed IBD feature distributions file, created by KdeStorePrecomputer with the same -geneticMap");
+        parser.addArgument("-geneticMap")
+                .help("genetic map file (chr position cM, or chr position maleCM femaleCM), default is 1cM per Mb");
+        parser.addArgument("-seed")
+                .type(Long.class)
+                .help("random seed, for reproducible runs");
+        parser.addArgument("-threads")
+                .type(Integer.class)
+                .setDefault(1)
+                .help("number of threads used for reading IBD features and pairwise hypothesis testing");
+        parser.addArgument("-minSharedCM")
+                .type(Double.class)
+                .setDefault(0.0)
+                .help("test only pairs whose descendants share more IBD (cM) than this, negative tests all pairs");
+        parser.addArgument("-likelihoodMemo")
+                .help("file of memoized hypothesis likelihoods, loaded if it exists and updated after each generation");
+        parser.addArgument("-log")
+                .help("log levels, a root level and prefix=level entries, e.g. info,prepare.graph=debug (levels: debug, info, important, warn, error, off)");
+        parser.addArgument("-jmx")
+                .setDefault("false")
+                .action(Arguments.storeTrue())
+                .help("expose run metrics over JMX (" + Metrics.OBJECT_NAME + ")");
+        parser.addArgument("-resumeFrom")
+                .help("checkpoint file written after a generation (outDir<gen>.checkpoint), reconstruction continues at the next generation");
+        parser.addArgument("-checkpointKde")
+                .setDefault("false")
+                .action(Arguments.storeTrue())
+                .help("save simulated IBD feature distributions with each checkpoint, and load them on resume (saves simulating them again)");
         return parser.parseArgsOrFail(argv);
     }
 
+    /**
+     * @return metrics report file of format (json or csv), written after each generation
+     */
+    public File getMetricsFile(String format) {
+        return new File(outPref + "metrics." + format);
+    }
+
     public Pedigree reconstruct(){
         Pedigree ped;
         Graph IBDgraph;
         Population population;
+        Metrics metrics = new Metrics();
+        Metrics.setShared(metrics);
+        metrics.enterPhase(Metrics.Phase.READ_INPUT);
         try {
             List<VertexData> persons = Person.listFromDemographics(demographicsFilename);
             population = new Population(persons);
-            IBDgraph = new Graph(persons);
-            MyLogger.info("====================Adding IBD Features edges===============================");
-            IBDFeaturesWeight.readEdgesWeights(IBDgraph, ibdFilename, population);// Adding edges to the prepare.graph
-            MyLogger.info("Graph is " + IBDgraph);
-            ped = new Pedigree(population);
+            LOG.info("====================Adding IBD Features edges===============================");
+            IBDgraph = IBDFeaturesWeight.readCsrGraph(persons, ibdFilename, threads);
+            LOG.info("Graph is {}", IBDgraph);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
         int generation = 1;
+        if (resumeFrom != null) {
+            ReconstructionCheckpoint checkpoint;
+            try {
+                checkpoint = ReconstructionCheckpoint.read(resumeFrom, population);
+                if (kdeFileOf(resumeFrom).exists()) {
+                    KdeStore kdeStore = KdeStore.open(kdeFileOf(resumeFrom));
+                    if (kdeStore.getMapFingerprint() == GeneticMap.getDefault().getFingerprint()) {
+                        KdeCache.getShared().loadSamples(kdeStore);
+                        LOG.important("Loaded simulated IBD feature distributions {}", KdeCache.getShared());
+                    } else
+                        LOG.warn("Ignoring {}, simulated over another genetic map", kdeStore);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed reading checkpoint " + resumeFrom, e);
+            }
+            checkpoint.restoreGlobalState();
+            ped = checkpoint.getPedigree();
+            generation = checkpoint.getGeneration() + 1;
+            LOG.important("Resuming reconstruction at generation {}", generation);
+        } else
+            ped = new Pedigree(population);
+
+        long densitySource = LikelihoodMemo.densitySource(GeneticMap.getDefault(), RandomStreams.getSeed(),
+                KdeCache.getShared().getStore(), analytic);
+        LikelihoodMemo likelihoodMemo = new LikelihoodMemo(LikelihoodMemo.DEFAULT_MAXIMUM_SIZE, densitySource);
+        if (likelihoodMemoFile != null && likelihoodMemoFile.exists()) {
+            try {
+                likelihoodMemo = LikelihoodMemo.load(likelihoodMemoFile, LikelihoodMemo.DEFAULT_MAXIMUM_SIZE,
+                        densitySource);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed reading likelihood memo " + likelihoodMemoFile, e);
+            }
+        }
+
+        LikelihoodMemo memo = likelihoodMemo;
+        metrics.gauge("kdeCacheHitRate", () -> KdeCache.getShared().stats().hitRate());
+        metrics.gauge("kdeCacheSize", () -> KdeCache.getShared().size());
+        metrics.gauge("likelihoodMemoHitRate", () -> memo.stats().hitRate());
+        metrics.gauge("likelihoodMemoSize", memo::size);
+        metrics.endGeneration();
+
         Pedigree fullPed = new Pedigree();
 
         boolean synchronous = true;
 
         for (int gen = generation; gen <= generations; gen++) {
+            metrics.startGeneration(gen);
             PedigreeBuilder pedBuilder = new PedigreeBuilder(IBDgraph, outPref + gen, polygamous, synchronous, phasedInput);
+            pedBuilder.setThreads(threads);
+            pedBuilder.setAnalytic(analytic);
+            pedBuilder.setMinSharedCM(minSharedCM);
+            pedBuilder.setLikelihoodMemo(likelihoodMemo);
             pedBuilder.buildGeneration(ped, gen, population);
+            if (likelihoodMemoFile != null) {
+                try {
+                    likelihoodMemo.save(likelihoodMemoFile);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed writing likelihood memo " + likelihoodMemoFile, e);
+                }
+            }
+            writeCheckpoint(ped, gen);
+            metrics.endGeneration();
+            writeMetrics(metrics);
         }
         return ped;
     }
 
+    private void writeCheckpoint(Pedigree ped, int gen) {
+        File checkpointFile = getCheckpointFile(gen);
+        try {
+            ReconstructionCheckpoint.write(checkpointFile, gen, ped);
+            if (checkpointKdeCache) {
+                int numOfSignatures = KdeCache.getShared().writeSamples(kdeFileOf(checkpointFile));
+                LOG.important("Wrote {} simulated IBD feature distributions to {}", numOfSignatures,
+                        kdeFileOf(checkpointFile));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed writing checkpoint " + checkpointFile, e);
+        }
+    }
+
+    private void writeMetrics(Metrics metrics) {
+        try {
+            metrics.writeJson(getMetricsFile("json"));
+            metrics.writeCsv(getMetricsFile("csv"));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed writing metrics " + getMetricsFile("json"), e);
+        }
+    }
+
     public static void main(String[] argv) {
         Namespace args = parseArgs(argv);
+        if (args.getString("log") != null)
+            MyLogger.configure(args.getString("log"));
+        RandomStreams.init(args.getLong("seed"));
+        if (args.getBoolean("jmx"))
+            Metrics.registerMBean();
         String demographFilename = args.getString("demographicsFile");
         String ibdFile = args.getString("ibdFile");
         String out = args.getString("outDir");
         boolean polygamous = args.getBoolean("polygamous");
         boolean phasedInput = args.getBoolean("phased");
         int generations = args.get("generations");
+        int threads = args.getInt("threads");
+        if (args.getString("geneticMap") != null) {
+            GeneticMap.setDefault(GeneticMap.load(new File(args.getString("geneticMap"))));
+            if (args.getBoolean("analytic"))
+                LOG.warn("Analytic IBD feature distributions assume a uniform genetic map of 1cM per Mb");
+        }
+        KdeCache.setShared(new KdeCache(args.getLong("kdeCacheSize")));
+        if (args.getString("kdeStore") != null) {
+            try {
+                KdeStore kdeStore = KdeStore.open(new File(args.getString("kdeStore")));
+                if (kdeStore.isCompatible(GeneticMap.getDefault(), RelationHypothesisTester.NUM_OF_SIM_ITER, phasedInput))
+                    KdeCache.getShared().setStore(kdeStore);
+                else
+                    LOG.warn("Ignoring {}, it has no {} densities of {} simulations over the genetic map", kdeStore,
+                            phasedInput ? "phased" : "unphased", RelationHypothesisTester.NUM_OF_SIM_ITER);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed opening KDE store " + args.getString("kdeStore"), e);
+            }
+        }
 
         PedigreeReconstructor pedigreeReconstructor = new PedigreeReconstructor(
                 ibdFile, demographFilename, out, polygamous, phasedInput, generations);
+        pedigreeReconstructor.setThreads(threads);
+        pedigreeReconstructor.setAnalytic(args.getBoolean("analytic"));
+        pedigreeReconstructor.setMinSharedCM(args.getDouble("minSharedCM"));
+        if (args.getString("likelihoodMemo") != null)
+            pedigreeReconstructor.setLikelihoodMemoFile(new File(args.getString("likelihoodMemo")));
+        if (args.getString("resumeFrom") != null)
+            pedigreeReconstructor.setResumeFrom(new File(args.getString("resumeFrom")));
+        pedigreeReconstructor.setCheckpointKdeCache(args.getBoolean("checkpointKde"));
         pedigreeReconstructor.reconstruct();
     }
 }
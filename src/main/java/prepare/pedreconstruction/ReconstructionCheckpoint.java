@@ -0,0 +1,130 @@
+package prepare.pedreconstruction;
+
+import prepare.common.Population;
+import prepare.misc.Log;
+import prepare.misc.RandomStreams;
+import prepare.pedigree.NextIDGenerator;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Person;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * State of a reconstruction after a generation, so a run can be resumed at the next generation.
+ * Holds the pedigree, the persons of the population including the inferred ancestors and their ages,
+ * the last id of the {@link NextIDGenerator} and the random seed. Simulated IBD feature densities can be
+ * saved separately, as a {@link prepare.relationship.KdeStore} file (see {@link prepare.relationship.KdeCache#writeSamples}).
+ * <p>
+ * File layout (big endian): int magic, int version, int generation, long seed, int lastID, int numOfPersons,
+ * then per person - int id, int age, boolean gender, int discoveryGeneration, followed by the pedigree
+ * (see {@link Pedigree#writeCheckpoint})
+ */
+public class ReconstructionCheckpoint {
+    private static final Log LOG = Log.get(ReconstructionCheckpoint.class);
+
+    static final int MAGIC = 0x50434B50; //"PCKP"
+    static final int VERSION = 1;
+
+    private final int generation;
+    private final long seed;
+    private final int lastID;
+    private final Pedigree pedigree;
+
+    private ReconstructionCheckpoint(int generation, long seed, int lastID, Pedigree pedigree) {
+        this.generation = generation;
+        this.seed = seed;
+        this.lastID = lastID;
+        this.pedigree = pedigree;
+    }
+
+    /**
+     * Write state of ped after reconstructing generation, replacing file only once the new file is complete
+     */
+    public static void write(File file, int generation, Pedigree ped) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Population population = ped.getPopulation();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(generation);
+            out.writeLong(RandomStreams.getSeed());
+            out.writeInt(NextIDGenerator.getLastID());
+            out.writeInt(population.getIDs().size());
+            for (int id : population.getIDs()) {
+                Person p = population.getPerson(id);
+                out.writeInt(id);
+                out.writeInt(p.getAge());
+                out.writeBoolean(p.getGender());
+                out.writeInt(p.getDiscoveryGeneration());
+            }
+            ped.writeCheckpoint(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.important("Wrote checkpoint of generation {} to {}", generation, file);
+    }
+
+    /**
+     * Read checkpoint. Persons of population are kept, so they are shared with the IBD graph,
+     * inferred ancestors are added to it
+     *
+     * @param population demographics of the living
+     */
+    public static ReconstructionCheckpoint read(File file, Population population) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a reconstruction checkpoint file");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+            int generation = in.readInt();
+            long seed = in.readLong();
+            int lastID = in.readInt();
+            int numOfPersons = in.readInt();
+            for (int i = 0; i < numOfPersons; i++) {
+                int id = in.readInt();
+                int age = in.readInt();
+                boolean gender = in.readBoolean();
+                int discoveryGeneration = in.readInt();
+                if (population.getPerson(id) != null)
+                    population.setAge(id, age);
+                else if (discoveryGeneration == 0)
+                    throw new IOException("Living person " + id + " of " + file + " is not in demographics");
+                else
+                    population.addPerson(new Person(id, age, gender, discoveryGeneration));
+            }
+            Pedigree ped = Pedigree.readCheckpoint(in, population);
+            LOG.important("Read checkpoint of generation {} from {} with {} vertices", generation, file, ped.size());
+            return new ReconstructionCheckpoint(generation, seed, lastID, ped);
+        }
+    }
+
+    /**
+     * Continue random streams and id generation of the checkpointed run
+     */
+    public void restoreGlobalState() {
+        RandomStreams.setSeed(seed);
+        NextIDGenerator.setLastID(lastID);
+        LOG.important("Restored random seed {} of checkpoint", seed);
+    }
+
+    /**
+     * @return last reconstructed generation
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getLastID() {
+        return lastID;
+    }
+
+    public Pedigree getPedigree() {
+        return pedigree;
+    }
+}
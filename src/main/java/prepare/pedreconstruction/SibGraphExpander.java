@@ -1,7 +1,7 @@
 package prepare.pedreconstruction;
 
 import prepare.graph.*;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 import prepare.relationship.RelationshipProbWeight;
 import prepare.pedigree.Pedigree;
 
@@ -10,6 +10,8 @@ import java.util.*;
 import static prepare.relationship.Relationship.FULL_SIB;
 
 public class SibGraphExpander {
+    private static final Log LOG = Log.get(SibGraphExpander.class);
+
 
     private final Graph contractedGraph;
     private final Contraction contraction;
@@ -29,7 +31,7 @@ public class SibGraphExpander {
             if (((SuperVertex) sv.getData()).getInnerVertices().size() > 1)
                 numOfCont++;
         }
-        MyLogger.important("RelationGraphExpander::num of contracted vertices=" + numOfCont);
+        LOG.important("RelationGraphExpander::num of contracted vertices={}", numOfCont);
     }
 
     /**
@@ -68,19 +70,19 @@ public class SibGraphExpander {
             sortedSuperEdges[i] = allSuperEdges.get(ind[i]);
 
         for (Edge se : sortedSuperEdges)
-            MyLogger.important("Added a super-edge " + se.getVertex1() + "," + se.getVertex2() + ", with prob " + se.getWeight());
+            LOG.important("Added a super-edge {},{}, with prob {}", se.getVertex1(), se.getVertex2(), se.getWeight());
         for (Edge se : sortedSuperEdges)
             expandOnEdge(se);
 
 
-        MyLogger.important("RelationGraphExpander::expended " + expendedNum + " vertices");
+        LOG.important("RelationGraphExpander::expended {} vertices", expendedNum);
         //Add all unexpanded vertices to list (single children)
         List<Vertex> uList = new ArrayList<>();//list of unexpanded vertices
         for (Vertex sv : contractedGraph.getVertices()) {
             for (Vertex v : ((SuperVertex) sv.getData()).getInnerVertices())
                 if (!eList.contains(v)) {
                     eList.add(v);
-                    MyLogger.important(v + " was not expended!");
+                    LOG.important("{} was not expended!", v);
                     if (!uList.contains(sv))
                         uList.add(sv);
                 }
@@ -111,7 +113,8 @@ public class SibGraphExpander {
                         for (int mateID : mateIDs) {
                             Vertex mate = contractedGraph.getVertex(contraction.getWrappingSuperVertex(mateID).getId());
                             if (mate.hasEdgeTo(potentSib.getVertexId()) && ((RelationshipProbWeight) mate.getEdgeTo(potentSib.getVertexId()).getWeight()).isMaxProbCategory(FULL_SIB)) {
-                                MyLogger.important("Mate " + mateID + " has sibEdge to " + potentSib.getVertexId() + " although " + sv + ", has multiple mates, removing edge");
+                                LOG.important("Mate {} has sibEdge to {} although {}, has multiple mates, removing edge",
+                                        mateID, potentSib.getVertexId(), sv);
                                 mate.removeEdgeTo(potentSib);
                                 potentSib.removeEdgeTo(mate);
                             }
@@ -123,13 +126,13 @@ public class SibGraphExpander {
     }
 
     private void expandOnEdge(Edge se) {
-        MyLogger.important("Expanding edge " + se.getVertex1() + " " + se.getVertex2());
+        LOG.important("Expanding edge {} {}", se.getVertex1(), se.getVertex2());
         SuperVertex sv1 = (SuperVertex) se.getVertex1().getData();
         SuperVertex sv2 = (SuperVertex) se.getVertex2().getData();
 
         //If both super-vertices have one inner vertex
         if (sv1.getInnerVertices().size() == 1 && sv2.getInnerVertices().size() == 1) {
-            MyLogger.important("expanding pseudo super-vertices: " + sv1.getId() + "," + sv2.getId());
+            LOG.important("expanding pseudo super-vertices: {},{}", sv1.getId(), sv2.getId());
             assignSuperEdge(se, sv1.getInnerVertices().get(0), sv2.getInnerVertices().get(0));
             return;
         }
@@ -166,18 +169,18 @@ public class SibGraphExpander {
             if (vacancyMap.get(v)) {
                 for (Vertex u : sv2.getInnerVertices()) {
                     if (vacancyMap.get(u)) {
-                        MyLogger.important("Found vacant pair: " + v + "," + u);
+                        LOG.important("Found vacant pair: {},{}", v, u);
                         assignSuperEdge(se, v, u);
                         return;
                     }
                 }
             }
         }
-        MyLogger.important("Could not assign " + se + " because all inner pairs are occupied");
+        LOG.important("Could not assign {} because all inner pairs are occupied", se);
     }
 
     private void assignSuperEdge(Edge se, Vertex v, Vertex u) {
-        MyLogger.important("Assigning " + v + "," + u);
+        LOG.important("Assigning {},{}", v, u);
         vacancyMap.put(v, false);
         vacancyMap.put(u, false);
         v.addEdge(new BaseEdge(v, u, se.getWeight()));
@@ -206,14 +209,14 @@ public class SibGraphExpander {
             Vertex W = contractedGraph.getVertex(contraction.getWrappingSuperVertex(w).getId());
 
             if (W.hasEdgeTo(V.getVertexId())) {
-                MyLogger.important("Found third edge : " + W + "," + V);
+                LOG.important("Found third edge : {},{}", W, V);
             } else {
-                MyLogger.important("No third edge : " + W + "," + V);
+                LOG.important("No third edge : {},{}", W, V);
                 return false;
             }
         }
         //Has unassigned edges to all siblings of v.
-        MyLogger.important("Adding " + v + " to the sibling clique of " + u);
+        LOG.important("Adding {} to the sibling clique of {}", v, u);
         for (Edge e : u.getEdgeMap().values()) {
             Vertex w = e.getVertex2();
             Vertex W = contractedGraph.getVertex(contraction.getWrappingSuperVertex(w).getId());
@@ -2,7 +2,8 @@ package prepare.pedreconstruction;
 
 import prepare.graph.*;
 import prepare.graph.SimpleGraph.SimpleVertex;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.RandomStreams;
 import prepare.pedigree.NucFamily;
 import prepare.pedigree.Person;
 import prepare.relationship.RelationshipProbWeight;
@@ -15,6 +16,8 @@ import static prepare.relationship.Relationship.HALF_SIB;
 
 
 public class SiblingGrouper {
+    private static final Log LOG = Log.get(SiblingGrouper.class);
+
     Graph graph;
     Pedigree ped;
     int totalSibs = 0;
@@ -44,7 +47,7 @@ public class SiblingGrouper {
                 RelationshipProbWeight weight = (RelationshipProbWeight) e.getWeight();
 
                 if (weight.isMaxProbCategory(FULL_SIB)) {
-                    MyLogger.debug(v.getVertexId() + "might be sib with " + e.getVertex2().getVertexId());
+                    LOG.debug("{}might be sib with {}", v.getVertexId(), e.getVertex2().getVertexId());
                     if (!sibGraph.getNeighbors(sibGraph.getVertex(v.getVertexId().toString())).contains(sibGraph.getVertex(e.getVertex2().getVertexId().toString()))) {
                         sibGraph.createSimpleEdge(v.getVertexId().toString(), e.getVertex2().getVertexId().toString(), weight.getProb(FULL_SIB));
                     }
@@ -58,7 +61,7 @@ public class SiblingGrouper {
         List<SimpleGraph> list = new ArrayList<>(CC.values());
         //Identify each CC in the Sibs-prepare.graph as siblings, (include thining for large CC's)
         maxCliqueAsSibs(sibGraph, list);
-        MyLogger.important("Found " + totalSibs + " sibs");
+        LOG.important("Found {} sibs", totalSibs);
     }
 
     public void uniteCommonParentOfHalfSibs(List<NucFamily> families) {
@@ -105,13 +108,13 @@ public class SiblingGrouper {
                 double commonParentScore = halfSibProbSum / numPairs;
 
                 if (commonParentScore == 1) {
-                    MyLogger.important("SiblingGroupuer::prepare.common parent score > thresh: " + families.get(i).siblings + " " + families.get(j).siblings);
+                    LOG.important("SiblingGroupuer::prepare.common parent score > thresh: {} {}", families.get(i).siblings, families.get(j).siblings);
                     nucGraph.addEdge(nucGraph.getVertex(i + ":" + families.get(i).siblings.toString()), nucGraph.getVertex(j + ":" + families.get(j).siblings.toString()), commonParentScore);
                 }
             }
         }
 
-        MyLogger.info(nucGraph.toString());
+        LOG.info("{}", nucGraph);
         //Compute connected components
 
         List<SimpleGraph> CC = new ArrayList<>(GraphAlgorithms.SCC(nucGraph).values());
@@ -129,16 +132,16 @@ public class SiblingGrouper {
             if (thinLargeCC(15, g, CC))
                 continue;
 
-            MyLogger.important("ConnectedComponent " + i);
+            LOG.important("ConnectedComponent {}", i);
 
             for (SimpleVertex vertex : g.getVertices()) {
                 String[] nameSplit = vertex.name.split(":");
                 int famIdx = Integer.parseInt(nameSplit[0]);
                 NucFamily fam = families.get(famIdx);
-                MyLogger.important(fam.toString());
+                LOG.important("{}", fam);
             }
 
-            MyLogger.important(g.toString());
+            LOG.important("{}", g);
             List<SimpleGraph> cliques = new ArrayList<>();
             // Add other sizes of cliques (from largest to smallest)
             cliques.addAll(GraphAlgorithms.findCliques(g, 4));
@@ -204,17 +207,17 @@ public class SiblingGrouper {
 
         if (g.getVertices().size() > maxSize) {
             Map<SimpleVertex, SimpleGraph> subCC = null;
-            MyLogger.warn("Sibling CC is too large!!");
-            Random rg = new Random();
+            LOG.warn("Sibling CC is too large!!");
+            SplittableRandom rg = RandomStreams.stream(RandomStreams.Purpose.TIE_BREAK, g.getVertices().get(0).name.hashCode());
             int largestCCSize = g.getVertices().size();
             while (largestCCSize > maxSize) {
-                MyLogger.important("largestCC=" + largestCCSize);
+                LOG.important("largestCC={}", largestCCSize);
                 for (SimpleVertex v : g.getVertices()) {
                     for (SimpleVertex u : g.getVertices()) {
                         if (g.getNeighbors(v).contains(u)) {
                             if (g.getEdgeWeight(v, u) < rg.nextDouble() + 0.05) {
                                 g.removeEdge(v, u);
-                                MyLogger.important("Removing edge " + v + "," + u);
+                                LOG.important("Removing edge {},{}", v, u);
                             }
                         }
                     }
@@ -228,15 +231,15 @@ public class SiblingGrouper {
                         largestCCSize = subg.getVertices().size();
                 }
             }
-            MyLogger.important("largestCC=" + largestCCSize);
+            LOG.important("largestCC={}", largestCCSize);
 
 
             //Add new subCC to the end of the list
             list.remove(g);
-            MyLogger.important("Removed " + g);
+            LOG.important("Removed {}", g);
             for (SimpleVertex root : subCC.keySet()) {
                 list.add(subCC.get(root));
-                MyLogger.important("Added subCC: " + subCC.get(root));
+                LOG.important("Added subCC: {}", subCC.get(root));
             }
             return true;
         }
@@ -249,8 +252,8 @@ public class SiblingGrouper {
          */
         for (int i = 0; i < list.size(); i++) {
             SimpleGraph g = list.get(i);
-            MyLogger.important("ConnectedComponent " + i);
-            MyLogger.important(g.getVertices().toString());
+            LOG.important("ConnectedComponent {}", i);
+            LOG.important("{}", g.getVertices());
             //MyLogger.important(g.toString());
 
 
@@ -278,7 +281,7 @@ public class SiblingGrouper {
                         }
                     }
 
-                    MyLogger.important("Siblings clique was found : " + maxClique.getVertices());
+                    LOG.important("Siblings clique was found : {}", maxClique.getVertices());
                     //Add clique as siblings (historically create a prepare.graph of cliques with a single vertex)
                     SimpleGraph cliqueGraph = new SimpleGraph();
                     cliqueGraph.createSimpleVertex(maxClique.getVertices().toString(), sibGraph.calcSumOfEdgesWeight(maxClique.getVertices()));
@@ -299,8 +302,8 @@ public class SiblingGrouper {
 
                                     if (vMate != null && uMate != null && g.getNeighbors(vMate).contains(uMate)) {
                                         g.removeEdge(vMate, uMate);
-                                        MyLogger.important("Already found sib edge between " + v + " and " + u);
-                                        MyLogger.important("Remove mate " + vMateID + " edge to " + uMateID);
+                                        LOG.important("Already found sib edge between {} and {}", v, u);
+                                        LOG.important("Remove mate {} edge to {}", vMateID, uMateID);
                                     }
                                 }
                         }
@@ -341,8 +344,8 @@ public class SiblingGrouper {
                             //System.out.println("name1=" + Integer.parseInt((name1)) + " name2=" + Integer.parseInt(name2));
                             Person p1 = (Person) graph.getVertex(Integer.parseInt(name1)).getData();
                             Person p2 = (Person) graph.getVertex(Integer.parseInt(name2)).getData();
-                            MyLogger.debug("p1=" + p1.getId() + " sibs= " + p1.getFamily().siblings);
-                            MyLogger.debug("p2=" + p2.getId() + " sibs= " + p2.getFamily().siblings);
+                            LOG.debug("p1={} sibs= {}", p1.getId(), p1.getFamily().siblings);
+                            LOG.debug("p2={} sibs= {}", p2.getId(), p2.getFamily().siblings);
 
                             if (!p1.getFamily().siblings.contains(p2)) {
                                 p1.getFamily().siblings.add(p2);
@@ -350,8 +353,8 @@ public class SiblingGrouper {
                                 //MyLogger.info("Adding sibling pair: " + p1.getId() + "," + p2.getId());
                             }
                             //merge clicque huristic
-                            MyLogger.debug("p1 " + p1.getId() + " sibs= " + p1.getFamily().siblings);
-                            MyLogger.debug("p2 " + p2.getId() + " sibs= " + p2.getFamily().siblings);
+                            LOG.debug("p1 {} sibs= {}", p1.getId(), p1.getFamily().siblings);
+                            LOG.debug("p2 {} sibs= {}", p2.getId(), p2.getFamily().siblings);
 
                             //create a merged list from the 2 sibling lists
                             List<Person> allSibs = p1.getFamily().siblings;
@@ -368,25 +371,25 @@ public class SiblingGrouper {
                                 }
                             }
                             for (Person sib : allSibs)
-                                MyLogger.debug(sib.getId() + " sibs= " + sib.getFamily().siblings);
+                                LOG.debug("{} sibs= {}", sib.getId(), sib.getFamily().siblings);
 
                         }
                     }
                 }
             }
         }
-        MyLogger.important("Added " + numOfSibsAdded + " Sibling pairs");
+        LOG.important("Added {} Sibling pairs", numOfSibsAdded);
     }
 
     private void uniteAllCommonParents(List<List<NucFamily>> familyCliques) {
         if (familyCliques.size() == 0)
             return;
 
-        MyLogger.debug("uniteAllCommonParents");
-        MyLogger.important("num of cliques = " + familyCliques.size());
+        LOG.debug("uniteAllCommonParents");
+        LOG.important("num of cliques = {}", familyCliques.size());
 
         //Resolve gender if one parent is alive
-        MyLogger.important("join nuclear families with one living parent");
+        LOG.important("join nuclear families with one living parent");
 
         List<Integer> toRemove = new ArrayList<>();
         int index = 0;
@@ -397,15 +400,15 @@ public class SiblingGrouper {
             for (NucFamily fam : clique) {
                 if (fam.getFather().isAlive()) {
                     fatherAlive = true;
-                    MyLogger.debug("father is alive: " + fam);
+                    LOG.debug("father is alive: {}", fam);
                 }
                 if (fam.getMother().isAlive()) {
                     motherAlive = true;
-                    MyLogger.debug("mother is alive: " + fam);
+                    LOG.debug("mother is alive: {}", fam);
                 }
             }
             if (motherAlive && fatherAlive) {
-                MyLogger.error("uniteAllCommonParents::Both parents are alive");
+                LOG.error("uniteAllCommonParents::Both parents are alive");
                 return;
             } else if (motherAlive) {
                 uniteFather(clique);
@@ -416,7 +419,7 @@ public class SiblingGrouper {
             }
             index++;
         }
-        MyLogger.debug("toRemove= " + toRemove.toString());
+        LOG.debug("toRemove= {}", toRemove);
         //Remove joined cliques
         for (int i = toRemove.size() - 1; i >= 0; i--) {
             int cliqueIdx = toRemove.get(i);
@@ -442,7 +445,7 @@ public class SiblingGrouper {
         int index = 0;
         List<Integer> toRemove = new ArrayList<>();
         //Just guess gender
-        MyLogger.important("start gender resolution seed - guess father");
+        LOG.important("start gender resolution seed - guess father");
         for (List<NucFamily> clique : familyCliques) {
             boolean fatherJoined = false;
             boolean motherJoined = false;
@@ -479,10 +482,10 @@ public class SiblingGrouper {
             }
         }
 
-        MyLogger.debug("toRemove= " + toRemove.toString());
+        LOG.debug("toRemove= {}", toRemove);
         //Remove joined cliques
         for (int i = toRemove.size() - 1; i >= 0; i--) {
-            MyLogger.debug("remove= " + toRemove.get(i));
+            LOG.debug("remove= {}", toRemove.get(i));
             int cliqueIdx = toRemove.get(i);
             familyCliques.remove(cliqueIdx);
         }
@@ -493,7 +496,7 @@ public class SiblingGrouper {
         List<Integer> toRemove = new ArrayList<>();
         int index = 0;
         boolean resolved = false;
-        MyLogger.important("resolveAlready joined: Num of cliques = " + familyCliques.size());
+        LOG.important("resolveAlready joined: Num of cliques = {}", familyCliques.size());
         //Resolve gender if one parent was already joined
         for (List<NucFamily> clique : familyCliques) {
             boolean fatherJoined = false;
@@ -502,8 +505,8 @@ public class SiblingGrouper {
             boolean motherAlive = false;
 
             for (NucFamily fam : clique) {
-                MyLogger.debug(fam.getMother().toString());
-                MyLogger.debug(fam.getFather().toString());
+                LOG.debug("{}", fam.getMother());
+                LOG.debug("{}", fam.getFather());
 
                 if (fam.getFather().isAlive()) {
                     fatherAlive = true;
@@ -522,7 +525,7 @@ public class SiblingGrouper {
             if (motherAlive || fatherAlive) {
                 continue;
             } else if (motherJoined && fatherJoined) {
-                MyLogger.error("Both parents are already joined:" + clique.toString());
+                LOG.error("Both parents are already joined:{}", clique);
                 toRemove.add(index);
                 continue;
             } else if (motherJoined) {
@@ -537,7 +540,7 @@ public class SiblingGrouper {
             index++;
         }
         //Remove joined cliques
-        MyLogger.debug("toRemove= " + toRemove.toString());
+        LOG.debug("toRemove= {}", toRemove);
         for (int i = toRemove.size() - 1; i >= 0; i--) {
             int cliqueIdx = toRemove.get(i);
             familyCliques.remove(cliqueIdx);
@@ -547,7 +550,7 @@ public class SiblingGrouper {
 
     private void uniteFather(List<NucFamily> clique) {
         //Unite prepare.common parent
-        MyLogger.important("join father of " + clique.toString());
+        LOG.important("join father of {}", clique);
 
         //unite on the lowest generation up, since can already have a nuclear family created
         int commonFatherGen = 100;
@@ -559,11 +562,11 @@ public class SiblingGrouper {
                 commonFatherGen = gen;
             }
             if (fam.wasFatherJoined()) {
-                MyLogger.warn("father was already joined, cancell joining!!");
+                LOG.warn("father was already joined, cancell joining!!");
                 return;
             }
             if (fam.getFather() != commonFather && fam.getFather().getFamily().father != null) {
-                MyLogger.error("Trying to join a father from previous generation, father,cancell joining!");
+                LOG.error("Trying to join a father from previous generation, father,cancell joining!");
                 return;
             }
         }
@@ -574,7 +577,7 @@ public class SiblingGrouper {
             //}
             if (!fam.getFather().equals(commonFather)) {
                 for (Vertex sib : graph.verticesFromDatas(fam.siblings)) {
-                    MyLogger.important("Set father " + sib + " " + commonFather);
+                    LOG.important("Set father {} {}", sib, commonFather);
                     ((Person) sib.getData()).getFamily().father = commonFather;
                 }
             }
@@ -585,7 +588,7 @@ public class SiblingGrouper {
 
     private void uniteMother(List<NucFamily> clique) {
         //Unite prepare.common parent
-        MyLogger.important("join mother of " + clique.toString());
+        LOG.important("join mother of {}", clique);
         int commonMotherGen = 100;
         Person commonMother = null;
         for (NucFamily fam : clique) {
@@ -595,11 +598,11 @@ public class SiblingGrouper {
                 commonMotherGen = gen;
             }
             if (fam.wasMotherJoined()) {
-                MyLogger.warn("mother was already joined, cancell joining!!");
+                LOG.warn("mother was already joined, cancell joining!!");
                 return;
             }
             if (fam.getMother() != commonMother && fam.getMother().getFamily().mother != null) {
-                MyLogger.error("Trying to join a mother from previous generation, mother,cancell joining!");
+                LOG.error("Trying to join a mother from previous generation, mother,cancell joining!");
                 return;
             }
         }
@@ -610,7 +613,7 @@ public class SiblingGrouper {
             //}
             if (!fam.getMother().equals(commonMother)) {
                 for (Vertex sib : graph.verticesFromDatas(fam.siblings)) {
-                    MyLogger.important("Set mother " + sib + " " + commonMother);
+                    LOG.important("Set mother {} {}", sib, commonMother);
                     ((Person) sib.getData()).getFamily().mother = commonMother;
                 }
             }
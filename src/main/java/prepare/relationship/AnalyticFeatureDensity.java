@@ -0,0 +1,526 @@
+package prepare.relationship;
+
+import jsat.linear.Vec;
+import org.apache.commons.math3.analysis.integration.gauss.GaussIntegrator;
+import org.apache.commons.math3.analysis.integration.gauss.GaussIntegratorFactory;
+import org.apache.commons.math3.special.Erf;
+import prepare.common.HumanGenome;
+import prepare.misc.Log;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Density of the IBD feature ({@link IBDFeaturesWeight#asVector()}) of a pair, calculated numerically instead of
+ * by simulating recombinations.
+ * <p>
+ * Along a chromosome, the meioses on the paths between the pair and their common ancestors switch the transmitted
+ * haplotype at crossovers, which makes the pair's IBD state a continuous time Markov chain.
+ * The meioses are lumped into a small chain per supported signature:
+ * <ul>
+ * <li>[] - unrelated</li>
+ * <li>[0,d] - ancestor and descendant</li>
+ * <li>[d1,d2] - single common ancestor (half relationships)</li>
+ * <li>[d1,d2][d1,d2] - common ancestral couple (full relationships).
+ * Full siblings ([1,1][1,1]) are supported only for phased features, since they can be IBD on both haplotypes</li>
+ * </ul>
+ * The distribution of the total IBD length is calculated per chromosome on a grid of {@link #STEP_MB},
+ * and convolved over chromosomes. Noise is added to pairs without IBD, and to parent-child pairs, as done in
+ * {@link IBDFeaturesWeight#calcIBDFeatureWeight}, and the result is smoothed with the Gaussian kernel of the
+ * simulation based KDE, so densities of both methods are comparable.
+ */
+public class AnalyticFeatureDensity implements FeatureDensity {
+    private static final Log LOG = Log.get(AnalyticFeatureDensity.class);
+
+    static final double BANDWIDTH = PedLikelihoodCalcAbs.KDE_BANDWIDTH;
+    static final double STEP_MB = 4;
+    //Crossovers are sampled with mean distance of 1e8 bp
+    private static final double CROSSOVER_RATE_PER_MB = 0.01;
+    private static final int NUM_OF_CHROMOSOMES = 22;
+    private static final int MAX_NOISE_SEGMENTS = 60;
+
+    private static final double GRID_MIN = -8 * BANDWIDTH;
+    private static final double GRID_MAX = 320;
+    private static final double GRID_STEP = 0.25;
+    private static final int GRID_SIZE = (int) Math.round((GRID_MAX - GRID_MIN) / GRID_STEP) + 1;
+
+    private final DepthSignature signature;
+    //Probability of no IBD segment, and the probability of each total IBD length
+    private final double zeroProb;
+    private final double[] lengthProbs;
+    private final boolean parentChild;
+    private final double[] grid;
+
+    private AnalyticFeatureDensity(DepthSignature signature, double zeroProb, double[] lengthProbs, boolean parentChild) {
+        this.signature = signature;
+        this.zeroProb = zeroProb;
+        this.lengthProbs = lengthProbs;
+        this.parentChild = parentChild;
+        grid = new double[GRID_SIZE];
+        for (int i = 0; i < grid.length; i++) {
+            double x = GRID_MIN + i * GRID_STEP;
+            grid[i] = parentChild ? Noise.parentChildPdf(x) : zeroProb * Noise.UNRELATED_GRID[i] + relatedPdf(x);
+        }
+    }
+
+    /**
+     * @return the density of signature, or null if signature is not supported
+     */
+    public static AnalyticFeatureDensity forSignature(DepthSignature signature) {
+        int n = signature.getNumOfCommonAncestors();
+        if (n == 0)
+            return new AnalyticFeatureDensity(signature, 1, new double[]{1}, false);
+
+        int[] depths = signature.getDepths(0);
+        int d1 = Math.min(depths[0], depths[1]);
+        int d2 = Math.max(depths[0], depths[1]);
+        Chain chain;
+        if (n == 1) {
+            if (d1 == 0 && d2 == 1)
+                return new AnalyticFeatureDensity(signature, 0, new double[]{1}, true);
+            chain = d1 == 0 ? Chain.descendant(d2) : Chain.half(d1, d2);
+        } else if (n == 2 && d1 > 0 && Arrays.equals(depths, signature.getDepths(1))) {
+            if (d1 == 1 && d2 == 1)
+                chain = signature.isPhased() ? Chain.fullSibs() : null;
+            else
+                chain = d1 == 1 ? Chain.fullAvuncular(d2) : Chain.full(d1, d2);
+        } else {
+            chain = null;
+        }
+        if (chain == null)
+            return null;
+
+        LOG.info("AnalyticFeatureDensity::calculating {}", signature);
+        double zeroProb = 1;
+        double[] total = {1};
+        for (int chr = 1; chr <= NUM_OF_CHROMOSOMES; chr++) {
+            double length = HumanGenome.getChrLength(chr) / 1000000.0;
+            zeroProb *= chain.noIBDProb(length);
+            total = convolve(total, chain.totalLengthDistribution(Math.max(1, (int) Math.round(length / STEP_MB))));
+        }
+        return new AnalyticFeatureDensity(signature, zeroProb, total, false);
+    }
+
+    public DepthSignature getSignature() {
+        return signature;
+    }
+
+    @Override
+    public double pdf(Vec features) {
+        return pdf(features.get(0));
+    }
+
+    @Override
+    public double pdf(double x) {
+        double pos = (x - GRID_MIN) / GRID_STEP;
+        int i = (int) Math.floor(pos);
+        if (i < 0 || i >= grid.length - 1)
+            return exactPdf(x);
+        double frac = pos - i;
+        return grid[i] * (1 - frac) + grid[i + 1] * frac;
+    }
+
+    /**
+     * Mean of the feature, without smoothing
+     */
+    public double mean() {
+        if (parentChild)
+            return Noise.PARENT_CHILD_MEAN;
+        double mean = zeroProb * Noise.UNRELATED_MEAN;
+        for (int b = 1; b < lengthProbs.length; b++)
+            mean += lengthProbs[b] * toFeature(b);
+        return mean;
+    }
+
+    double exactPdf(double x) {
+        if (parentChild)
+            return Noise.parentChildPdf(x);
+        return zeroProb * Noise.unrelatedPdf(x) + relatedPdf(x);
+    }
+
+    /**
+     * Density of the pairs that have IBD segments
+     */
+    private double relatedPdf(double x) {
+        //Short segments between grid points are not counted, keep them as IBD of ~0 length
+        double pdf = Math.max(0, lengthProbs[0] - zeroProb) * gauss(x, BANDWIDTH);
+        for (int b = 1; b < lengthProbs.length; b++) {
+            if (lengthProbs[b] > 0)
+                pdf += lengthProbs[b] * gauss(x - toFeature(b), BANDWIDTH);
+        }
+        return pdf;
+    }
+
+    private static double toFeature(int bin) {
+        return bin * STEP_MB / IBDFeaturesWeight.LENGTH_SCALE;
+    }
+
+    private static double[] convolve(double[] a, double[] b) {
+        double[] c = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == 0)
+                continue;
+            for (int j = 0; j < b.length; j++)
+                c[i + j] += a[i] * b[j];
+        }
+        return c;
+    }
+
+    static double gauss(double x, double sd) {
+        return Math.exp(-0.5 * x * x / (sd * sd)) / (sd * Math.sqrt(2 * Math.PI));
+    }
+
+    static double normalCdf(double x) {
+        return 0.5 * Erf.erfc(-x / Math.sqrt(2));
+    }
+
+    /**
+     * Markov chain of the IBD state of a pair along a chromosome.
+     * The lineage meioses below the common ancestors are lumped into the number of meioses (k out of K) that
+     * transmit the haplotype of the common ancestors, and the top meioses into a few bits of special state.
+     * The pair is IBD only when k == K, and the special state agrees.
+     */
+    static class Chain {
+        private final int numOfLineage;
+        private final int numOfSpecial;
+        private final int numOfStates;
+        private final double[][] generator;
+        private final int[] weights;
+        private final int maxWeight;
+
+        private Chain(int numOfLineage, int numOfSpecial, int[][] specialTransitions, int[] specialWeights) {
+            this.numOfLineage = numOfLineage;
+            this.numOfSpecial = numOfSpecial;
+            numOfStates = (numOfLineage + 1) * numOfSpecial;
+            generator = new double[numOfStates][numOfStates];
+            weights = new int[numOfStates];
+            int max = 0;
+            for (int k = 0; k <= numOfLineage; k++) {
+                for (int sp = 0; sp < numOfSpecial; sp++) {
+                    int s = state(k, sp);
+                    if (k < numOfLineage)
+                        generator[s][state(k + 1, sp)] += (numOfLineage - k) * CROSSOVER_RATE_PER_MB;
+                    if (k > 0)
+                        generator[s][state(k - 1, sp)] += k * CROSSOVER_RATE_PER_MB;
+                    for (int[] t : specialTransitions) {
+                        //{from, to, number of meioses that cause the transition}
+                        if (t[0] == sp && t[1] != sp)
+                            generator[s][state(k, t[1])] += t[2] * CROSSOVER_RATE_PER_MB;
+                    }
+                    weights[s] = k == numOfLineage ? specialWeights[sp] : 0;
+                    max = Math.max(max, weights[s]);
+                }
+            }
+            for (int s = 0; s < numOfStates; s++) {
+                double out = 0;
+                for (int t = 0; t < numOfStates; t++)
+                    out += generator[s][t];
+                generator[s][s] = -out;
+            }
+            maxWeight = max;
+        }
+
+        private int state(int k, int sp) {
+            return k * numOfSpecial + sp;
+        }
+
+        /**
+         * [0,d] - the pair is IBD if all meioses below the first one transmit the ancestor's haplotype
+         */
+        static Chain descendant(int d) {
+            return new Chain(d - 1, 1, new int[0][], new int[]{1});
+        }
+
+        /**
+         * [d1,d2] - special bit: both first meioses transmit the same haplotype of the ancestor
+         */
+        static Chain half(int d1, int d2) {
+            return new Chain(d1 + d2 - 2, 2, new int[][]{{0, 1, 2}, {1, 0, 2}}, new int[]{0, 1});
+        }
+
+        /**
+         * [1,1][1,1] - special bits: paternal agreement, maternal agreement. IBD on both haplotypes counts twice
+         */
+        static Chain fullSibs() {
+            return new Chain(0, 4, new int[][]{{0, 1, 2}, {1, 0, 2}, {2, 3, 2}, {3, 2, 2}, {0, 2, 2}, {2, 0, 2}, {1, 3, 2}, {3, 1, 2}},
+                    new int[]{0, 1, 1, 2});
+        }
+
+        /**
+         * [1,d][1,d] - special bits: g - agreement of the grandparent transmitted to the lineage of the nephew,
+         * h - agreement of the other grandparent. Switching grandparent (single meiosis) swaps them
+         */
+        static Chain fullAvuncular(int d) {
+            //state = g + 2h
+            int[][] transitions = {
+                    {0, 1, 2}, {1, 0, 2}, {2, 3, 2}, {3, 2, 2}, //g
+                    {0, 2, 2}, {2, 0, 2}, {1, 3, 2}, {3, 1, 2}, //h
+                    {1, 2, 1}, {2, 1, 1}}; //swap
+            return new Chain(d - 2, 4, transitions, new int[]{0, 1, 0, 1});
+        }
+
+        /**
+         * [d1,d2][d1,d2] with d1,d2 >= 2 - special bits: e - both lineages carry the same grandparent,
+         * g - agreement of that grandparent, h - agreement of the other grandparent
+         */
+        static Chain full(int d1, int d2) {
+            //state = e + 2g + 4h
+            List<int[]> transitions = new ArrayList<>();
+            for (int sp = 0; sp < 8; sp++) {
+                int e = sp & 1, g = (sp >> 1) & 1, h = (sp >> 2) & 1;
+                transitions.add(new int[]{sp, sp ^ 2, 2});
+                transitions.add(new int[]{sp, sp ^ 4, 2});
+                //first lineage switches grandparent
+                transitions.add(new int[]{sp, (1 - e) + 2 * h + 4 * g, 1});
+                //second lineage switches grandparent
+                transitions.add(new int[]{sp, sp ^ 1, 1});
+            }
+            int[] weights = new int[8];
+            weights[1 + 2] = 1;
+            weights[1 + 2 + 4] = 1;
+            return new Chain(d1 + d2 - 4, 8, transitions.toArray(new int[0][]), weights);
+        }
+
+        /**
+         * Chromosomes are independent, and start from the stationary distribution
+         */
+        private double[] initial() {
+            double[] init = new double[numOfStates];
+            for (int k = 0; k <= numOfLineage; k++) {
+                double binomial = Math.exp(logChoose(numOfLineage, k) - numOfLineage * Math.log(2));
+                for (int sp = 0; sp < numOfSpecial; sp++)
+                    init[state(k, sp)] = binomial / numOfSpecial;
+            }
+            return init;
+        }
+
+        /**
+         * Probability that the chain doesn't visit an IBD state along a chromosome of given length
+         */
+        double noIBDProb(double lengthMb) {
+            double[][] killed = new double[numOfStates][numOfStates];
+            for (int s = 0; s < numOfStates; s++) {
+                if (weights[s] > 0)
+                    continue;
+                for (int t = 0; t < numOfStates; t++)
+                    killed[s][t] = weights[t] > 0 && s != t ? 0 : generator[s][t] * lengthMb;
+            }
+            double[][] transition = expm(killed);
+            double[] init = initial();
+            double prob = 0;
+            for (int s = 0; s < numOfStates; s++) {
+                if (weights[s] > 0)
+                    continue;
+                for (int t = 0; t < numOfStates; t++)
+                    prob += init[s] * transition[s][t];
+            }
+            return prob;
+        }
+
+        /**
+         * Distribution of the number of grid points that are IBD, out of n grid points
+         */
+        double[] totalLengthDistribution(int n) {
+            double[][] step = new double[numOfStates][numOfStates];
+            for (int s = 0; s < numOfStates; s++)
+                for (int t = 0; t < numOfStates; t++)
+                    step[s][t] = generator[s][t] * STEP_MB;
+            double[][] transition = expm(step);
+
+            int bins = n * maxWeight + 1;
+            double[][] dist = new double[numOfStates][bins];
+            double[] init = initial();
+            for (int s = 0; s < numOfStates; s++)
+                dist[s][0] = init[s];
+
+            for (int i = 0; i < n; i++) {
+                //count current grid point
+                for (int s = 0; s < numOfStates; s++) {
+                    int w = weights[s];
+                    if (w == 0)
+                        continue;
+                    for (int b = bins - 1; b >= w; b--)
+                        dist[s][b] = dist[s][b - w];
+                    for (int b = 0; b < w; b++)
+                        dist[s][b] = 0;
+                }
+                if (i == n - 1)
+                    break;
+                //move to next grid point
+                double[][] next = new double[numOfStates][bins];
+                int maxBin = Math.min(bins, (i + 1) * maxWeight + 1);
+                for (int s = 0; s < numOfStates; s++) {
+                    for (int t = 0; t < numOfStates; t++) {
+                        double p = transition[s][t];
+                        if (p == 0)
+                            continue;
+                        for (int b = 0; b < maxBin; b++)
+                            next[t][b] += dist[s][b] * p;
+                    }
+                }
+                dist = next;
+            }
+
+            double[] marginal = new double[bins];
+            for (int s = 0; s < numOfStates; s++)
+                for (int b = 0; b < bins; b++)
+                    marginal[b] += dist[s][b];
+            return marginal;
+        }
+    }
+
+    /**
+     * Matrix exponent by scaling and squaring of a Taylor series
+     */
+    static double[][] expm(double[][] a) {
+        int n = a.length;
+        double norm = 0;
+        for (double[] row : a) {
+            double sum = 0;
+            for (double x : row)
+                sum += Math.abs(x);
+            norm = Math.max(norm, sum);
+        }
+        int squarings = Math.max(0, (int) Math.ceil(Math.log(norm / 0.25) / Math.log(2)));
+        double scale = Math.pow(2, -squarings);
+
+        double[][] result = identity(n);
+        double[][] term = identity(n);
+        for (int i = 1; i <= 18; i++) {
+            term = multiply(term, a);
+            for (int r = 0; r < n; r++)
+                for (int c = 0; c < n; c++) {
+                    term[r][c] *= scale / i;
+                    result[r][c] += term[r][c];
+                }
+        }
+        for (int i = 0; i < squarings; i++)
+            result = multiply(result, result);
+        return result;
+    }
+
+    private static double[][] identity(int n) {
+        double[][] id = new double[n][n];
+        for (int i = 0; i < n; i++)
+            id[i][i] = 1;
+        return id;
+    }
+
+    private static double[][] multiply(double[][] a, double[][] b) {
+        int n = a.length;
+        double[][] c = new double[n][n];
+        for (int i = 0; i < n; i++)
+            for (int k = 0; k < n; k++) {
+                double x = a[i][k];
+                if (x == 0)
+                    continue;
+                for (int j = 0; j < n; j++)
+                    c[i][j] += x * b[k][j];
+            }
+        return c;
+    }
+
+    private static double logChoose(int n, int k) {
+        double res = 0;
+        for (int i = 1; i <= k; i++)
+            res += Math.log(n - k + i) - Math.log(i);
+        return res;
+    }
+
+    /**
+     * Smoothed densities of the noise features of {@link IBDFeaturesWeight#calcIBDFeatureWeight}.
+     * The number of noise segments is floor(10|N(0,1)|), the mean length is integrated by Gauss-Hermite quadrature
+     */
+    static class Noise {
+        private static final double[] NODES;
+        private static final double[] NODE_WEIGHTS;
+        private static final double[] SEGMENTS_PROBS = new double[MAX_NOISE_SEGMENTS + 1];
+        //unrelatedPdf, at the density grid points
+        static final double[] UNRELATED_GRID = new double[GRID_SIZE];
+        static final double UNRELATED_MEAN;
+        static final double PARENT_CHILD_MEAN;
+
+        static {
+            GaussIntegrator hermite = new GaussIntegratorFactory().hermite(24);
+            NODES = new double[hermite.getNumberOfPoints()];
+            NODE_WEIGHTS = new double[hermite.getNumberOfPoints()];
+            for (int i = 0; i < NODES.length; i++) {
+                //E[f(N(0,1))] = sum(w * f(sqrt(2) * x)) / sqrt(pi)
+                NODES[i] = Math.sqrt(2) * hermite.getPoint(i);
+                NODE_WEIGHTS[i] = hermite.getWeight(i) / Math.sqrt(Math.PI);
+            }
+            for (int k = 0; k <= MAX_NOISE_SEGMENTS; k++)
+                SEGMENTS_PROBS[k] = 2 * (normalCdf((k + 1) / 10.0) - normalCdf(k / 10.0));
+
+            double unrelatedMean = 0;
+            double parentChildMean = 0;
+            for (int k = 1; k <= MAX_NOISE_SEGMENTS; k++) {
+                for (int i = 0; i < NODES.length; i++) {
+                    double mu = unrelatedMeanLength(k, NODES[i]);
+                    double sd = 10.0 / k;
+                    //E[max(1,Y)] for Y ~ N(mu,sd)
+                    double z = (1 - mu) / sd;
+                    double expectedMax = normalCdf(z) + mu * (1 - normalCdf(z)) + sd * gauss(z, 1);
+                    unrelatedMean += SEGMENTS_PROBS[k] * NODE_WEIGHTS[i] * k * expectedMax / IBDFeaturesWeight.LENGTH_SCALE;
+                }
+            }
+            for (int k = 0; k <= MAX_NOISE_SEGMENTS; k++) {
+                int segNum = 22 + k;
+                parentChildMean += SEGMENTS_PROBS[k] * segNum * parentChildMeanLength(segNum) / IBDFeaturesWeight.LENGTH_SCALE;
+            }
+            UNRELATED_MEAN = unrelatedMean;
+            PARENT_CHILD_MEAN = parentChildMean;
+            for (int i = 0; i < GRID_SIZE; i++)
+                UNRELATED_GRID[i] = unrelatedPdf(GRID_MIN + i * GRID_STEP);
+        }
+
+        private static double unrelatedMeanLength(int segNum, double noise) {
+            return Math.pow(15 - segNum + noise, 3) / 100;
+        }
+
+        private static double parentChildMeanLength(int segNum) {
+            return 40 + Math.pow(50 - segNum, 2) / 9;
+        }
+
+        /**
+         * Pair without IBD: segNum segments with mean length max(1, (15-segNum+N)^3/100 + 10/segNum*N')
+         */
+        static double unrelatedPdf(double x) {
+            double pdf = SEGMENTS_PROBS[0] * gauss(x, BANDWIDTH);
+            for (int k = 1; k <= MAX_NOISE_SEGMENTS; k++) {
+                double a = k / IBDFeaturesWeight.LENGTH_SCALE;
+                double sd = 10.0 / k;
+                double kernelSd = BANDWIDTH / a;
+                double sum = 0;
+                for (int i = 0; i < NODES.length; i++) {
+                    double mu = unrelatedMeanLength(k, NODES[i]);
+                    //mean length clipped at 1
+                    double clipped = normalCdf((1 - mu) / sd) * gauss(x - a, BANDWIDTH);
+                    //product of the kernel and the mean length density, integrated over mean length > 1
+                    double var = kernelSd * kernelSd + sd * sd;
+                    double combinedMean = (x / a * sd * sd + mu * kernelSd * kernelSd) / var;
+                    double combinedSd = kernelSd * sd / Math.sqrt(var);
+                    double above = gauss(x / a - mu, Math.sqrt(var)) / a * (1 - normalCdf((1 - combinedMean) / combinedSd));
+                    sum += NODE_WEIGHTS[i] * (clipped + above);
+                }
+                pdf += SEGMENTS_PROBS[k] * sum;
+            }
+            return pdf;
+        }
+
+        /**
+         * Parent-child: 22+k segments with mean length 40+(50-segNum)^2/9+N
+         */
+        static double parentChildPdf(double x) {
+            double pdf = 0;
+            for (int k = 0; k <= MAX_NOISE_SEGMENTS; k++) {
+                int segNum = 22 + k;
+                double a = segNum / IBDFeaturesWeight.LENGTH_SCALE;
+                pdf += SEGMENTS_PROBS[k] * gauss(x - a * parentChildMeanLength(segNum), Math.sqrt(BANDWIDTH * BANDWIDTH + a * a));
+            }
+            return pdf;
+        }
+    }
+}
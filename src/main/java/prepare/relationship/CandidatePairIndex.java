@@ -0,0 +1,116 @@
+package prepare.relationship;
+
+import prepare.graph.Edge;
+import prepare.graph.Graph;
+import prepare.graph.SuperVertex;
+import prepare.graph.Vertex;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+
+import java.util.*;
+
+/**
+ * Total IBD shared between the living descendants of every pair of contracted candidates.
+ * <p>
+ * Built from the IBD neighbours of the living descendants, so only pairs that share IBD are held,
+ * and building takes time linear in the number of IBD edges of the descendants.
+ */
+public class CandidatePairIndex {
+    //representative id of each candidate
+    private final int[] ids;
+    //shared cM of candidate index pairs, keyed by (lower index, higher index)
+    private final Map<Long, Double> sharedCM = new HashMap<>();
+
+    /**
+     * @param candidates contracted vertices, holding {@link SuperVertex} data
+     */
+    public CandidatePairIndex(Pedigree ped, Graph IBDGraph, List<Vertex> candidates) {
+        ids = new int[candidates.size()];
+        //candidates of each living descendant
+        Map<Integer, List<Integer>> owners = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ((SuperVertex) candidates.get(i).getData()).getRepresentativeID();
+            for (PedVertex descendant : ped.getDescendants(ids[i])) {
+                if (descendant.isAlive())
+                    owners.computeIfAbsent(descendant.getId(), k -> new ArrayList<>(1)).add(i);
+            }
+        }
+
+        for (Map.Entry<Integer, List<Integer>> entry : owners.entrySet()) {
+            int id1 = entry.getKey();
+            Vertex v1 = IBDGraph.getVertex(id1);
+            if (v1 == null)
+                continue;
+            for (Edge e : v1.getEdgeMap().values()) {
+                int id2 = e.getVertex2().getVertexId();
+                List<Integer> owners2 = owners.get(id2);
+                if (owners2 == null || id1 == id2)
+                    continue;
+                //count each pair once, as the edge of getUndirectedEdge
+                if (id1 > id2 && e.getVertex2().hasEdgeTo(id1))
+                    continue;
+                IBDFeaturesWeight w = (IBDFeaturesWeight) e.getWeight();
+                double cM = w.getSegmentNum() * w.getMeanLength();
+                for (int i : entry.getValue()) {
+                    for (int j : owners2) {
+                        if (i != j)
+                            sharedCM.merge(key(i, j), cM, Double::sum);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long key(int i, int j) {
+        return ((long) Math.min(i, j) << 32) | Math.max(i, j);
+    }
+
+    /**
+     * @return number of candidate pairs
+     */
+    public long getNumOfPairs() {
+        return (long) ids.length * (ids.length - 1) / 2;
+    }
+
+    /**
+     * @return number of candidate pairs whose descendants share any IBD
+     */
+    public int getNumOfSharingPairs() {
+        return sharedCM.size();
+    }
+
+    /**
+     * @return total cM shared between the living descendants of candidates at indexes i and j
+     */
+    public double getSharedCM(int i, int j) {
+        return sharedCM.getOrDefault(key(i, j), 0.0);
+    }
+
+    /**
+     * Pairs of representative ids {id1,id2}, id1 < id2, whose descendants share more than minSharedCM.
+     * Pairs are ordered as in a nested loop over the candidates with the lower id in the outer loop.
+     */
+    public List<int[]> getPairs(double minSharedCM) {
+        List<long[]> positions = new ArrayList<>();
+        for (Map.Entry<Long, Double> entry : sharedCM.entrySet()) {
+            if (entry.getValue() <= minSharedCM)
+                continue;
+            int i = (int) (entry.getKey() >>> 32);
+            int j = (int) (long) entry.getKey();
+            if (ids[i] == ids[j])
+                continue;
+            if (ids[i] > ids[j]) {
+                int tmp = i;
+                i = j;
+                j = tmp;
+            }
+            positions.add(new long[]{i, j});
+        }
+        positions.sort((p1, p2) -> p1[0] != p2[0] ? Long.compare(p1[0], p2[0]) : Long.compare(p1[1], p2[1]));
+        List<int[]> pairs = new ArrayList<>(positions.size());
+        for (long[] p : positions)
+            pairs.add(new int[]{ids[(int) p[0]], ids[(int) p[1]]});
+        return pairs;
+    }
+}
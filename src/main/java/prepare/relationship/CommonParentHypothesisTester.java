@@ -1,10 +1,12 @@
 package prepare.relationship;
 
 import prepare.graph.*;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.Metrics;
 import prepare.pedigree.NucFamily;
 import prepare.pedigree.Pedigree;
 import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.PedigreeOverlay;
 import prepare.pedigree.Person;
 import prepare.pedreconstruction.Contraction;
 
@@ -16,6 +18,8 @@ import static prepare.relationship.Relationship.*;
  * Test if two sib cliques share a prepare.common parent or not
  */
 public class CommonParentHypothesisTester extends RelationHypothesisTester {
+    private static final Log LOG = Log.get(CommonParentHypothesisTester.class);
+
     boolean synchronous;
 
     public CommonParentHypothesisTester(Graph IBDGraph, boolean synchronous, boolean phased) {
@@ -30,7 +34,7 @@ public class CommonParentHypothesisTester extends RelationHypothesisTester {
         //clone prepare.pedigree
         Pedigree ped = new Pedigree(p);
 
-        lCalc = new PedLikelihoodCalcInheritancePaths(50, phased);
+        lCalc = createLikelihoodCalc();
 
         for (NucFamily fam1 : nucFamilies) {
             //	MyLogger.important("Testing\n" + fam1);
@@ -106,24 +110,39 @@ public class CommonParentHypothesisTester extends RelationHypothesisTester {
                 if (descendants1.containsAll(descendants2) || descendants2.containsAll(descendants1))
                     continue;
 
+                Metrics.getShared().count(Metrics.Counter.FAMILY_PAIRS_TESTED);
                 double[] likelihoods = new double[4];
                 Arrays.fill(likelihoods, Double.NEGATIVE_INFINITY);
 
                 /*
                  * Test relatedness hypothesis
                  */
-                likelihoods[0] = calcUnrelatedLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
-                likelihoods[1] = calcSameLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2, isFather);
+                //Hypotheses on the same pedigree are scored in batches that share their simulated densities
+                double[] related = calcLikelihoods(Arrays.asList(unrelatedHypothesis(relevantPed),
+                        sameHypothesis(relevantPed, f1NewID, f2NewID, isFather)), descendants1, descendants2);
+                likelihoods[0] = related[0];
+                likelihoods[1] = related[1];
+                LOG.info("{},{} unrelatedLikelihood={} sameLikelihood={}", f1NewID, f2NewID, likelihoods[0], likelihoods[1]);
 
                 if (likelihoods[1] <= likelihoods[0]) //if unrelated
                     continue;
 
                 //MyLogger.important("CP families are related:\n" + fam1 + "\n" + fam2);
 
-                likelihoods[2] = calcSibLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
-
-                if (synchronous)
-                    likelihoods[3] = calcParentLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2)[0];
+                List<PedigreeOverlay> hypotheses = new ArrayList<>();
+                hypotheses.add(sibHypothesis(relevantPed, f1NewID, f2NewID));
+                if (synchronous) {
+                    for (int possibleMate : possibleMates(relevantPed, f2NewID)) {
+                        PedigreeOverlay parentHypothesis = parentHypothesis(relevantPed, f1NewID, f2NewID, possibleMate);
+                        if (parentHypothesis != null)
+                            hypotheses.add(parentHypothesis);
+                    }
+                }
+                double[] results = calcLikelihoods(hypotheses, descendants1, descendants2);
+                likelihoods[2] = results[0];
+                //best parent hypothesis over all mates
+                for (int i = 1; i < results.length; i++)
+                    likelihoods[3] = Math.max(likelihoods[3], results[i]);
 
                 applyBayesUniPriors(likelihoods);
 
@@ -133,7 +152,7 @@ public class CommonParentHypothesisTester extends RelationHypothesisTester {
                     likelihoods[1] = 0;
                     likelihoods[2] = 0;
                     likelihoods[3] = 0;
-                    MyLogger.warn("No category matches " + fam1 + "," + fam2);
+                    LOG.warn("No category matches {},{}", fam1, fam2);
                 }
 
                 int ageSum = 0;
@@ -150,7 +169,7 @@ public class CommonParentHypothesisTester extends RelationHypothesisTester {
                     weighProbabilitiesWithAgeDiff(likelihoods, Math.abs(age1 - age2));
 
                 if (isMaxFromArray(likelihoods[1], likelihoods))
-                    MyLogger.important("Found potential prepare.common-parent " + fam1.siblings + "," + fam2.siblings);
+                    LOG.important("Found potential prepare.common-parent {},{}", fam1.siblings, fam2.siblings);
 
                 Vertex v1 = halfSibGraph.getVertex(fam1.siblings.get(0).getId());
                 Vertex v2 = halfSibGraph.getVertex(fam2.siblings.get(0).getId());
@@ -0,0 +1,113 @@
+package prepare.relationship;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Canonical key of a simulated IBD feature distribution.
+ * Encodes the common ancestor depths of a pair (as returned by Pedigree.getCommonAncestorDepths)
+ * together with the simulation settings, in a single int array.
+ * <p>
+ * The depth pairs are sorted, and the orientation of the pair (v1,v2) vs (v2,v1) is chosen to be the
+ * lexicographically smaller one, as the IBD features are symmetric.
+ */
+public final class DepthSignature {
+    private static final int HEADER_SIZE = 2;
+
+    private final int[] encoding;
+    private final int hash;
+
+    private DepthSignature(int[] encoding) {
+        this.encoding = encoding;
+        this.hash = Arrays.hashCode(encoding);
+    }
+
+    /**
+     * @param depths        common ancestor depths, each entry is {depth from v1, depth from v2}
+     * @param numOfSimIter  number of simulations the density is estimated from
+     * @param phased        whether features are calculated from phased haplotypes
+     */
+    public static DepthSignature of(List<int[]> depths, int numOfSimIter, boolean phased) {
+        int n = depths.size();
+        long[] forward = new long[n];
+        long[] backward = new long[n];
+        for (int i = 0; i < n; i++) {
+            int[] d = depths.get(i);
+            forward[i] = ((long) d[0] << 32) | d[1];
+            backward[i] = ((long) d[1] << 32) | d[0];
+        }
+        Arrays.sort(forward);
+        Arrays.sort(backward);
+        long[] canonical = compare(forward, backward) <= 0 ? forward : backward;
+
+        int[] encoding = new int[HEADER_SIZE + 2 * n];
+        encoding[0] = numOfSimIter;
+        encoding[1] = phased ? 1 : 0;
+        for (int i = 0; i < n; i++) {
+            encoding[HEADER_SIZE + 2 * i] = (int) (canonical[i] >>> 32);
+            encoding[HEADER_SIZE + 2 * i + 1] = (int) canonical[i];
+        }
+        return new DepthSignature(encoding);
+    }
+
+    /**
+     * Recreate a signature from an encoding returned by {@link #getEncoding()}
+     */
+    static DepthSignature fromEncoding(int[] encoding) {
+        return new DepthSignature(encoding.clone());
+    }
+
+    int[] getEncoding() {
+        return encoding.clone();
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i])
+                return a[i] < b[i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    public int getNumOfCommonAncestors() {
+        return (encoding.length - HEADER_SIZE) / 2;
+    }
+
+    /**
+     * @return {depth1, depth2} of the i'th common ancestor, in canonical order
+     */
+    public int[] getDepths(int i) {
+        return new int[]{encoding[HEADER_SIZE + 2 * i], encoding[HEADER_SIZE + 2 * i + 1]};
+    }
+
+    public int getNumOfSimIter() {
+        return encoding[0];
+    }
+
+    public boolean isPhased() {
+        return encoding[1] == 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof DepthSignature))
+            return false;
+        DepthSignature other = (DepthSignature) o;
+        return hash == other.hash && Arrays.equals(encoding, other.encoding);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < getNumOfCommonAncestors(); i++)
+            sb.append("[").append(encoding[HEADER_SIZE + 2 * i]).append(",").append(encoding[HEADER_SIZE + 2 * i + 1]).append("]");
+        return sb.toString();
+    }
+}
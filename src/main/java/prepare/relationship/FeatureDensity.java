@@ -0,0 +1,27 @@
+package prepare.relationship;
+
+import jsat.linear.Vec;
+import prepare.misc.VecImpl;
+
+/**
+ * Probability density of the IBD features of a pair of individuals, given their relationship
+ */
+public interface FeatureDensity {
+
+    double pdf(Vec features);
+
+    /**
+     * Density of a one dimensional feature, see {@link prepare.pedreconstruction.IBDFeaturesWeight#getFeature()}
+     */
+    default double pdf(double feature) {
+        return pdf(new VecImpl(feature));
+    }
+
+    /**
+     * Densities of one dimensional features into out
+     */
+    default void pdf(double[] features, double[] out) {
+        for (int i = 0; i < features.length; i++)
+            out[i] = pdf(features[i]);
+    }
+}
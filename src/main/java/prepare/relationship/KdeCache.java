@@ -0,0 +1,130 @@
+package prepare.relationship;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import jsat.classifiers.DataPoint;
+import prepare.misc.VecImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded, thread safe cache of simulated IBD feature densities, keyed by {@link DepthSignature}.
+ * A single shared instance is used by all likelihood calculators of the process, so a signature that
+ * was simulated once is reused across testers and generations.
+ */
+public class KdeCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 100000;
+
+    private static volatile KdeCache shared = new KdeCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final Cache<DepthSignature, FeatureDensity> cache;
+    private final long maximumSize;
+    private volatile KdeStore store;
+
+    public KdeCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public static KdeCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Replace the process-wide cache, dropping all cached densities
+     */
+    public static void setShared(KdeCache cache) {
+        shared = cache;
+    }
+
+    /**
+     * Precomputed samples, consulted by likelihood calculators on a cache miss before simulating
+     */
+    public void setStore(KdeStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return the backing store, or null if there is none
+     */
+    public KdeStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the cached density, or null on a miss
+     */
+    public FeatureDensity get(DepthSignature signature) {
+        return cache.getIfPresent(signature);
+    }
+
+    /**
+     * Add density to cache, unless another thread already added one for the same signature
+     *
+     * @return the density that is held by the cache
+     */
+    public FeatureDensity putIfAbsent(DepthSignature signature, FeatureDensity density) {
+        FeatureDensity existing = cache.asMap().putIfAbsent(signature, density);
+        return existing == null ? density : existing;
+    }
+
+    /**
+     * Write samples of all cached simulated densities as a {@link KdeStore} file.
+     * Modeled densities are not written, as they are recalculated without simulation
+     *
+     * @return number of written signatures
+     */
+    public int writeSamples(File file) throws IOException {
+        Map<DepthSignature, List<DataPoint>> samples = new HashMap<>();
+        for (Map.Entry<DepthSignature, FeatureDensity> entry : cache.asMap().entrySet()) {
+            if (!(entry.getValue() instanceof GaussianKde))
+                continue;
+            double[] values = ((GaussianKde) entry.getValue()).getSamples();
+            List<DataPoint> dataSet = new ArrayList<>(values.length);
+            for (double x : values)
+                dataSet.add(new DataPoint(new VecImpl(x), null, null));
+            samples.put(entry.getKey(), dataSet);
+        }
+        KdeStore.write(file, samples);
+        return samples.size();
+    }
+
+    /**
+     * Estimate the densities of all signatures of store, and add them to cache
+     */
+    public void loadSamples(KdeStore store) {
+        for (DepthSignature signature : store.getSignatures())
+            putIfAbsent(signature, GaussianKde.of(store.getSamples(signature), PedLikelihoodCalcAbs.KDE_BANDWIDTH));
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "KdeCache{size=" + cache.size() + "/" + maximumSize +
+                ", hits=" + stats.hitCount() +
+                ", misses=" + stats.missCount() +
+                ", evictions=" + stats.evictionCount() +
+                ", hitRate=" + String.format("%.3f", stats.hitRate()) + "}";
+    }
+}
@@ -0,0 +1,235 @@
+package prepare.relationship;
+
+import jsat.classifiers.DataPoint;
+import prepare.common.GeneticMap;
+import prepare.misc.Log;
+import prepare.misc.RandomStreams;
+import prepare.misc.VecImpl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Read only, memory mapped store of simulated IBD feature samples, keyed by {@link DepthSignature}.
+ * Samples are independent of the cohort, so a store can be precomputed once (see {@link KdeStorePrecomputer})
+ * and used by all reconstruction runs of the same genetic map and number of simulations as a fallback of the
+ * {@link KdeCache} (see {@link #isCompatible}).
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int magic, int version, long mapFingerprint, long seed, int numOfSimIter, int phasings, int numOfEntries, long indexOffset
+ * data section: samples of all entries, as doubles
+ * index section: per entry - int encodingLength, int[] encoding, int numOfSamples, int dimension, long dataOffset
+ * </pre>
+ * mapFingerprint is the {@link GeneticMap#getFingerprint()} of the map the samples were simulated over, and
+ * seed the seed of the {@link RandomStreams} they were simulated with. numOfSimIter is the number of simulations of
+ * every signature, or -1 if they differ, and phasings has bit {@link #UNPHASED} or {@link #PHASED} set if there
+ * are signatures of unphased or phased features.
+ * <p>
+ * Only the index is parsed when the store is opened, samples are read when a signature is first requested.
+ * Stores are mapped as a single buffer, so they are limited to 2GB.
+ */
+public class KdeStore {
+    private static final Log LOG = Log.get(KdeStore.class);
+
+    static final int MAGIC = 0x504B4445; //"PKDE"
+    static final int VERSION = 2;
+    static final int UNPHASED = 1;
+    static final int PHASED = 2;
+    private static final int HEADER_SIZE = 44;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final long mapFingerprint;
+    private final long seed;
+    private final int numOfSimIter;
+    private final int phasings;
+    private final Map<DepthSignature, Entry> index = new HashMap<>();
+
+    private KdeStore(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException(file + " is not a KDE store file");
+        int version = buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported KDE store version " + version + " in " + file);
+        mapFingerprint = buffer.getLong(8);
+        seed = buffer.getLong(16);
+        numOfSimIter = buffer.getInt(24);
+        phasings = buffer.getInt(28);
+        int numOfEntries = buffer.getInt(32);
+        ByteBuffer in = buffer.duplicate();
+        in.position(checkOffset(buffer.getLong(36), 0));
+        for (int i = 0; i < numOfEntries; i++) {
+            int[] encoding = new int[in.getInt()];
+            for (int j = 0; j < encoding.length; j++)
+                encoding[j] = in.getInt();
+            int numOfSamples = in.getInt();
+            int dimension = in.getInt();
+            int dataOffset = checkOffset(in.getLong(), 8L * numOfSamples * dimension);
+            index.put(DepthSignature.fromEncoding(encoding), new Entry(numOfSamples, dimension, dataOffset));
+        }
+    }
+
+    /**
+     * @return offset, if a section of length bytes at offset is inside the store
+     */
+    private int checkOffset(long offset, long length) throws IOException {
+        if (offset < HEADER_SIZE || length < 0 || offset + length > buffer.capacity())
+            throw new IOException("Corrupt KDE store " + file + ", offset " + offset + " is out of the file");
+        return (int) offset;
+    }
+
+    /**
+     * Memory map store file, and read its index
+     */
+    public static KdeStore open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("KDE store " + file + " is larger than 2GB");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            KdeStore store = new KdeStore(file, buffer);
+            LOG.important("Opened KDE store {} with {} signatures", file, store.size());
+            return store;
+        }
+    }
+
+    /**
+     * Write samples of all signatures to file. Samples are taken to be simulated over the default genetic map,
+     * with the current seed
+     */
+    public static void write(File file, Map<DepthSignature, List<DataPoint>> samples) throws IOException {
+        List<DepthSignature> signatures = new ArrayList<>(samples.keySet());
+        long[] dataOffsets = new long[signatures.size()];
+        int[] dimensions = new int[signatures.size()];
+        long dataSize = 0;
+        long indexSize = 0;
+        int numOfSimIter = signatures.isEmpty() ? -1 : signatures.get(0).getNumOfSimIter();
+        int phasings = 0;
+        for (int i = 0; i < signatures.size(); i++) {
+            DepthSignature signature = signatures.get(i);
+            List<DataPoint> dataSet = samples.get(signature);
+            dimensions[i] = dataSet.isEmpty() ? 0 : dataSet.get(0).getNumericalValues().length();
+            dataSize += 8L * dimensions[i] * dataSet.size();
+            indexSize += 4L * (5 + 2 * signature.getNumOfCommonAncestors()) + 8;
+            if (signature.getNumOfSimIter() != numOfSimIter)
+                numOfSimIter = -1;
+            phasings |= signature.isPhased() ? PHASED : UNPHASED;
+        }
+        if (HEADER_SIZE + dataSize + indexSize > Integer.MAX_VALUE)
+            throw new IOException("KDE store " + file + " would be larger than 2GB");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(GeneticMap.getDefault().getFingerprint());
+            out.writeLong(RandomStreams.getSeed());
+            out.writeInt(numOfSimIter);
+            out.writeInt(phasings);
+            out.writeInt(signatures.size());
+            out.writeLong(HEADER_SIZE + dataSize);
+
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < signatures.size(); i++) {
+                dataOffsets[i] = offset;
+                for (DataPoint point : samples.get(signatures.get(i))) {
+                    for (int j = 0; j < dimensions[i]; j++)
+                        out.writeDouble(point.getNumericalValues().get(j));
+                    offset += 8L * dimensions[i];
+                }
+            }
+            for (int i = 0; i < signatures.size(); i++) {
+                int[] encoding = signatures.get(i).getEncoding();
+                out.writeInt(encoding.length);
+                for (int x : encoding)
+                    out.writeInt(x);
+                out.writeInt(samples.get(signatures.get(i)).size());
+                out.writeInt(dimensions[i]);
+                out.writeLong(dataOffsets[i]);
+            }
+        }
+    }
+
+    /**
+     * @return true if the samples were simulated over map, and the store has signatures of numOfSimIter
+     * simulations of phased or unphased features, as requested
+     */
+    public boolean isCompatible(GeneticMap map, int numOfSimIter, boolean phased) {
+        return mapFingerprint == map.getFingerprint() && this.numOfSimIter == numOfSimIter
+                && (phasings & (phased ? PHASED : UNPHASED)) != 0;
+    }
+
+    public long getMapFingerprint() {
+        return mapFingerprint;
+    }
+
+    /**
+     * @return seed of the simulations of the samples. Samples of a signature only depend on the seed and map,
+     * so samples of different stores with the same seed and map are the same
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return number of simulations of every signature, -1 if they differ
+     */
+    public int getNumOfSimIter() {
+        return numOfSimIter;
+    }
+
+    public boolean contains(DepthSignature signature) {
+        return index.containsKey(signature);
+    }
+
+    /**
+     * @return stored samples of signature, or null if signature is not in store
+     */
+    public List<DataPoint> getSamples(DepthSignature signature) {
+        Entry entry = index.get(signature);
+        if (entry == null)
+            return null;
+        List<DataPoint> dataSet = new ArrayList<>(entry.numOfSamples);
+        int pos = entry.dataOffset;
+        for (int i = 0; i < entry.numOfSamples; i++) {
+            double[] values = new double[entry.dimension];
+            for (int j = 0; j < entry.dimension; j++) {
+                values[j] = buffer.getDouble(pos);
+                pos += 8;
+            }
+            dataSet.add(new DataPoint(new VecImpl(values), null, null));
+        }
+        return dataSet;
+    }
+
+    public Set<DepthSignature> getSignatures() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public String toString() {
+        return "KdeStore{" + file + ", signatures=" + index.size() + ", numOfSimIter=" + numOfSimIter +
+                ", phased=" + ((phasings & PHASED) != 0) + ", unphased=" + ((phasings & UNPHASED) != 0) +
+                ", map=" + Long.toHexString(mapFingerprint) + ", seed=" + seed + "}";
+    }
+
+    private static class Entry {
+        private final int numOfSamples;
+        private final int dimension;
+        private final int dataOffset;
+
+        Entry(int numOfSamples, int dimension, int dataOffset) {
+            this.numOfSamples = numOfSamples;
+            this.dimension = dimension;
+            this.dataOffset = dataOffset;
+        }
+    }
+}
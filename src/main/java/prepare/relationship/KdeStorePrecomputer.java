@@ -0,0 +1,223 @@
+package prepare.relationship;
+
+import jsat.classifiers.DataPoint;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import prepare.common.GeneticMap;
+import prepare.misc.Log;
+import prepare.misc.RandomStreams;
+import prepare.pedigree.Pedigree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Fill a {@link KdeStore} with simulated IBD feature samples of all common ancestor depth signatures
+ * of a pair, up to a given number of generations:
+ * unrelated, a single common ancestor at depths [d1,d2], and a common ancestral couple [d1,d2][d1,d2].
+ * Each signature is simulated on the pedigree of {@link #createSignaturePedigree}, as densities missing from the
+ * store are simulated during reconstruction, for both phased and unphased features.
+ */
+public class KdeStorePrecomputer {
+    private static final Log LOG = Log.get(KdeStorePrecomputer.class);
+
+    private final int generations;
+    private final int numOfSimIter;
+
+    public KdeStorePrecomputer(int generations, int numOfSimIter) {
+        this.generations = generations;
+        this.numOfSimIter = numOfSimIter;
+    }
+
+    private static Namespace parseArgs(String[] argv) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser(KdeStorePrecomputer.class.getSimpleName())
+                .defaultHelp(true)
+                .description("Precompute IBD feature distributions of standard relationships");
+
+        parser.addArgument("outputFile");
+        parser.addArgument("-generations")
+                .type(Integer.class)
+                .setDefault(4)
+                .help("maximal depth of common ancestors");
+        parser.addArgument("-iterations")
+                .type(Integer.class)
+                .setDefault(50)
+                .help("number of simulations per signature");
+        parser.addArgument("-seed")
+                .type(Long.class)
+                .help("random seed, for reproducible runs");
+        parser.addArgument("-geneticMap")
+                .help("genetic map file (chr position cM, or chr position maleCM femaleCM), default is 1cM per Mb");
+        return parser.parseArgsOrFail(argv);
+    }
+
+    public Map<DepthSignature, List<DataPoint>> precompute() {
+        Map<DepthSignature, List<DataPoint>> samples = new LinkedHashMap<>();
+        for (boolean phased : new boolean[]{false, true}) {
+            PedLikelihoodCalcInheritancePaths calc = new PedLikelihoodCalcInheritancePaths(numOfSimIter, phased);
+            addSamples(samples, calc, Collections.<int[]>emptyList());
+            for (int d1 = 0; d1 <= generations; d1++) {
+                for (int d2 = Math.max(d1, 1); d2 <= generations; d2++) {
+                    addSamples(samples, calc, Collections.singletonList(new int[]{d1, d2}));
+                    if (d1 > 0)
+                        addSamples(samples, calc, Arrays.asList(new int[]{d1, d2}, new int[]{d1, d2}));
+                }
+            }
+        }
+        return samples;
+    }
+
+    private void addSamples(Map<DepthSignature, List<DataPoint>> samples, PedLikelihoodCalcInheritancePaths calc, List<int[]> depths) {
+        DepthSignature signature = DepthSignature.of(depths, calc.getNumOfSimIter(), calc.isPhased());
+        LOG.important("Simulating {} {}", signature, calc.isPhased() ? "phased" : "unphased");
+        List<DataPoint> signatureSamples = calc.sampleSignatureFeatures(signature, true);
+        if (signatureSamples == null)
+            throw new IllegalStateException("No pedigree of signature " + signature);
+        samples.put(signature, signatureSamples);
+    }
+
+    /**
+     * Create a pedigree of two living individuals, ids 1 and 2, whose common ancestor depths are those of signature.
+     * Equal depth pairs are taken as an ancestral couple, and any other depth pair as a single ancestor.
+     * Each couple or single ancestor has lineages of its own to both individuals, placed in the ancestry of each
+     * individual so that no lineage passes through another, and all other parents are unrelated founders.
+     * <p>
+     * The pedigree is a function of signature only, so samples simulated on it do not depend on the pedigree
+     * the signature was found in.
+     *
+     * @return null if the ancestors cannot be placed that way (too many ancestors at a small depth, as in some
+     * inbred pedigrees), or the pedigree would have another signature
+     */
+    static Pedigree createSignaturePedigree(DepthSignature signature) {
+        //{depth from individual 1, depth from individual 2, 1 for a couple}
+        List<int[]> units = new ArrayList<>();
+        int n = signature.getNumOfCommonAncestors();
+        for (int i = 0; i < n; i++) {
+            int[] depths = signature.getDepths(i);
+            boolean couple = i + 1 < n && depths[0] > 0 && depths[1] > 0 && Arrays.equals(depths, signature.getDepths(i + 1));
+            units.add(new int[]{depths[0], depths[1], couple ? 1 : 0});
+            if (couple)
+                i++;
+        }
+        long[] positions1 = placeLineages(units, 0);
+        long[] positions2 = placeLineages(units, 1);
+
+        Pedigree p = new Pedigree();
+        int id1 = p.getNewID();
+        int id2 = p.getNewID();
+        //{ancestor, mate} of the lineages ending at a position, for each individual
+        List<Map<Long, int[]>> ends = Arrays.<Map<Long, int[]>>asList(new HashMap<Long, int[]>(), new HashMap<Long, int[]>());
+        for (int u = 0; u < units.size(); u++) {
+            if (positions1[u] < 0 || positions2[u] < 0)
+                return null;
+            int[] unit = units.get(u);
+            //an ancestor at depth 0 is the individual itself
+            int ancestor = unit[0] == 0 ? id1 : unit[1] == 0 ? id2 : p.getNewID();
+            p.addVertex(ancestor, -1, -1, ancestor == id1 || ancestor == id2);
+            int mate = -1;
+            if (unit[2] == 1) {
+                mate = p.getNewID();
+                p.addVertex(mate);
+            }
+            ends.get(0).put(positions1[u], new int[]{ancestor, mate});
+            ends.get(1).put(positions2[u], new int[]{ancestor, mate});
+        }
+        for (int side = 0; side < 2; side++) {
+            Set<Long> paths = new HashSet<>();
+            for (long position : ends.get(side).keySet()) {
+                for (long node = position >> 1; node > 0; node >>= 1)
+                    paths.add(node);
+            }
+            int id = side == 0 ? id1 : id2;
+            if (!ends.get(side).containsKey(1L))
+                addAncestry(p, ends.get(side), paths, 1, id);
+            else if (ends.get(side).get(1L)[1] != -1)
+                p.addVertex(id, ends.get(side).get(1L)[0], ends.get(side).get(1L)[1], true);
+        }
+        DepthSignature pedSignature = DepthSignature.of(p.getCommonAncestorDepths(id1, id2),
+                signature.getNumOfSimIter(), signature.isPhased());
+        return pedSignature.equals(signature) ? p : null;
+    }
+
+    /**
+     * Place the lineages of units in the ancestry of one individual.
+     * The lineage of a single ancestor ends at the ancestor, and of a couple at their child, and lineages must not
+     * pass through each other, so lineage ends get prefix free positions in the binary tree of ancestors.
+     * Positions are numbered as a binary heap (the individual is 1, the parents of k are 2k and 2k+1),
+     * and shallow ends are placed first, at the smallest free position.
+     *
+     * @return position of the lineage end of each unit, -1 if it could not be placed
+     */
+    private static long[] placeLineages(List<int[]> units, int side) {
+        Integer[] order = new Integer[units.size()];
+        for (int u = 0; u < order.length; u++)
+            order[u] = u;
+        Arrays.sort(order, (u, v) -> Integer.compare(endDepth(units.get(u), side), endDepth(units.get(v), side)));
+        long[] positions = new long[units.size()];
+        //next free code of a canonical prefix code, at depth codeDepth
+        long code = 0;
+        int codeDepth = 0;
+        for (int u : order) {
+            int depth = endDepth(units.get(u), side);
+            if (depth > 60 || (code << (depth - codeDepth)) >= 1L << depth) {
+                positions[u] = -1;
+                continue;
+            }
+            code <<= depth - codeDepth;
+            positions[u] = (1L << depth) | code;
+            code++;
+            codeDepth = depth;
+        }
+        return positions;
+    }
+
+    private static int endDepth(int[] unit, int side) {
+        return unit[side] - unit[2];
+    }
+
+    /**
+     * Add vertex id at position of the ancestry of an individual, that lineages pass through, and its ancestors
+     *
+     * @param ends  {ancestor, mate} of the lineages ending at a position
+     * @param paths positions that lineages pass through
+     */
+    private static void addAncestry(Pedigree p, Map<Long, int[]> ends, Set<Long> paths, long position, int id) {
+        int father = addParent(p, ends, paths, 2 * position);
+        int mother = addParent(p, ends, paths, 2 * position + 1);
+        p.addVertex(id, father, mother, position == 1);
+    }
+
+    /**
+     * @return id of the vertex at position, added with its ancestors if needed
+     */
+    private static int addParent(Pedigree p, Map<Long, int[]> ends, Set<Long> paths, long position) {
+        int[] end = ends.get(position);
+        if (end != null && end[1] == -1)
+            return end[0];
+        int id = p.getNewID();
+        if (end != null)
+            p.addVertex(id, end[0], end[1], false);
+        else if (paths.contains(position))
+            addAncestry(p, ends, paths, position, id);
+        else
+            p.addVertex(id);
+        return id;
+    }
+
+    public static void main(String[] argv) {
+        Namespace args = parseArgs(argv);
+        RandomStreams.init(args.getLong("seed"));
+        if (args.getString("geneticMap") != null)
+            GeneticMap.setDefault(GeneticMap.load(new File(args.getString("geneticMap"))));
+        KdeStorePrecomputer precomputer = new KdeStorePrecomputer(args.getInt("generations"), args.getInt("iterations"));
+        Map<DepthSignature, List<DataPoint>> samples = precomputer.precompute();
+        try {
+            KdeStore.write(new File(args.getString("outputFile")), samples);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed writing KDE store " + args.getString("outputFile"), e);
+        }
+        LOG.important("Wrote {} signatures to {}", samples.size(), args.getString("outputFile"));
+    }
+}
@@ -0,0 +1,170 @@
+package prepare.relationship;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import prepare.common.GeneticMap;
+import prepare.misc.Log;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Bounded, thread safe memo of hypothesis log likelihoods, so pairs whose relevant sub-pedigree did not change
+ * are not tested again in later generations.
+ * <p>
+ * Keys are 128 bit hashes of the calculator settings (see {@link #newKeyHasher}) and of the structure of
+ * the hypothesis as seen by the calculator: for {@link PedLikelihoodCalcInheritancePaths}, the common ancestor
+ * signature and observed IBD feature of every living pair of the two descendant sets. Vertex ids are not part
+ * of the key, so it does not depend on the ids generated by the reconstruction.
+ * <p>
+ * Likelihoods also depend on the source of the densities (see {@link #densitySource}), which is the same for all
+ * keys of a memo, so it is saved once in the file, and a file of another source is not loaded.
+ * <p>
+ * File layout (big endian): int magic, int version, long densitySource, int numOfEntries,
+ * then per entry - byte[16] key, double likelihood
+ */
+public class LikelihoodMemo {
+    private static final Log LOG = Log.get(LikelihoodMemo.class);
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 1000000;
+    static final int MAGIC = 0x504C4D4F; //"PLMO"
+    static final int VERSION = 2;
+    private static final int KEY_BYTES = 16;
+
+    private final Cache<HashCode, Double> cache;
+    private final long maximumSize;
+    private final long densitySource;
+
+    /**
+     * Memo of likelihoods from densities of an unspecified source
+     */
+    public LikelihoodMemo(long maximumSize) {
+        this(maximumSize, 0);
+    }
+
+    /**
+     * @param densitySource source of the densities of the likelihoods, see {@link #densitySource}
+     */
+    public LikelihoodMemo(long maximumSize, long densitySource) {
+        this.maximumSize = maximumSize;
+        this.densitySource = densitySource;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Hasher of a key, holding the settings of lCalc. The calculator adds the inputs its likelihood depends on
+     */
+    public static Hasher newKeyHasher(PedLikelihoodCalcAbs lCalc) {
+        return Hashing.murmur3_128().newHasher()
+                .putInt(VERSION)
+                .putUnencodedChars(lCalc.getClass().getName())
+                .putInt(lCalc.getNumOfSimIter())
+                .putBoolean(lCalc.isPhased());
+    }
+
+    /**
+     * Fingerprint of what densities depend on besides their signature: the genetic map and seed of simulations,
+     * the store densities are taken from, if any, and whether analytic densities are used
+     */
+    public static long densitySource(GeneticMap map, long seed, KdeStore store, boolean analytic) {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putLong(map.getFingerprint())
+                .putLong(seed)
+                .putBoolean(analytic)
+                .putBoolean(store != null);
+        if (store != null)
+            hasher.putLong(store.getMapFingerprint()).putLong(store.getSeed()).putInt(store.getNumOfSimIter());
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * @return the memoized log likelihood, or null on a miss
+     */
+    public Double get(HashCode key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(HashCode key, double likelihood) {
+        cache.put(key, likelihood);
+    }
+
+    /**
+     * Load memo from file, keeping at most maximumSize entries
+     *
+     * @param densitySource source of the densities of the loaded memo, a file of another source is rejected
+     */
+    public static LikelihoodMemo load(File file, long maximumSize, long densitySource) throws IOException {
+        LikelihoodMemo memo = new LikelihoodMemo(maximumSize, densitySource);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a likelihood memo file");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported likelihood memo version " + version + " in " + file);
+            if (in.readLong() != densitySource)
+                throw new IOException("Likelihood memo " + file + " was calculated with another genetic map, seed, "
+                        + "KDE store or -analytic setting");
+            int numOfEntries = in.readInt();
+            byte[] key = new byte[KEY_BYTES];
+            for (int i = 0; i < numOfEntries; i++) {
+                in.readFully(key);
+                memo.cache.put(HashCode.fromBytes(key.clone()), in.readDouble());
+            }
+        }
+        LOG.important("Loaded likelihood memo {} with {} entries", file, memo.size());
+        return memo;
+    }
+
+    /**
+     * Write all entries to file, replacing it only once the new file is complete
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Map<HashCode, Double> entries = new HashMap<>(cache.asMap());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(densitySource);
+            out.writeInt(entries.size());
+            for (Map.Entry<HashCode, Double> entry : entries.entrySet()) {
+                out.write(entry.getKey().asBytes());
+                out.writeDouble(entry.getValue());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getDensitySource() {
+        return densitySource;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "LikelihoodMemo{size=" + cache.size() + "/" + maximumSize +
+                ", hits=" + stats.hitCount() +
+                ", misses=" + stats.missCount() +
+                ", hitRate=" + String.format("%.3f", stats.hitRate()) + "}";
+    }
+}
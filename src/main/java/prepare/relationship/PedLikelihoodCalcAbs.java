@@ -1,58 +1,99 @@
 package prepare.relationship;
 
+import prepare.common.GeneticMap;
+import prepare.common.Recombinator;
 import prepare.graph.Graph;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.Metrics;
+import prepare.misc.RandomStreams;
 import jsat.classifiers.DataPoint;
-import jsat.distributions.empirical.kernelfunc.GaussKF;
-import jsat.distributions.multivariate.MetricKDE;
-import jsat.distributions.multivariate.MultivariateKDE;
-import jsat.linear.distancemetrics.EuclideanDistance;
 import prepare.pedreconstruction.IBDFeaturesWeight;
 import prepare.pedigree.Pedigree;
 import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.PedigreeOverlay;
+import prepare.pedigree.PedigreeView;
 
 import javax.management.RuntimeErrorException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 
 
 public abstract class PedLikelihoodCalcAbs {
+    private static final Log LOG = Log.get(PedLikelihoodCalcAbs.class);
+
+    static final double KDE_BANDWIDTH = 8;
+
     private final int numOfSimIter;
     private final boolean phased;
+    LikelihoodMemo memo;
 
     public PedLikelihoodCalcAbs(int numOfSimIterations, boolean phased) {
         numOfSimIter = numOfSimIterations;
         this.phased = phased;
     }
 
-    public abstract double calcLikelihood(Pedigree p, Graph iBDgraph,
+    /**
+     * Memo of likelihoods calculated before, null to calculate every likelihood.
+     * Used by calculators that can key a likelihood by its inputs (see {@link LikelihoodMemo})
+     */
+    public void setLikelihoodMemo(LikelihoodMemo memo) {
+        this.memo = memo;
+    }
+
+    public int getNumOfSimIter() {
+        return numOfSimIter;
+    }
+
+    public boolean isPhased() {
+        return phased;
+    }
+
+    public abstract double calcLikelihood(PedigreeView p, Graph iBDgraph,
                                           Map<Integer, Integer> idConversion, List<PedVertex> descendants1, List<PedVertex> descendants2);
 
+    /**
+     * Log likelihoods of several hypotheses, in hypothesis order.
+     * Same as calling {@link #calcLikelihood} for each hypothesis, implementations may look up the densities
+     * of all hypotheses at once.
+     */
+    public double[] calcLikelihoods(List<PedigreeOverlay> hypotheses, Graph iBDgraph,
+                                    Map<Integer, Integer> idConversion, List<PedVertex> descendants1, List<PedVertex> descendants2) {
+        double[] likelihoods = new double[hypotheses.size()];
+        for (int i = 0; i < likelihoods.length; i++)
+            likelihoods[i] = calcLikelihood(hypotheses.get(i), iBDgraph, idConversion, descendants1, descendants2);
+        return likelihoods;
+    }
+
     /**
      * Create IBD feature distribution for every pair of living individuals in pedigree
      * Simulate recombination process N times
      **/
-    protected Map<String, List<DataPoint>> sampleFeaturesFromInheritanceSpace(Pedigree pedigree, boolean addNoise) {
+    protected Map<String, List<DataPoint>> sampleFeaturesFromInheritanceSpace(Pedigree pedigree, boolean addNoise, SplittableRandom random) {
         Map<String, List<DataPoint>> simDataSets = new HashMap<>();
+        Recombinator recombinator = new Recombinator(GeneticMap.getDefault(), random.split());
+        SplittableRandom noise = random.split();
+        Metrics.getShared().count(Metrics.Counter.SIMULATIONS, numOfSimIter);
         for (int i = 1; i <= numOfSimIter; i++) {
-            MyLogger.debug("Simulate recombinations of pedigree");
-            pedigree.simulateRecombinations();
+            LOG.debug("Simulate recombinations of pedigree");
+            pedigree.simulateRecombinations(recombinator);
 
-            MyLogger.debug("Calc pairwise IBD sharing");
+            LOG.debug("Calc pairwise IBD sharing");
 
             //Save sharing features for each pair of living individuals
             for (PedVertex v1 : pedigree.getLiving()) {
                 for (PedVertex v2 : pedigree.getLiving()) {
-                    MyLogger.debug("calcIBDSharing " + v1 + "," + v2);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("calcIBDSharing {},{}", v1, v2);
 
                     if (v1.getId() >= v2.getId()) continue;//Do only one side calculation
 
                     String pairID = v1.getId() + "." + v2.getId();
 
                     //calculate features for pair
-                    DataPoint simFeatures = IBDFeaturesWeight.calcIBDFeatureWeight(pedigree.getGenotype(v1.getId()), pedigree.getGenotype(v2.getId()), addNoise, phased).asDataPoint();
+                    DataPoint simFeatures = IBDFeaturesWeight.calcIBDFeatureWeight(pedigree.getGenotype(v1.getId()), pedigree.getGenotype(v2.getId()), addNoise, phased, noise).asDataPoint();
 
                     //Initialize datasets
                     if (i == 1) {
@@ -62,7 +103,8 @@ public abstract class PedLikelihoodCalcAbs {
                     } else //Add to existing datasets
                         simDataSets.get(pairID).add(simFeatures);
 
-                    MyLogger.debug("sampleFeaturesFromInheritanceSpace(" + v1 + "," + v2 + ")::simW=" + simFeatures.getNumericalValues());
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("sampleFeaturesFromInheritanceSpace({},{})::simW={}", v1, v2, simFeatures.getNumericalValues());
                 }
             }
         }
@@ -73,15 +115,19 @@ public abstract class PedLikelihoodCalcAbs {
      * Create IBD feature distribution for every pair of living individuals in pedigree
      * Simulate recombination process N times
      **/
-    Map<String, List<DataPoint>> sampleFeaturesFromInheritanceSpace(Pedigree p, boolean addNoise, List<PedVertex> descendants1, List<PedVertex> descendants2) {
+    Map<String, List<DataPoint>> sampleFeaturesFromInheritanceSpace(PedigreeView p, boolean addNoise, List<PedVertex> descendants1, List<PedVertex> descendants2,
+                                                                     SplittableRandom random) {
 
         Map<String, List<DataPoint>> simDataSets = new HashMap<>();
+        Recombinator recombinator = new Recombinator(GeneticMap.getDefault(), random.split());
+        SplittableRandom noise = random.split();
+        Metrics.getShared().count(Metrics.Counter.SIMULATIONS, numOfSimIter);
 
         for (int i = 1; i <= numOfSimIter; i++) {
-            MyLogger.debug("Simulate recombinations of pedigree");
-            p.simulateRecombinations();
+            LOG.debug("Simulate recombinations of pedigree");
+            p.simulateRecombinations(recombinator);
 
-            MyLogger.debug("Calc pairwise IBD sharing");
+            LOG.debug("Calc pairwise IBD sharing");
 
             //Save sharing features for each pair of living individuals
             for (PedVertex v1 : descendants1) {
@@ -95,7 +141,7 @@ public abstract class PedLikelihoodCalcAbs {
                     String pairID = v1.getId() + "." + v2.getId();
                     //MyLogger.important("calc Features for " + pairID);
                     //calculate features for pair
-                    DataPoint simFeatures = IBDFeaturesWeight.calcIBDFeatureWeight(p.getGenotype(v1.getId()), p.getGenotype(v2.getId()), addNoise, phased).asDataPoint();
+                    DataPoint simFeatures = IBDFeaturesWeight.calcIBDFeatureWeight(p.getGenotype(v1.getId()), p.getGenotype(v2.getId()), addNoise, phased, noise).asDataPoint();
 
                     //Initialize datasets
                     if (i == 1) {
@@ -105,7 +151,8 @@ public abstract class PedLikelihoodCalcAbs {
                     } else //Add to existing datasets
                         simDataSets.get(pairID).add(simFeatures);
 
-                    MyLogger.debug("sampleFeaturesFromInheritanceSpace(" + v1 + "," + v2 + ")::simW=" + simFeatures.getNumericalValues());
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("sampleFeaturesFromInheritanceSpace({},{})::simW={}", v1, v2, simFeatures.getNumericalValues());
                 }
             }
         }
@@ -120,24 +167,36 @@ public abstract class PedLikelihoodCalcAbs {
         return bothDirectionsSimDataSets;
     }
 
-    MultivariateKDE estimateDensity(List<DataPoint> dataSet) {
-        EuclideanDistance ed = new EuclideanDistance();
-        MetricKDE kde = new MetricKDE(GaussKF.getInstance(), ed);
+    /**
+     * Sample the IBD features of a pair whose common ancestors have signature, on the pedigree of
+     * {@link KdeStorePrecomputer#createSignaturePedigree}, with a stream keyed by signature.
+     * The samples only depend on the seed and signature, not on the pedigree or thread the signature
+     * is first seen in, so densities in a shared {@link KdeCache} are reproducible.
+     *
+     * @return null if signature has no such pedigree
+     */
+    List<DataPoint> sampleSignatureFeatures(DepthSignature signature, boolean addNoise) {
+        Pedigree p = KdeStorePrecomputer.createSignaturePedigree(signature);
+        if (p == null)
+            return null;
+        return sampleFeaturesFromInheritanceSpace(p, addNoise,
+                RandomStreams.stream(RandomStreams.Purpose.SIMULATION, signature.getEncoding())).get("1.2");
+    }
+
+    FeatureDensity estimateDensity(List<DataPoint> dataSet) {
         if (dataSet == null) {
-            MyLogger.error("PedLikelihoodCalcAbs::estimateDensity::Null dataSet");
+            LOG.error("PedLikelihoodCalcAbs::estimateDensity::Null dataSet");
             throw new RuntimeErrorException(new Error("Null dataSet"));
         }
-        kde.setUsingDataList(dataSet);
-        kde.setBandwith(8);
-        return kde;
+        return GaussianKde.of(dataSet, KDE_BANDWIDTH);
     }
 
     void printExplanationForInf(List<DataPoint> l) {
-        MyLogger.debug("dataSet for pair");
-        MyLogger.debug("list size=" + l.size());
+        LOG.debug("dataSet for pair");
+        LOG.debug("list size={}", l.size());
         for (int i = 0; i < numOfSimIter; i++) {
             DataPoint point = l.get(i);
-            MyLogger.debug(point.getNumericalValues().toString());
+            LOG.debug("{}", point.getNumericalValues());
         }
     }
 
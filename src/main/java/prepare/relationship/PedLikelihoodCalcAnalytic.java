@@ -0,0 +1,22 @@
+package prepare.relationship;
+
+/**
+ * Inheritance paths likelihood, where the IBD feature densities of standard relationships are calculated
+ * by {@link AnalyticFeatureDensity} rather than by simulating recombinations.
+ * Signatures that have no analytic model are simulated.
+ */
+public class PedLikelihoodCalcAnalytic extends PedLikelihoodCalcInheritancePaths {
+
+    public PedLikelihoodCalcAnalytic(int numOfSimsIter, boolean phased) {
+        super(numOfSimsIter, phased);
+    }
+
+    public PedLikelihoodCalcAnalytic(int numOfSimsIter, boolean phased, KdeCache kdeCache) {
+        super(numOfSimsIter, phased, kdeCache);
+    }
+
+    @Override
+    protected FeatureDensity modelDensity(DepthSignature signature) {
+        return AnalyticFeatureDensity.forSignature(signature);
+    }
+}
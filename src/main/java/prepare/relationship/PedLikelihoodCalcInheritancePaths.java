@@ -1,98 +1,296 @@
 package prepare.relationship;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import prepare.graph.Edge;
 import prepare.graph.Graph;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.Metrics;
+import prepare.misc.RandomStreams;
 import jsat.classifiers.DataPoint;
-import jsat.distributions.multivariate.MultivariateKDE;
-import jsat.linear.Vec;
-import prepare.misc.VecImpl;
 import prepare.pedigree.Pedigree;
 import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.PedigreeOverlay;
+import prepare.pedigree.PedigreeView;
+import prepare.pedreconstruction.IBDFeaturesWeight;
 
-import javax.management.RuntimeErrorException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Holds a unique set of pedigrees that explain all seen pedigrees for simulation
  * For each template, has a saved mapping of the
  * simulated feature distributions between each pair of living individuals.
- * These distributions can be reused, to save time
- *
+ * These distributions can be reused, to save time.
+ * Distributions are kept in a {@link KdeCache}, by default the process-wide one,
+ * so they are shared between testers, threads and generations.
+ * Missing distributions are taken from the cache's {@link KdeStore} if it has them, and simulated otherwise,
+ * on a pedigree and random stream of the signature alone (see {@link #sampleSignatureFeatures}).
+ * A signature without such a pedigree is simulated on the hypothesis pedigree of its first pair instead,
+ * and as that density is not a function of the signature, it is neither cached nor memoized.
  */
 public class PedLikelihoodCalcInheritancePaths extends PedLikelihoodCalcAbs {
 
-    private final Map<String, MultivariateKDE> kdeMap = new HashMap<>();
+    private static final Log LOG = Log.get(PedLikelihoodCalcInheritancePaths.class);
+
+    private final KdeCache kdeCache;
+    //signatures that have no pedigree of their own
+    private final Set<DepthSignature> withoutPedigree = ConcurrentHashMap.newKeySet();
 
     public PedLikelihoodCalcInheritancePaths(int numOfSimsIter, boolean phased) {
+        this(numOfSimsIter, phased, KdeCache.getShared());
+    }
+
+    public PedLikelihoodCalcInheritancePaths(int numOfSimsIter, boolean phased, KdeCache kdeCache) {
         super(numOfSimsIter, phased);
+        this.kdeCache = kdeCache;
+    }
+
+    /**
+     * Density of the IBD features for signature, that is calculated without simulation.
+     * Simulation is used for signatures without a model density
+     *
+     * @return null, if there is no model for signature
+     */
+    protected FeatureDensity modelDensity(DepthSignature signature) {
+        return null;
     }
 
     @Override
-    public double calcLikelihood(Pedigree p, Graph IBDGraph, Map<Integer, Integer> idConversion, List<PedVertex> descendants1, List<PedVertex> descendants2) {
-        double logLikelihood = 0;
-        boolean isFirstMissing = true;
-        Map<String, List<DataPoint>> simDataSets = null;
+    public double calcLikelihood(PedigreeView p, Graph IBDGraph, Map<Integer, Integer> idConversion, List<PedVertex> descendants1, List<PedVertex> descendants2) {
+        Map<DepthSignature, PairGroup> groups = groupPairs(p, IBDGraph, idConversion, descendants1, descendants2);
+        if (memo == null)
+            return calcLikelihood(p, groups);
+        HashCode key = memoKey(groups);
+        Double l = memo.get(key);
+        if (l == null) {
+            l = calcLikelihood(p, groups);
+            if (isMemoizable(groups))
+                memo.put(key, l);
+        }
+        return l;
+    }
+
+    /**
+     * Densities missing for any hypothesis are simulated once per signature, before the hypotheses are scored.
+     * Each signature is simulated on its own pedigree and keyed stream (see {@link #sampleSignatureFeatures}),
+     * so the densities do not depend on the hypotheses they were first missing for.
+     * Hypotheses found in the {@link #memo} are not calculated again.
+     */
+    @Override
+    public double[] calcLikelihoods(List<PedigreeOverlay> hypotheses, Graph IBDGraph,
+                                    Map<Integer, Integer> idConversion, List<PedVertex> descendants1, List<PedVertex> descendants2) {
+        double[] likelihoods = new double[hypotheses.size()];
+        List<Map<DepthSignature, PairGroup>> hypothesesGroups = new ArrayList<>();
+        HashCode[] memoKeys = new HashCode[hypotheses.size()];
+        Set<DepthSignature> missing = new LinkedHashSet<>();
+        for (int i = 0; i < likelihoods.length; i++) {
+            Map<DepthSignature, PairGroup> groups = groupPairs(hypotheses.get(i), IBDGraph, idConversion, descendants1, descendants2);
+            if (memo != null) {
+                memoKeys[i] = memoKey(groups);
+                Double l = memo.get(memoKeys[i]);
+                if (l != null) {
+                    likelihoods[i] = l;
+                    groups = null;
+                }
+            }
+            hypothesesGroups.add(groups);
+            if (groups == null)
+                continue;
+            for (DepthSignature key : groups.keySet()) {
+                if (!missing.contains(key) && findDensity(key) == null)
+                    missing.add(key);
+            }
+        }
+
+        for (DepthSignature key : missing)
+            simulateDensity(key);
+
+        for (int i = 0; i < likelihoods.length; i++) {
+            if (hypothesesGroups.get(i) == null)
+                continue;
+            likelihoods[i] = calcLikelihood(hypotheses.get(i), hypothesesGroups.get(i));
+            if (memo != null && isMemoizable(hypothesesGroups.get(i)))
+                memo.put(memoKeys[i], likelihoods[i]);
+        }
+        return likelihoods;
+    }
+
+    /**
+     * Key of the likelihood of groups in the {@link #memo}. The likelihood only depends on the signature and
+     * observed feature of each living pair, so hypotheses whose structures give the same signatures to the
+     * same observations share a key, also across generations.
+     */
+    private HashCode memoKey(Map<DepthSignature, PairGroup> groups) {
+        Hasher hasher = LikelihoodMemo.newKeyHasher(this);
+        for (Map.Entry<DepthSignature, PairGroup> entry : groups.entrySet()) {
+            int[] encoding = entry.getKey().getEncoding();
+            hasher.putInt(encoding.length);
+            for (int x : encoding)
+                hasher.putInt(x);
+            PairGroup group = entry.getValue();
+            hasher.putInt(group.size);
+            for (int i = 0; i < group.size; i++)
+                hasher.putInt(group.pairIndexes[i]).putDouble(group.obsFeatures[i]);
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Group living pairs by the signature of their common ancestors, in order of first appearance,
+     * so each density is looked up once and evaluated for all its pairs in one batch
+     */
+    private Map<DepthSignature, PairGroup> groupPairs(PedigreeView p, Graph IBDGraph, Map<Integer, Integer> idConversion,
+                                                      List<PedVertex> descendants1, List<PedVertex> descendants2) {
+        Map<DepthSignature, PairGroup> groups = new LinkedHashMap<>();
         int pairNum = 0;
-        //Sample features from inheritance space for all pairs, if needed.
-        //(IBDFeature distributions that were calculated previously for synonymous pedigree)
         for (PedVertex v1 : descendants1) {
             if (!v1.isAlive()) continue;//compare only living descendants
             for (PedVertex v2 : descendants2) {
                 if (!v2.isAlive()) continue;//compare only living descendants
                 if (v1.getId() == v2.getId()) continue;//don't self compare
 
-                List<int[]> commonAncestorsDepth = p.getCommonAncestorDepths(p.getVertex(v1.getId()), p.getVertex(v2.getId()));
-                String pairID = v1.getId() + "." + v2.getId();
-
-                StringBuilder key = new StringBuilder();
-                for (int[] depths : commonAncestorsDepth)
-                    key.append("[").append(depths[0]).append(",").append(depths[1]).append("]");
-
-                if (!kdeMap.containsKey(key.toString()) && isFirstMissing) {
-                    simDataSets = sampleFeaturesFromInheritanceSpace(p, true, descendants1, descendants2);
-                    isFirstMissing = false;
-                    List<DataPoint> pairDataSet = simDataSets.get(pairID);
-                    if (pairDataSet == null) {
-                        MyLogger.error("PedLikelihoodCalcIP::calcLikelihood::Null dataSet " + pairID + "," + key);
-                        MyLogger.error(simDataSets.keySet().toString());
-                        throw new RuntimeErrorException(new Error("Null dataSet"));
-                    }
-                    //MyLogger.important(pairDataSet.get(0).getNumericalValues().toString());
-                    kdeMap.put(key.toString(), estimateDensity(pairDataSet));
-
+                List<int[]> commonAncestorsDepth = p.getCommonAncestorDepths(v1.getId(), v2.getId());
+                DepthSignature key = DepthSignature.of(commonAncestorsDepth, getNumOfSimIter(), isPhased());
+                PairGroup group = groups.get(key);
+                if (group == null) {
+                    group = new PairGroup(v1, v2);
+                    groups.put(key, group);
                 }
-                //We already sampled features from the Inheritance space
-                if (!kdeMap.containsKey(key.toString()) && !isFirstMissing) {
-                    List<DataPoint> pairDataSet = simDataSets.get(pairID);
-                    if (pairDataSet == null) {
-                        MyLogger.error("PedLikelihoodCalcIP::calcLikelihood::Null dataSet " + pairID + "," + key);
-                        throw new RuntimeErrorException(new Error("Null dataSet"));
-                    }
-                    kdeMap.put(key.toString(), estimateDensity(pairDataSet));
-                }
-
-                //Should have key in map by now
-                MultivariateKDE kde = kdeMap.get(key.toString());
-
-                Vec obsFeatures = new VecImpl(0, 0);
-                //Vec obsFeatures = new VecImpl(0);
+                double obsFeature = 0;
                 Edge e = IBDGraph.getUndirectedEdge(idConversion.get(v1.getId()), idConversion.get(v2.getId()));
                 if (e != null)
-                    obsFeatures = e.getWeight().asVector();
+                    obsFeature = ((IBDFeaturesWeight) e.getWeight()).getFeature();
+                group.add(pairNum++, obsFeature);
+            }
+        }
+        return groups;
+    }
 
-                double pairLogLikelihood = Math.log(kde.pdf(obsFeatures));
+    /**
+     * Density of key that is known without simulation: cached, modeled or stored
+     *
+     * @return null, if key has to be simulated
+     */
+    private FeatureDensity findDensity(DepthSignature key) {
+        FeatureDensity kde = kdeCache.get(key);
+        if (kde == null) {
+            FeatureDensity modelDensity = modelDensity(key);
+            if (modelDensity != null)
+                kde = kdeCache.putIfAbsent(key, modelDensity);
+        }
+        if (kde == null && kdeCache.getStore() != null) {
+            List<DataPoint> storedDataSet = kdeCache.getStore().getSamples(key);
+            if (storedDataSet != null)
+                kde = kdeCache.putIfAbsent(key, estimateDensity(storedDataSet));
+        }
+        return kde;
+    }
 
-                if (Double.isInfinite(pairLogLikelihood)) {
-                    pairLogLikelihood = -100;
-                }
-                pairNum++;
-                logLikelihood += pairLogLikelihood;
-            }
+    /**
+     * Density of key simulated on its signature pedigree, added to the cache
+     *
+     * @return null, if key has no signature pedigree
+     */
+    private FeatureDensity simulateDensity(DepthSignature key) {
+        if (withoutPedigree.contains(key))
+            return null;
+        List<DataPoint> samples = sampleSignatureFeatures(key, true);
+        if (samples == null) {
+            if (withoutPedigree.add(key))
+                LOG.warn("Signature {} has no pedigree of its own, simulating it on the hypothesis pedigrees", key);
+            return null;
+        }
+        return kdeCache.putIfAbsent(key, estimateDensity(samples));
+    }
+
+    /**
+     * Density of the pairs of group, simulated on the hypothesis pedigree p for the first pair of the group
+     */
+    private FeatureDensity simulatePairDensity(PedigreeView p, DepthSignature key, PairGroup group) {
+        String pairID = group.v1.getId() + "." + group.v2.getId();
+        List<PedVertex> descendants1 = Collections.singletonList(group.v1);
+        List<PedVertex> descendants2 = Collections.singletonList(group.v2);
+        return estimateDensity(sampleFeaturesFromInheritanceSpace(p, true, descendants1, descendants2,
+                RandomStreams.stream(RandomStreams.Purpose.SIMULATION, key.getEncoding())).get(pairID));
+    }
 
+    /**
+     * @return false if a density of groups depends on the hypothesis pedigree, and not on its signature alone
+     */
+    private boolean isMemoizable(Map<DepthSignature, PairGroup> groups) {
+        for (DepthSignature key : groups.keySet()) {
+            if (withoutPedigree.contains(key))
+                return false;
+        }
+        return true;
+    }
+
+    private double calcLikelihood(PedigreeView p, Map<DepthSignature, PairGroup> groups) {
+        Metrics.getShared().count(Metrics.Counter.HYPOTHESES_EVALUATED);
+        int pairNum = 0;
+        for (PairGroup group : groups.values())
+            pairNum += group.size;
+        double[] pairPdfs = new double[pairNum];
+        //Densities of signatures seen before, also in other pedigrees, are reused
+        for (Map.Entry<DepthSignature, PairGroup> entry : groups.entrySet()) {
+            DepthSignature key = entry.getKey();
+            PairGroup group = entry.getValue();
+            FeatureDensity kde = findDensity(key);
+            if (kde == null)
+                kde = simulateDensity(key);
+            if (kde == null)
+                kde = simulatePairDensity(p, key, group);
+
+            double[] pdfs = new double[group.size];
+            kde.pdf(Arrays.copyOf(group.obsFeatures, group.size), pdfs);
+            for (int i = 0; i < group.size; i++)
+                pairPdfs[group.pairIndexes[i]] = pdfs[i];
+        }
+
+        //sum in pair order
+        double logLikelihood = 0;
+        for (double pairPdf : pairPdfs) {
+            double pairLogLikelihood = Math.log(pairPdf);
+
+            if (Double.isInfinite(pairLogLikelihood)) {
+                pairLogLikelihood = -100;
+            }
+            logLikelihood += pairLogLikelihood;
         }
         return logLikelihood / pairNum;
     }
+
+    /**
+     * Observed features of the pairs of one signature, and the position of each pair in the likelihood loop
+     */
+    private static class PairGroup {
+        //first pair of the group
+        private final PedVertex v1;
+        private final PedVertex v2;
+        private double[] obsFeatures = new double[4];
+        private int[] pairIndexes = new int[4];
+        private int size = 0;
+
+        PairGroup(PedVertex v1, PedVertex v2) {
+            this.v1 = v1;
+            this.v2 = v2;
+        }
+
+        void add(int pairIndex, double obsFeature) {
+            if (size == obsFeatures.length) {
+                obsFeatures = Arrays.copyOf(obsFeatures, size * 2);
+                pairIndexes = Arrays.copyOf(pairIndexes, size * 2);
+            }
+            obsFeatures[size] = obsFeature;
+            pairIndexes[size++] = pairIndex;
+        }
+    }
 }
@@ -1,17 +1,24 @@
 package prepare.relationship;
 
 import prepare.graph.*;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
 import org.apache.commons.math3.distribution.ExponentialDistribution;
 import org.apache.commons.math3.distribution.NormalDistribution;
 import prepare.pedigree.Pedigree;
 import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.PedigreeOverlay;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 public abstract class RelationHypothesisTester {
+    private static final Log LOG = Log.get(RelationHypothesisTester.class);
+    /**
+     * Number of simulations each simulated density is estimated from
+     */
+    public static final int NUM_OF_SIM_ITER = 50;
+
     Graph IBDGraph;
     PedLikelihoodCalcAbs lCalc;
     Map<Integer, Integer> idConversion;
@@ -20,44 +27,70 @@ public abstract class RelationHypothesisTester {
     int numOfSibs = 0;
     int numOfHalfSibs = 0;
     boolean phased;
+    boolean analytic = false;
+    LikelihoodMemo memo;
 
     public RelationHypothesisTester(Graph IBDGraph, boolean phased) {
         this.IBDGraph = IBDGraph;
         this.phased = phased;
     }
 
-    double calcSameLikelihood(Pedigree ped, int f1, int f2, List<PedVertex> descendants1, List<PedVertex> descendants2, boolean isFather) {
-        Pedigree p = new Pedigree(ped);//clone
-        for (PedVertex f2Child : p.getVertex(f2).getChildren()) {
-            p.getVertex(f1).addChild(f2Child);
-            if (isFather)
-                f2Child.overrideFather(f1);
-            else
-                f2Child.overrideMother(f1);
-        }
-        p.removeVertex(f2);
-
-        MyLogger.info("calcSameLikelihood::pedSize=" + p.getVertices().size());
-
-        double l = lCalc.calcLikelihood(p, IBDGraph, idConversion, descendants1, descendants2);
-        MyLogger.info(f1 + "," + f2 + " sameLikelihood=" + l);
+    /**
+     * Use analytic IBD feature densities where possible, instead of simulating recombinations
+     */
+    public void setAnalytic(boolean analytic) {
+        this.analytic = analytic;
+    }
 
-        return l;
+    /**
+     * Memo of hypothesis likelihoods, shared with testers of other generations, null to calculate every hypothesis
+     */
+    public void setLikelihoodMemo(LikelihoodMemo memo) {
+        this.memo = memo;
+        if (lCalc != null)
+            lCalc.setLikelihoodMemo(memo);
     }
 
-    double calcUnrelatedLikelihood(Pedigree ped, int f1, int f2, List<PedVertex> descendants1, List<PedVertex> descendants2) {
-        Pedigree p = new Pedigree(ped);//clone
-        MyLogger.info("calcUnrelatedLikelihood::pedSize=" + p.getVertices().size());
+    PedLikelihoodCalcAbs createLikelihoodCalc() {
+        PedLikelihoodCalcAbs calc;
+        if (analytic)
+            calc = new PedLikelihoodCalcAnalytic(NUM_OF_SIM_ITER, phased);
+        else
+            calc = new PedLikelihoodCalcInheritancePaths(NUM_OF_SIM_ITER, phased);
+        calc.setLikelihoodMemo(memo);
+        return calc;
+    }
 
+    /**
+     * Log likelihoods of hypotheses, in one batch that simulates each missing density once
+     */
+    double[] calcLikelihoods(List<PedigreeOverlay> hypotheses, List<PedVertex> descendants1, List<PedVertex> descendants2) {
+        return lCalc.calcLikelihoods(hypotheses, IBDGraph, idConversion, descendants1, descendants2);
+    }
 
-        double l = lCalc.calcLikelihood(p, IBDGraph, idConversion, descendants1, descendants2);
-        MyLogger.info(f1 + "," + f2 + " unrelatedLikelihood=" + l);
+    /**
+     * Hypothesis that f1 and f2 are the same individual, f2's children become f1's
+     */
+    PedigreeOverlay sameHypothesis(Pedigree ped, int f1, int f2, boolean isFather) {
+        PedigreeOverlay p = new PedigreeOverlay(ped);
+        List<Integer> f2Children = new ArrayList<>();
+        for (PedVertex f2Child : ped.getVertex(f2).getChildren()) {
+            f2Children.add(f2Child.getId());
+            if (isFather)
+                p.setFather(f2Child.getId(), f1);
+            else
+                p.setMother(f2Child.getId(), f1);
+        }
+        p.removeVertex(f2, f2Children);
+        return p;
+    }
 
-        return l;
+    PedigreeOverlay unrelatedHypothesis(Pedigree ped) {
+        return new PedigreeOverlay(ped);
     }
 
-    double calcSibLikelihood(Pedigree ped, int f1, int f2, List<PedVertex> descendants1, List<PedVertex> descendants2) {
-        Pedigree pedigree = new Pedigree(ped);//clone
+    PedigreeOverlay sibHypothesis(Pedigree ped, int f1, int f2) {
+        PedigreeOverlay pedigree = new PedigreeOverlay(ped);
 
         int fatherID;
         int motherID;
@@ -69,26 +102,17 @@ public abstract class RelationHypothesisTester {
         pedigree.addVertex(fatherID);
         pedigree.addVertex(motherID);
 
-        pedigree.getVertex(f1).setFather(fatherID);
-        pedigree.getVertex(f1).setMother(motherID);
-        pedigree.getVertex(f2).setFather(fatherID);
-        pedigree.getVertex(f2).setMother(motherID);
-
-        MyLogger.info("calcSibLikelihood::pedSize=" + pedigree.getVertices().size());
-
-        double l = lCalc.calcLikelihood(pedigree, IBDGraph, idConversion, descendants1, descendants2);
-        MyLogger.info(f1 + "," + f2 + " sibLikelihood=" + l);
-
-        return l;
+        pedigree.setFather(f1, fatherID);
+        pedigree.setMother(f1, motherID);
+        pedigree.setFather(f2, fatherID);
+        pedigree.setMother(f2, motherID);
+        return pedigree;
     }
 
     /**
-     * Calc the likelihood for f2 to be the parent of f1
+     * @return possible mates of f2 as a parent: a new vertex (-2), and the other parents of f2's children
      */
-    double[] calcParentLikelihood(Pedigree ped, int f1, int f2, List<PedVertex> descendants1, List<PedVertex> descendants2) {
-        MyLogger.info("calcParentLikelihood");
-
-        //Add nodes that create parent hypothesis
+    List<Integer> possibleMates(Pedigree ped, int f2) {
         int newMateID = -2;
 
         List<Integer> possibleMateIDs = new ArrayList<>();
@@ -104,40 +128,36 @@ public abstract class RelationHypothesisTester {
             if (!possibleMateIDs.contains(possibleMate))
                 possibleMateIDs.add(possibleMate);
         }
-        double bestLikelihood = Double.NEGATIVE_INFINITY;
-        int bestMate = -1;
-
-        for (int possibleMate : possibleMateIDs) {
-            MyLogger.info("Possible mate = " + possibleMate);
-            Pedigree p = new Pedigree(ped);//clone pedigree
-            if (possibleMate == newMateID)
-                p.addVertex(possibleMate);
-
-            if (ped.getVertex(f2).getChildren().isEmpty()
-                    || ped.getVertex(f2).getChildren().get(0).getFatherId() == f2) {
-                p.getVertex(f1).setFather(f2);
-                p.getVertex(f1).setMother(possibleMate);
-            } else {
-                p.getVertex(f1).setMother(f2);
-                p.getVertex(f1).setFather(possibleMate);
-            }
-            if (p.getVertex(possibleMate).getFatherId() == f1 || p.getVertex(possibleMate).getMotherId() == f1) {
-                MyLogger.important(possibleMate + "Can't be the child of its child: " + f1 + ", skip hypothesis");
-                continue;
-            }
-            MyLogger.info("calcParentLikelihood::pedSize=" + p.getVertices().size());
-            double l = lCalc.calcLikelihood(p, IBDGraph, idConversion, descendants1, descendants2);
-            MyLogger.info(f1 + " child of " + f2 + "," + possibleMate + "=" + l);
-            if (l > bestLikelihood) {
-                bestLikelihood = l;
-                bestMate = possibleMate;
-            }
+        return possibleMateIDs;
+    }
+
+    /**
+     * Hypothesis that f2 and possibleMate are the parents of f1
+     *
+     * @return null, if possibleMate is a child of f1
+     */
+    PedigreeOverlay parentHypothesis(Pedigree ped, int f1, int f2, int possibleMate) {
+        PedigreeOverlay p = new PedigreeOverlay(ped);
+        if (possibleMate == -2)
+            p.addVertex(possibleMate);
+
+        if (ped.getVertex(f2).getChildren().isEmpty()
+                || ped.getVertex(f2).getChildren().get(0).getFatherId() == f2) {
+            p.setFather(f1, f2);
+            p.setMother(f1, possibleMate);
+        } else {
+            p.setMother(f1, f2);
+            p.setFather(f1, possibleMate);
+        }
+        if (p.getFatherId(possibleMate) == f1 || p.getMotherId(possibleMate) == f1) {
+            LOG.important("{}Can't be the child of its child: {}, skip hypothesis", possibleMate, f1);
+            return null;
         }
-        return new double[]{bestLikelihood, bestMate};
+        return p;
     }
 
-    double calcHalfSibLikelihood(Pedigree ped, int f1, int f2, List<PedVertex> descendants1, List<PedVertex> descendants2) {
-        Pedigree p = new Pedigree(ped);//clone
+    PedigreeOverlay halfSibHypothesis(Pedigree ped, int f1, int f2) {
+        PedigreeOverlay p = new PedigreeOverlay(ped);
 
         int fatherID;
         int f1MotherID;
@@ -153,20 +173,15 @@ public abstract class RelationHypothesisTester {
         p.addVertex(f1MotherID);
         p.addVertex(f2MotherID);
 
-        p.getVertex(f1).setFather(fatherID);
-        p.getVertex(f1).setMother(f1MotherID);
-        p.getVertex(f2).setFather(fatherID);
-        p.getVertex(f2).setMother(f2MotherID);
-
-        MyLogger.info("calcHalfSibLikelihood::pedSize=" + p.getVertices().size());
-        double l = lCalc.calcLikelihood(p, IBDGraph, idConversion, descendants1, descendants2);
-        MyLogger.info(f1 + "," + f2 + " halfSibLikelihood=" + l);
-
-        return l;
+        p.setFather(f1, fatherID);
+        p.setMother(f1, f1MotherID);
+        p.setFather(f2, fatherID);
+        p.setMother(f2, f2MotherID);
+        return p;
     }
 
-    double calcCousinLikelihood(Pedigree ped, int f1, int f2, List<PedVertex> descendants1, List<PedVertex> descendants2) {
-        Pedigree p = new Pedigree(ped);//clone
+    PedigreeOverlay cousinHypothesis(Pedigree ped, int f1, int f2) {
+        PedigreeOverlay p = new PedigreeOverlay(ped);
 
         int f1FatherID = p.getNewID();
         int f1MotherID = p.getNewID();
@@ -178,26 +193,23 @@ public abstract class RelationHypothesisTester {
         //Add nodes that create cousin hypothesis
         p.addVertex(grandFatherID);
         p.addVertex(grandMotherID);
-        p.addVertex(f1FatherID, grandFatherID, grandMotherID, false);
-        p.addVertex(f2FatherID, grandFatherID, grandMotherID, false);
+        p.addVertex(f1FatherID, grandFatherID, grandMotherID);
+        p.addVertex(f2FatherID, grandFatherID, grandMotherID);
         p.addVertex(f1MotherID);
         p.addVertex(f2MotherID);
 
-        p.getVertex(f1).setFather(f1FatherID);
-        p.getVertex(f1).setMother(f1MotherID);
-        p.getVertex(f2).setFather(f2FatherID);
-        p.getVertex(f2).setMother(f2MotherID);
-
-        MyLogger.info("calcCousinLikelihood::pedSize=" + p.getVertices().size());
-
-        double l = lCalc.calcLikelihood(p, IBDGraph, idConversion, descendants1, descendants2);
-        MyLogger.info(f1 + "," + f2 + " cousinLikelihood=" + l);
-
-        return l;
+        p.setFather(f1, f1FatherID);
+        p.setMother(f1, f1MotherID);
+        p.setFather(f2, f2FatherID);
+        p.setMother(f2, f2MotherID);
+        return p;
     }
 
-    double calcAvuncularLikelihood(Pedigree ped, int f1, int f2, List<PedVertex> descendants1, List<PedVertex> descendants2) {
-        Pedigree p = new Pedigree(ped);//clone
+    /**
+     * Hypothesis that f2 is the uncle of f1
+     */
+    PedigreeOverlay avuncularHypothesis(Pedigree ped, int f1, int f2) {
+        PedigreeOverlay p = new PedigreeOverlay(ped);
 
         int f1FatherID = p.getNewID();
         int f1MotherID = p.getNewID();
@@ -210,21 +222,15 @@ public abstract class RelationHypothesisTester {
         p.addVertex(f2FatherID);
         p.addVertex(f2MotherID);
 
-        p.getVertex(f1).setFather(f1FatherID);
-        p.getVertex(f1).setMother(f1MotherID);
-        p.getVertex(f2).setFather(f2FatherID);
-        p.getVertex(f2).setMother(f2MotherID);
+        p.setFather(f1, f1FatherID);
+        p.setMother(f1, f1MotherID);
+        p.setFather(f2, f2FatherID);
+        p.setMother(f2, f2MotherID);
 
         //set f2 as the uncle of f1
-        p.getVertex(f2FatherID).setFather(f1FatherID);
-        p.getVertex(f2FatherID).setMother(f1MotherID);
-
-        MyLogger.info("calcAvuncularLikelihood::pedSize=" + p.getVertices().size());
-
-        double l = lCalc.calcLikelihood(p, IBDGraph, idConversion, descendants1, descendants2);
-        MyLogger.info(f1 + "," + f2 + " avuncularLikelihood=" + l);
-
-        return l;
+        p.setFather(f2FatherID, f1FatherID);
+        p.setMother(f2FatherID, f1MotherID);
+        return p;
     }
 
     public static boolean isMaxFromArray(double candidate, double[] arr) {
@@ -249,7 +255,6 @@ public abstract class RelationHypothesisTester {
         }
     }
 
-
     /**
      * Debugging Methods
      */
@@ -266,7 +271,7 @@ public abstract class RelationHypothesisTester {
     boolean areSibs(int id1, int id2, Pedigree p) {
         if (id1 != id2 && p.getVertex(id1).getFatherId() == p.getVertex(id2).getFatherId() &&
                 p.getVertex(id1).getMotherId() == p.getVertex(id2).getMotherId()) {
-            MyLogger.info("Found sibs in pedigree " + id1 + " " + id2);
+            LOG.info("Found sibs in pedigree {} {}", id1, id2);
             return true;
         }
         return false;
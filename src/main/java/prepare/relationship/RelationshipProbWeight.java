@@ -4,50 +4,89 @@ import prepare.graph.Weight;
 import jsat.classifiers.DataPoint;
 import jsat.linear.Vec;
 
-import javax.management.RuntimeErrorException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Serializable;
+import java.util.Arrays;
 
 import static prepare.relationship.Relationship.*;
 
 /**
- * Created with IntelliJ IDEA.
- * User: moshe
- * Date: 3/2/13
- * Time: 3:34 PM
- * To change this template use File | Settings | File Templates.
+ * Probabilities of the relationship categories of a pair, from the first to the second individual.
+ * <p>
+ * Probabilities are held in an array indexed by {@link Relationship#ordinal()}, and the max probability category
+ * is cached until the next change. {@link #reversed()} is a view of the same probabilities from the second to the
+ * first individual, through a static permutation of the directed categories (parent-child, uncle-nephew).
  */
 public class RelationshipProbWeight implements Weight {
     private static final long serialVersionUID = -4721584804671645993L;
+    private static final Relationship[] RELATIONSHIPS = Relationship.values();
+    //ordinal of each category in the opposite direction
+    private static final int[] SWITCHED = new int[RELATIONSHIPS.length];
+
+    static {
+        for (int i = 0; i < SWITCHED.length; i++)
+            SWITCHED[i] = i;
+        switchCategories(PARENT, CHILD);
+        switchCategories(FULL_UNCLE, FULL_NEPHEW);
+        switchCategories(HALF_UNCLE, HALF_NEPHEW);
+        switchCategories(FULL_2_UNCLE, FULL_2_NEPHEW);
+        switchCategories(HALF_2_UNCLE, HALF_2_NEPHEW);
+    }
+
+    private static void switchCategories(Relationship r1, Relationship r2) {
+        SWITCHED[r1.ordinal()] = r2.ordinal();
+        SWITCHED[r2.ordinal()] = r1.ordinal();
+    }
+
     // ID1 ID2 p(sib) p(parent) p(child) p(uncle) p(nephew) p(half_sib) p(cousin) p(not-related)
-    private final Map<Relationship, Double> map;
+    private final Probs probs;
+    //true if this is the reversed view of probs
+    private final boolean reversedView;
+    private transient RelationshipProbWeight reversed;
 
     public RelationshipProbWeight() {
-        map = new HashMap<>();
-        for(Relationship relationship : Relationship.values())
-            map.put(relationship, 0.0);
+        this(new Probs(new double[RELATIONSHIPS.length]), false);
+    }
+
+    private RelationshipProbWeight(Probs probs, boolean reversedView) {
+        this.probs = probs;
+        this.reversedView = reversedView;
     }
 
+    /**
+     * @return storage index of category in this view
+     */
+    private int index(Relationship relationship) {
+        return reversedView ? SWITCHED[relationship.ordinal()] : relationship.ordinal();
+    }
 
-    public Double getProb(Relationship categoryName) {
-        if (map.containsKey(categoryName))
-            return map.get(categoryName);
-        else
-            throw new RuntimeErrorException(null, "Non existent key: " + categoryName + ", in RelationshipProbWeight::getProb");
+    public double getProb(Relationship categoryName) {
+        return probs.values[index(categoryName)];
     }
 
-    public void setProb(Relationship relationship, Double value) {
-        if (map.containsKey(relationship)) {
-            map.remove(relationship);
-            map.put(relationship, value);
-        } else
-            throw new RuntimeErrorException(null, "Non existent key: " + relationship + ", in RelationshipProbWeight::setProb");
+    public void setProb(Relationship relationship, double value) {
+        probs.values[index(relationship)] = value;
+        probs.invalidate();
+    }
+
+    /**
+     * Copy probabilities, in {@link Relationship} order, to dest starting at offset
+     */
+    public void getProbs(double[] dest, int offset) {
+        for (int i = 0; i < RELATIONSHIPS.length; i++)
+            dest[offset + i] = probs.values[index(RELATIONSHIPS[i])];
+    }
+
+    /**
+     * Set probabilities from src starting at offset, in {@link Relationship} order
+     */
+    public void setProbs(double[] src, int offset) {
+        for (int i = 0; i < RELATIONSHIPS.length; i++)
+            probs.values[index(RELATIONSHIPS[i])] = src[offset + i];
+        probs.invalidate();
     }
 
     public void makeDeterministicChoice(Relationship selected) {
-        for (Relationship cat : map.keySet()) {
-            setProb(cat, 0.0);
-        }
+        Arrays.fill(probs.values, 0.0);
         setProb(selected, 1.0);
     }
 
@@ -58,44 +97,47 @@ public class RelationshipProbWeight implements Weight {
     }
 
     public boolean isMaxProbCategory(Relationship categoryName) {
-        if (map.containsKey(categoryName)) {
-            return getMaxProbCategory().equals(categoryName);
-        } else
-            throw new RuntimeErrorException(null, "Non existant key: " + categoryName + ", in RelationshipProbWeight::setProb");
+        return getMaxProbCategory() == categoryName;
     }
 
+    /**
+     * @return category of max probability, the first in {@link Relationship} order on ties, or null if all are below -1
+     */
     public Relationship getMaxProbCategory() {
-        Double max = -1.0;
-        Relationship maxCategory = null;
-        for (Relationship category : map.keySet()) {
-            if (max < map.get(category)) {
-                max = map.get(category);
-                maxCategory = category;
+        int view = reversedView ? 1 : 0;
+        if (!probs.maxValid[view]) {
+            double max = -1.0;
+            Relationship maxCategory = null;
+            for (Relationship category : RELATIONSHIPS) {
+                double prob = probs.values[index(category)];
+                if (max < prob) {
+                    max = prob;
+                    maxCategory = category;
+                }
             }
+            probs.max[view] = maxCategory;
+            probs.maxValid[view] = true;
         }
-        return maxCategory;
+        return probs.max[view];
     }
 
+    /**
+     * @return view of the same probabilities in the opposite direction, changes to either apply to both
+     */
+    public RelationshipProbWeight reversed() {
+        if (reversed == null) {
+            reversed = new RelationshipProbWeight(probs, !reversedView);
+            reversed.reversed = this;
+        }
+        return reversed;
+    }
 
+    /**
+     * @return independent copy of weight in the opposite direction
+     */
     public static RelationshipProbWeight switchWeightsDirection(RelationshipProbWeight weight) {
         RelationshipProbWeight switched = new RelationshipProbWeight();
-        switched.setProb(FULL_SIB, weight.getProb(FULL_SIB));
-        switched.setProb(HALF_SIB, weight.getProb(HALF_SIB));
-        switched.setProb(FULL_COUSIN, weight.getProb(FULL_COUSIN));
-        switched.setProb(HALF_COUSIN, weight.getProb(HALF_COUSIN));
-        switched.setProb(FULL_2_COUSIN, weight.getProb(FULL_2_COUSIN));
-        switched.setProb(HALF_2_COUSIN, weight.getProb(HALF_2_COUSIN));
-        switched.setProb(FULL_UNCLE, weight.getProb(FULL_NEPHEW));
-        switched.setProb(HALF_UNCLE, weight.getProb(HALF_NEPHEW));
-        switched.setProb(FULL_NEPHEW, weight.getProb(FULL_UNCLE));
-        switched.setProb(HALF_NEPHEW, weight.getProb(HALF_UNCLE));
-        switched.setProb(FULL_2_UNCLE, weight.getProb(FULL_2_NEPHEW));
-        switched.setProb(HALF_2_UNCLE, weight.getProb(HALF_2_NEPHEW));
-        switched.setProb(FULL_2_NEPHEW, weight.getProb(FULL_2_UNCLE));
-        switched.setProb(HALF_2_NEPHEW, weight.getProb(HALF_2_UNCLE));
-        switched.setProb(PARENT, weight.getProb(CHILD));
-        switched.setProb(CHILD, weight.getProb(PARENT));
-        switched.setProb(NOT_RELATED, weight.getProb(NOT_RELATED));
+        weight.reversed().getProbs(switched.probs.values, 0);
         return switched;
     }
 
@@ -108,4 +150,23 @@ public class RelationshipProbWeight implements Weight {
         // TODO Auto-generated method stub
         return null;
     }
+
+    /**
+     * Probabilities shared by a weight and its reversed view, with the cached max category of each view
+     */
+    private static class Probs implements Serializable {
+        private static final long serialVersionUID = 2236594521317622618L;
+        private final double[] values;
+        private final Relationship[] max = new Relationship[2];
+        private final boolean[] maxValid = new boolean[2];
+
+        Probs(double[] values) {
+            this.values = values;
+        }
+
+        void invalidate() {
+            maxValid[0] = false;
+            maxValid[1] = false;
+        }
+    }
 }
@@ -1,155 +1,285 @@
 package prepare.relationship;
 
+import prepare.common.Population;
 import prepare.graph.*;
-import prepare.misc.MyLogger;
+import prepare.misc.Log;
+import prepare.misc.Metrics;
 import prepare.pedigree.Pedigree;
 import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.PedigreeOverlay;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static prepare.relationship.Relationship.*;
 
 
 public class SibHypothesisTester extends RelationHypothesisTester {
+    private static final Log LOG = Log.get(SibHypothesisTester.class);
+
     private final boolean synchronous;
+    private int threads = 1;
+    private double minSharedCM = 0;
+    private long numOfPrunedPairs = 0;
 
     public SibHypothesisTester(Graph IBDGraph, boolean synchronous, boolean phased) {
         super(IBDGraph, phased);
         this.synchronous = synchronous;
     }
 
+    /**
+     * Number of worker threads used for pair testing, 1 runs everything on the calling thread
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Candidate pairs whose living descendants share at most minSharedCM of IBD are not tested,
+     * a negative value tests all pairs
+     */
+    public void setMinSharedCM(double minSharedCM) {
+        this.minSharedCM = minSharedCM;
+    }
+
+    /**
+     * @return number of candidate pairs that were not tested, in the last {@link #run}
+     */
+    public long getNumOfPrunedPairs() {
+        return numOfPrunedPairs;
+    }
+
     /**
      * Test all contracted founder nodes of pedigree for having one of the following relationships:
      * {fullsib,halfsib,parentChild,childParent,other}
      * Add edge between nodes with fullsib as the maximum likelihood prepare.relationship
+     * <p>
+     * Pairs are split into work units that are consumed by {@link #threads} workers, each holding its own
+     * pedigree clone and likelihood calculator. Edges are added to the graph in candidate order once all
+     * workers are done, so the resulting graph does not depend on scheduling.
+     * <p>
+     * Unless {@link #minSharedCM} is negative, only pairs whose living descendants share more IBD than
+     * {@link #minSharedCM} are tested (see {@link CandidatePairIndex}).
      */
     public void run(Pedigree ped, Graph contractedRelationGraph, List<Vertex> candidates, int gen) {
+        List<int[]> pairs;
+        if (minSharedCM < 0) {
+            pairs = new ArrayList<>();
+            for (Vertex sv1 : candidates) {
+                int id1 = ((SuperVertex) sv1.getData()).getRepresentativeID();
+                for (Vertex sv2 : candidates) {
+                    int id2 = ((SuperVertex) sv2.getData()).getRepresentativeID();
+                    //Already tested other direction
+                    if (id1 >= id2)
+                        continue;
+                    pairs.add(new int[]{id1, id2});
+                }
+            }
+            numOfPrunedPairs = 0;
+        } else {
+            CandidatePairIndex pairIndex = new CandidatePairIndex(ped, IBDGraph, candidates);
+            pairs = pairIndex.getPairs(minSharedCM);
+            numOfPrunedPairs = pairIndex.getNumOfPairs() - pairs.size();
+            LOG.important("Pruned {} of {} candidate pairs sharing at most {}cM",
+                    numOfPrunedPairs, pairIndex.getNumOfPairs(), minSharedCM);
+        }
 
-        lCalc = new PedLikelihoodCalcInheritancePaths(50, phased);
-
-        for (Vertex sv1 : candidates) {
-            SuperVertex s1 = (SuperVertex) sv1.getData();
-            for (Vertex sv2 : candidates) {
-
-                SuperVertex s2 = (SuperVertex) sv2.getData();
+        Metrics.getShared().count(Metrics.Counter.PAIRS_TESTED, pairs.size());
+        Metrics.getShared().count(Metrics.Counter.PAIRS_PRUNED, numOfPrunedPairs);
+        RelationshipProbWeight[] weights = new RelationshipProbWeight[pairs.size()];
+        int numOfWorkers = Math.min(threads, Math.max(1, pairs.size()));
+        int unitSize = Math.max(1, pairs.size() / (numOfWorkers * 8));
+        AtomicInteger nextUnit = new AtomicInteger();
+        List<PairWorker> workers = new ArrayList<>();
+        for (int i = 0; i < numOfWorkers; i++)
+            workers.add(new PairWorker(ped, pairs, weights, nextUnit, unitSize, gen));
+
+        if (numOfWorkers == 1) {
+            workers.get(0).call();
+        } else {
+            LOG.important("Testing {} pairs using {} threads", pairs.size(), numOfWorkers);
+            ExecutorService executor = Executors.newFixedThreadPool(numOfWorkers);
+            try {
+                for (Future<Void> future : executor.invokeAll(workers))
+                    future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while testing sib hypothesis", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed testing sib hypothesis", e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
 
-                PedVertex f1 = ped.getVertex(s1.getRepresentativeID());
-                PedVertex f2 = ped.getVertex(s2.getRepresentativeID());
+        for (PairWorker worker : workers) {
+            numOfSibs += worker.tester.numOfSibs;
+            numOfHalfSibs += worker.tester.numOfHalfSibs;
+        }
 
+        //Merge in candidate order
+        for (int i = 0; i < pairs.size(); i++) {
+            RelationshipProbWeight w = weights[i];
+            if (w == null)
+                continue;
+            Vertex v1 = contractedRelationGraph.getVertex(pairs.get(i)[0]);
+            Vertex v2 = contractedRelationGraph.getVertex(pairs.get(i)[1]);
+            contractedRelationGraph.addEdge(new BaseEdge(v1, v2, w));
+            contractedRelationGraph.addEdge(new BaseEdge(v2, v1, RelationshipProbWeight.switchWeightsDirection(w)));
+        }
+    }
 
-                //Already tested other direction
-                if (f1.getId() >= f2.getId())
-                    continue;
+    /**
+     * Test a single pair of contracted founders
+     *
+     * @return the relationship probabilities of the pair, or null if the pair is unrelated
+     */
+    private RelationshipProbWeight testPair(Pedigree ped, Population population, int id1, int id2, int gen) {
+        PedVertex f1 = ped.getVertex(id1);
+        PedVertex f2 = ped.getVertex(id2);
 
-                idConversion = new HashMap<>();
-                Map<Integer, Integer> enumTable;
+        //MyLogger.important("Testing " + f1 + " " + f2);
 
-                //MyLogger.important("Testing " + f1 + " " + f2);
+        idConversion = new HashMap<>();//override field
+        Pedigree relevantPed = ped.extractSubPedigreeNoConversion(f1, f2, idConversion);
+        Map<Integer, Integer> enumTable = idConversion;
 
-                //Pedigree relevantPed = ped.extractSubPedigree(f1,f2,idConversion,enumTable);
-                idConversion = new HashMap<>();//override field
-                Pedigree relevantPed = ped.extractSubPedigreeNoConversion(f1, f2, idConversion);
-                enumTable = idConversion;
+        if (f1.getChildren().contains(f2.getChildren()))
+            LOG.important("detecting if couple are sibs");
 
-                if (f1.getChildren().contains(f2.getChildren()))
-                    MyLogger.important("detecting if couple are sibs");
+        int f1NewID = enumTable.get(f1.getId());
+        int f2NewID = enumTable.get(f2.getId());
 
-                int f1NewID = enumTable.get(f1.getId());
-                int f2NewID = enumTable.get(f2.getId());
+        List<PedVertex> descendants1 = relevantPed.getDescendants(f1NewID);
+        List<PedVertex> descendants2 = relevantPed.getDescendants(f2NewID);
 
-                List<PedVertex> descendants1 = relevantPed.getDescendants(f1NewID);
-                List<PedVertex> descendants2 = relevantPed.getDescendants(f2NewID);
+        double[] likelihoods = new double[9];
+        Arrays.fill(likelihoods, Double.NEGATIVE_INFINITY);
 
-                double[] likelihoods = new double[9];
-                Arrays.fill(likelihoods, Double.NEGATIVE_INFINITY);
+        RelationshipProbWeight w = new RelationshipProbWeight();
+        /*
+         * Test relatedness hypothesis
+         */
+        //Hypotheses on the same pedigree are scored in batches that share their simulated densities
+        double[] related = calcLikelihoods(Arrays.asList(
+                unrelatedHypothesis(relevantPed), sibHypothesis(relevantPed, f1NewID, f2NewID)), descendants1, descendants2);
+        likelihoods[0] = related[0];
+        likelihoods[1] = related[1];
+        LOG.info("{},{} unrelatedLikelihood={} sibLikelihood={}", f1NewID, f2NewID, likelihoods[0], likelihoods[1]);
 
-                RelationshipProbWeight w = new RelationshipProbWeight();
-                /*
-                 * Test relatedness hypothesis
-                 */
-                likelihoods[0] = calcUnrelatedLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
-                likelihoods[1] = calcSibLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
+//		printPairWiseIBD(s1, s2, ped);
 
-//				printPairWiseIBD(s1, s2, ped);
+        if (likelihoods[1] <= likelihoods[0]) { //if unrelated
+            return null;
+        }
+        List<PedigreeOverlay> hypotheses = new ArrayList<>();
+        //	if(polygamous)
+        hypotheses.add(halfSibHypothesis(relevantPed, f1NewID, f2NewID));
+        hypotheses.add(cousinHypothesis(relevantPed, f1NewID, f2NewID));
+        List<Integer> f2Mates = new ArrayList<>();
+        List<Integer> f1Mates = new ArrayList<>();
+        if (!synchronous) {
+            hypotheses.add(avuncularHypothesis(relevantPed, f1NewID, f2NewID));
+            hypotheses.add(avuncularHypothesis(relevantPed, f2NewID, f1NewID));
+            addParentHypotheses(relevantPed, f1NewID, f2NewID, hypotheses, f2Mates);
+            addParentHypotheses(relevantPed, f2NewID, f1NewID, hypotheses, f1Mates);
+        }
+        double[] results = calcLikelihoods(hypotheses, descendants1, descendants2);
+        likelihoods[3] = results[0];
+        likelihoods[5] = results[1];
+        LOG.info("{},{} halfSibLikelihood={} cousinLikelihood={}", f1NewID, f2NewID, likelihoods[3], likelihoods[5]);
+
+        int[] additionalResults = new int[2];
+
+        if (!synchronous) {
+            double[] parentF2Res = bestParentHypothesis(results, 4, f2Mates);
+            double[] parentF1Res = bestParentHypothesis(results, 4 + f2Mates.size(), f1Mates);
+            likelihoods[2] = selectParenthood(parentF2Res, parentF1Res, additionalResults);
+            likelihoods[4] = Math.max(results[2], results[3]);
+            LOG.info("{},{} parentLikelihood={} avuncularLikelihood={}", f1NewID, f2NewID, likelihoods[2], likelihoods[4]);
+        }
+        //If no category matches, assume "unrelated"
+        if (isMaxFromArray(-1000, likelihoods)) {
+            LOG.warn("No category matches {},{}", f1, f2);
+            return null;
+        }
 
-                if (likelihoods[1] <= likelihoods[0]) { //if unrelated
-                    continue;
-                }
-                //	if(polygamous)
-                likelihoods[3] = calcHalfSibLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
+        applyBayesUniPriors(likelihoods);
+
+        double unrelatedLikelihood = likelihoods[0];
+        double sibLikelihood = likelihoods[1];
+        double parentChildLikelihood = likelihoods[2];
+        double halfSibLikelihood = likelihoods[3];
+        double avuncularLikelihood = likelihoods[4];
+        double cousLikelihood = likelihoods[5];
+        double halfCousinLikelihood = likelihoods[6];
+        double halfAvuncularLikelihood = likelihoods[7];
+        //double doubleCousinLikelihood = likelihoods[8];
+        if (isMaxFromArray(sibLikelihood, likelihoods)) {
+            numOfSibs++;
+            LOG.important("found potential sibs {},{}", id1, id2);
+        }
+        numOfHalfSibs++;
 
-                int[] additionalResults = new int[2];
+        if (gen == 1) {
+            if (population.getAge(id1) <= population.getAge(id2))
+                w.setProb(PARENT, parentChildLikelihood);
+            else
+                w.setProb(CHILD, parentChildLikelihood);
+        } else {
+            w.setProb(CHILD, parentChildLikelihood);
+        }
 
-                if (!synchronous) {
-                    likelihoods[2] = testPossibleParanthoodHypothesis(relevantPed, f1NewID, f2NewID, descendants1, descendants2, additionalResults);
-                    double uncleL = calcAvuncularLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
-                    double nephewL = calcAvuncularLikelihood(relevantPed, f2NewID, f1NewID, descendants1, descendants2);
-                    likelihoods[4] = Math.max(uncleL, nephewL);
-                }
-                likelihoods[5] = calcCousinLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
-                //If no category matches, assume "unrelated"
-                if (isMaxFromArray(-1000, likelihoods)) {
-                    MyLogger.warn("No category matches " + f1 + "," + f2);
-                    continue;
-                }
+        w.setProb(FULL_SIB, sibLikelihood);
+        w.setProb(HALF_SIB, halfSibLikelihood);
+        w.setProb(FULL_UNCLE, avuncularLikelihood);
+        w.setProb(HALF_UNCLE, halfAvuncularLikelihood);
+        w.setProb(FULL_COUSIN, cousLikelihood);
+        w.setProb(HALF_COUSIN, halfCousinLikelihood);
+        w.setProb(NOT_RELATED, unrelatedLikelihood);
+        return w;
+    }
 
-                applyBayesUniPriors(likelihoods);
-
-                double unrelatedLikelihood = likelihoods[0];
-                double sibLikelihood = likelihoods[1];
-                double parentChildLikelihood = likelihoods[2];
-                double halfSibLikelihood = likelihoods[3];
-                double avuncularLikelihood = likelihoods[4];
-                double cousLikelihood = likelihoods[5];
-                double halfCousinLikelihood = likelihoods[6];
-                double halfAvuncularLikelihood = likelihoods[7];
-                //double doubleCousinLikelihood = likelihoods[8];
-                if (isMaxFromArray(sibLikelihood, likelihoods)) {
-                    numOfSibs++;
-                    MyLogger.important("found potential sibs " + s1 + "," + s2);
-                }
-                numOfHalfSibs++;
-
-                if (gen == 1) {
-                    if (ped.getPopulation().getAge(f1.getId()) <= ped.getPopulation().getAge(f2.getId()))
-                        w.setProb(PARENT, parentChildLikelihood);
-                    else
-                        w.setProb(CHILD, parentChildLikelihood);
-                } else {
-                    w.setProb(CHILD, parentChildLikelihood);
-                }
+    /**
+     * Add the hypotheses of f2 parent of f1, with each possible mate of f2
+     *
+     * @param mates the mate of each added hypothesis
+     */
+    private void addParentHypotheses(Pedigree relevantPed, int f1NewID, int f2NewID, List<PedigreeOverlay> hypotheses, List<Integer> mates) {
+        for (int possibleMate : possibleMates(relevantPed, f2NewID)) {
+            PedigreeOverlay p = parentHypothesis(relevantPed, f1NewID, f2NewID, possibleMate);
+            if (p == null)
+                continue;
+            hypotheses.add(p);
+            mates.add(possibleMate);
+        }
+    }
 
-                w.setProb(FULL_SIB, sibLikelihood);
-                w.setProb(HALF_SIB, halfSibLikelihood);
-                w.setProb(FULL_UNCLE, avuncularLikelihood);
-                w.setProb(HALF_UNCLE, halfAvuncularLikelihood);
-                w.setProb(FULL_COUSIN, cousLikelihood);
-                w.setProb(HALF_COUSIN, halfCousinLikelihood);
-                w.setProb(NOT_RELATED, unrelatedLikelihood);
-
-                Edge edge = new BaseEdge(contractedRelationGraph.getVertex(f1.getId()), contractedRelationGraph.getVertex(f2.getId()), w);
-                Edge backEdge = new BaseEdge(contractedRelationGraph.getVertex(f2.getId()), contractedRelationGraph.getVertex(f1.getId()), RelationshipProbWeight.switchWeightsDirection(w));
-                contractedRelationGraph.addEdge(edge);
-                contractedRelationGraph.addEdge(backEdge);
+    /**
+     * @return best likelihood of the parent hypotheses from index in results, and its mate,
+     * as {@link #calcParentLikelihood}
+     */
+    private static double[] bestParentHypothesis(double[] results, int index, List<Integer> mates) {
+        double bestLikelihood = Double.NEGATIVE_INFINITY;
+        int bestMate = -1;
+        for (int i = 0; i < mates.size(); i++) {
+            if (results[index + i] > bestLikelihood) {
+                bestLikelihood = results[index + i];
+                bestMate = mates.get(i);
             }
         }
+        return new double[]{bestLikelihood, bestMate};
     }
 
-
     /**
-     * Test hypothesis f1 parent of f2 (with all possible mates)
-     * and f2 parent of f1 (with all possible mates)
+     * Select between hypothesis f2 parent of f1 (with its best mate)
+     * and f1 parent of f2 (with its best mate)
      */
-    private double testPossibleParanthoodHypothesis(Pedigree relevantPed,
-                                                    int f1NewID, int f2NewID, List<PedVertex> descendants1, List<PedVertex> descendants2, int[] additionalResultsArr) {
+    private static double selectParenthood(double[] parentF2Res, double[] parentF1Res, int[] additionalResultsArr) {
         int mateID = -2;
         int f1Parent = 0;
         double likelihood;
-        double[] parentF2Res = calcParentLikelihood(relevantPed, f1NewID, f2NewID, descendants1, descendants2);
-        double[] parentF1Res = calcParentLikelihood(relevantPed, f2NewID, f1NewID, descendants1, descendants2);
         if (parentF2Res[0] > parentF1Res[0]) {
             likelihood = parentF2Res[0];
             if (parentF2Res[1] != -2) {
@@ -165,4 +295,43 @@ public class SibHypothesisTester extends RelationHypothesisTester {
         additionalResultsArr[1] = mateID;
         return likelihood;
     }
-}
\ No newline at end of file
+
+    /**
+     * Consumes work units of candidate pairs.
+     * Holds an isolated pedigree clone, and a tester with its own likelihood calculator
+     */
+    private class PairWorker implements Callable<Void> {
+        private final Pedigree ped;
+        private final Population population;
+        private final List<int[]> pairs;
+        private final RelationshipProbWeight[] weights;
+        private final AtomicInteger nextUnit;
+        private final int unitSize;
+        private final int gen;
+        private final SibHypothesisTester tester;
+
+        PairWorker(Pedigree ped, List<int[]> pairs, RelationshipProbWeight[] weights, AtomicInteger nextUnit,
+                   int unitSize, int gen) {
+            this.ped = new Pedigree(ped);//clone
+            this.population = ped.getPopulation();
+            this.pairs = pairs;
+            this.weights = weights;
+            this.nextUnit = nextUnit;
+            this.unitSize = unitSize;
+            this.gen = gen;
+            tester = new SibHypothesisTester(IBDGraph, synchronous, phased);
+            tester.lCalc = createLikelihoodCalc();
+        }
+
+        @Override
+        public Void call() {
+            int unit;
+            while ((unit = nextUnit.getAndIncrement()) * unitSize < pairs.size()) {
+                int end = Math.min(pairs.size(), (unit + 1) * unitSize);
+                for (int i = unit * unitSize; i < end; i++)
+                    weights[i] = tester.testPair(ped, population, pairs.get(i)[0], pairs.get(i)[1], gen);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package prepare.simulator;
+
+import prepare.common.Genotype;
+import prepare.misc.Log;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+import prepare.pedreconstruction.IBDGraphFile;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the IBD features of all related pairs of a generation, in the text IBD features format and/or
+ * to a binary IBD graph builder.
+ * The rows of the pair matrix are split into blocks of about {@link #BLOCK_PAIRS} pairs, that are computed and
+ * formatted by worker threads. The calling thread writes the blocks in row order, so the output does not depend
+ * on the number of threads, and at most 2 blocks per thread are held in memory.
+ */
+class PairwiseIBDWriter {
+    private static final Log LOG = Log.get(PairwiseIBDWriter.class);
+    private static final long BLOCK_PAIRS = 1 << 18;
+
+    private final Genotype[] genotypes;
+    private final int firstId;
+    private final int threads;
+    private final long blockPairs;
+
+    /**
+     * @param firstId id of the individual of genotypes[0], ids are consecutive
+     */
+    PairwiseIBDWriter(Genotype[] genotypes, int firstId, int threads) {
+        this(genotypes, firstId, threads, BLOCK_PAIRS);
+    }
+
+    PairwiseIBDWriter(Genotype[] genotypes, int firstId, int threads, long blockPairs) {
+        this.genotypes = genotypes;
+        this.firstId = firstId;
+        this.threads = Math.max(1, threads);
+        this.blockPairs = blockPairs;
+    }
+
+    /**
+     * @param text   text IBD features output, or null
+     * @param binary binary IBD graph builder, or null
+     * @return number of related pairs
+     */
+    long write(Writer text, IBDGraphFile.Builder binary) throws IOException {
+        long totalPairs = (long) genotypes.length * (genotypes.length - 1) / 2;
+        if (totalPairs == 0)
+            return 0;
+        List<int[]> blocks = splitRows();
+        long writtenPairs = 0;
+        long relatedPairs = 0;
+        int reportedPercent = 0;
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+        int nextBlock = 0;
+        try {
+            while (nextBlock < blocks.size() || !pending.isEmpty()) {
+                while (executor != null && nextBlock < blocks.size() && pending.size() < 2 * threads) {
+                    int[] rows = blocks.get(nextBlock++);
+                    pending.add(executor.submit(() -> computeBlock(rows[0], rows[1], text != null, binary != null)));
+                }
+                Block block;
+                if (executor != null) {
+                    block = pending.poll().get();
+                } else {
+                    int[] rows = blocks.get(nextBlock++);
+                    block = computeBlock(rows[0], rows[1], text != null, binary != null);
+                }
+                if (text != null)
+                    text.append(block.text);
+                if (binary != null)
+                    for (int k = 0; k < block.size; k++)
+                        binary.add(block.id1[k], block.id2[k], block.segmentNum[k], block.meanLength[k]);
+                relatedPairs += block.size;
+                writtenPairs += block.numOfPairs;
+
+                int percent = (int) (100 * writtenPairs / totalPairs);
+                if (percent >= reportedPercent + 10) {
+                    reportedPercent = percent - percent % 10;
+                    LOG.important("IBD features of {}% of {} pairs", reportedPercent, totalPairs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calculating IBD features", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed calculating IBD features", e.getCause());
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+        }
+        return relatedPairs;
+    }
+
+    /**
+     * @return consecutive row ranges [from, to) of about {@link #blockPairs} pairs each
+     */
+    private List<int[]> splitRows() {
+        List<int[]> blocks = new ArrayList<>();
+        int from = 0;
+        long pairs = 0;
+        for (int i = 0; i < genotypes.length; i++) {
+            pairs += genotypes.length - i - 1;
+            if (pairs >= blockPairs || i == genotypes.length - 1) {
+                blocks.add(new int[]{from, i + 1});
+                from = i + 1;
+                pairs = 0;
+            }
+        }
+        return blocks;
+    }
+
+    private Block computeBlock(int fromRow, int toRow, boolean formatText, boolean keepPairs) {
+        Block block = new Block(formatText, keepPairs);
+        for (int i = fromRow; i < toRow; i++) {
+            for (int j = i + 1; j < genotypes.length; j++) {
+                IBDFeaturesWeight ibdW = IBDFeaturesWeight.calcIBDFeatureWeight(genotypes[i], genotypes[j], false, false, null);
+                if (ibdW.getSegmentNum() > 0) {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("IBD({},{}): {}", firstId + i, firstId + j, ibdW);
+                    block.add(firstId + i, firstId + j, ibdW);
+                }
+            }
+            block.numOfPairs += genotypes.length - i - 1;
+        }
+        return block;
+    }
+
+    /**
+     * Related pairs of a row range, formatted as text and/or as columns
+     */
+    private static class Block {
+        private final StringBuilder text;
+        private int size;
+        private long numOfPairs;
+        private int[] id1;
+        private int[] id2;
+        private double[] segmentNum;
+        private double[] meanLength;
+
+        Block(boolean formatText, boolean keepPairs) {
+            text = formatText ? new StringBuilder() : null;
+            if (keepPairs) {
+                id1 = new int[64];
+                id2 = new int[64];
+                segmentNum = new double[64];
+                meanLength = new double[64];
+            }
+        }
+
+        void add(int i1, int i2, IBDFeaturesWeight w) {
+            if (text != null)
+                text.append(i1).append('\t').append(i2).append('\t').append(w.getSegmentNum()).append('\t')
+                        .append(w.getMeanLength()).append("\t20\t20").append(System.lineSeparator());
+            if (id1 != null) {
+                if (size == id1.length) {
+                    id1 = Arrays.copyOf(id1, 2 * size);
+                    id2 = Arrays.copyOf(id2, 2 * size);
+                    segmentNum = Arrays.copyOf(segmentNum, 2 * size);
+                    meanLength = Arrays.copyOf(meanLength, 2 * size);
+                }
+                id1[size] = i1;
+                id2[size] = i2;
+                segmentNum[size] = w.getSegmentNum();
+                meanLength[size] = w.getMeanLength();
+            }
+            size++;
+        }
+    }
+}
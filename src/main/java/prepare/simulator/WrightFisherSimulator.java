@@ -1,35 +1,50 @@
 package prepare.simulator;
 
 import prepare.common.*;
+import prepare.misc.Log;
 import prepare.misc.MyLogger;
+import prepare.misc.RandomStreams;
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 import prepare.pedigree.Pedigree;
 import prepare.pedigree.Pedigree.PedVertex;
-import prepare.pedreconstruction.IBDFeaturesWeight;
+import prepare.pedreconstruction.IBDGraphFile;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 public class WrightFisherSimulator {
+    private static final Log LOG = Log.get(WrightFisherSimulator.class);
+
     private final int initialPopSize;
     private final int finalPopSize;
     private final int generations;
     private final double monogamyProb;
     private final String outDir;
+    private final boolean binaryIBD;
+    private final boolean gzipIBD;
+    private final int threads;
+    private final boolean coalesceSegments;
+    //recombination workers, null if single threaded
+    private ExecutorService executor;
     private final double popIncreaseRatio;
-    private final Random randomGenerator = new Random();
+    private final SplittableRandom randomGenerator = RandomStreams.stream(RandomStreams.Purpose.POPULATION, 0);
     private final Pedigree ped = new Pedigree();
     private final PrintWriter pedWriter;
     Map<String, Integer> structure = new HashMap<>();
     List<List<Integer>> couples = new ArrayList<>();
-    private Genotype[] genotypes;
+    //genotypes of the current and next generation, swapped between generations
+    private GenotypeArena genotypes;
     private boolean[] genders;
-    private Genotype[] nextGenotypes;
+    private GenotypeArena nextGenotypes;
     private boolean[] nextGenders;
     private int popSize;
     private int totalIndividuals = 0;
@@ -57,6 +72,30 @@ public class WrightFisherSimulator {
                 .type(Double.class)
                 .help("probability of a person to stay monogamous")
                 .setDefault(1.0);
+        parser.addArgument("-seed")
+                .type(Long.class)
+                .help("random seed, for reproducible runs");
+        parser.addArgument("-geneticMap")
+                .help("genetic map file (chr position cM, or chr position maleCM femaleCM), default is 1cM per Mb");
+        parser.addArgument("-binaryIbd")
+                .help("also write the IBD features as a binary IBD graph (pedigree.ibdg)")
+                .setDefault("false")
+                .action(Arguments.storeTrue());
+        parser.addArgument("-gzipIbd")
+                .help("write the IBD features gzipped (pedigree.ibd.gz)")
+                .setDefault("false")
+                .action(Arguments.storeTrue());
+        parser.addArgument("-threads")
+                .type(Integer.class)
+                .help("number of threads for recombination, and for calculating the IBD features of all pairs")
+                .setDefault(Runtime.getRuntime().availableProcessors());
+        parser.addArgument("-coalesceSegments")
+                .help("merge adjacent genotype regions of the same founder haplotype, fewer regions in small or inbred "
+                        + "populations, may change the IBD features of a few close relatives")
+                .setDefault("false")
+                .action(Arguments.storeTrue());
+        parser.addArgument("-log")
+                .help("log levels, a root level and prefix=level entries, e.g. important,prepare.simulator=debug");
         return parser.parseArgsOrFail(argv);
     }
 
@@ -66,11 +105,17 @@ public class WrightFisherSimulator {
         generations = args.getInt("numOfGenerations");
         monogamyProb = args.getDouble("monogamyRate");
         outDir = args.getString("outputDir");
+        binaryIBD = args.getBoolean("binaryIbd");
+        gzipIBD = args.getBoolean("gzipIbd");
+        threads = args.getInt("threads");
+        coalesceSegments = args.getBoolean("coalesceSegments");
         popIncreaseRatio = Math.pow(finalPopSize / (double) initialPopSize, 1.0 / generations);
-        MyLogger.info("popIncreaseRatio=" + popIncreaseRatio);
-        MyLogger.important("monogamyProb=" + monogamyProb);
-        genotypes = new Genotype[popSize];
-        genders = new boolean[popSize];
+        LOG.info("popIncreaseRatio={}", popIncreaseRatio);
+        LOG.important("monogamyProb={}", monogamyProb);
+        //at least one chunk per recombination task
+        int chunks = threads <= 1 ? 1 : 4 * threads;
+        genotypes = new GenotypeArena(chunks, coalesceSegments);
+        nextGenotypes = new GenotypeArena(chunks, coalesceSegments);
         popSize = initialPopSize;
         new File(outDir).mkdirs();
         File pedFile = new File(outDir + "/pedigree.ped");
@@ -82,19 +127,33 @@ public class WrightFisherSimulator {
     }
 
     public void run() {
+        if (threads > 1)
+            executor = Executors.newFixedThreadPool(threads);
+        try {
+            simulate();
+        } finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+    }
+
+    private void simulate() {
         createFounderGenerationGenotypes();
         for (int geneneration = 1; geneneration < generations; geneneration++) {
-            MyLogger.important("generation " + geneneration);
-            MyLogger.info("totalIndividuals: " + totalIndividuals);
+            LOG.important("generation {}", geneneration);
+            LOG.info("totalIndividuals: {}", totalIndividuals);
             int nextPopSize = (int) Math.round(popSize * popIncreaseRatio);
-            MyLogger.info("new populationSize: " + nextPopSize);
-            nextGenotypes = new Genotype[nextPopSize];
+            LOG.info("new populationSize: {}", nextPopSize);
+            nextGenotypes.reset(nextPopSize, expectedRegions(nextPopSize));
             nextGenders = new boolean[nextPopSize];
 
-            //Sample parents for each individual, and recombine to get new genotypes
+            //Sample parents for each individual, then recombine to get new genotypes
+            int[] parentIds = new int[nextPopSize];
+            int[] mateIds = new int[nextPopSize];
             for (int i = 0; i < nextPopSize; i++) {
-                simulateIndividual(geneneration, i);
+                mateIndividual(geneneration, i, parentIds, mateIds);
             }
+            recombineGeneration(geneneration, parentIds, mateIds);
             incrementGeneration(nextPopSize);
         }
         pedWriter.close();
@@ -110,14 +169,22 @@ public class WrightFisherSimulator {
             couples.add(null);
 
         totalIndividuals += popSize;
-        MyLogger.info("totalIndividuals: " + totalIndividuals);
+        LOG.info("totalIndividuals: {}", totalIndividuals);
         popSize = nextPopSize;
-        MyLogger.info("populationSize: " + popSize);
+        LOG.info("populationSize: {}", popSize);
+        GenotypeArena previousGenotypes = genotypes;
         genotypes = nextGenotypes;
+        nextGenotypes = previousGenotypes;
         genders = nextGenders;
+        LOG.info("{} genotype regions, {} per haplotype, {} MB allocated", genotypes.getNumOfRegions(),
+                genotypes.getNumOfRegions() / (2.0 * popSize), genotypes.getAllocatedBytes() >> 20);
     }
 
-    private void simulateIndividual(int generation, int indexInGeneration) {
+    /**
+     * Sample the parents of individual indexInGeneration of the next generation, and its gender.
+     * Mating depends on the couples formed by previous individuals, so individuals are mated in order
+     */
+    private void mateIndividual(int generation, int indexInGeneration, int[] parentIds, int[] mateIds) {
         int childId = totalIndividuals + popSize + indexInGeneration;
         boolean foundMates = false;
         int parentId = -1;
@@ -141,10 +208,10 @@ public class WrightFisherSimulator {
                 if (randomGenerator.nextDouble() < monogamyProb) {//Passed monogamy test
                     foundMates = true;
                     mateId = mates.get(randomGenerator.nextInt(mates.size())); //sample from previous mates uniformly
-                    MyLogger.important(String.format("%d and %d now have another child: %d", parentId, mateId, childId));
+                    LOG.debug("{} and {} now have another child: {}", parentId, mateId, childId);
 
                 } else//(Cheated)
-                    MyLogger.important("parent " + parentId + " has an out of marraige child");
+                    LOG.debug("parent {} has an out of marraige child", parentId);
             }
             if (!foundMates) {
                 //If need new mate
@@ -165,7 +232,7 @@ public class WrightFisherSimulator {
                     if (mateMates == null)
                         mateMates = new ArrayList<>();
 
-                    MyLogger.important(String.format("%d is having first child with %d: %s", parentId, mateId, childId));
+                    LOG.debug("{} is having first child with {}: {}", parentId, mateId, childId);
                     mates.add(mateId);
                     couples.set(parentId, mates);
                     mateMates.add(parentId);
@@ -173,11 +240,8 @@ public class WrightFisherSimulator {
                 }
             }
         }
-        //Create child genotype from parent and mate
-        MyLogger.debug("recombine = " + genotypes[parentId]);
-        MyLogger.debug("recombine = " + genotypes[mateId]);
-
-        nextGenotypes[indexInGeneration] = new Genotype(genotypes[parentId].recombine(), genotypes[mateId].recombine());
+        parentIds[indexInGeneration] = parentId;
+        mateIds[indexInGeneration] = mateId;
         nextGenders[indexInGeneration] = randomGenerator.nextBoolean();
         int fatherId;
         int motherId;
@@ -194,25 +258,86 @@ public class WrightFisherSimulator {
         }
         //int id = (totalIndividuals-((gen+1)*popSize)+i);
         //MyLogger.important("Adding vertex " + childId + ", father: " + fatherId + ", mother: " + motherId);
-        MyLogger.debug("genotype = " + nextGenotypes[indexInGeneration]);
 
         ped.addVertex(childId, fatherId, motherId, false);
         pedWriter.println(childId + ":" + fatherId + "-" + motherId + " generation:" + (generations - generation));
         structure.put(childId + "\t" + fatherId + "\t" + motherId, (generations - generation));
     }
 
+    /**
+     * Create the genotypes of the next generation from the genotypes of their parents.
+     * Each child recombines with its own random stream, so the chunks of the next generation arena are
+     * recombined by different threads and the genotypes do not depend on the number of threads
+     */
+    private void recombineGeneration(int generation, int[] parentIds, int[] mateIds) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int chunk = 0; chunk < nextGenotypes.getNumOfChunks(); chunk++) {
+            int from = nextGenotypes.chunkFrom(chunk);
+            int to = nextGenotypes.chunkTo(chunk);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    Recombinator recombinator = new Recombinator(GeneticMap.getDefault(),
+                            RandomStreams.stream(RandomStreams.Purpose.POPULATION, 1, generation, i));
+                    recombinator.recombine(genotypes, parentIds[i], sex(parentIds[i]), nextGenotypes, i, 1);
+                    recombinator.recombine(genotypes, mateIds[i], sex(mateIds[i]), nextGenotypes, i, 2);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("genotype of {} = {}", i, nextGenotypes.getGenotype(i));
+                }
+                return null;
+            });
+        }
+        try {
+            if (executor == null) {
+                for (Callable<Void> task : tasks)
+                    task.call();
+            } else {
+                for (Future<Void> future : executor.invokeAll(tasks))
+                    future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while recombining generation " + generation, e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed recombining generation " + generation, e);
+        }
+    }
+
+    /**
+     * @return expected number of regions of the next generation genotypes. A gamete has about the regions of a
+     * parental haplotype, and one more region per crossover
+     */
+    private long expectedRegions(int nextPopSize) {
+        double crossovers = 0;
+        for (int chr = 1; chr <= 22; chr++)
+            crossovers += GeneticMap.getDefault().getLengthCM(chr, GeneticMap.Sex.AVERAGED) / 100;
+        return (long) (2L * nextPopSize * (genotypes.getNumOfRegions() / (2.0 * popSize) + crossovers));
+    }
+
+    /**
+     * @return sex of an individual of the current generation (genders are true==male)
+     */
+    private GeneticMap.Sex sex(int indexInGeneration) {
+        return genders[indexInGeneration] ? GeneticMap.Sex.MALE : GeneticMap.Sex.FEMALE;
+    }
+
     private void writeOutputs() {
         String structName = outDir + "/pedigree.structure";
         File ibdIped = new File(outDir + "/pedigree.iped.ibd");
         File demFile = new File(outDir + "/pedigree.demographics");
-        File ibdFile = new File(outDir + "/pedigree.ibd");
+        File ibdFile = new File(outDir + (gzipIBD ? "/pedigree.ibd.gz" : "/pedigree.ibd"));
+        //copy the extant generation to genotypes of their exact size, without holding both arenas
+        nextGenotypes = null;
+        Genotype[] extant = new Genotype[popSize];
+        for (int i = 0; i < popSize; i++)
+            extant[i] = genotypes.getGenotype(i);
+        genotypes = null;
         try {
-            writeIpedIBDFile(genotypes, ibdIped);
+            writeIpedIBDFile(extant, ibdIped);
             List<PedVertex> lastGen = new ArrayList<>();
             writeDemographics(demFile, lastGen);
             ped.pruneExtinct(lastGen);
             writePedigreeStructure(structName);
-            writeIBDFile(ibdFile);
+            writeIBDFile(extant, ibdFile, binaryIBD ? new File(outDir + "/pedigree.ibdg") : null);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -246,40 +371,36 @@ public class WrightFisherSimulator {
     }
 
     private void createFounderGenerationGenotypes() {
-        genotypes = new Genotype[popSize];
+        genotypes.reset(popSize, 2L * popSize * 22);
         genders = new boolean[popSize];
         for (int i = 0; i < popSize; i++) {
-            genotypes[i] = new Genotype(i);
+            genotypes.setFounder(i, i);
             genders[i] = randomGenerator.nextBoolean();
             couples.add(null);
-            MyLogger.debug("Added vertex " + i + " " + -1 + " " + -1);
+            LOG.debug("Added vertex {} -1 -1", i);
             ped.addVertex(i);
         }
     }
 
 
     /**
-     * Print the number of IBD segments, and the mean segment length (Mbp)
-     * @param ibd       ibd file
+     * Print the number of IBD segments, and the mean segment length (Mbp), of all related pairs of the last generation
+     * @param ibd       ibd file, gzipped if its name ends with .gz
+     * @param binaryIBD binary IBD graph file, or null
      */
-    private void writeIBDFile(File ibd)
-            throws FileNotFoundException {
-        PrintWriter ibdWriter = new PrintWriter(ibd);
-        for (int i = 0; i < popSize; i++) {
-            for (int j = i + 1; j < popSize; j++) {
-                IBDFeaturesWeight ibdW = IBDFeaturesWeight.calcIBDFeatureWeight(genotypes[i], genotypes[j], false, false);
-                if (ibdW.getSegmentNum() > 0) {
-                    MyLogger.important(String.format("IBD(%d,%d): %s",
-                            (totalIndividuals - popSize + i),
-                            (totalIndividuals - popSize + j),
-                            ibdW));
-                    //MyLogger.important(0 + " geno= " + genotypes[0]);
-                    //MyLogger.important(j + " geno= " + genotypes[j]);
-                    ibdWriter.println((totalIndividuals - popSize + i) + "\t" + (totalIndividuals - popSize + j) + "\t" + ibdW.getSegmentNum() + "\t" + ibdW.getMeanLength() + "\t20\t20");
-                }
-            }
+    private void writeIBDFile(Genotype[] genotypes, File ibd, File binaryIBD)
+            throws IOException {
+        IBDGraphFile.Builder binaryWriter = binaryIBD != null ? new IBDGraphFile.Builder() : null;
+        OutputStream out = new FileOutputStream(ibd);
+        if (ibd.getName().endsWith(".gz"))
+            out = new GZIPOutputStream(out, 1 << 16);
+        long relatedPairs;
+        try (Writer ibdWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16)) {
+            relatedPairs = new PairwiseIBDWriter(genotypes, totalIndividuals - popSize, threads).write(ibdWriter, binaryWriter);
         }
-        ibdWriter.close();
+        LOG.important("Wrote IBD features of {} related pairs to {}", relatedPairs, ibd);
+        if (binaryIBD != null)
+            binaryWriter.write(binaryIBD);
     }
 
 
@@ -312,7 +433,7 @@ public class WrightFisherSimulator {
             //skip regions that end before window
             while (hapRegion.getEnd().compareTo(window.getStart()) < 0) {
                 hapRegion = hap1.getNextRegion();
-                MyLogger.important("skip r=" + hapRegion);
+                LOG.debug("skip r={}", hapRegion);
 
             }
 
@@ -367,6 +488,11 @@ public class WrightFisherSimulator {
 
     public static void main(String[] argv) {
         Namespace args = parseArgs(argv);
+        if (args.getString("log") != null)
+            MyLogger.configure(args.getString("log"));
+        RandomStreams.init(args.getLong("seed"));
+        if (args.getString("geneticMap") != null)
+            GeneticMap.setDefault(GeneticMap.load(new File(args.getString("geneticMap"))));
         WrightFisherSimulator wrightFisherSimulator = new WrightFisherSimulator(args);
         wrightFisherSimulator.run();
     }
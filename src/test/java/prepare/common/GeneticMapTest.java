@@ -0,0 +1,73 @@
+package prepare.common;
+
+import org.junit.Test;
+import prepare.common.GeneticMap.Sex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class GeneticMapTest {
+
+    @Test
+    public void testUniform() {
+        GeneticMap map = GeneticMap.uniform();
+        assertEquals(HumanGenome.getChrLength(1) / 1e6, map.getLengthCM(1, Sex.MALE), 1e-9);
+        assertEquals(50.0, map.toCM(2, 50000000, Sex.FEMALE), 1e-9);
+        assertEquals(50000000, map.toBp(2, 50.0, Sex.FEMALE));
+    }
+
+    @Test
+    public void testLoadSexSpecific() throws IOException {
+        new File("test_outputs").mkdirs();
+        File file = new File("test_outputs/genetic_map_test.txt");
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("chr\tposition\tmaleCM\tfemaleCM");
+            writer.println("chr1\t1000\t0.0\t0.0");
+            writer.println("chr1\t2000\t1.0\t3.0");
+            writer.println("chr1\t3000\t1.0\t4.0");
+            writer.println("chr1\t5000\t2.0\t8.0");
+            writer.println("chrX\t1000\t0.0\t0.0");
+        }
+        GeneticMap map = GeneticMap.load(file);
+        assertEquals(2.0, map.getLengthCM(1, Sex.MALE), 1e-9);
+        assertEquals(8.0, map.getLengthCM(1, Sex.FEMALE), 1e-9);
+        assertEquals(5.0, map.getLengthCM(1, Sex.AVERAGED), 1e-9);
+
+        assertEquals(0.5, map.toCM(1, 1500, Sex.MALE), 1e-9);
+        assertEquals(6.0, map.toCM(1, 4000, Sex.FEMALE), 1e-9);
+        assertEquals(0.0, map.toCM(1, 10, Sex.MALE), 1e-9);
+        assertEquals(1500, map.toBp(1, 1.5, Sex.FEMALE));
+        //flat interval between 2000 and 3000 on the male map
+        assertEquals(4000, map.toBp(1, 1.5, Sex.MALE));
+        assertEquals(5000, map.toBp(1, 100, Sex.MALE));
+
+        //chromosomes missing from file are uniform
+        assertEquals(HumanGenome.getChrLength(2) / 1e6, map.getLengthCM(2, Sex.MALE), 1e-9);
+
+        assertEquals(map.getFingerprint(), GeneticMap.load(file).getFingerprint());
+        assertEquals(GeneticMap.uniform().getFingerprint(), GeneticMap.getDefault().getFingerprint());
+        assertNotEquals(GeneticMap.uniform().getFingerprint(), map.getFingerprint());
+    }
+
+    @Test
+    public void testCrossoverRate() {
+        GeneticMap map = GeneticMap.uniform();
+        Recombinator recombinator = new Recombinator(map, new SplittableRandom(3));
+        double expected = 0;
+        for (int chr = 1; chr <= 22; chr++)
+            expected += map.getLengthCM(chr, Sex.MALE) / 100;
+        int meioses = 2000;
+        long crossovers = 0;
+        for (int i = 0; i < meioses; i++) {
+            recombinator.sampleCrossovers(Sex.MALE);
+            crossovers += recombinator.getNumOfCrossovers();
+            for (int c = 1; c < recombinator.getNumOfCrossovers(); c++)
+                assertTrue(recombinator.getCrossover(c - 1) <= recombinator.getCrossover(c));
+        }
+        assertEquals(expected, crossovers / (double) meioses, 0.5);
+    }
+}
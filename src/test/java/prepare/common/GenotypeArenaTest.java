@@ -0,0 +1,106 @@
+package prepare.common;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class GenotypeArenaTest {
+
+    @Test
+    public void testRecombineLikeGenotypes() {
+        int popSize = 7;
+        GenotypeArena arena = new GenotypeArena(3, false);
+        GenotypeArena nextArena = new GenotypeArena(3, false);
+        arena.reset(popSize, 0);
+        Genotype[] genotypes = new Genotype[popSize];
+        for (int i = 0; i < popSize; i++) {
+            arena.setFounder(i, i);
+            genotypes[i] = new Genotype(i);
+        }
+        SplittableRandom parents = new SplittableRandom(3);
+        for (int gen = 1; gen <= 4; gen++) {
+            //buffers of the swapped arena are reused, with a changing population size
+            int nextPopSize = popSize + gen % 2;
+            nextArena.reset(nextPopSize, 0);
+            Genotype[] next = new Genotype[nextPopSize];
+            for (int i = 0; i < nextPopSize; i++) {
+                int father = parents.nextInt(popSize);
+                int mother = parents.nextInt(popSize);
+                Recombinator arenaRecombinator = new Recombinator(GeneticMap.getDefault(), new SplittableRandom(100 * gen + i));
+                arenaRecombinator.recombine(arena, father, GeneticMap.Sex.MALE, nextArena, i, 1);
+                arenaRecombinator.recombine(arena, mother, GeneticMap.Sex.FEMALE, nextArena, i, 2);
+                Recombinator recombinator = new Recombinator(GeneticMap.getDefault(), new SplittableRandom(100 * gen + i));
+                next[i] = new Genotype(recombinator.recombine(genotypes[father], GeneticMap.Sex.MALE),
+                        recombinator.recombine(genotypes[mother], GeneticMap.Sex.FEMALE));
+            }
+            GenotypeArena swap = arena;
+            arena = nextArena;
+            nextArena = swap;
+            genotypes = next;
+            popSize = nextPopSize;
+
+            long regions = 0;
+            for (int i = 0; i < popSize; i++) {
+                assertEquals(genotypes[i].toString(), arena.getGenotype(i).toString());
+                regions += genotypes[i].getPackedHap1().size() + genotypes[i].getPackedHap2().size();
+            }
+            assertEquals(regions, arena.getNumOfRegions());
+        }
+    }
+
+    @Test
+    public void testCoalesceMergesSameFounderRegions() {
+        //two founders, so crossovers often join regions of the same founder haplotype
+        int popSize = 2;
+        GenotypeArena arena = new GenotypeArena(1, false);
+        GenotypeArena coalesced = new GenotypeArena(1, true);
+        arena.reset(popSize, 0);
+        coalesced.reset(popSize, 0);
+        for (int i = 0; i < popSize; i++) {
+            arena.setFounder(i, i);
+            coalesced.setFounder(i, i);
+        }
+        for (int gen = 1; gen <= 6; gen++) {
+            GenotypeArena nextArena = new GenotypeArena(1, false);
+            GenotypeArena nextCoalesced = new GenotypeArena(1, true);
+            nextArena.reset(popSize, 0);
+            nextCoalesced.reset(popSize, 0);
+            for (int i = 0; i < popSize; i++) {
+                for (int hap = 1; hap <= 2; hap++) {
+                    new Recombinator(GeneticMap.getDefault(), new SplittableRandom(10 * gen + 2 * i + hap))
+                            .recombine(arena, hap - 1, GeneticMap.Sex.AVERAGED, nextArena, i, hap);
+                    new Recombinator(GeneticMap.getDefault(), new SplittableRandom(10 * gen + 2 * i + hap))
+                            .recombine(coalesced, hap - 1, GeneticMap.Sex.AVERAGED, nextCoalesced, i, hap);
+                }
+            }
+            arena = nextArena;
+            coalesced = nextCoalesced;
+        }
+        assertTrue(coalesced.getNumOfRegions() < arena.getNumOfRegions());
+        for (int i = 0; i < popSize; i++) {
+            Genotype genotype = arena.getGenotype(i);
+            Genotype coalescedGenotype = coalesced.getGenotype(i);
+            assertEquals(coalesce(genotype.getPackedHap1()), coalescedGenotype.getPackedHap1().toString());
+            assertEquals(coalesce(genotype.getPackedHap2()), coalescedGenotype.getPackedHap2().toString());
+        }
+    }
+
+    /**
+     * @return regions of hap, with regions that continue the previous region with the same ancestry merged into it
+     */
+    private static String coalesce(PackedHaplotype hap) {
+        StringBuilder result = new StringBuilder();
+        int first = 0;
+        for (int r = 1; r <= hap.size(); r++) {
+            if (r < hap.size() && hap.getStart(r) == hap.getEnd(r - 1) && hap.getAncestry(r) == hap.getAncestry(first))
+                continue;
+            result.append(new HapRegion(PackedHaplotype.toLocation(hap.getStart(first)),
+                    PackedHaplotype.toLocation(hap.getEnd(r - 1)),
+                    PackedHaplotype.ancestryString(hap.getAncestry(first)))).append(", ");
+            first = r;
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package prepare.common;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class PackedHaplotypeTest {
+
+    @Test
+    public void testFounderRoundTrip() {
+        PackedHaplotype founder = PackedHaplotype.founder(17, 2);
+        assertEquals(22, founder.size());
+        assertEquals(new Haplotype("17.2").toString(), founder.toHaplotype().toString());
+        assertEquals(founder.toString(), PackedHaplotype.fromHaplotype(new Haplotype("17.2")).toString());
+        assertEquals("-3.1", PackedHaplotype.ancestryString(PackedHaplotype.parseAncestry("-3.1")));
+    }
+
+    @Test
+    public void testRecombineCoversGenome() {
+        Recombinator recombinator = new Recombinator(GeneticMap.uniform(), new SplittableRandom(1));
+        PackedHaplotype hap1 = PackedHaplotype.founder(1, 1);
+        PackedHaplotype hap2 = PackedHaplotype.founder(1, 2);
+        for (int i = 0; i < 20; i++) {
+            PackedHaplotype child = recombinator.recombine(new Genotype(hap1, hap2), GeneticMap.Sex.AVERAGED);
+            int chr = 0;
+            for (int r = 0; r < child.size(); r++) {
+                long start = child.getStart(r);
+                if (PackedHaplotype.chr(start) != chr) {
+                    assertEquals(chr + 1, PackedHaplotype.chr(start));
+                    assertEquals(1, PackedHaplotype.position(start));
+                    if (r > 0)
+                        assertEquals(HumanGenome.getChrLength(chr), PackedHaplotype.position(child.getEnd(r - 1)));
+                    chr++;
+                } else
+                    assertEquals(child.getEnd(r - 1), start);
+                assertTrue(child.getEnd(r) > start);
+                String ancestry = PackedHaplotype.ancestryString(child.getAncestry(r));
+                assertTrue(ancestry.equals("1.1") || ancestry.equals("1.2"));
+            }
+            assertEquals(22, chr);
+            hap1 = hap2;
+            hap2 = child;
+        }
+    }
+
+    @Test
+    public void testIBDSegmentsMatchRegions() {
+        Random random = new Random(2);
+        Recombinator recombinator = new Recombinator(GeneticMap.uniform(), new SplittableRandom(2));
+        PackedHaplotype[] haps = new PackedHaplotype[8];
+        for (int i = 0; i < haps.length; i++)
+            haps[i] = PackedHaplotype.founder(i / 2, i % 2 + 1);
+        //a few generations of random mating, to get shared ancestry
+        for (int gen = 0; gen < 4; gen++) {
+            PackedHaplotype[] next = new PackedHaplotype[haps.length];
+            for (int i = 0; i < next.length; i++) {
+                int parent = random.nextInt(haps.length / 2);
+                next[i] = recombinator.recombine(new Genotype(haps[2 * parent], haps[2 * parent + 1]), GeneticMap.Sex.AVERAGED);
+            }
+            haps = next;
+        }
+        for (PackedHaplotype hap1 : haps) {
+            for (PackedHaplotype hap2 : haps) {
+                SegmentBuffer packedIBD = new SegmentBuffer(1);
+                hap1.addIBDSegments(hap2, packedIBD);
+                List<HapRegion> IBD = hap1.toHaplotype().getIBDSegments(hap2.toHaplotype());
+                assertEquals(IBD.size(), packedIBD.size());
+                for (int i = 0; i < IBD.size(); i++) {
+                    assertEquals(PackedHaplotype.pack(IBD.get(i).getStart()), packedIBD.getStart(i));
+                    assertEquals(PackedHaplotype.pack(IBD.get(i).getEnd()), packedIBD.getEnd(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package prepare.graph;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+import prepare.common.Population;
+import prepare.pedigree.Person;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+import prepare.relationship.Relationship;
+import prepare.relationship.RelationshipProbWeight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CsrGraphTest {
+    private static final String RESOURCE_DIR = "pedigree_start100_end100_gen3/";
+
+    @Test
+    public void testCsrGraphMatchesGraph() throws IOException {
+        List<VertexData> persons = Person.listFromDemographics(Resources.getResource(RESOURCE_DIR + "pedigree.demographics").getFile());
+        String ibdFile = Resources.getResource(RESOURCE_DIR + "pedigree.ibd").getFile();
+        Graph graph = new Graph(persons);
+        IBDFeaturesWeight.readEdgesWeights(graph, ibdFile, new Population(persons), 1);
+        CsrGraph csrGraph = IBDFeaturesWeight.readCsrGraph(persons, ibdFile, 2);
+
+        assertEquals(graph.getVertexMap().size(), csrGraph.getVertexMap().size());
+        int numOfEdges = 0;
+        for (Vertex v : graph.getVertices()) {
+            Vertex csrVertex = csrGraph.getVertex(v.getVertexId());
+            assertEquals(v.getData(), csrVertex.getData());
+            assertEquals(v.getEdgeMap().size(), csrVertex.getEdgeMap().size());
+            numOfEdges += v.getEdgeMap().size();
+            for (Vertex u : graph.getVertices()) {
+                Edge e = graph.getUndirectedEdge(v.getVertexId(), u.getVertexId());
+                Edge csrEdge = csrGraph.getUndirectedEdge(v.getVertexId(), u.getVertexId());
+                if (e == null) {
+                    assertNull(csrEdge);
+                    continue;
+                }
+                assertEquals(e.getVertex1().getVertexId(), csrEdge.getVertex1().getVertexId());
+                assertEquals(e.getVertex2().getVertexId(), csrEdge.getVertex2().getVertexId());
+                IBDFeaturesWeight w = (IBDFeaturesWeight) e.getWeight();
+                IBDFeaturesWeight csrW = (IBDFeaturesWeight) csrEdge.getWeight();
+                assertEquals((float) w.getSegmentNum(), csrW.getSegmentNum(), 0);
+                assertEquals((float) w.getMeanLength(), csrW.getMeanLength(), 0);
+            }
+        }
+        assertEquals(numOfEdges, csrGraph.getNumOfEdges());
+    }
+
+    @Test
+    public void testRelationshipWeights() {
+        List<VertexData> vertices = new ArrayList<>();
+        for (int id : new int[]{10, 3, 1000000})
+            vertices.add(new Person(id, 20, true, 0));
+        Graph graph = new Graph(vertices);
+        RelationshipProbWeight w = new RelationshipProbWeight();
+        w.setProb(Relationship.PARENT, 0.7);
+        w.setProb(Relationship.NOT_RELATED, 0.3);
+        graph.addEdge(new BaseEdge(graph.getVertex(10), graph.getVertex(1000000), w));
+        graph.addEdge(new BaseEdge(graph.getVertex(10), graph.getVertex(3), new RelationshipProbWeight()));
+
+        CsrGraph csrGraph = CsrGraph.copyOf(graph);
+        assertEquals(CsrGraph.WeightType.RELATIONSHIP_PROB, csrGraph.getWeightType());
+        assertEquals(2, csrGraph.getNumOfEdges());
+        Vertex v = csrGraph.getVertex(10);
+        List<Integer> neighbours = new ArrayList<>(v.getEdgeMap().keySet());
+        assertEquals("[3, 1000000]", neighbours.toString());
+        assertNull(csrGraph.getVertex(4));
+        assertFalse(csrGraph.getVertex(3).hasEdgeTo(10));
+
+        RelationshipProbWeight csrW = csrGraph.getWeight(csrGraph.getVertex(1000000), v);
+        assertEquals(0.7, csrW.getProb(Relationship.CHILD), 0);
+        Edge e = v.getEdgeTo(1000000);
+        RelationshipProbWeight updated = (RelationshipProbWeight) e.getWeight();
+        updated.setProb(Relationship.PARENT, 1.0);
+        e.setWeight(updated);
+        assertEquals(1.0, ((RelationshipProbWeight) v.getEdgeTo(1000000).getWeight()).getProb(Relationship.PARENT), 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        List<VertexData> vertices = new ArrayList<>();
+        vertices.add(new Person(1, 20, true, 0));
+        vertices.add(new Person(2, 20, false, 0));
+        CsrGraph csrGraph = new CsrGraph.Builder(vertices, CsrGraph.WeightType.IBD_FEATURES).build();
+        csrGraph.getVertex(1).removeEdgeTo(csrGraph.getVertex(2));
+    }
+}
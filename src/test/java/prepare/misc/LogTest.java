@@ -0,0 +1,61 @@
+package prepare.misc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LogTest {
+
+    @After
+    public void resetLevels() {
+        MyLogger.resetLevels(MyLogger.Level.IMPORTANT);
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("a 1 b x", Log.format("a {} b {}", 1, "x"));
+        assertEquals("no args {}", Log.format("no args {}"));
+        assertEquals("1 and {}", Log.format("{} and {}", 1));
+        assertEquals("[1, 2]", Log.format("{}", java.util.Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void testPrefixLevels() {
+        Log graphLog = new Log("prepare.graph.Graph");
+        Log pedigreeLog = new Log("prepare.pedigree.Pedigree");
+        assertFalse(graphLog.isDebugEnabled());
+        assertTrue(graphLog.isEnabled(MyLogger.Level.IMPORTANT));
+
+        MyLogger.configure("warn, prepare.graph=debug, prepare.graph.Graph=info");
+        //longest prefix wins, and cached levels follow changes
+        assertFalse(graphLog.isDebugEnabled());
+        assertTrue(graphLog.isInfoEnabled());
+        assertTrue(new Log("prepare.graph.BaseVertex").isDebugEnabled());
+        assertFalse(pedigreeLog.isEnabled(MyLogger.Level.IMPORTANT));
+        assertTrue(pedigreeLog.isEnabled(MyLogger.Level.WARN));
+
+        MyLogger.setLevel(MyLogger.Level.OFF);
+        assertFalse(pedigreeLog.isEnabled(MyLogger.Level.ERROR));
+    }
+
+    @Test
+    public void testDisabledMessagesAreNotBuilt() {
+        Log log = new Log("prepare.test");
+        AtomicInteger built = new AtomicInteger();
+        log.debug(() -> "message " + built.incrementAndGet());
+        assertEquals(0, built.get());
+
+        MyLogger.setLevel("prepare.test", MyLogger.Level.DEBUG);
+        log.debug(() -> "message " + built.incrementAndGet());
+        assertEquals(1, built.get());
+        MyLogger.flush();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLevel() {
+        MyLogger.configure("verbose");
+    }
+}
@@ -0,0 +1,63 @@
+package prepare.misc;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void testCountersAndPhasesPerGeneration() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.gauge("answer", () -> 42);
+        metrics.enterPhase(Metrics.Phase.READ_INPUT);
+        metrics.count(Metrics.Counter.PEDIGREE_CLONES);
+
+        metrics.startGeneration(1);
+        metrics.enterPhase(Metrics.Phase.CONTRACTION);
+        metrics.enterPhase(Metrics.Phase.SIB_TESTING);
+        metrics.count(Metrics.Counter.PAIRS_TESTED, 10);
+        metrics.count(Metrics.Counter.PAIRS_PRUNED, 5);
+        metrics.startGeneration(2);
+        metrics.enterPhase(Metrics.Phase.SIB_TESTING);
+        metrics.count(Metrics.Counter.PAIRS_TESTED, 3);
+        metrics.endGeneration();
+
+        assertEquals(1, metrics.getCount(0, Metrics.Counter.PEDIGREE_CLONES));
+        assertEquals(10, metrics.getCount(1, Metrics.Counter.PAIRS_TESTED));
+        assertEquals(3, metrics.getCount(2, Metrics.Counter.PAIRS_TESTED));
+        assertEquals(13, metrics.getCount(Metrics.Counter.PAIRS_TESTED));
+        assertEquals(0, metrics.getCount(3, Metrics.Counter.PAIRS_TESTED));
+        assertTrue(metrics.getWallMillis(Metrics.Phase.SIB_TESTING) >= 0);
+
+        File csv = File.createTempFile("metrics", ".csv");
+        csv.deleteOnExit();
+        metrics.writeCsv(csv);
+        List<String> rows = Files.readLines(csv, Charsets.UTF_8);
+        assertEquals("generation,metric,value", rows.get(0));
+        assertTrue(rows.contains("1,pairsTested,10"));
+        assertTrue(rows.contains("1,pairsPruned,5"));
+        assertTrue(rows.contains("2,answer,42"));
+        assertTrue(rows.stream().anyMatch(r -> r.startsWith("1,sibTesting.wallMillis,")));
+        assertFalse(rows.stream().anyMatch(r -> r.startsWith("2,contraction.")));
+
+        File json = File.createTempFile("metrics", ".json");
+        json.deleteOnExit();
+        metrics.writeJson(json);
+        String report = Files.toString(json, Charsets.UTF_8);
+        assertTrue(report.contains("\"totals\": {\"pairsTested\": 13, \"pairsPruned\": 5"));
+        assertTrue(report.contains("\"readInput\": {\"calls\": 1"));
+    }
+
+    @Test
+    public void testName() {
+        assertEquals("halfSibUniting", Metrics.name(Metrics.Phase.HALF_SIB_UNITING));
+        assertEquals("simulations", Metrics.name(Metrics.Counter.SIMULATIONS));
+    }
+}
@@ -0,0 +1,27 @@
+package prepare.misc;
+
+import org.junit.Test;
+import prepare.misc.RandomStreams.Purpose;
+
+import static org.junit.Assert.*;
+
+public class RandomStreamsTest {
+
+    @Test
+    public void testStreamsAreKeyed() {
+        long seed = RandomStreams.getSeed();
+        try {
+            RandomStreams.setSeed(42);
+            long first = RandomStreams.stream(Purpose.SIMULATION, 1, 2).nextLong();
+            assertEquals(first, RandomStreams.stream(Purpose.SIMULATION, 1, 2).nextLong());
+            assertNotEquals(first, RandomStreams.stream(Purpose.SIMULATION, 2, 1).nextLong());
+            assertNotEquals(first, RandomStreams.stream(Purpose.EVALUATION, 1, 2).nextLong());
+            assertEquals(first, RandomStreams.stream(Purpose.SIMULATION, new int[]{1, 2}).nextLong());
+
+            RandomStreams.setSeed(43);
+            assertNotEquals(first, RandomStreams.stream(Purpose.SIMULATION, 1, 2).nextLong());
+        } finally {
+            RandomStreams.setSeed(seed);
+        }
+    }
+}
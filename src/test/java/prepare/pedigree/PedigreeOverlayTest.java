@@ -0,0 +1,121 @@
+package prepare.pedigree;
+
+import org.junit.Test;
+import prepare.common.GeneticMap;
+import prepare.common.Recombinator;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class PedigreeOverlayTest {
+
+    private static Pedigree createBase() {
+        //living sibs 5 and 7, and their living uncle 6
+        Pedigree pedigree = new Pedigree();
+        pedigree.addVertex(1);
+        pedigree.addVertex(2);
+        pedigree.addVertex(3, 1, 2, false);
+        pedigree.addVertex(4);
+        pedigree.addVertex(5, 3, 4, true);
+        pedigree.addVertex(6, 1, 2, true);
+        pedigree.addVertex(7, 3, 4, true);
+        return pedigree;
+    }
+
+    @Test
+    public void testCousinHypothesisLikeClone() {
+        Pedigree base = createBase();
+        Pedigree clone = new Pedigree(base);
+        PedigreeOverlay overlay = new PedigreeOverlay(base);
+
+        //cousin hypothesis for 2 and 4, applied to both
+        int cloneFather1 = clone.getNewID();
+        int cloneFather2 = clone.getNewID();
+        int cloneGrandFather = clone.getNewID();
+        int cloneGrandMother = clone.getNewID();
+        clone.addVertex(cloneGrandFather);
+        clone.addVertex(cloneGrandMother);
+        clone.addVertex(cloneFather1, cloneGrandFather, cloneGrandMother, false);
+        clone.addVertex(cloneFather2, cloneGrandFather, cloneGrandMother, false);
+        clone.getVertex(2).setFather(cloneFather1);
+        clone.getVertex(2).setMother(cloneGrandMother);
+        clone.getVertex(4).setFather(cloneFather2);
+        clone.getVertex(4).setMother(cloneGrandMother);
+
+        int father1 = overlay.getNewID();
+        int father2 = overlay.getNewID();
+        int grandFather = overlay.getNewID();
+        int grandMother = overlay.getNewID();
+        overlay.addVertex(grandFather);
+        overlay.addVertex(grandMother);
+        overlay.addVertex(father1, grandFather, grandMother);
+        overlay.addVertex(father2, grandFather, grandMother);
+        overlay.setFather(2, father1);
+        overlay.setMother(2, grandMother);
+        overlay.setFather(4, father2);
+        overlay.setMother(4, grandMother);
+
+        assertEquals(cloneGrandMother, grandMother);
+        assertEquals(clone.size(), overlay.size());
+        assertEquals(7, base.size());
+        assertEquals(-1, base.getFatherId(2));
+
+        for (int id1 = 1; id1 <= 11; id1++) {
+            for (int id2 = 1; id2 <= 11; id2++) {
+                assertEquals(toString(clone.getCommonAncestorDepths(id1, id2)),
+                        toString(overlay.getCommonAncestorDepths(id1, id2)));
+            }
+        }
+        assertSameSimulation(clone, overlay, new int[]{5, 6, 7});
+    }
+
+    @Test
+    public void testSameHypothesisLikeClone() {
+        Pedigree base = createBase();
+        Pedigree clone = new Pedigree(base);
+        PedigreeOverlay overlay = new PedigreeOverlay(base);
+
+        //new vertex 8 replaces 4 as the mother of 5 and 7
+        clone.addVertex(8);
+        for (Pedigree.PedVertex child : clone.getVertex(4).getChildren())
+            child.overrideMother(8);
+        clone.removeVertex(4);
+
+        overlay.addVertex(8);
+        overlay.setMother(5, 8);
+        overlay.setMother(7, 8);
+        overlay.removeVertex(4, Arrays.asList(5, 7));
+
+        assertFalse(overlay.hasVertex(4));
+        assertTrue(base.hasVertex(4));
+        assertEquals(clone.size(), overlay.size());
+        assertEquals(toString(clone.getCommonAncestorDepths(5, 6)), toString(overlay.getCommonAncestorDepths(5, 6)));
+        assertSameSimulation(clone, overlay, new int[]{5, 6, 7});
+    }
+
+    private static void assertSameSimulation(Pedigree clone, PedigreeOverlay overlay, int[] living) {
+        clone.simulateRecombinations(new Recombinator(GeneticMap.getDefault(), new SplittableRandom(7)));
+        overlay.simulateRecombinations(new Recombinator(GeneticMap.getDefault(), new SplittableRandom(7)));
+        for (int id1 : living) {
+            for (int id2 : living) {
+                if (id1 >= id2)
+                    continue;
+                IBDFeaturesWeight cloneFeatures = IBDFeaturesWeight.calcIBDFeatureWeight(clone.getGenotype(id1), clone.getGenotype(id2), false, false, null);
+                IBDFeaturesWeight overlayFeatures = IBDFeaturesWeight.calcIBDFeatureWeight(overlay.getGenotype(id1), overlay.getGenotype(id2), false, false, null);
+                assertEquals(cloneFeatures.getSegmentNum(), overlayFeatures.getSegmentNum(), 0);
+                assertEquals(cloneFeatures.getMeanLength(), overlayFeatures.getMeanLength(), 0);
+            }
+        }
+    }
+
+    private static String toString(List<int[]> depths) {
+        StringBuilder sb = new StringBuilder();
+        for (int[] d : depths)
+            sb.append(Arrays.toString(d));
+        return sb.toString();
+    }
+}
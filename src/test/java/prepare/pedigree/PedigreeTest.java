@@ -1,6 +1,10 @@
 package prepare.pedigree;
 
 import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class PedigreeTest {
@@ -35,6 +39,19 @@ public class PedigreeTest {
         assertEquals(9, pedigree.getNewID());
     }
 
+    @Test
+    public void testNextIDGenerator(){
+        Pedigree pedigree = new Pedigree();
+        pedigree.addVertex(1);
+        assertEquals(20000, new NextIDGenerator(2, pedigree).getNextID());
+
+        //ids of a large cohort overlap the generation range
+        pedigree.addVertex(29999);
+        NextIDGenerator generator = new NextIDGenerator(2, pedigree);
+        assertEquals(30000, generator.getNextID());
+        assertEquals(30001, generator.getNextID());
+    }
+
     @Test
     public void testToString(){
         Pedigree pedigree = new Pedigree();
@@ -45,4 +62,40 @@ public class PedigreeTest {
                 "id: 2, father: -1, mother: -1, isAlive: false, isFounder: true," +
                 "id: 3, father: 1, mother: 2, isAlive: true, isFounder: false,", pedigree.toString());
     }
+
+    @Test
+    public void testCommonAncestorDepths(){
+        //sibs 5 and 7, and their uncle 6
+        Pedigree pedigree = new Pedigree();
+        pedigree.addVertex(1);
+        pedigree.addVertex(2);
+        pedigree.addVertex(3, 1, 2, false);
+        pedigree.addVertex(4);
+        pedigree.addVertex(5, 3, 4, true);
+        pedigree.addVertex(6, 1, 2, true);
+        pedigree.addVertex(7, 3, 4, true);
+
+        List<int[]> sibDepths = pedigree.getCommonAncestorDepths(5, 7);
+        assertEquals(2, sibDepths.size());
+        assertArrayEquals(new int[]{1, 1}, sibDepths.get(0));
+        assertArrayEquals(new int[]{1, 1}, sibDepths.get(1));
+        List<int[]> uncleDepths = pedigree.getCommonAncestorDepths(5, 6);
+        assertEquals(2, uncleDepths.size());
+        assertArrayEquals(new int[]{2, 1}, uncleDepths.get(0));
+        assertEquals(2, pedigree.getVertex(5).distanceTo(pedigree.getVertex(7)));
+        assertEquals(3, pedigree.getVertex(5).distanceTo(pedigree.getVertex(6)));
+
+        //6 becomes a half uncle, through a new father
+        pedigree.addVertex(8);
+        pedigree.getVertex(6).setFather(8);
+        uncleDepths = pedigree.getCommonAncestorDepths(5, 6);
+        assertEquals(1, uncleDepths.size());
+        assertArrayEquals(new int[]{2, 1}, uncleDepths.get(0));
+
+        //and unrelated, when 3 loses both parents
+        pedigree.getVertex(3).overrideFather(-1);
+        pedigree.getVertex(3).overrideMother(-1);
+        assertEquals(0, pedigree.getCommonAncestorDepths(5, 6).size());
+        assertEquals(Integer.MAX_VALUE, pedigree.getVertex(5).distanceTo(pedigree.getVertex(6)));
+    }
 }
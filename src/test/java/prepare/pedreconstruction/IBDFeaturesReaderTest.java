@@ -0,0 +1,84 @@
+package prepare.pedreconstruction;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+import prepare.common.Population;
+import prepare.graph.Edge;
+import prepare.graph.Graph;
+import prepare.graph.VertexData;
+import prepare.pedigree.Person;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class IBDFeaturesReaderTest {
+    private static final String RESOURCE_DIR = "pedigree_start100_end100_gen3/";
+
+    @Test
+    public void testParse() {
+        String lines = "1\t2\t34.0\t13.235294117647058\t20\t20\n" +
+                "\n" +
+                "3 4  1 4\r\n" +
+                "-5\t6\t2.5e1\t-0.125\n" +
+                "7\t8\t0\t.5";
+        IBDFeaturesReader.Records records = IBDFeaturesReader.parse(ByteBuffer.wrap(lines.getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(4, records.size);
+        assertArrayEquals(new int[]{1, 3, -5, 7}, Arrays.copyOf(records.id1, 4));
+        assertArrayEquals(new int[]{2, 4, 6, 8}, Arrays.copyOf(records.id2, 4));
+        assertArrayEquals(new double[]{34, 1, 25, 0}, Arrays.copyOf(records.segmentNum, 4), 0);
+        assertArrayEquals(new double[]{13.235294117647058, 4, -0.125, 0.5}, Arrays.copyOf(records.meanLength, 4), 0);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testMalformed() {
+        IBDFeaturesReader.parse(ByteBuffer.wrap("1\tx\t3\t4\n".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testReadMatchesTextParsing() throws IOException {
+        File ibdFile = new File(Resources.getResource(RESOURCE_DIR + "pedigree.ibd").getFile());
+        new File("test_outputs").mkdirs();
+        File gzipFile = new File("test_outputs/pedigree.ibd.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+            Files.copy(ibdFile.toPath(), out);
+        }
+
+        List<String> lines = Files.readAllLines(ibdFile.toPath());
+        //tiny chunks, so the file is split into many chunks and waves
+        assertEdges(lines, readGraph(ibdFile, 1, 1000));
+        assertEdges(lines, readGraph(ibdFile, 4, 1000));
+        assertEdges(lines, readGraph(gzipFile, 3, 1000));
+    }
+
+    private static Graph readGraph(File file, int threads, long chunkSize) throws IOException {
+        List<VertexData> persons = Person.listFromDemographics(Resources.getResource(RESOURCE_DIR + "pedigree.demographics").getFile());
+        Graph graph = new Graph(persons);
+        IBDFeaturesReader reader = new IBDFeaturesReader(graph, new Population(persons), threads, chunkSize, chunkSize);
+        reader.read(file);
+        return graph;
+    }
+
+    private static void assertEdges(List<String> lines, Graph graph) {
+        int numOfEdges = 0;
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            Edge e = graph.getEdge(graph.getVertex(Integer.parseInt(fields[0])), graph.getVertex(Integer.parseInt(fields[1])));
+            assertNotNull(line, e);
+            IBDFeaturesWeight w = (IBDFeaturesWeight) e.getWeight();
+            assertEquals(line, Double.parseDouble(fields[2]), w.getSegmentNum(), 0);
+            assertEquals(line, Double.parseDouble(fields[3]), w.getMeanLength(), 0);
+            numOfEdges++;
+        }
+        int graphEdges = 0;
+        for (Integer id : graph.getVertexMap().keySet())
+            graphEdges += graph.getVertex(id).getEdgeMap().size();
+        assertEquals(numOfEdges, graphEdges);
+    }
+}
@@ -0,0 +1,75 @@
+package prepare.pedreconstruction;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+import prepare.common.Population;
+import prepare.graph.Edge;
+import prepare.graph.Graph;
+import prepare.graph.VertexData;
+import prepare.pedigree.Person;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IBDGraphFileTest {
+    private static final String RESOURCE_DIR = "pedigree_start100_end100_gen3/";
+
+    @Test
+    public void testBuilderSortsAndKeepsLastDuplicate() throws IOException {
+        new File("test_outputs").mkdirs();
+        File file = new File("test_outputs/builder.ibdg");
+        IBDGraphFile.Builder builder = new IBDGraphFile.Builder();
+        builder.add(5, 3, 1, 10);
+        builder.add(2, 9, 2, 20);
+        builder.add(5, 1, 3, 30);
+        builder.add(4, 4, 4, 40);
+        builder.add(5, 3, 5, 50);
+        builder.add(-1, 7, 6, 60);
+        builder.write(file);
+
+        IBDGraphFile graphFile = IBDGraphFile.open(file);
+        assertEquals(4, graphFile.getNumOfEdges());
+        List<String> edges = new ArrayList<>();
+        graphFile.forEachEdge((id1, id2, segmentNum, meanLength) -> edges.add(id1 + "," + id2 + "," + segmentNum));
+        assertEquals("[-1,7,6.0, 2,9,2.0, 5,1,3.0, 5,3,5.0]", edges.toString());
+        assertEquals(50, graphFile.getWeight(5, 3).getMeanLength(), 0);
+        assertNull(graphFile.getWeight(3, 5));
+        assertEquals(50, graphFile.getUndirectedWeight(3, 5).getMeanLength(), 0);
+        assertNull(graphFile.getUndirectedWeight(4, 4));
+        assertNull(graphFile.getWeight(6, 1));
+    }
+
+    @Test
+    public void testConvertedGraphMatchesText() throws IOException {
+        File ibdFile = new File(Resources.getResource(RESOURCE_DIR + "pedigree.ibd").getFile());
+        new File("test_outputs").mkdirs();
+        File binaryFile = new File("test_outputs/pedigree.ibdg");
+        IBDGraphFile.convert(ibdFile, binaryFile, 2);
+        assertTrue(IBDGraphFile.isIBDGraphFile(binaryFile));
+        assertFalse(IBDGraphFile.isIBDGraphFile(ibdFile));
+
+        List<String> lines = Files.readAllLines(ibdFile.toPath());
+        for (int threads : new int[]{1, 3}) {
+            List<VertexData> persons = Person.listFromDemographics(Resources.getResource(RESOURCE_DIR + "pedigree.demographics").getFile());
+            Graph graph = new Graph(persons);
+            IBDFeaturesWeight.readEdgesWeights(graph, binaryFile.getPath(), new Population(persons), threads);
+            int graphEdges = 0;
+            for (Integer id : graph.getVertexMap().keySet())
+                graphEdges += graph.getVertex(id).getEdgeMap().size();
+            assertEquals(lines.size(), graphEdges);
+            for (String line : lines) {
+                String[] fields = line.split("\t");
+                Edge e = graph.getEdge(graph.getVertex(Integer.parseInt(fields[0])), graph.getVertex(Integer.parseInt(fields[1])));
+                assertNotNull(line, e);
+                IBDFeaturesWeight w = (IBDFeaturesWeight) e.getWeight();
+                assertEquals(line, (float) Double.parseDouble(fields[2]), w.getSegmentNum(), 0);
+                assertEquals(line, (float) Double.parseDouble(fields[3]), w.getMeanLength(), 0);
+            }
+        }
+    }
+}
@@ -2,7 +2,13 @@ package prepare.pedreconstruction;
 
 import com.google.common.io.Resources;
 import org.junit.Test;
+import prepare.misc.RandomStreams;
 import prepare.pedigree.Pedigree;
+import prepare.pedigree.Pedigree.PedVertex;
+import prepare.relationship.KdeCache;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -13,6 +19,8 @@ public class PedigreeReconstructorTest{
         String demographicsFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.demographics").getFile();
         String ibdFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.ibd").getFile();
         String outPref = "test_outputs/pedigree_start100_end100_gen3/reconstructed.";
+        RandomStreams.setSeed(5);
+        KdeCache.setShared(new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
 
         PedigreeReconstructor pedigreeReconstructor = new PedigreeReconstructor(ibdFile, demographicsFile, outPref,
                 false, false, 3);
@@ -21,4 +29,47 @@ public class PedigreeReconstructorTest{
         assertEquals(100, pedigree.getLiving().size());
         assertEquals(88, pedigree.getFounders().size(), 10);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void reconstructionIsReproducibleWithSeed() {
+        assertEquals(reconstructWithSeed(7, 1), reconstructWithSeed(7, 1));
+    }
+
+    @Test
+    public void parallelReconstructionIsReproducibleWithSeed() {
+        assertEquals(reconstructWithSeed(7, 4), reconstructWithSeed(7, 4));
+    }
+
+    @Test
+    public void reconstructionDoesNotDependOnThreads() {
+        assertEquals(reconstructWithSeed(7, 1), reconstructWithSeed(7, 4));
+    }
+
+    @Test
+    public void pruningDoesNotChangeReconstruction() {
+        assertEquals(reconstructWithSeed(7, 4, -1), reconstructWithSeed(7, 4, 0));
+    }
+
+    private static List<String> reconstructWithSeed(long seed, int threads) {
+        return reconstructWithSeed(seed, threads, 0);
+    }
+
+    private static List<String> reconstructWithSeed(long seed, int threads, double minSharedCM) {
+        String demographicsFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.demographics").getFile();
+        String ibdFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.ibd").getFile();
+        String outPref = "test_outputs/pedigree_start100_end100_gen3/reproducible.";
+        RandomStreams.setSeed(seed);
+        KdeCache.setShared(new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
+
+        PedigreeReconstructor pedigreeReconstructor = new PedigreeReconstructor(ibdFile, demographicsFile, outPref,
+                false, false, 3);
+        pedigreeReconstructor.setThreads(threads);
+        pedigreeReconstructor.setMinSharedCM(minSharedCM);
+        Pedigree pedigree = pedigreeReconstructor.reconstruct();
+        List<String> parents = new ArrayList<>();
+        for (PedVertex v : pedigree.getVertices())
+            parents.add(v.getId() + ":" + v.getFatherId() + "," + v.getMotherId());
+        parents.sort(null);
+        return parents;
+    }
+}
@@ -0,0 +1,99 @@
+package prepare.pedreconstruction;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+import prepare.common.Population;
+import prepare.graph.VertexData;
+import prepare.misc.RandomStreams;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Pedigree.PedVertex;
+import prepare.pedigree.Person;
+import prepare.relationship.KdeCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReconstructionCheckpointTest {
+    private static final String RESOURCE_DIR = "pedigree_start100_end100_gen3/";
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        List<VertexData> persons = new ArrayList<>();
+        persons.add(new Person(1, 20, true, 0));
+        persons.add(new Person(2, 22, false, 0));
+        Population population = new Population(persons);
+        Pedigree ped = new Pedigree(population);
+        ped.addVertex(10001);
+        ped.addVertex(10002);
+        ped.getVertex(2).setFather(10001);
+        ped.getVertex(2).setMother(10002);
+        ped.getVertex(1).setFather(10001);
+        ped.getVertex(1).setMother(10002);
+        ped.calcExpectedFounderAges(1);
+        File file = File.createTempFile("reconstruction", ".checkpoint");
+        file.deleteOnExit();
+        ReconstructionCheckpoint.write(file, 1, ped);
+
+        Population livingPopulation = new Population(persons.subList(0, 2));
+        ReconstructionCheckpoint checkpoint = ReconstructionCheckpoint.read(file, livingPopulation);
+        Pedigree restored = checkpoint.getPedigree();
+        assertEquals(1, checkpoint.getGeneration());
+        assertEquals(RandomStreams.getSeed(), checkpoint.getSeed());
+        assertEquals(ped, restored);
+        assertTrue(restored.isAlive(1));
+        assertFalse(restored.isAlive(10001));
+        //children keep their order, new ids follow the largest id
+        assertEquals(2, restored.getVertex(10001).getChildren().get(0).getId());
+        assertEquals(ped.getNewID(), restored.getNewID());
+        //inferred ancestors were added to the living population
+        assertSame(livingPopulation, restored.getPopulation());
+        for (int id : new int[]{10001, 10002}) {
+            assertEquals(population.getAge(id), livingPopulation.getAge(id));
+            assertEquals(population.getPerson(id).getGender(), livingPopulation.getPerson(id).getGender());
+        }
+        assertEquals(1, (int) livingPopulation.getPerson(10001).getDiscoveryGeneration());
+    }
+
+    @Test
+    public void testResumeLikeUninterruptedRun() {
+        String outPref = "test_outputs/pedigree_start100_end100_gen3/checkpointed.";
+        List<String> uninterrupted = parents(reconstruct(outPref, 3, null));
+        File checkpoint = new PedigreeReconstructor(ibdFile(), demographicsFile(), outPref, false, false, 3)
+                .getCheckpointFile(2);
+        assertTrue(checkpoint.exists());
+
+        List<String> resumed = parents(reconstruct("test_outputs/pedigree_start100_end100_gen3/resumed.", 3, checkpoint));
+        assertEquals(uninterrupted, resumed);
+    }
+
+    private static Pedigree reconstruct(String outPref, int generations, File resumeFrom) {
+        RandomStreams.setSeed(11);
+        KdeCache.setShared(new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
+        PedigreeReconstructor reconstructor = new PedigreeReconstructor(ibdFile(), demographicsFile(), outPref,
+                false, false, generations);
+        reconstructor.setResumeFrom(resumeFrom);
+        //densities simulated together depend on each other, so the cache is needed for an identical run
+        reconstructor.setCheckpointKdeCache(true);
+        return reconstructor.reconstruct();
+    }
+
+    private static String ibdFile() {
+        return Resources.getResource(RESOURCE_DIR + "pedigree.ibd").getFile();
+    }
+
+    private static String demographicsFile() {
+        return Resources.getResource(RESOURCE_DIR + "pedigree.demographics").getFile();
+    }
+
+    private static List<String> parents(Pedigree pedigree) {
+        List<String> parents = new ArrayList<>();
+        for (PedVertex v : pedigree.getVertices())
+            parents.add(v.getId() + ":" + v.getFatherId() + "," + v.getMotherId());
+        parents.sort(null);
+        return parents;
+    }
+}
@@ -0,0 +1,65 @@
+package prepare.relationship;
+
+import jsat.classifiers.DataPoint;
+import org.junit.Test;
+import prepare.misc.VecImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnalyticFeatureDensityTest {
+
+    @Test
+    public void testSupportedSignatures() {
+        assertNotNull(AnalyticFeatureDensity.forSignature(signature(false)));
+        assertNotNull(AnalyticFeatureDensity.forSignature(signature(false, 0, 3)));
+        assertNotNull(AnalyticFeatureDensity.forSignature(signature(false, 2, 3)));
+        assertNotNull(AnalyticFeatureDensity.forSignature(signature(false, 1, 2, 1, 2)));
+        assertNotNull(AnalyticFeatureDensity.forSignature(signature(true, 1, 1, 1, 1)));
+        // unphased full sibs may be IBD on both haplotypes
+        assertNull(AnalyticFeatureDensity.forSignature(signature(false, 1, 1, 1, 1)));
+        assertNull(AnalyticFeatureDensity.forSignature(signature(false, 1, 1, 2, 2)));
+    }
+
+    @Test
+    public void testDensityIntegratesToOne() {
+        AnalyticFeatureDensity density = AnalyticFeatureDensity.forSignature(signature(true, 1, 1, 1, 1));
+        double integral = 0;
+        for (double x = -100; x < 400; x += 0.1)
+            integral += density.pdf(new VecImpl(x)) * 0.1;
+        assertEquals(1, integral, 1e-3);
+    }
+
+    @Test
+    public void testMeanMatchesSimulation() {
+        PedLikelihoodCalcInheritancePaths calc = new PedLikelihoodCalcInheritancePaths(200, true);
+        assertSimulatedMean(calc);
+        assertSimulatedMean(calc, 0, 1);
+        assertSimulatedMean(calc, 1, 1);
+        assertSimulatedMean(calc, 1, 1, 1, 1);
+        assertSimulatedMean(calc, 2, 2, 2, 2);
+    }
+
+    private static void assertSimulatedMean(PedLikelihoodCalcInheritancePaths calc, int... depths) {
+        DepthSignature signature = signature(calc.getNumOfSimIter(), calc.isPhased(), depths);
+        List<DataPoint> dataSet = calc.sampleSignatureFeatures(signature, true);
+        double mean = 0;
+        for (DataPoint point : dataSet)
+            mean += point.getNumericalValues().get(0) / dataSet.size();
+        assertEquals(signature.toString(), mean, AnalyticFeatureDensity.forSignature(signature).mean(), 3);
+    }
+
+    private static DepthSignature signature(boolean phased, int... depths) {
+        return signature(50, phased, depths);
+    }
+
+    private static DepthSignature signature(int numOfSimIter, boolean phased, int... depths) {
+        List<int[]> list = new ArrayList<>();
+        for (int i = 0; i < depths.length; i += 2)
+            list.add(Arrays.copyOfRange(depths, i, i + 2));
+        return DepthSignature.of(list, numOfSimIter, phased);
+    }
+}
@@ -0,0 +1,60 @@
+package prepare.relationship;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+import prepare.common.Population;
+import prepare.graph.Edge;
+import prepare.graph.Graph;
+import prepare.graph.SuperVertex;
+import prepare.graph.Vertex;
+import prepare.graph.VertexData;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Person;
+import prepare.pedreconstruction.Contraction;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CandidatePairIndexTest {
+    private static final String RESOURCE_DIR = "pedigree_start100_end100_gen3/";
+
+    @Test
+    public void testSharedCMLikePairwiseEdges() throws IOException {
+        List<VertexData> persons = Person.listFromDemographics(Resources.getResource(RESOURCE_DIR + "pedigree.demographics").getFile());
+        Graph ibdGraph = IBDFeaturesWeight.readCsrGraph(persons, Resources.getResource(RESOURCE_DIR + "pedigree.ibd").getFile(), 1);
+        Pedigree ped = new Pedigree(new Population(persons));
+        List<Vertex> candidates = new Contraction(ped).createEdgelessContractedGraph().getVertices();
+
+        CandidatePairIndex pairIndex = new CandidatePairIndex(ped, ibdGraph, candidates);
+
+        //all pairs, as SibHypothesisTester tests them without pruning
+        List<int[]> expectedPairs = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            int id1 = ((SuperVertex) candidates.get(i).getData()).getRepresentativeID();
+            for (int j = 0; j < candidates.size(); j++) {
+                int id2 = ((SuperVertex) candidates.get(j).getData()).getRepresentativeID();
+                if (id1 >= id2)
+                    continue;
+                double expectedCM = 0;
+                Edge e = ibdGraph.getUndirectedEdge(id1, id2);
+                if (e != null) {
+                    IBDFeaturesWeight w = (IBDFeaturesWeight) e.getWeight();
+                    expectedCM = w.getSegmentNum() * w.getMeanLength();
+                }
+                assertEquals(expectedCM, pairIndex.getSharedCM(i, j), 1e-6);
+                if (expectedCM > 10)
+                    expectedPairs.add(new int[]{id1, id2});
+            }
+        }
+
+        List<int[]> pairs = pairIndex.getPairs(10);
+        assertEquals(expectedPairs.size(), pairs.size());
+        for (int i = 0; i < pairs.size(); i++)
+            assertArrayEquals(expectedPairs.get(i), pairs.get(i));
+        assertTrue(pairIndex.getNumOfSharingPairs() < pairIndex.getNumOfPairs());
+    }
+}
@@ -0,0 +1,55 @@
+package prepare.relationship;
+
+import jsat.classifiers.DataPoint;
+import jsat.distributions.empirical.kernelfunc.GaussKF;
+import jsat.distributions.multivariate.MetricKDE;
+import jsat.linear.distancemetrics.EuclideanDistance;
+import org.junit.Test;
+import prepare.misc.VecImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GaussianKdeTest {
+
+    @Test
+    public void testSameAsMetricKde() {
+        //unrelated pairs at 0, and related pairs spread around 25, with a far outlier
+        Random random = new Random(5);
+        List<DataPoint> data = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            double x = random.nextInt(3) == 0 ? 0 : 25 + 15 * random.nextGaussian();
+            data.add(new DataPoint(new VecImpl(x), null, null));
+        }
+        data.add(new DataPoint(new VecImpl(400), null, null));
+
+        MetricKDE metricKde = new MetricKDE(GaussKF.getInstance(), new EuclideanDistance());
+        metricKde.setUsingDataList(data);
+        metricKde.setBandwith(PedLikelihoodCalcAbs.KDE_BANDWIDTH);
+        GaussianKde kde = GaussianKde.of(data, PedLikelihoodCalcAbs.KDE_BANDWIDTH);
+
+        for (double x = -200; x <= 600; x += 0.37) {
+            double expected = metricKde.pdf(new VecImpl(x));
+            double actual = kde.pdf(x);
+            if (expected == 0)
+                assertEquals("x=" + x, 0, actual, 0);
+            else
+                assertEquals("x=" + x, 1, actual / expected, 0.005);
+        }
+    }
+
+    @Test
+    public void testBatchPdf() {
+        GaussianKde kde = new GaussianKde(new double[]{3, 0, 0, 10}, 8);
+        double[] features = {0, 1.5, 20, -200};
+        double[] out = new double[features.length];
+        kde.pdf(features, out);
+        for (int i = 0; i < features.length; i++)
+            assertEquals(kde.pdf(new VecImpl(features[i])), out[i], 0);
+        assertEquals(0, out[3], 0);
+        assertTrue(out[0] > out[2]);
+    }
+}
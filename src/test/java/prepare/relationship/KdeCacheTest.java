@@ -0,0 +1,56 @@
+package prepare.relationship;
+
+import jsat.classifiers.DataPoint;
+import org.junit.Test;
+import prepare.misc.VecImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KdeCacheTest {
+
+    @Test
+    public void testSignatureCanonicalOrder() {
+        DepthSignature s1 = DepthSignature.of(Arrays.asList(new int[]{2, 1}, new int[]{1, 1}), 50, false);
+        DepthSignature s2 = DepthSignature.of(Arrays.asList(new int[]{1, 1}, new int[]{1, 2}), 50, false);
+        assertEquals(s1, s2);
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals("[1,1][1,2]", s1.toString());
+        assertEquals(2, s1.getNumOfCommonAncestors());
+    }
+
+    @Test
+    public void testSignatureSettings() {
+        List<int[]> sibs = Arrays.asList(new int[]{1, 1}, new int[]{1, 1});
+        assertNotEquals(DepthSignature.of(sibs, 50, false), DepthSignature.of(sibs, 50, true));
+        assertNotEquals(DepthSignature.of(sibs, 50, false), DepthSignature.of(sibs, 20, false));
+        assertNotEquals(DepthSignature.of(sibs, 50, false),
+                DepthSignature.of(new ArrayList<int[]>(), 50, false));
+    }
+
+    @Test
+    public void testCacheCounters() {
+        KdeCache cache = new KdeCache(1);
+        PedLikelihoodCalcInheritancePaths calc = new PedLikelihoodCalcInheritancePaths(1, false, cache);
+        List<DataPoint> data = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            data.add(new DataPoint(new VecImpl(i), null, null));
+
+        DepthSignature sibs = DepthSignature.of(Arrays.asList(new int[]{1, 1}, new int[]{1, 1}), 1, false);
+        DepthSignature cousins = DepthSignature.of(Arrays.asList(new int[]{2, 2}, new int[]{2, 2}), 1, false);
+
+        assertNull(cache.get(sibs));
+        cache.putIfAbsent(sibs, calc.estimateDensity(data));
+        assertNotNull(cache.get(sibs));
+        cache.putIfAbsent(cousins, calc.estimateDensity(data));
+        cache.get(cousins);
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+        assertEquals(1, cache.stats().evictionCount());
+    }
+}
@@ -0,0 +1,99 @@
+package prepare.relationship;
+
+import jsat.classifiers.DataPoint;
+import org.junit.Test;
+import prepare.common.GeneticMap;
+import prepare.misc.RandomStreams;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.Pedigree.PedVertex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class KdeStoreTest {
+
+    @Test
+    public void testSignaturePedigreeSignatures() {
+        assertSignaturePedigree();
+        assertSignaturePedigree(0, 3);
+        assertSignaturePedigree(2, 3);
+        assertSignaturePedigree(1, 1, 1, 1);
+        assertSignaturePedigree(1, 2, 1, 2);
+        //double first cousins, and a pair related through several lineages
+        assertSignaturePedigree(2, 2, 2, 2, 2, 2, 2, 2);
+        assertSignaturePedigree(1, 3, 3, 3, 3, 3, 3, 4, 4, 4);
+        //at most 2 lineages fit in the parents of an individual
+        DepthSignature overfull = DepthSignature.of(depths(1, 2, 1, 2, 1, 2), 50, false);
+        assertNull(KdeStorePrecomputer.createSignaturePedigree(overfull));
+        assertNull(new PedLikelihoodCalcInheritancePaths(50, false).sampleSignatureFeatures(overfull, true));
+    }
+
+    private static void assertSignaturePedigree(int... depths) {
+        DepthSignature signature = DepthSignature.of(depths(depths), 50, false);
+        assertEquals(signature.toString(), signature(KdeStorePrecomputer.createSignaturePedigree(signature)));
+    }
+
+    private static List<int[]> depths(int... depths) {
+        List<int[]> list = new ArrayList<>();
+        for (int i = 0; i < depths.length; i += 2)
+            list.add(new int[]{depths[i], depths[i + 1]});
+        return list;
+    }
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        Map<DepthSignature, List<DataPoint>> samples = new KdeStorePrecomputer(2, 5).precompute();
+        // unrelated + [0,1],[0,2] + 2 half and 2 full of [1,1],[1,2],[2,2], for phased and unphased
+        assertEquals(2 * 9, samples.size());
+
+        new File("test_outputs").mkdirs();
+        File file = new File("test_outputs/kde_store_test.bin");
+        KdeStore.write(file, samples);
+        KdeStore store = KdeStore.open(file);
+        assertEquals(samples.size(), store.size());
+
+        for (DepthSignature signature : samples.keySet()) {
+            List<DataPoint> expected = samples.get(signature);
+            List<DataPoint> actual = store.getSamples(signature);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+                assertEquals(expected.get(i).getNumericalValues().get(0), actual.get(i).getNumericalValues().get(0), 0);
+        }
+        DepthSignature missing = DepthSignature.of(Arrays.asList(new int[]{3, 3}), 5, false);
+        assertFalse(store.contains(missing));
+        assertNull(store.getSamples(missing));
+
+        assertEquals(RandomStreams.getSeed(), store.getSeed());
+        assertEquals(5, store.getNumOfSimIter());
+        assertTrue(store.isCompatible(GeneticMap.getDefault(), 5, false));
+        assertTrue(store.isCompatible(GeneticMap.getDefault(), 5, true));
+        assertFalse(store.isCompatible(GeneticMap.getDefault(), 50, false));
+
+        //samples of another map
+        GeneticMap defaultMap = GeneticMap.getDefault();
+        File mapFile = new File("test_outputs/kde_store_test_map.txt");
+        try (PrintWriter writer = new PrintWriter(mapFile)) {
+            writer.println("chr1\t1000\t0.0");
+            writer.println("chr1\t5000\t2.0");
+        }
+        try {
+            GeneticMap.setDefault(GeneticMap.load(mapFile));
+            assertFalse(store.isCompatible(GeneticMap.getDefault(), 5, false));
+        } finally {
+            GeneticMap.setDefault(defaultMap);
+        }
+    }
+
+    private static String signature(Pedigree p) {
+        List<PedVertex> living = new ArrayList<>(p.getLiving());
+        assertEquals(2, living.size());
+        return DepthSignature.of(p.getCommonAncestorDepths(living.get(0), living.get(1)), 50, false).toString();
+    }
+}
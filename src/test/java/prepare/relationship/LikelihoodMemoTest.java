@@ -0,0 +1,123 @@
+package prepare.relationship;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+import prepare.common.GeneticMap;
+import prepare.graph.BaseEdge;
+import prepare.graph.Graph;
+import prepare.graph.VertexData;
+import prepare.pedigree.Pedigree;
+import prepare.pedigree.PedigreeOverlay;
+import prepare.pedigree.Person;
+import prepare.pedreconstruction.IBDFeaturesWeight;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LikelihoodMemoTest {
+
+    private static Graph createIBDGraph() {
+        List<VertexData> persons = new ArrayList<>();
+        for (int id : new int[]{5, 7})
+            persons.add(new Person(id, 20, true, 0));
+        Graph graph = new Graph(persons);
+        graph.addEdge(new BaseEdge(graph.getVertex(5), graph.getVertex(7), new IBDFeaturesWeight(4, 20)));
+        return graph;
+    }
+
+    private static Map<Integer, Integer> identity(Pedigree ped) {
+        Map<Integer, Integer> idConversion = new HashMap<>();
+        for (Pedigree.PedVertex v : ped.getVertices())
+            idConversion.put(v.getId(), v.getId());
+        return idConversion;
+    }
+
+    private static PedigreeOverlay sibHypothesis(Pedigree ped, int f1, int f2) {
+        PedigreeOverlay p = new PedigreeOverlay(ped);
+        int father = p.getNewID();
+        int mother = p.getNewID();
+        p.addVertex(father);
+        p.addVertex(mother);
+        p.setFather(f1, father);
+        p.setMother(f1, mother);
+        p.setFather(f2, father);
+        p.setMother(f2, mother);
+        return p;
+    }
+
+    @Test
+    public void testSameSignaturesShareLikelihood() {
+        Graph ibdGraph = createIBDGraph();
+        LikelihoodMemo memo = new LikelihoodMemo(LikelihoodMemo.DEFAULT_MAXIMUM_SIZE);
+        PedLikelihoodCalcAbs lCalc = new PedLikelihoodCalcInheritancePaths(50, false, new KdeCache(100));
+        lCalc.setLikelihoodMemo(memo);
+
+        //first generation, living founders 5 and 7 are cousins
+        Pedigree ped = new Pedigree();
+        ped.addVertex(5, -1, -1, true);
+        ped.addVertex(7, -1, -1, true);
+        PedigreeOverlay cousins = new PedigreeOverlay(ped);
+        cousins.addVertex(10);
+        cousins.addVertex(11);
+        cousins.addVertex(12, 10, 11);
+        cousins.addVertex(13, 10, 11);
+        cousins.addVertex(14);
+        cousins.addVertex(15);
+        cousins.setFather(5, 12);
+        cousins.setMother(5, 14);
+        cousins.setFather(7, 13);
+        cousins.setMother(7, 15);
+        double cousinsLikelihood = lCalc.calcLikelihoods(Collections.singletonList(cousins), ibdGraph, identity(ped),
+                ped.getDescendants(5), ped.getDescendants(7))[0];
+
+        //second generation, fathers 1 and 3 of 5 and 7 are sibs
+        Pedigree nextPed = new Pedigree();
+        nextPed.addVertex(1);
+        nextPed.addVertex(2);
+        nextPed.addVertex(3);
+        nextPed.addVertex(4);
+        nextPed.addVertex(5, 1, 2, true);
+        nextPed.addVertex(7, 3, 4, true);
+        List<PedigreeOverlay> hypotheses = Arrays.asList(sibHypothesis(nextPed, 1, 3), new PedigreeOverlay(nextPed));
+        double[] likelihoods = lCalc.calcLikelihoods(hypotheses, ibdGraph, identity(nextPed),
+                nextPed.getDescendants(1), nextPed.getDescendants(3));
+
+        assertEquals(cousinsLikelihood, likelihoods[0], 0);
+        assertEquals(1, memo.stats().hitCount());
+        assertEquals(2, memo.size());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        HashCode key1 = Hashing.murmur3_128().hashInt(1);
+        HashCode key2 = Hashing.murmur3_128().hashInt(2);
+        long densitySource = LikelihoodMemo.densitySource(GeneticMap.getDefault(), 7, null, false);
+        LikelihoodMemo memo = new LikelihoodMemo(LikelihoodMemo.DEFAULT_MAXIMUM_SIZE, densitySource);
+        memo.put(key1, -12.5);
+        memo.put(key2, -20);
+        File file = File.createTempFile("likelihood_memo", ".bin");
+        file.deleteOnExit();
+        memo.save(file);
+
+        LikelihoodMemo loaded = LikelihoodMemo.load(file, LikelihoodMemo.DEFAULT_MAXIMUM_SIZE, densitySource);
+        assertEquals(2, loaded.size());
+        assertEquals(-12.5, loaded.get(key1), 0);
+        assertEquals(-20, loaded.get(key2), 0);
+        assertNull(loaded.get(Hashing.murmur3_128().hashInt(3)));
+
+        //likelihoods of densities of another seed or of analytic densities are not loaded
+        for (long otherSource : new long[]{LikelihoodMemo.densitySource(GeneticMap.getDefault(), 8, null, false),
+                LikelihoodMemo.densitySource(GeneticMap.getDefault(), 7, null, true)}) {
+            assertNotEquals(densitySource, otherSource);
+            try {
+                LikelihoodMemo.load(file, LikelihoodMemo.DEFAULT_MAXIMUM_SIZE, otherSource);
+                fail("loaded likelihoods of other densities");
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package prepare.relationship;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static prepare.relationship.Relationship.*;
+
+public class RelationshipProbWeightTest {
+
+    @Test
+    public void testMaxProbCategory() {
+        RelationshipProbWeight w = new RelationshipProbWeight();
+        //ties are resolved by category order
+        assertEquals(FULL_SIB, w.getMaxProbCategory());
+        w.setProb(NOT_RELATED, 0.4);
+        w.setProb(HALF_SIB, 0.6);
+        assertTrue(w.isMaxProbCategory(HALF_SIB));
+        w.setProb(NOT_RELATED, 0.7);
+        assertTrue(w.isMaxProbCategory(NOT_RELATED));
+        w.makeDeterministicChoice(PARENT);
+        assertTrue(w.isMaxProbCategory(PARENT));
+        assertEquals(0, w.getProb(NOT_RELATED), 0);
+        assertEquals(1, w.getProb(PARENT), 0);
+    }
+
+    @Test
+    public void testSwitchDirection() {
+        RelationshipProbWeight w = new RelationshipProbWeight();
+        w.setProb(PARENT, 0.5);
+        w.setProb(FULL_UNCLE, 0.2);
+        w.setProb(HALF_2_NEPHEW, 0.1);
+        w.setProb(FULL_SIB, 0.15);
+        RelationshipProbWeight switched = RelationshipProbWeight.switchWeightsDirection(w);
+        RelationshipProbWeight reversed = w.reversed();
+        for (RelationshipProbWeight r : new RelationshipProbWeight[]{switched, reversed}) {
+            assertEquals(0.5, r.getProb(CHILD), 0);
+            assertEquals(0, r.getProb(PARENT), 0);
+            assertEquals(0.2, r.getProb(FULL_NEPHEW), 0);
+            assertEquals(0.1, r.getProb(HALF_2_UNCLE), 0);
+            assertEquals(0.15, r.getProb(FULL_SIB), 0);
+            assertTrue(r.isMaxProbCategory(CHILD));
+        }
+        assertSame(w, reversed.reversed());
+
+        //the reversed view shares the probabilities, the switched copy does not
+        reversed.setProb(PARENT, 0.9);
+        assertEquals(0.9, w.getProb(CHILD), 0);
+        assertTrue(w.isMaxProbCategory(CHILD));
+        assertTrue(reversed.isMaxProbCategory(PARENT));
+        assertTrue(switched.isMaxProbCategory(CHILD));
+    }
+}
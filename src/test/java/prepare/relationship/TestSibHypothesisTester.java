@@ -2,8 +2,10 @@ package prepare.relationship;
 
 import com.google.common.io.Resources;
 import prepare.common.Population;
+import prepare.graph.Edge;
 import prepare.graph.Graph;
 import prepare.misc.MyLogger;
+import prepare.misc.RandomStreams;
 import prepare.graph.Vertex;
 import prepare.graph.VertexData;
 import org.junit.Test;
@@ -15,21 +17,20 @@ import prepare.pedigree.Pedigree;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static prepare.relationship.Relationship.FULL_SIB;
 
 public class TestSibHypothesisTester {
 
-    @Test
-    public void testSibHypothesis() {
+    private Pedigree ped;
+    private Graph ibdGraph;
 
+    private void readInput() {
         String demographicsFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.demographics").getFile();
         String ibdFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.ibd").getFile();
-        String pedigreeFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.structure").getFile();
-
-        Pedigree ped;
-        Graph ibdGraph;
         try {
             List<VertexData> persons = Person.listFromDemographics(demographicsFile);
             Population population = new Population(persons);
@@ -42,6 +43,12 @@ public class TestSibHypothesisTester {
         } catch (IOException e) {
             throw new RuntimeException("Error...", e);
         }
+    }
+
+    @Test
+    public void testSibHypothesis() {
+        String pedigreeFile = Resources.getResource("pedigree_start100_end100_gen3/pedigree.structure").getFile();
+        readInput();
 
         Pedigree fullPed = new Pedigree();
         fullPed.readFromFile(pedigreeFile);
@@ -60,6 +67,46 @@ public class TestSibHypothesisTester {
         testSib(ped, tester, contractedRelationGraph, 414, 415, 0);
     }
 
+    @Test
+    public void parallelTestingMatchesSerial() {
+        assertEquals(testAllPairs(1, 0), testAllPairs(4, 0));
+    }
+
+    @Test
+    public void pruningDoesNotChangeRelationships() {
+        assertEquals(testAllPairs(4, -1), testAllPairs(4, 0));
+    }
+
+    /**
+     * Test all pairs of the living individuals with a fresh density cache and seed
+     *
+     * @return the relationship probabilities of every edge of the contracted graph
+     */
+    private List<String> testAllPairs(int threads, double minSharedCM) {
+        readInput();
+        RandomStreams.setSeed(3);
+        KdeCache.setShared(new KdeCache(KdeCache.DEFAULT_MAXIMUM_SIZE));
+        SibHypothesisTester tester = new SibHypothesisTester(ibdGraph, false, false);
+        tester.setThreads(threads);
+        tester.setMinSharedCM(minSharedCM);
+        Graph contractedRelationGraph = new Contraction(ped).createEdgelessContractedGraph();
+        tester.run(ped, contractedRelationGraph, contractedRelationGraph.getVertices(), 1);
+
+        List<String> edges = new ArrayList<>();
+        for (Vertex v : contractedRelationGraph.getVertices()) {
+            for (Map.Entry<Integer, Edge> entry : v.getEdgeMap().entrySet()) {
+                StringBuilder edge = new StringBuilder(v.getVertexId() + "->" + entry.getKey() + ":");
+                RelationshipProbWeight weight = (RelationshipProbWeight) entry.getValue().getWeight();
+                for (Relationship relationship : Relationship.values())
+                    edge.append(" ").append(weight.getProb(relationship));
+                edges.add(edge.toString());
+            }
+        }
+        edges.sort(null);
+        assertFalse(edges.isEmpty());
+        return edges;
+    }
+
     private void testSib(Pedigree ped, SibHypothesisTester tester,
                          Graph contractedRelationGraph, int s1, int s2, double expectedProbability) {
 
@@ -0,0 +1,63 @@
+package prepare.simulator;
+
+import org.junit.Test;
+import prepare.common.GeneticMap;
+import prepare.common.Genotype;
+import prepare.common.Recombinator;
+import prepare.pedreconstruction.IBDGraphFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class PairwiseIBDWriterTest {
+
+    /**
+     * Two generations of 30 children of 10 founder couples, so most pairs are sibs or cousins
+     */
+    private static Genotype[] simulateGeneration() {
+        Recombinator recombinator = new Recombinator(GeneticMap.getDefault(), new SplittableRandom(3));
+        Genotype[] parents = new Genotype[20];
+        for (int i = 0; i < parents.length; i++)
+            parents[i] = new Genotype(i);
+        for (int gen = 0; gen < 2; gen++) {
+            Genotype[] children = new Genotype[30];
+            for (int i = 0; i < children.length; i++) {
+                int couple = (i * 7) % (parents.length / 2);
+                children[i] = new Genotype(recombinator.recombine(parents[2 * couple], GeneticMap.Sex.MALE),
+                        recombinator.recombine(parents[2 * couple + 1], GeneticMap.Sex.FEMALE));
+            }
+            parents = children;
+        }
+        return parents;
+    }
+
+    @Test
+    public void testOutputDoesNotDependOnThreads() throws IOException {
+        Genotype[] genotypes = simulateGeneration();
+        StringWriter serial = new StringWriter();
+        long related = new PairwiseIBDWriter(genotypes, 100, 1).write(serial, null);
+        assertTrue(related > 0);
+        assertEquals(related, serial.toString().split(System.lineSeparator()).length);
+        assertTrue(serial.toString().startsWith("100\t"));
+
+        //blocks of a few rows, computed by more threads than blocks in flight
+        StringWriter parallel = new StringWriter();
+        assertEquals(related, new PairwiseIBDWriter(genotypes, 100, 3, 50).write(parallel, null));
+        assertEquals(serial.toString(), parallel.toString());
+    }
+
+    @Test
+    public void testBinaryOutput() throws IOException {
+        Genotype[] genotypes = simulateGeneration();
+        IBDGraphFile.Builder builder = new IBDGraphFile.Builder();
+        long related = new PairwiseIBDWriter(genotypes, 100, 2, 10).write(null, builder);
+        File file = File.createTempFile("pairs", ".ibdg");
+        file.deleteOnExit();
+        builder.write(file);
+        assertEquals(related, IBDGraphFile.open(file).getNumOfEdges());
+    }
+}
@@ -1,7 +1,14 @@
 package prepare.simulator;
 
+import com.google.common.io.Files;
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.junit.Test;
+import prepare.misc.RandomStreams;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
 
 public class WrightFisherSimulatorTest {
 
@@ -12,4 +19,21 @@ public class WrightFisherSimulatorTest {
         WrightFisherSimulator simulator = new WrightFisherSimulator(args);
         simulator.run();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void simulationDoesNotDependOnThreads() throws IOException {
+        File serial = simulateWithThreads(1);
+        File parallel = simulateWithThreads(3);
+        for (String output : new String[]{"pedigree.ibd", "pedigree.structure", "pedigree.demographics"})
+            assertArrayEquals(output, Files.toByteArray(new File(serial, output)), Files.toByteArray(new File(parallel, output)));
+    }
+
+    private static File simulateWithThreads(int threads) {
+        String outDir = "test_outputs/simulation_threads" + threads;
+        RandomStreams.setSeed(5);
+        Namespace args = WrightFisherSimulator.parseArgs(new String[]{outDir, "-numOfGenerations", "4",
+                "-threads", String.valueOf(threads)});
+        new WrightFisherSimulator(args).run();
+        return new File(outDir);
+    }
+}